@@ -0,0 +1,224 @@
+package com.takipi.integrations.grafana.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Extracts the queries of the provisioned OverOps dashboards, resolving their Grafana
+ * template variables the way Grafana would for a default dashboard load: the dashboard's
+ * current variable values are used where set, a fixed set of benchmark values (service id,
+ * time filter) overrides them, and any variable left unresolved is replaced by an empty string.
+ */
+public class DashboardQueries {
+
+	public static final String DASHBOARDS_PROPERTY = "benchmark.dashboards";
+	public static final String DEFAULT_DASHBOARDS = "grafana/conf/provisioning/dashboards/overops";
+
+	private static final String GRAFANA_ALL = "$__all";
+
+	private static final Pattern FUNCTION_PATTERN = Pattern.compile("^\\s*([a-zA-Z]+)\\s*\\(");
+	private static final Pattern VARIABLE_PATTERN = Pattern.compile("\\$\\{?(\\w+)\\}?");
+
+	//queries relying on per-cell table values can only be resolved by Grafana
+	private static final String CELL_VARIABLE = "$__cell";
+
+	private final Map<String, List<String>> functionQueries;
+
+	private DashboardQueries(Map<String, List<String>> functionQueries) {
+		this.functionQueries = functionQueries;
+	}
+
+	public Set<String> getFunctions() {
+		return Collections.unmodifiableSet(functionQueries.keySet());
+	}
+
+	public List<String> getQueries(String function) {
+
+		List<String> result = functionQueries.get(function);
+
+		if (result == null) {
+			return Collections.emptyList();
+		}
+
+		return Collections.unmodifiableList(result);
+	}
+
+	public static Map<String, String> getBenchmarkVariables(String serviceId) {
+
+		Map<String, String> result = new HashMap<String, String>();
+
+		result.put("environments", serviceId);
+		result.put("timeFilter", "time >= now() - 24h");
+		result.put("timeFilterVar", "time >= now() - 24h");
+		result.put("timeFilterAlert", "time >= now() - 24h");
+		result.put("timeRange", "24h");
+		result.put("__interval", "5m");
+		result.put("view", "All Events");
+		result.put("pointsWanted", "24");
+		result.put("transactionPointsWanted", "100");
+		result.put("search", "");
+		result.put("searchText", "");
+		result.put("__all", "All");
+
+		return result;
+	}
+
+	public static File getDashboardsFolder() {
+
+		String folder = System.getProperty(DASHBOARDS_PROPERTY);
+
+		if ((folder == null) || (folder.isEmpty())) {
+			return new File(DEFAULT_DASHBOARDS);
+		}
+
+		return new File(folder);
+	}
+
+	public static DashboardQueries load(File folder, Map<String, String> variables) throws IOException {
+
+		File[] files = folder.listFiles((dir, name) -> name.endsWith(".json"));
+
+		if (files == null) {
+			throw new IOException("Dashboards folder not found: " + folder.getAbsolutePath());
+		}
+
+		Arrays.sort(files);
+
+		Map<String, Set<String>> queries = new HashMap<String, Set<String>>();
+
+		for (File file : files) {
+
+			String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+			JsonObject dashboard = new JsonParser().parse(content).getAsJsonObject();
+
+			Map<String, String> dashboardVariables = getCurrentValues(dashboard);
+			dashboardVariables.putAll(variables);
+
+			List<String> rawQueries = new ArrayList<String>();
+			collectQueries(dashboard, rawQueries);
+
+			for (String rawQuery : rawQueries) {
+
+				Matcher matcher = FUNCTION_PATTERN.matcher(rawQuery);
+
+				if ((!matcher.find()) || (rawQuery.contains(CELL_VARIABLE))) {
+					continue;
+				}
+
+				String query = resolve(rawQuery.trim(), dashboardVariables);
+				queries.computeIfAbsent(matcher.group(1), k -> new LinkedHashSet<String>()).add(query);
+			}
+		}
+
+		Map<String, List<String>> result = new HashMap<String, List<String>>();
+
+		for (Map.Entry<String, Set<String>> entry : queries.entrySet()) {
+			result.put(entry.getKey(), new ArrayList<String>(entry.getValue()));
+		}
+
+		return new DashboardQueries(result);
+	}
+
+	private static Map<String, String> getCurrentValues(JsonObject dashboard) {
+
+		Map<String, String> result = new HashMap<String, String>();
+
+		JsonObject templating = dashboard.getAsJsonObject("templating");
+
+		if ((templating == null) || (!templating.has("list"))) {
+			return result;
+		}
+
+		for (JsonElement element : templating.getAsJsonArray("list")) {
+
+			JsonObject variable = element.getAsJsonObject();
+
+			if ((!variable.has("name")) || (!variable.has("current"))
+			|| (!variable.get("current").isJsonObject())) {
+				continue;
+			}
+
+			JsonElement value = variable.getAsJsonObject("current").get("value");
+
+			if ((value != null) && (value.isJsonArray()) && (value.getAsJsonArray().size() > 0)) {
+				value = value.getAsJsonArray().get(0);
+			}
+
+			if ((value == null) || (!value.isJsonPrimitive())) {
+				continue;
+			}
+
+			String currentValue = value.getAsString();
+
+			if (GRAFANA_ALL.equals(currentValue)) {
+				currentValue = "All";
+			}
+
+			result.put(variable.get("name").getAsString(), currentValue);
+		}
+
+		return result;
+	}
+
+	private static void collectQueries(JsonElement element, List<String> result) {
+
+		if (element.isJsonArray()) {
+
+			JsonArray array = element.getAsJsonArray();
+
+			for (JsonElement child : array) {
+				collectQueries(child, result);
+			}
+		} else if (element.isJsonObject()) {
+
+			for (Map.Entry<String, JsonElement> entry : element.getAsJsonObject().entrySet()) {
+
+				JsonElement value = entry.getValue();
+
+				if (("query".equals(entry.getKey())) && (value.isJsonPrimitive())) {
+					result.add(value.getAsString());
+				} else {
+					collectQueries(value, result);
+				}
+			}
+		}
+	}
+
+	private static String resolve(String query, Map<String, String> variables) {
+
+		Matcher matcher = VARIABLE_PATTERN.matcher(query);
+		StringBuffer result = new StringBuffer();
+
+		while (matcher.find()) {
+
+			String value = variables.get(matcher.group(1));
+
+			if (value == null) {
+				value = "";
+			}
+
+			matcher.appendReplacement(result, Matcher.quoteReplacement(value));
+		}
+
+		matcher.appendTail(result);
+
+		return result.toString();
+	}
+}
@@ -0,0 +1,470 @@
+package com.takipi.integrations.grafana.benchmark;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.Gson;
+import com.takipi.integrations.grafana.util.TimeUtil;
+
+/**
+ * Synthetic OverOps API payloads. Every value is derived from a hash of the entity id and
+ * point time rather than from a random source, so that two runs of a benchmark (or two
+ * requests for the same timeframe) see exactly the same data.
+ */
+public class FakeApiData {
+
+	private static final String[] EVENT_TYPES = { "Logged Error", "Uncaught Exception",
+		"Caught Exception", "HTTP Error", "Swallowed Exception", "Logged Warning" };
+
+	private static final String[] EXCEPTION_NAMES = { "NullPointerException", "IllegalStateException",
+		"IllegalArgumentException", "IOException", "SQLException", "TimeoutException" };
+
+	private static final String ALL_EVENTS_VIEW = "All Events";
+	private static final String PACKAGE_NAME = "com.acme.shop.";
+
+	private static final Gson gson = new Gson();
+
+	public static class Config {
+
+		private static final String PROPERTY_PREFIX = "fakeApi.";
+
+		public int services = 1;
+		public int views = 10;
+		public int events = 500;
+		public int contributors = 5;
+		public int transactions = 100;
+		public int deployments = 20;
+		public int applications = 10;
+		public int servers = 20;
+		public int graphPoints = 100;
+		public int latencyMs = 0;
+
+		/**
+		 * Reads the sizes from fakeApi.* system properties (e.g. -DfakeApi.events=5000),
+		 * keeping the defaults for any property that is missing or malformed.
+		 */
+		public static Config fromSystemProperties() {
+
+			Config result = new Config();
+
+			result.services = getIntProperty("services", result.services);
+			result.views = getIntProperty("views", result.views);
+			result.events = getIntProperty("events", result.events);
+			result.contributors = getIntProperty("contributors", result.contributors);
+			result.transactions = getIntProperty("transactions", result.transactions);
+			result.deployments = getIntProperty("deployments", result.deployments);
+			result.applications = getIntProperty("applications", result.applications);
+			result.servers = getIntProperty("servers", result.servers);
+			result.graphPoints = getIntProperty("graphPoints", result.graphPoints);
+			result.latencyMs = getIntProperty("latencyMs", result.latencyMs);
+
+			return result;
+		}
+
+		private static int getIntProperty(String name, int defaultValue) {
+			try {
+				String value = System.getProperty(PROPERTY_PREFIX + name);
+
+				if ((value == null) || (value.isEmpty())) {
+					return defaultValue;
+				}
+
+				return Math.max(0, Integer.parseInt(value));
+			}
+			catch (Exception e) {
+				return defaultValue;
+			}
+		}
+	}
+
+	private final Config config;
+	private final long startTime;
+
+	private final String servicesJson;
+	private final String deploymentsJson;
+	private final String applicationsJson;
+	private final String serversJson;
+	private final String labelsJson;
+
+	public FakeApiData(Config config) {
+		this.config = config;
+		this.startTime = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(30);
+
+		this.servicesJson = gson.toJson(buildServices());
+		this.deploymentsJson = gson.toJson(buildDeployments());
+		this.applicationsJson = gson.toJson(buildNames("applications", "app-", config.applications));
+		this.serversJson = gson.toJson(buildNames("servers", "server-", config.servers));
+		this.labelsJson = gson.toJson(buildLabels());
+	}
+
+	public Config getConfig() {
+		return config;
+	}
+
+	public static String getServiceId(int index) {
+		return "S" + (index + 1);
+	}
+
+	public static String getEventId(int index) {
+		return String.valueOf(1000 + index);
+	}
+
+	//a cheap, well mixed hash of two values used to derive all synthetic numbers
+	private static long hash(long a, long b) {
+
+		long result = a * 0x9E3779B97F4A7C15L + b;
+
+		result ^= result >>> 33;
+		result *= 0xff51afd7ed558ccdL;
+		result ^= result >>> 33;
+
+		return result & Long.MAX_VALUE;
+	}
+
+	private static long value(long seed, long time, int range) {
+		return hash(seed, time) % Math.max(1, range);
+	}
+
+	private Map<String, Object> buildServices() {
+
+		List<Object> services = new ArrayList<Object>();
+
+		for (int i = 0; i < Math.max(1, config.services); i++) {
+
+			Map<String, Object> service = new LinkedHashMap<String, Object>();
+
+			service.put("id", getServiceId(i));
+			service.put("name", "Service " + (i + 1));
+
+			services.add(service);
+		}
+
+		return singleton("services", services);
+	}
+
+	private Map<String, Object> buildDeployments() {
+
+		List<Object> deployments = new ArrayList<Object>();
+		long step = TimeUnit.DAYS.toMillis(30) / Math.max(1, config.deployments);
+
+		for (int i = 0; i < config.deployments; i++) {
+
+			Map<String, Object> deployment = new LinkedHashMap<String, Object>();
+
+			long firstSeen = startTime + i * step;
+
+			deployment.put("name", "v1." + i);
+			deployment.put("first_seen", TimeUtil.getDateTimeFromEpoch(firstSeen));
+			deployment.put("last_seen", TimeUtil.getDateTimeFromEpoch(firstSeen + 2 * step));
+			deployment.put("active", Boolean.valueOf(i >= config.deployments - 3));
+
+			deployments.add(deployment);
+		}
+
+		return singleton("deployments", deployments);
+	}
+
+	private static Map<String, Object> buildNames(String field, String prefix, int count) {
+
+		List<Object> items = new ArrayList<Object>();
+
+		for (int i = 0; i < count; i++) {
+
+			Map<String, Object> item = new LinkedHashMap<String, Object>();
+
+			item.put("name", prefix + i);
+			item.put("active", Boolean.TRUE);
+
+			items.add(item);
+		}
+
+		return singleton(field, items);
+	}
+
+	private Map<String, Object> buildLabels() {
+
+		List<Object> labels = new ArrayList<Object>();
+
+		for (int i = 0; i < config.applications; i++) {
+
+			Map<String, Object> label = new LinkedHashMap<String, Object>();
+
+			label.put("name", "app-" + i + ".app");
+			label.put("type", "APPLICATION");
+
+			labels.add(label);
+		}
+
+		return singleton("labels", labels);
+	}
+
+	public String getServices() {
+		return servicesJson;
+	}
+
+	public String getDeployments() {
+		return deploymentsJson;
+	}
+
+	public String getApplications() {
+		return applicationsJson;
+	}
+
+	public String getServers() {
+		return serversJson;
+	}
+
+	public String getLabels() {
+		return labelsJson;
+	}
+
+	/**
+	 * Every view name resolves - a view that was not generated up front is given an id
+	 * derived from its name, so that dashboards referring to any view can be benchmarked.
+	 */
+	public String getViews(String name) {
+
+		List<Object> views = new ArrayList<Object>();
+
+		if (ALL_EVENTS_VIEW.equals(name)) {
+			views.add(buildView("P0", name));
+		} else if (name != null) {
+			views.add(buildView("P" + (name.hashCode() & Integer.MAX_VALUE), name));
+		} else {
+
+			views.add(buildView("P0", ALL_EVENTS_VIEW));
+
+			for (int i = 1; i < config.views; i++) {
+				views.add(buildView("P" + i, "View " + i));
+			}
+		}
+
+		return gson.toJson(singleton("views", views));
+	}
+
+	private static Map<String, Object> buildView(String id, String name) {
+
+		Map<String, Object> view = new LinkedHashMap<String, Object>();
+
+		view.put("id", id);
+		view.put("name", name);
+		view.put("shared", Boolean.TRUE);
+
+		return view;
+	}
+
+	private static Map<String, Object> buildLocation(String className, String methodName) {
+
+		Map<String, Object> location = new LinkedHashMap<String, Object>();
+
+		location.put("class_name", className);
+		location.put("method_name", methodName);
+		location.put("method_desc", "()V");
+		location.put("prettified_name", className.substring(className.lastIndexOf('.') + 1) + "." + methodName);
+
+		return location;
+	}
+
+	private static Map<String, Object> buildStats(long hits, long invocations) {
+
+		Map<String, Object> stats = new LinkedHashMap<String, Object>();
+
+		stats.put("hits", Long.valueOf(hits));
+		stats.put("invocations", Long.valueOf(invocations));
+
+		return stats;
+	}
+
+	private Map<String, Object> buildEvent(int index, long from, long to) {
+
+		Map<String, Object> event = new LinkedHashMap<String, Object>();
+
+		String eventId = getEventId(index);
+		long hits = 1 + value(index, from / TimeUnit.HOURS.toMillis(1), 10000);
+		long invocations = hits * (1 + value(index, 0, 100));
+
+		event.put("id", eventId);
+		event.put("summary", EXCEPTION_NAMES[index % EXCEPTION_NAMES.length] + " in Handler" + index);
+		event.put("type", EVENT_TYPES[index % EVENT_TYPES.length]);
+		event.put("name", EXCEPTION_NAMES[index % EXCEPTION_NAMES.length]);
+		event.put("message", "Synthetic event " + index);
+		event.put("first_seen", TimeUtil.getDateTimeFromEpoch(startTime + value(index, 1, 30) * TimeUnit.DAYS.toMillis(1)));
+		event.put("error_location", buildLocation(PACKAGE_NAME + "Handler" + index, "handle"));
+		event.put("entry_point", buildLocation(PACKAGE_NAME + "Servlet" + (index % 50), "doGet"));
+		event.put("error_origin", buildLocation(PACKAGE_NAME + "Dao" + (index % 20), "query"));
+		event.put("introduced_by", "v1." + (index % Math.max(1, config.deployments)));
+		event.put("labels", new ArrayList<Object>());
+		event.put("similar_event_ids", new ArrayList<Object>());
+		event.put("is_rethrow", Boolean.FALSE);
+		event.put("stats", buildStats(hits, invocations));
+
+		return event;
+	}
+
+	public String getEvents(long from, long to) {
+
+		List<Object> events = new ArrayList<Object>(config.events);
+
+		for (int i = 0; i < config.events; i++) {
+			events.add(buildEvent(i, from, to));
+		}
+
+		return gson.toJson(singleton("events", events));
+	}
+
+	public String getEvent(String eventId) {
+
+		int index;
+
+		try {
+			index = Integer.parseInt(eventId) - 1000;
+		} catch (NumberFormatException e) {
+			index = 0;
+		}
+
+		return gson.toJson(buildEvent(Math.max(0, index), startTime, System.currentTimeMillis()));
+	}
+
+	private Map<String, Object> buildTransaction(int index) {
+
+		Map<String, Object> transaction = new LinkedHashMap<String, Object>();
+
+		transaction.put("name", "Transaction" + index);
+		transaction.put("class_name", PACKAGE_NAME + "Servlet" + index);
+		transaction.put("method_name", "doGet");
+		transaction.put("method_desc", "()V");
+
+		return transaction;
+	}
+
+	public String getTransactions(long from, long to) {
+
+		List<Object> transactions = new ArrayList<Object>(config.transactions);
+
+		for (int i = 0; i < config.transactions; i++) {
+
+			Map<String, Object> transaction = buildTransaction(i);
+			Map<String, Object> stats = new LinkedHashMap<String, Object>();
+
+			long invocations = 100 + value(i, from / TimeUnit.HOURS.toMillis(1), 100000);
+			double avgTime = 5 + value(i, 2, 500);
+
+			stats.put("invocations", Long.valueOf(invocations));
+			stats.put("avg_time", Double.valueOf(avgTime));
+			stats.put("avg_time_std_deviation", Double.valueOf(avgTime / 4));
+			stats.put("total_time", Double.valueOf(avgTime * invocations));
+
+			transaction.put("stats", stats);
+			transactions.add(transaction);
+		}
+
+		return gson.toJson(singleton("transactions", transactions));
+	}
+
+	private long getStep(long from, long to, long resolution, int points) {
+
+		if (resolution > 0) {
+			return resolution;
+		}
+
+		int pointCount = (points > 0) ? points : config.graphPoints;
+
+		return Math.max(TimeUnit.MINUTES.toMillis(1), (to - from) / Math.max(1, pointCount));
+	}
+
+	/**
+	 * Builds a single view graph for the timeframe. Point times are aligned to the step so
+	 * that overlapping timeframes (e.g. sliding "last X" windows) return identical points.
+	 */
+	public String getEventsGraph(String viewId, long from, long to, long resolution, int points) {
+
+		long step = getStep(from, to, resolution, points);
+		List<Object> graphPoints = new ArrayList<Object>();
+
+		for (long time = from - from % step; time <= to; time += step) {
+
+			Map<String, Object> point = new LinkedHashMap<String, Object>();
+			List<Object> contributors = new ArrayList<Object>(config.contributors);
+
+			long hits = 0;
+			long invocations = 0;
+
+			for (int i = 0; i < config.contributors; i++) {
+
+				int eventIndex = (int)value(time, i, Math.max(1, config.events));
+
+				long contributorHits = value(eventIndex, time, 1000);
+				long contributorInvocations = contributorHits * (1 + value(eventIndex, 0, 100));
+
+				Map<String, Object> contributor = new LinkedHashMap<String, Object>();
+
+				contributor.put("id", getEventId(eventIndex));
+				contributor.put("stats", buildStats(contributorHits, contributorInvocations));
+
+				contributors.add(contributor);
+
+				hits += contributorHits;
+				invocations += contributorInvocations;
+			}
+
+			point.put("time", TimeUtil.getDateTimeFromEpoch(time));
+			point.put("stats", buildStats(hits, invocations));
+			point.put("contributors", contributors);
+
+			graphPoints.add(point);
+		}
+
+		Map<String, Object> graph = new LinkedHashMap<String, Object>();
+
+		graph.put("id", viewId);
+		graph.put("type", "view");
+		graph.put("points", graphPoints);
+
+		List<Object> graphs = new ArrayList<Object>();
+		graphs.add(graph);
+
+		return gson.toJson(singleton("graphs", graphs));
+	}
+
+	public String getTransactionsGraph(long from, long to, long resolution, int points) {
+
+		long step = getStep(from, to, resolution, points);
+		List<Object> graphs = new ArrayList<Object>(config.transactions);
+
+		for (int i = 0; i < config.transactions; i++) {
+
+			Map<String, Object> graph = buildTransaction(i);
+			List<Object> graphPoints = new ArrayList<Object>();
+
+			for (long time = from - from % step; time <= to; time += step) {
+
+				Map<String, Object> point = new LinkedHashMap<String, Object>();
+				Map<String, Object> stats = new LinkedHashMap<String, Object>();
+
+				stats.put("invocations", Long.valueOf(value(i, time, 10000)));
+				stats.put("avg_time", Double.valueOf(5 + value(i, time + 1, 500)));
+
+				point.put("time", TimeUtil.getDateTimeFromEpoch(time));
+				point.put("stats", stats);
+
+				graphPoints.add(point);
+			}
+
+			graph.put("points", graphPoints);
+			graphs.add(graph);
+		}
+
+		return gson.toJson(singleton("graphs", graphs));
+	}
+
+	private static Map<String, Object> singleton(String field, Object value) {
+
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put(field, value);
+
+		return result;
+	}
+}
@@ -0,0 +1,279 @@
+package com.takipi.integrations.grafana.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.takipi.api.client.util.validation.ValidationUtil.GraphResolution;
+import com.takipi.integrations.grafana.util.GraphSegmentCache;
+import com.takipi.integrations.grafana.util.TimeUtil;
+
+/**
+ * An in-process stand-in for the OverOps REST API, serving the synthetic services, views,
+ * events, graphs, transactions and deployments of a {@link FakeApiData} over plain http on a
+ * local port. Requests for paths it does not know are answered with an empty object and
+ * counted, so that a benchmark run can report which API calls were not emulated.
+ */
+public class FakeApiServer {
+
+	private static final Logger logger = LoggerFactory.getLogger(FakeApiServer.class);
+
+	private static final String API_PREFIX = "/api/v1";
+	private static final String EMPTY_RESULT = "{}";
+
+	private final FakeApiData data;
+	private final HttpServer server;
+	private final ExecutorService executor;
+
+	private final AtomicLong requests;
+	private final Set<String> unmatchedPaths;
+
+	public FakeApiServer(FakeApiData data) throws IOException {
+
+		this.data = data;
+		this.requests = new AtomicLong();
+		this.unmatchedPaths = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+		this.executor = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "fake-api");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		this.server.createContext("/", exchange -> handle(exchange));
+		this.server.setExecutor(executor);
+	}
+
+	public void start() {
+		server.start();
+		logger.info("Fake OverOps API listening on {}", getHostname());
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	public String getHostname() {
+		return "http://localhost:" + server.getAddress().getPort();
+	}
+
+	public long getRequests() {
+		return requests.get();
+	}
+
+	public Collection<String> getUnmatchedPaths() {
+		return Collections.unmodifiableSet(unmatchedPaths);
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+
+		requests.incrementAndGet();
+
+		try {
+			String path = exchange.getRequestURI().getPath();
+			Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+
+			String body = route(path, params);
+
+			if (data.getConfig().latencyMs > 0) {
+				Thread.sleep(data.getConfig().latencyMs);
+			}
+
+			byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+
+			exchange.getResponseHeaders().set("Content-Type", "application/json");
+			exchange.sendResponseHeaders(200, bytes.length);
+
+			try (OutputStream outputStream = exchange.getResponseBody()) {
+				outputStream.write(bytes);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			exchange.sendResponseHeaders(503, -1);
+		} catch (Exception e) {
+			logger.error("Fake API could not serve {}", exchange.getRequestURI(), e);
+			exchange.sendResponseHeaders(500, -1);
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Maps /api/v1/services/{serviceId}/... paths to payloads. The matching is by path shape
+	 * rather than by exact url so that minor api-client changes in query parameters do not
+	 * break the emulation.
+	 */
+	private String route(String path, Map<String, String> params) {
+
+		if (!path.startsWith(API_PREFIX)) {
+			return unmatched(path);
+		}
+
+		String[] parts = path.substring(API_PREFIX.length()).split("/");
+
+		//parts[0] is the empty string before the leading slash
+		if ((parts.length < 2) || (!"services".equals(parts[1]))) {
+			return unmatched(path);
+		}
+
+		if (parts.length == 2) {
+			return data.getServices();
+		}
+
+		if (parts.length == 4) {
+
+			switch (parts[3]) {
+
+				case "deployments":
+					return data.getDeployments();
+				case "applications":
+					return data.getApplications();
+				case "servers":
+					return data.getServers();
+				case "labels":
+					return data.getLabels();
+				case "views":
+					return data.getViews(params.get("name"));
+			}
+		}
+
+		if ((parts.length == 5) && ("events".equals(parts[3]))) {
+			return data.getEvent(parts[4]);
+		}
+
+		if ((parts.length >= 6) && ("views".equals(parts[3]))) {
+			return routeView(path, parts, params);
+		}
+
+		return unmatched(path);
+	}
+
+	private String routeView(String path, String[] parts, Map<String, String> params) {
+
+		String viewId = parts[4];
+
+		long to = getTime(params.get("to"), System.currentTimeMillis());
+		long from = getTime(params.get("from"), to - TimeUnit.DAYS.toMillis(1));
+
+		long resolution = getResolution(params.get("resolution"));
+		int points = getInt(params.get("points"));
+
+		String resource = parts[5];
+		String subResource = (parts.length > 6) ? parts[6] : null;
+
+		if ("transactions".equals(resource)) {
+
+			if ("graph".equals(subResource)) {
+				return data.getTransactionsGraph(from, to, resolution, points);
+			}
+
+			return data.getTransactions(from, to);
+		}
+
+		if ("graph".equals(resource)) {
+			return data.getEventsGraph(viewId, from, to, resolution, points);
+		}
+
+		if ("events".equals(resource)) {
+
+			if ("graph".equals(subResource)) {
+				return data.getEventsGraph(viewId, from, to, resolution, points);
+			}
+
+			return data.getEvents(from, to);
+		}
+
+		return unmatched(path);
+	}
+
+	private String unmatched(String path) {
+
+		if (unmatchedPaths.add(path)) {
+			logger.warn("Fake API has no emulation for {}", path);
+		}
+
+		return EMPTY_RESULT;
+	}
+
+	private static long getTime(String value, long defaultValue) {
+
+		if ((value == null) || (value.isEmpty())) {
+			return defaultValue;
+		}
+
+		try {
+			return TimeUtil.getLongTime(value);
+		} catch (Exception e) {
+			return defaultValue;
+		}
+	}
+
+	private static long getResolution(String value) {
+
+		if ((value == null) || (value.isEmpty())) {
+			return 0;
+		}
+
+		try {
+			return GraphSegmentCache.getResolutionMillis(GraphResolution.valueOf(value));
+		} catch (Exception e) {
+			return 0;
+		}
+	}
+
+	private static int getInt(String value) {
+
+		if ((value == null) || (value.isEmpty())) {
+			return 0;
+		}
+
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+
+		Map<String, String> result = new HashMap<String, String>();
+
+		if ((query == null) || (query.isEmpty())) {
+			return result;
+		}
+
+		for (String param : query.split("&")) {
+
+			int index = param.indexOf('=');
+
+			if (index == -1) {
+				result.put(URLDecoder.decode(param, "UTF-8"), "");
+			} else {
+				result.put(URLDecoder.decode(param.substring(0, index), "UTF-8"),
+					URLDecoder.decode(param.substring(index + 1), "UTF-8"));
+			}
+		}
+
+		return result;
+	}
+}
@@ -0,0 +1,157 @@
+package com.takipi.integrations.grafana.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.takipi.api.client.data.event.Stats;
+import com.takipi.api.client.data.metrics.Graph;
+import com.takipi.api.client.data.metrics.Graph.GraphPoint;
+import com.takipi.api.client.data.metrics.Graph.GraphPointContributor;
+import com.takipi.integrations.grafana.util.GraphMerger;
+import com.takipi.integrations.grafana.util.TimeUtil;
+
+/**
+ * Compares {@link GraphMerger} with the TreeMap based merge it replaced, on synthetic graphs.
+ * With layout=slices the graphs are consecutive time slices of one graph, as merged by the
+ * graph slice tasks, and with layout=applications they cover the same timeframe, as merged by
+ * the regression functions for the applications of a view.
+ *
+ *	java -jar benchmark/build/libs/benchmark-jmh.jar GraphMergeBenchmark -p layout=applications -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class GraphMergeBenchmark {
+
+	private static final String SLICES_LAYOUT = "slices";
+	private static final String APPLICATIONS_LAYOUT = "applications";
+
+	private static final long START_TIME = 1546300800000L;
+	private static final long POINT_INTERVAL = TimeUnit.MINUTES.toMillis(5);
+
+	private static final int EVENT_COUNT = 200;
+
+	@Param({ SLICES_LAYOUT, APPLICATIONS_LAYOUT })
+	public String layout;
+
+	@Param({ "8", "32" })
+	public int graphCount;
+
+	@Param({ "100", "1000" })
+	public int pointCount;
+
+	@Param({ "0", "10" })
+	public int contributorCount;
+
+	private List<Graph> graphs;
+
+	@Setup(Level.Trial)
+	public void setup() {
+
+		Random random = new Random(graphCount * pointCount + contributorCount);
+
+		graphs = new ArrayList<Graph>(graphCount);
+
+		for (int i = 0; i < graphCount; i++) {
+
+			long start = START_TIME;
+
+			if (SLICES_LAYOUT.equals(layout)) {
+				start += i * pointCount * POINT_INTERVAL;
+			}
+
+			graphs.add(createGraph(random, i, start));
+		}
+	}
+
+	private Graph createGraph(Random random, int index, long start) {
+
+		Graph result = new Graph();
+
+		result.id = "graph";
+		result.type = "graph";
+		result.application_name = "app" + index;
+		result.points = new ArrayList<GraphPoint>(pointCount);
+
+		for (int i = 0; i < pointCount; i++) {
+
+			GraphPoint gp = new GraphPoint();
+
+			gp.time = TimeUtil.getDateTimeFromEpoch(start + i * POINT_INTERVAL);
+			gp.stats = new Stats();
+			gp.contributors = new ArrayList<GraphPointContributor>(contributorCount);
+
+			for (int j = 0; j < contributorCount; j++) {
+
+				GraphPointContributor contributor = new GraphPointContributor();
+
+				contributor.id = String.valueOf(random.nextInt(EVENT_COUNT));
+				contributor.stats = new Stats();
+				contributor.stats.hits = random.nextInt(100);
+				contributor.stats.invocations = contributor.stats.hits * 10;
+
+				gp.stats.hits += contributor.stats.hits;
+				gp.stats.invocations += contributor.stats.invocations;
+				gp.contributors.add(contributor);
+			}
+
+			result.points.add(gp);
+		}
+
+		return result;
+	}
+
+	@Benchmark
+	public Graph graphMerger() {
+		return GraphMerger.merge(graphs);
+	}
+
+	@Benchmark
+	public Graph treeMapMerge() {
+
+		Graph result = new Graph();
+		Map<Long, GraphPoint> graphPoints = new TreeMap<Long, GraphPoint>();
+
+		for (Graph graph : graphs) {
+
+			for (GraphPoint gp : graph.points) {
+
+				long time = TimeUtil.getDateTime(gp.time).getMillis();
+				GraphPoint graphPoint = graphPoints.get(Long.valueOf(time));
+
+				if (graphPoint == null) {
+					graphPoints.put(Long.valueOf(time), gp.clone());
+				} else {
+					graphPoint.stats.hits += gp.stats.hits;
+					graphPoint.stats.invocations += gp.stats.invocations;
+
+					if (graphPoint.contributors == null) {
+						graphPoint.contributors = new ArrayList<GraphPointContributor>();
+					}
+
+					for (GraphPointContributor contributor : gp.contributors) {
+						graphPoint.contributors.add(contributor.clone());
+					}
+				}
+			}
+		}
+
+		result.points = new ArrayList<GraphPoint>(graphPoints.values());
+
+		return result;
+	}
+}
@@ -0,0 +1,125 @@
+package com.takipi.integrations.grafana.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.takipi.api.client.ApiClient;
+import com.takipi.integrations.grafana.functions.FunctionParser;
+import com.takipi.integrations.grafana.output.QueryResult;
+import com.takipi.integrations.grafana.util.ApiCache;
+import com.takipi.integrations.grafana.util.GrafanaApiClient;
+
+/**
+ * Drives {@link FunctionParser#processQuery} end to end - parsing, ApiCache, the thread pools,
+ * http calls to a {@link FakeApiServer} and graph merging - with the queries of the provisioned
+ * dashboards, one function per parameter value. Throughput and sample time (for p99) modes are
+ * reported, and the gc profiler configured in build.gradle adds the allocation rate.
+ *
+ * With cache=warm the ApiCache is left populated between invocations, measuring the dashboard
+ * refresh path, while cache=cold clears it before each invocation to measure a first load.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class QueryBenchmark {
+
+	private static final Logger logger = LoggerFactory.getLogger(QueryBenchmark.class);
+
+	private static final String API_TOKEN = "benchmark";
+
+	private static final String WARM_CACHE = "warm";
+	private static final String COLD_CACHE = "cold";
+
+	@Param({ "graph", "splitGraph", "events", "volume", "correlateGraph", "transactionsGraph",
+		"transactionsAvgGraph", "transactionsList", "transactions", "deploymentsAnnotation",
+		"baselineWindow", "regressions", "regressionReport", "regressionGraph",
+		"environments", "applications", "deployments", "servers" })
+	public String function;
+
+	@Param({ WARM_CACHE, COLD_CACHE })
+	public String cache;
+
+	private FakeApiServer server;
+	private ApiClient apiClient;
+	private List<String> queries;
+
+	private final AtomicInteger nextQuery = new AtomicInteger();
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+
+		FakeApiData data = new FakeApiData(FakeApiData.Config.fromSystemProperties());
+
+		server = new FakeApiServer(data);
+		server.start();
+
+		apiClient = GrafanaApiClient.getApiClient(server.getHostname(), API_TOKEN);
+
+		DashboardQueries dashboardQueries = DashboardQueries.load(DashboardQueries.getDashboardsFolder(),
+			DashboardQueries.getBenchmarkVariables(FakeApiData.getServiceId(0)));
+
+		queries = new ArrayList<String>();
+
+		//queries the fake data cannot satisfy are dropped rather than measured as failures
+		for (String query : dashboardQueries.getQueries(function)) {
+
+			try {
+				FunctionParser.processQuery(apiClient, query);
+				queries.add(query);
+			} catch (Exception e) {
+				logger.warn("Skipping {} query: {}", function, query, e);
+			}
+		}
+
+		if (queries.isEmpty()) {
+			throw new IllegalStateException("No runnable dashboard queries for " + function);
+		}
+
+		logger.info("Benchmarking {} {} queries", queries.size(), function);
+	}
+
+	@Setup(Level.Invocation)
+	public void clearCaches() {
+
+		if (!COLD_CACHE.equals(cache)) {
+			return;
+		}
+
+		ApiCache.clearAll();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+
+		logger.info("Fake API served {} requests", server.getRequests());
+
+		if (!server.getUnmatchedPaths().isEmpty()) {
+			logger.warn("Fake API paths without emulation: {}", server.getUnmatchedPaths());
+		}
+
+		server.stop();
+	}
+
+	@Benchmark
+	public QueryResult processQuery() {
+
+		int index = (nextQuery.getAndIncrement() & Integer.MAX_VALUE) % queries.size();
+
+		return FunctionParser.processQuery(apiClient, queries.get(index));
+	}
+}
@@ -1,7 +1,6 @@
 package com.takipi.integrations.grafana.functions;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -20,6 +19,7 @@ import com.takipi.common.util.Pair;
 import com.takipi.integrations.grafana.input.BaseGraphInput;
 import com.takipi.integrations.grafana.input.FunctionInput;
 import com.takipi.integrations.grafana.output.Series;
+import com.takipi.integrations.grafana.output.TimeSeriesValues;
 import com.takipi.integrations.grafana.settings.ServiceSettings;
 import com.takipi.integrations.grafana.util.TimeUtil;
 
@@ -156,15 +156,16 @@ public abstract class BaseGraphFunction extends GrafanaFunction {
 							
 		String cleanName = cleanSeriesName(name);
 
-		Series series = createGraphSeries(cleanName, graphData.volume);
+		TimeSeriesValues values = new TimeSeriesValues(input.getTimeFormat(), graphData.points.size());
 		
 		long volume = graphData.volume;
 			
 		for (Map.Entry<Long, Long> graphPoint : graphData.points.entrySet()) {				
-			Object timeValue = getTimeValue(graphPoint.getKey().longValue(), input);
-			series.values.add(Arrays.asList(new Object[] { timeValue, graphPoint.getValue() }));
+			values.add(graphPoint.getKey().longValue(), graphPoint.getValue().longValue());
 		}
 		
+		Series series = createGraphSeries(cleanName, graphData.volume, values);
+		
 		return GraphSeries.of(series, volume, cleanName);
 	}
 	
@@ -0,0 +1,26 @@
+package com.takipi.integrations.grafana.functions;
+
+import com.takipi.integrations.grafana.util.CacheKey;
+
+/**
+ * A fetch a function declares it will make for an input, before processing it - so that the
+ * fetches of all statements of a query can be planned together. See {@link QueryPlan}.
+ */
+public abstract class DataDependency {
+	
+	/**
+	 * Dependencies with equal merge keys are merged into a single fetch.
+	 */
+	public abstract CacheKey getMergeKey();
+	
+	/**
+	 * @param other - a dependency with an equal merge key
+	 * @return a dependency whose fetch covers the data of both
+	 */
+	public abstract DataDependency merge(DataDependency other);
+	
+	/**
+	 * Loads the data into ApiCache, where the function processing the statement will find it.
+	 */
+	public abstract void fetch();
+}
@@ -453,6 +453,11 @@ public class EventGroupFunction extends EventsFunction {
 		return super.process(eventInput);
 	}
 	
+	@Override
+	public Collection<DataDependency> getDependencies(FunctionInput functionInput) {
+		return Collections.emptyList();
+	}
+	
 	@Override
 	public List<Series> process(FunctionInput functionInput) {
 		
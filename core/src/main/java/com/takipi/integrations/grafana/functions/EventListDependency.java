@@ -0,0 +1,72 @@
+package com.takipi.integrations.grafana.functions;
+
+import java.util.Set;
+
+import org.joda.time.DateTime;
+
+import com.takipi.api.client.request.event.BreakdownType;
+import com.takipi.api.client.util.validation.ValidationUtil.VolumeType;
+import com.takipi.common.util.Pair;
+import com.takipi.integrations.grafana.input.ViewInput;
+import com.takipi.integrations.grafana.util.CacheKey;
+
+/**
+ * The event list a function loads through {@link GrafanaFunction#getEventMap}. Statements asking
+ * for the list of the same service, view, filters, time frame, volume type and breakdown types
+ * share a single fetch, whatever the order their filter values are listed in. Lists with
+ * different breakdown types are kept apart, as the breakdown types shape the rows of the list
+ * and not only the data attached to them.
+ */
+public class EventListDependency extends DataDependency {
+	
+	protected final GrafanaFunction function;
+	protected final String serviceId;
+	protected final ViewInput input;
+	protected final Pair<DateTime, DateTime> timeSpan;
+	protected final VolumeType volumeType;
+	protected final Set<BreakdownType> breakdownTypes;
+	
+	public EventListDependency(GrafanaFunction function, String serviceId, ViewInput input, 
+		Pair<DateTime, DateTime> timeSpan, VolumeType volumeType, Set<BreakdownType> breakdownTypes) {
+		
+		this.function = function;
+		this.serviceId = serviceId;
+		this.input = input;
+		this.timeSpan = timeSpan;
+		this.volumeType = volumeType;
+		this.breakdownTypes = breakdownTypes;
+	}
+	
+	@Override
+	public CacheKey getMergeKey() {
+		
+		return CacheKey.newBuilder()
+			.add(EventListDependency.class)
+			.add(function.apiClient)
+			.add(serviceId)
+			.add(input.view)
+			.add(input.timeFilter)
+			.addSorted(ViewInput.getServiceFilters(input.applications, serviceId, true))
+			.addSorted(input.getDeployments(serviceId))
+			.addSorted(input.getServers(serviceId))
+			.add(volumeType)
+			.addSorted(breakdownTypes)
+			.build();
+	}
+	
+	@Override
+	public DataDependency merge(DataDependency other) {
+		return this;
+	}
+	
+	@Override
+	public void fetch() {
+		function.getEventMap(serviceId, input, timeSpan.getFirst(), timeSpan.getSecond(),
+			volumeType, false, breakdownTypes);
+	}
+	
+	@Override
+	public String toString() {
+		return "Event list " + serviceId + " " + input.view + " " + input.timeFilter + " " + breakdownTypes;
+	}
+}
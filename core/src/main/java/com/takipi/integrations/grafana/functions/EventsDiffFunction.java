@@ -316,6 +316,11 @@ public class EventsDiffFunction extends EventsFunction {
 		});
 	}
 	
+	@Override
+	public Collection<DataDependency> getDependencies(FunctionInput functionInput) {
+		return Collections.emptyList();
+	}
+	
 	@Override
 	public List<Series> process(FunctionInput functionInput) {
 
@@ -1162,18 +1162,21 @@ public class EventsFunction extends GrafanaFunction {
 		}		
 	}
 	
-	protected List<EventData> getEventData(String serviceId, EventsInput input, 
-			Pair<DateTime, DateTime> timeSpan) {
-		
-		Set<BreakdownType> breakdownTypes;
+	private static Set<BreakdownType> getEventDataBreakdownTypes(Pair<DateTime, DateTime> timeSpan) {
 		
 		long delta = timeSpan.getSecond().getMillis() - timeSpan.getFirst().getMillis();
 		
 		if (delta <= TimeUnit.DAYS.toMillis(MAX_BASELINE_DAYS)) {
-			breakdownTypes = Collections.singleton(BreakdownType.App);
+			return Collections.singleton(BreakdownType.App);
 		} else {
-			breakdownTypes = Collections.emptySet();
+			return Collections.emptySet();
 		}
+	}
+	
+	protected List<EventData> getEventData(String serviceId, EventsInput input, 
+			Pair<DateTime, DateTime> timeSpan) {
+		
+		Set<BreakdownType> breakdownTypes = getEventDataBreakdownTypes(timeSpan);
 		
 		Map<String, EventResult> eventsMap = getEventMap(serviceId, input, 
 			timeSpan.getFirst(), timeSpan.getSecond(), input.volumeType, // VolumeType.hits,//
@@ -1726,6 +1729,35 @@ public class EventsFunction extends GrafanaFunction {
 		return createSingleStatSeries(timeSpan, value);
 	}
 
+	//the event lists loaded by getEventData - subclasses processing their input
+	//differently override this to declare their own fetches (or none)
+	@Override
+	public Collection<DataDependency> getDependencies(FunctionInput functionInput) {
+		
+		if (!(functionInput instanceof EventsInput)) {
+			return Collections.emptyList();
+		}
+		
+		EventsInput input = (EventsInput)getInput((ViewInput)functionInput);
+		
+		if (input.timeFilter == null) {
+			return Collections.emptyList();
+		}
+		
+		Pair<DateTime, DateTime> timeSpan = TimeUtil.getTimeFilter(input.timeFilter);
+		Set<BreakdownType> breakdownTypes = getEventDataBreakdownTypes(timeSpan);
+		
+		Collection<String> serviceIds = getServiceIds(input);
+		List<DataDependency> result = new ArrayList<DataDependency>(serviceIds.size());
+		
+		for (String serviceId : serviceIds) {
+			result.add(new EventListDependency(this, serviceId, input, 
+				timeSpan, input.volumeType, breakdownTypes));
+		}
+		
+		return result;
+	}
+
 	@Override
 	public List<Series> process(FunctionInput functionInput) {
 
@@ -6,9 +6,9 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CompletionService;
-import java.util.concurrent.ExecutorCompletionService;
-import java.util.concurrent.Future;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,6 +19,11 @@ import com.takipi.integrations.grafana.input.FunctionInput;
 import com.takipi.integrations.grafana.output.QueryResult;
 import com.takipi.integrations.grafana.output.ResultContent;
 import com.takipi.integrations.grafana.output.Series;
+import com.takipi.integrations.grafana.util.ApiGuard.ApiUnavailableException;
+import com.takipi.integrations.grafana.util.CompletableTask;
+import com.takipi.integrations.grafana.util.GrafanaMetrics;
+import com.takipi.integrations.grafana.util.LatencyTimer;
+import com.takipi.integrations.grafana.util.QueryContext;
 
 public class FunctionParser {
 	private static final Logger logger = LoggerFactory.getLogger(FunctionParser.class);
@@ -32,11 +37,13 @@ public class FunctionParser {
 
 		protected ApiClient apiClient; 
 		protected String query;
+		protected ParsedQuery parsedQuery;
 		protected int index;
 		
-		protected FunctionAsyncTask(ApiClient apiClient, String query, int index) {
+		protected FunctionAsyncTask(ApiClient apiClient, String query, ParsedQuery parsedQuery, int index) {
 			this.apiClient = apiClient;
 			this.query = query;
+			this.parsedQuery = parsedQuery;
 			this.index = index;
 		}
 		
@@ -46,7 +53,15 @@ public class FunctionParser {
 			beforeCall();
 			
 			try {
-				return new FunctionResult(processSingleQuery(apiClient, query), index);
+				List<Series> data;
+				
+				if (parsedQuery != null) {
+					data = processParsedQuery(parsedQuery);
+				} else {
+					data = processSingleQuery(apiClient, query);
+				}
+				
+				return new FunctionResult(data, index);
 			} finally {
 				afterCall();
 			}
@@ -68,7 +83,26 @@ public class FunctionParser {
 		}
 	}
 	
+	protected static class ParsedQuery {
+		protected String json;
+		protected FunctionFactory factory;
+		protected FunctionInput input;
+		protected GrafanaFunction function;
+		
+		protected ParsedQuery(String json, FunctionFactory factory, 
+			FunctionInput input, GrafanaFunction function) {
+			this.json = json;
+			this.factory = factory;
+			this.input = input;
+			this.function = function;
+		}
+	}
+	
 	public static List<Series> processSingleQuery(ApiClient apiClient, String query) {
+		return processParsedQuery(parseQuery(apiClient, query));
+	}
+	
+	private static ParsedQuery parseQuery(ApiClient apiClient, String query) {
 		
 		String trimmedQuery = query.trim();
 		int parenthesisIndex = trimmedQuery.indexOf('(');
@@ -105,14 +139,28 @@ public class FunctionParser {
 			throw new IllegalStateException("Could not parse query: " + e.toString() + " query:" + json, e);
 		}
 		
+		return new ParsedQuery(json, factory, input, function);
+	}
+	
+	private static List<Series> processParsedQuery(ParsedQuery parsedQuery) {
+		
+		FunctionInput input = parsedQuery.input;
+		GrafanaFunction function = parsedQuery.function;
+		
 		logger.debug("OO-AS-INFLUX | About to process {} with input {}", function, input);
 		
 		List<Series> result;
 		
+		LatencyTimer timer = GrafanaMetrics.getFunctionTimer(parsedQuery.factory.getName());
+		long startTime = LatencyTimer.start();
+		
 		try {
 			result = function.process(input);
+			timer.record(startTime);
 		} catch (Exception e) {
-			String message = "Could not process query: " + e.toString() + " query:" + json;
+			timer.recordError(startTime);
+			
+			String message = "Could not process query: " + e.toString() + " query:" + parsedQuery.json;
 			logger.error(message, e);
 			throw new IllegalStateException(message, e);
 		}
@@ -148,41 +196,192 @@ public class FunctionParser {
 	
 	public static QueryResult processAsync(ApiClient apiClient, List<String> singleQueries ) {
 		
-		QueryResult result = new QueryResult();
-
-		CompletionService<Object> completionService = new ExecutorCompletionService<Object>(GrafanaThreadPool.getFunctionExecutor(apiClient));
-
+		try {
+			return processQueriesAsync(apiClient, singleQueries, QueryContext.create(0)).join();
+		} catch (CompletionException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+	
+	private static CompletableFuture<QueryResult> processQueriesAsync(ApiClient apiClient, 
+		List<String> singleQueries, QueryContext queryContext) {
+		
+		List<CompletableFuture<ResultContent>> futures = submitQueries(apiClient, singleQueries, queryContext);
+		
+		return CompletableTask.allOf(futures).thenApply(resultContents -> {
+			
+			QueryResult result = new QueryResult();
+			result.results = new ArrayList<ResultContent>(resultContents);
+			
+			sortStatements(result.results);
+			
+			return result;
+		});
+	}
+	
+	/**
+	 * @return the result of each statement, in statement order
+	 */
+	private static List<CompletableFuture<ResultContent>> submitQueries(ApiClient apiClient, 
+		List<String> singleQueries, QueryContext queryContext) {
+		
+		List<ParsedQuery> parsedQueries = parseQueries(apiClient, singleQueries);
+		
+		if (singleQueries.size() > 1) {
+			
+			QueryPlan queryPlan = getQueryPlan(parsedQueries);
+			
+			if (queryPlan.size() > 0) {
+				queryPlan.prefetch(GrafanaThreadPool.getQueryExecutor(apiClient), queryContext);
+			}
+		}
+		
+		Executor executor = GrafanaThreadPool.getFunctionExecutor(apiClient);
+		List<CompletableFuture<ResultContent>> futures = new ArrayList<CompletableFuture<ResultContent>>(singleQueries.size());
+		
 		int index = 0;
 		
 		for (String singleQuery : singleQueries) {	
-			completionService.submit(new FunctionAsyncTask(apiClient, singleQuery, index++));	
+			
+			int statementId = index++;
+			QueryContext statementContext = queryContext.newChild();
+			ParsedQuery parsedQuery = parsedQueries.get(statementId);
+			
+			if (parsedQuery != null) {
+				statementContext.setPriority(parsedQuery.function.getPriority());
+			}
+			
+			CompletableTask<Object> task = CompletableTask.submit(executor, 
+				new FunctionAsyncTask(apiClient, singleQuery, parsedQuery, statementId), 
+				statementContext);
+			
+			futures.add(task.handle((asyncResult, e) -> 
+				toResultContent(statementId, (FunctionResult)asyncResult, e, queryContext, statementContext)));
 		}
 		
-		int received = 0;
-		result.results = new ArrayList<ResultContent>();
+		return futures;
+	}
+	
+	//a statement that fails to parse is left null, to fail with the same error once processed
+	private static List<ParsedQuery> parseQueries(ApiClient apiClient, List<String> singleQueries) {
+		
+		List<ParsedQuery> result = new ArrayList<ParsedQuery>(singleQueries.size());
+		
+		for (String singleQuery : singleQueries) {
+			
+			ParsedQuery parsedQuery;
 			
-		while (received < singleQueries.size()) {			
 			try {
-				Future<Object> future = completionService.take();
-				FunctionResult asynResult = (FunctionResult)(future.get());
-				
-				ResultContent resultContent = new ResultContent();
-				resultContent.series = asynResult.data;
-				resultContent.statement_id = asynResult.index;
-				result.results.add(resultContent);
-				
-				received++;
-
+				parsedQuery = parseQuery(apiClient, singleQuery);
 			} catch (Exception e) {
-				throw new IllegalStateException(e);
-			} 
+				parsedQuery = null;
+			}
+			
+			result.add(parsedQuery);
+		}
+		
+		return result;
+	}
+	
+	private static QueryPlan getQueryPlan(List<ParsedQuery> parsedQueries) {
+		
+		QueryPlan result = new QueryPlan();
+		
+		for (ParsedQuery parsedQuery : parsedQueries) {
+			
+			if (parsedQuery == null) {
+				continue;
+			}
+			
+			try {
+				result.add(parsedQuery.function.getDependencies(parsedQuery.input));
+			} catch (Exception e) {
+				logger.debug("Could not plan query " + parsedQuery.json, e);
+			}
+		}
+		
+		return result;
+	}
+	
+	private static ResultContent toResultContent(int statementId, FunctionResult functionResult,
+		Throwable e, QueryContext queryContext, QueryContext statementContext) {
+		
+		ResultContent result = new ResultContent();
+		result.statement_id = statementId;
+		
+		if (e == null) {
+			result.series = functionResult.data;
+			
+			if (statementContext.isPartial()) {
+				result.partial = Boolean.TRUE;
+			}
+			
+			return result;
+		}
+		
+		ApiUnavailableException unavailableException = getUnavailableCause(e);
+		
+		//degraded rather than failed - the query's other statements may still be served from cache
+		if (unavailableException != null) {
+			result.series = Collections.emptyList();
+			result.error = unavailableException.getMessage();
+			
+			return result;
 		}
 		
-		sortStatements(result.results);
+		if (!statementContext.isExpired()) {
+			
+			//the query fails as a whole - its other statements need not complete
+			queryContext.cancel();
+			
+			if (e instanceof CompletionException) {
+				throw (CompletionException)e;
+			}
+			
+			throw new CompletionException(e);
+		}
+		
+		result.series = Collections.emptyList();
+		result.error = statementContext.newDeadlineException().getMessage();
 		
 		return result;
 	}
 	
+	private static ApiUnavailableException getUnavailableCause(Throwable e) {
+		
+		Throwable cause = e;
+		
+		while (cause != null) {
+			
+			if (cause instanceof ApiUnavailableException) {
+				return (ApiUnavailableException)cause;
+			}
+			
+			cause = cause.getCause();
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Processes the statements of the query without holding the calling thread - single statement
+	 * queries included, as they're processed on the function executor as well. Statements that
+	 * can't complete before the context expires are returned with an error, rather than failing
+	 * the query.
+	 * 
+	 * @return the result of each statement, in statement order, so a response can be written a
+	 * statement at a time as they complete
+	 */
+	public static List<CompletableFuture<ResultContent>> processStatementsAsync(ApiClient apiClient, String query,
+		QueryContext queryContext) {
+		
+		if ((query == null) || (query.length() == 0)) {
+			throw new IllegalArgumentException("Missing query");
+		}
+		
+		return submitQueries(apiClient, getQueries(query), queryContext);
+	}
+	
 	public static QueryResult processQuery(ApiClient apiClient, String query) {
 		
 		if ((query == null) || (query.length() == 0)) {
@@ -14,10 +14,8 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.Callable;
-import java.util.concurrent.CompletionService;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
-import java.util.concurrent.ExecutorCompletionService;
-import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
@@ -28,6 +26,7 @@ import org.ocpsoft.prettytime.PrettyTime;
 
 import com.google.common.base.Objects;
 import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
 import com.takipi.api.client.ApiClient;
 import com.takipi.api.client.data.event.Location;
 import com.takipi.api.client.data.event.MainEventStats;
@@ -92,9 +91,21 @@ import com.takipi.integrations.grafana.input.VariableInput;
 import com.takipi.integrations.grafana.input.ReliabilityReportInput;
 import com.takipi.integrations.grafana.input.ViewInput;
 import com.takipi.integrations.grafana.output.Series;
+import com.takipi.integrations.grafana.output.TimeSeriesValues;
 import com.takipi.integrations.grafana.settings.GrafanaSettings;
 import com.takipi.integrations.grafana.settings.ServiceSettings;
 import com.takipi.integrations.grafana.util.ApiCache;
+import com.takipi.integrations.grafana.util.BaselineCache;
+import com.takipi.integrations.grafana.util.BaselineCache.Baseline;
+import com.takipi.integrations.grafana.util.BaselineCache.BaselinePart;
+import com.takipi.integrations.grafana.util.CacheKey;
+import com.takipi.integrations.grafana.util.CompletableTask;
+import com.takipi.integrations.grafana.util.GraphMerger;
+import com.takipi.integrations.grafana.util.GraphSegmentCache;
+import com.takipi.integrations.grafana.util.GraphSegmentCache.GraphSegment;
+import com.takipi.integrations.grafana.util.GraphTimes;
+import com.takipi.integrations.grafana.util.QueryContext;
+import com.takipi.integrations.grafana.util.TaskPriority;
 import com.takipi.integrations.grafana.util.TimeUtil;
 import com.takipi.integrations.grafana.util.TimeUtil.Interval;
 
@@ -106,7 +117,8 @@ public abstract class GrafanaFunction {
 		public String getName();
 	}
 	
-	public static final Gson gson = new Gson();
+	public static final Gson gson = new GsonBuilder()
+		.registerTypeAdapterFactory(new TimeSeriesValues.JsonAdapterFactory()).create();
 	
 	public static final DecimalFormat singleDigitFormatter = new DecimalFormat("#.#");
 	public static final DecimalFormat doubleDigitFormatter = new DecimalFormat("#.##");
@@ -238,6 +250,9 @@ public abstract class GrafanaFunction {
 		protected boolean cache;
 		protected GraphRequest.Builder builder;
 		
+		//set for the slices of a regression's baseline window, as opposed to its active one
+		protected boolean baselineSlice;
+		
 		protected GraphSliceTask(GraphRequest.Builder builder, String serviceId, String viewId, 
 				ViewInput input, VolumeType volumeType, DateTime from, DateTime to,
 				int baselineWindow, int activeWindow, int windowSlice, Set<BreakdownType> breakdownTypes, boolean cache) {
@@ -265,6 +280,23 @@ public abstract class GrafanaFunction {
 				baselineWindow, activeWindow, windowSlice,
 				Pair.of(from, to), breakdownTypes, cache);
 			
+			return getResult(response);
+		}
+		
+		/**
+		 * Starts loading the slice's graph without waiting on it - see {@link #getResult}
+		 */
+		public CompletableFuture<Response<GraphResult>> loadAsync() {		
+			
+			return ApiCache.getEventGraphAsync(apiClient, 
+				serviceId, input, getSettingsData(serviceId),
+				volumeType, builder.build(), 
+				baselineWindow, activeWindow, windowSlice,
+				Pair.of(from, to), breakdownTypes, cache);
+		}
+		
+		protected GraphSliceTaskResult getResult(Response<GraphResult> response) {
+			
 			if (response.isBadResponse()) {
 				return null;
 			}
@@ -1002,6 +1034,20 @@ public abstract class GrafanaFunction {
 		return result;
 	}
 	
+	/**
+	 * @return the baseline shared by the functions regressing the input over a window with these
+	 * timespans - see {@link BaselineCache}
+	 */
+	protected Baseline getBaseline(String serviceId, ViewInput input, 
+		int baselineTimespan, int activeTimespan) {
+		
+		Collection<String> apps = input.getApplications(apiClient, 
+			getSettingsData(serviceId), serviceId, true, false);
+		
+		return BaselineCache.getBaseline(apiClient, serviceId, input, apps, 
+			baselineTimespan, activeTimespan);
+	}
+	
 	protected Collection<TransactionGraph> getBaselineTransactionGraphs(
 		String serviceId, String viewId, BaseEventVolumeInput input, 
 		Pair<DateTime, DateTime> timeSpan, RegressionInput regressionInput, 
@@ -1011,28 +1057,58 @@ public abstract class GrafanaFunction {
 		
 		DateTime baselineStart = regressionWindow.activeWindowStart.minusMinutes(regressionInput.baselineTimespan);
 
-		Collection<TransactionGraph> result = getTransactionGraphs(baselineInput, serviceId, 
+		Baseline baseline = getBaseline(serviceId, input, 
+			regressionInput.baselineTimespan, regressionWindow.activeTimespan);
+		
+		CacheKey partKey = Baseline.newPartKey(BaselinePart.TransactionWindowGraphs).build();
+		
+		Collection<TransactionGraph> result = baseline.getPart(partKey, () -> 
+			getTransactionGraphs(baselineInput, serviceId, 
 				viewId, Pair.of(baselineStart, timeSpan.getSecond()), 
-				null, regressionWindow.activeTimespan, regressionInput.baselineTimespan);
+				null, regressionWindow.activeTimespan, regressionInput.baselineTimespan));
 		
 		return result;
 	}
 	
-	private Collection<Transaction> getBaselineTransactions(
+	/**
+	 * @return the baseline stats of each transaction by name, or null if the baseline
+	 * transactions could not be retrieved. The baseline is reduced to these once, and shared by 
+	 * all the functions scoring the performance of the same transactions.
+	 */
+	private Map<String, com.takipi.api.client.data.transaction.Stats> getBaselineTransactionStats(
 			String serviceId, String viewId, BaseEventVolumeInput input, 
-			@SuppressWarnings("unused") Pair<DateTime, DateTime> timeSpan, RegressionInput regressionInput, 
-			RegressionWindow regressionWindow) {
+			RegressionInput regressionInput, RegressionWindow regressionWindow) {
 			
 		BaseEventVolumeInput baselineInput = getBaselineInput(input);
 			
 		DateTime baselineStart = regressionWindow.activeWindowStart.minusMinutes(regressionInput.baselineTimespan);
 
-		Collection<Transaction> result = getTransactions(serviceId, 
-					viewId, Pair.of(baselineStart, regressionWindow.activeWindowStart), 
-					baselineInput, baselineInput.getSearchText(),
-					0, regressionInput.baselineTimespan);
+		Baseline baseline = getBaseline(serviceId, input, 
+			regressionInput.baselineTimespan, regressionWindow.activeTimespan);
+		
+		CacheKey partKey = Baseline.newPartKey(BaselinePart.TransactionStats)
+			.add(baselineInput.getSearchText()).build();
+		
+		return baseline.getPart(partKey, () -> {
 			
-		return result;
+			Collection<Transaction> transactions = getTransactions(serviceId, 
+				viewId, Pair.of(baselineStart, regressionWindow.activeWindowStart), 
+				baselineInput, baselineInput.getSearchText(),
+				0, regressionInput.baselineTimespan);
+			
+			if (transactions == null) {
+				return null;
+			}
+			
+			Map<String, com.takipi.api.client.data.transaction.Stats> result = 
+				new HashMap<String, com.takipi.api.client.data.transaction.Stats>(transactions.size() * 4 / 3 + 1);
+			
+			for (Transaction transaction : transactions) {
+				result.put(transaction.name, transaction.stats);
+			}
+			
+			return result;
+		});
 	}
 	
 	protected TransactionData getEventTransactionData(Map<TransactionKey, TransactionData> transactions, EventResult event) {
@@ -1078,11 +1154,11 @@ public abstract class GrafanaFunction {
 				transactionDatas, slowdownSettings);
 		}// else {
 		//*/
-			Collection<Transaction> baselineTransactions = getBaselineTransactions(serviceId,
-				viewId, input, timeSpan, regressionInput, regressionWindow);
+			Map<String, com.takipi.api.client.data.transaction.Stats> baselineStats = getBaselineTransactionStats(
+				serviceId, viewId, input, regressionInput, regressionWindow);
 			
-			if (baselineTransactions != null) {
-				updateTransactionPerformance(baselineTransactions, 
+			if (baselineStats != null) {
+				updateTransactionPerformance(baselineStats, 
 					transactionDatas, slowdownSettings);
 			} else {
 				for (TransactionData transactionData : transactionDatas.values()) {
@@ -1119,15 +1195,15 @@ public abstract class GrafanaFunction {
 			
 			if (!CollectionUtil.safeIsEmpty(graph.points)) {
 				
-				for (com.takipi.api.client.data.transaction.TransactionGraph.GraphPoint gp : graph.points) {
-					
-					DateTime gpTime = TimeUtil.getDateTime(gp.time);
+				long[] times = GraphTimes.of(graph);
+				
+				for (int i = 0; i < times.length; i++) {
 					
-					if (gpTime.isAfter(activeWindowStart)) {
+					if (times[i] > activeWindowStart.getMillis()) {
 						continue;
 					}
 					
-					baselineGraph.points.add(gp);
+					baselineGraph.points.add(graph.points.get(i));
 				}
 			}
 			
@@ -1138,7 +1214,7 @@ public abstract class GrafanaFunction {
 	}
 	
 	protected void updateTransactionPerformance(
-			Collection<Transaction> baselineTransactions, 
+			Map<String, com.takipi.api.client.data.transaction.Stats> baselineStats, 
 			Map<TransactionKey, TransactionData> transactionDatas,
 			SlowdownSettings slowdownSettings) {
 		
@@ -1150,13 +1226,6 @@ public abstract class GrafanaFunction {
 	
 		Map<String, TransactionGraph> activeGraphsMap = getTransactionsMap(transactionDatas);
 		
-		Map<String, com.takipi.api.client.data.transaction.Stats> baselineStats = 
-			new HashMap<String, com.takipi.api.client.data.transaction.Stats>();
-		
-		for (Transaction transaction : baselineTransactions) {
-			baselineStats.put(transaction.name, transaction.stats);
-		}
-		
 		Map<TransactionGraph, PerformanceScore> performanceScores = 
 				PerformanceUtil.getPerformanceStates(
 				activeGraphsMap, baselineStats, calc);
@@ -1229,13 +1298,17 @@ public abstract class GrafanaFunction {
 		DateTime baselineEnd = period.getFirst();
 		DateTime baselineStart = baselineEnd.minusMinutes(baselineWindow);
 		
-		for (GraphPoint gp : graph.points) {
+		long[] times = GraphTimes.of(graph);
+		
+		for (int i = 0; i < times.length; i++) {
+			
+			GraphPoint gp = graph.points.get(i);
 			
 			if (gp.contributors == null) {
 				continue;
 			}
 			
-			DateTime gpTime = TimeUtil.getDateTime(gp.time);
+			long gpTime = times[i];
 			
 			if (timespanContains(period.getFirst(), period.getSecond(), gpTime)) {
 				
@@ -2138,6 +2211,16 @@ public abstract class GrafanaFunction {
 			graphResolution = GraphResolution.H8;
 		}
 		
+		return createGraphAsyncTask(serviceId, viewId, input, volumeType, from, to, 
+			baselineWindow, activeWindow, windowSlice, cache, breakdownTypes, graphResolution);
+	}
+	
+	protected GraphSliceTask createGraphAsyncTask(String serviceId, String viewId,
+			ViewInput input, VolumeType volumeType,
+			DateTime from, DateTime to, int baselineWindow, int activeWindow,
+			int windowSlice, boolean cache, Set<BreakdownType> breakdownTypes, 
+			GraphResolution graphResolution) {
+		
 		GraphRequest.Builder builder = GraphRequest.newBuilder().setServiceId(serviceId).setViewId(viewId)
 				.setGraphType(GraphType.view).setFrom(from.toString(dateTimeFormatter)).setTo(to.toString(dateTimeFormatter))
 				.setVolumeType(volumeType).setRaw(true).setResolution(graphResolution).setBreakFilters(breakdownTypes);
@@ -2170,6 +2253,19 @@ public abstract class GrafanaFunction {
 		ViewInput input, VolumeType volumeType, DateTime from, DateTime to,
 		int baselineWindow, int activeWindow, boolean bestRes) {		
 		
+		if ((ApiCache.SEGMENT_GRAPHS) && (TimeUtil.getTimeUnit(input.timeFilter) != null)) {
+			return getSegmentedEventsGraph(serviceId, viewId, input, 
+				volumeType, from, to, baselineWindow, activeWindow, bestRes);
+		}
+		
+		return loadEventsGraph(serviceId, viewId, input, 
+			volumeType, from, to, baselineWindow, activeWindow, bestRes);
+	}
+	
+	private Graph loadEventsGraph(String serviceId, String viewId, 
+		ViewInput input, VolumeType volumeType, DateTime from, DateTime to,
+		int baselineWindow, int activeWindow, boolean bestRes) {		
+		
 		Collection<GraphSliceTask> tasks = getGraphTasks(serviceId, viewId, 
 			input, volumeType, from, to, baselineWindow, activeWindow, bestRes, null);
 
@@ -2186,6 +2282,68 @@ public abstract class GrafanaFunction {
 		return result;
 	}
 	
+	/**
+	 * Serves graphs for sliding "last X" timeframes from the graph segment cache, fetching
+	 * only the points added since the panel's previous refresh when its stored segment is recent enough
+	 */
+	private Graph getSegmentedEventsGraph(String serviceId, String viewId, 
+		ViewInput input, VolumeType volumeType, DateTime from, DateTime to,
+		int baselineWindow, int activeWindow, boolean bestRes) {
+		
+		GraphResolution graphResolution;
+		
+		if (isSlicedGraph(from, to, bestRes)) {
+			graphResolution = GraphResolution.H8;
+		} else {
+			graphResolution = getResolution(Pair.of(from, to));
+		}
+		
+		long resolutionMillis = GraphSegmentCache.getResolutionMillis(graphResolution);
+		
+		CacheKey.Builder keyBuilder = CacheKey.newBuilder()
+			.add(apiClient).add(serviceId).add(viewId).add(volumeType)
+			.add(graphResolution).add(baselineWindow).add(activeWindow)
+			.add((to.getMillis() - from.getMillis()) / resolutionMillis);
+		
+		keyBuilder.addSorted(input.getApplications(apiClient, getSettingsData(serviceId), serviceId, true, false));
+		keyBuilder.addSorted(input.getDeployments(serviceId, apiClient));
+		keyBuilder.addSorted(input.getServers(serviceId));
+		
+		CacheKey key = keyBuilder.build();
+		
+		return GraphSegmentCache.load(key, () -> {
+			
+			GraphSegment segment = GraphSegmentCache.getSegment(key);
+			
+			if ((segment != null) && (segment.canExtend(from, to))) {
+				
+				GraphSliceTask task = createGraphAsyncTask(serviceId, viewId, input, volumeType, 
+					segment.getTailStart(), to, baselineWindow, activeWindow, 
+					ApiCache.TAIL_GRAPH_SLICE, false, null, graphResolution);
+				
+				List<Graph> tailGraphs = new ArrayList<Graph>();
+				
+				for (GraphSliceTaskResult taskResult : executeGraphTasks(Collections.singletonList(task), true)) {
+					tailGraphs.addAll(taskResult.graphs);
+				}
+				
+				GraphSegment extended = segment.extend(mergeGraphs(tailGraphs), from, to);
+				GraphSegmentCache.putSegment(key, extended);
+				
+				return extended.graph;
+			}
+			
+			Graph graph = loadEventsGraph(serviceId, viewId, input, 
+				volumeType, from, to, baselineWindow, activeWindow, bestRes);
+			
+			if ((graph != null) && (graph.points != null)) {
+				GraphSegmentCache.putSegment(key, new GraphSegment(graph, from, to, graphResolution));
+			}
+			
+			return graph;
+		});
+	}
+	
 	protected static void printGraph(Graph graph) {
 		
 		for (GraphPoint gp : graph.points) {
@@ -2208,16 +2366,11 @@ public abstract class GrafanaFunction {
 
 		boolean sliceGraph;
 		
-		if (dynamicRes) {
-			sliceGraph = TimeUtil.getTimespanMill(timespan) >= H8_THRESHOLD;
-		} else {
-			sliceGraph = true;
-		}
-		
 		List<SliceRequest> sliceRequests;
 				
-		if ((ApiCache.SLICE_GRAPHS) && (sliceGraph)
-		&& (TimeUtil.getTimespanMill(timespan) > TimeUnit.DAYS.toMillis(2))) {
+		if (isSlicedGraph(from, to, dynamicRes)) {
+			
+			sliceGraph = true;
 		
 			Pair<DateTime, Integer> periodStart = TimeUtil.getPeriodStart(timespan, Interval.Day);
 			
@@ -2271,6 +2424,22 @@ public abstract class GrafanaFunction {
 		return tasks;
 	}
 	
+	protected static boolean isSlicedGraph(DateTime from, DateTime to, boolean dynamicRes) {
+		
+		long timespanMill = TimeUtil.getTimespanMill(Pair.of(from, to));
+		
+		boolean sliceGraph;
+		
+		if (dynamicRes) {
+			sliceGraph = timespanMill >= H8_THRESHOLD;
+		} else {
+			sliceGraph = true;
+		}
+		
+		return (ApiCache.SLICE_GRAPHS) && (sliceGraph)
+			&& (timespanMill > TimeUnit.DAYS.toMillis(2));
+	}
+	
 	/*
 	private List<SliceRequest> getTimeSlices(DateTime from, DateTime to, int days, int pointCount) {
 		
@@ -2297,9 +2466,13 @@ public abstract class GrafanaFunction {
 	*/
 	
 	protected static boolean timespanContains(DateTime start, DateTime end, DateTime value) {
+		return timespanContains(start, end, value.getMillis());
+	}
+	
+	protected static boolean timespanContains(DateTime start, DateTime end, long value) {
 		
-		if ((value.getMillis() > start.getMillis()) 
-		&& (value.getMillis() <= end.getMillis())) {
+		if ((value > start.getMillis()) 
+		&& (value <= end.getMillis())) {
 
 			return true;
 		}
@@ -2308,82 +2481,7 @@ public abstract class GrafanaFunction {
 	}
 	
 	protected Graph mergeGraphs(Collection<Graph> graphs) {
-		
-		if (graphs.size() == 0) {
-			return null;
-		}
-		
-		if (graphs.size() == 1) {
-			return graphs.iterator().next();
-		}
-		
-		Graph result = new Graph();
-		Map<Long, GraphPoint> graphPoints = new TreeMap<Long, GraphPoint>();
-		
-		Set<String> ids = new HashSet<String>();
-		Set<String> types = new HashSet<String>();
-		Set<String> machines = new HashSet<String>();
-		Set<String> deployments = new HashSet<String>();
-		Set<String> applications = new HashSet<String>();
-		
-		for (Graph graph : graphs) {
-			
-			if (graph == null) {
-				continue;
-			}
-			
-			if (result.id == null) {
-				ids.add(graph.id);
-				types.add(graph.type);
-				
-				machines.add(graph.machine_name);
-				deployments.add(graph.deployment_name);
-				applications.add(graph.application_name);
-			}
-			
-			for (GraphPoint gp : graph.points) {
-				DateTime dateTime = TimeUtil.getDateTime(gp.time);
-				GraphPoint graphPoint = graphPoints.get(Long.valueOf(dateTime.getMillis()));
-				
-				if (graphPoint == null) {
-					graphPoints.put(Long.valueOf(dateTime.getMillis()), gp.clone());
-				} else {
-					graphPoint.stats.hits += gp.stats.hits;
-					graphPoint.stats.invocations += gp.stats.invocations;
-					
-					if (!CollectionUtil.safeIsEmpty(gp.contributors)) {
-						if (graphPoint.contributors == null) {
-							graphPoint.contributors = new ArrayList<GraphPointContributor>();
-						}
-						
-						for (GraphPointContributor contributor : gp.contributors) {
-							if (contributor != null) {
-								graphPoint.contributors.add(contributor.clone());
-							}
-						}
-					}
-				}
-			}
-		}
-		
-		result.id = getMergedFieldName(ids);
-		result.type = getMergedFieldName(types);
-		
-		result.machine_name = getMergedFieldName(machines);
-		result.deployment_name = getMergedFieldName(deployments);
-		result.application_name = getMergedFieldName(applications);
-		
-		result.points = new ArrayList<GraphPoint>(graphPoints.values());
-		
-		return result;
-	}
-	
-	private String getMergedFieldName(Set<String> mergedField) {
-		if (CollectionUtil.safeIsEmpty(mergedField)) {
-			return "";
-		}
-		
-		return mergedField.size() == 1 ? mergedField.iterator().next() : "(" + String.join("|", mergedField) + ")";
+		return GraphMerger.merge(graphs);
 	}
 	
 	protected Collection<GraphSliceTaskResult> executeGraphTasks(Collection<GraphSliceTask> slices, boolean sync) {
@@ -2404,7 +2502,7 @@ public abstract class GrafanaFunction {
 				}
 			}
 		} else {	
-			taskResults = executeTasks(tasks, true);	
+			taskResults = loadGraphTasks(slices);	
 		}
 		
 		List<GraphSliceTaskResult> result = new ArrayList<GraphSliceTaskResult>();
@@ -2421,6 +2519,34 @@ public abstract class GrafanaFunction {
 		return result;
 	}
 	
+	private List<Object> loadGraphTasks(Collection<GraphSliceTask> slices) {
+		
+		List<GraphSliceTask> tasks = new ArrayList<GraphSliceTask>(slices);
+		List<CompletableFuture<Response<GraphResult>>> loads = 
+			new ArrayList<CompletableFuture<Response<GraphResult>>>(tasks.size());
+		
+		for (GraphSliceTask task : tasks) {
+			loads.add(task.loadAsync());
+		}
+		
+		//cached and in flight slices don't hold a thread - only loads not yet
+		//started by the query executor may be run here by the calling thread
+		List<Response<GraphResult>> responses = joinTasks(loads);
+		
+		List<Object> result = new ArrayList<Object>(tasks.size());
+		
+		for (int i = 0; i < tasks.size(); i++) {
+			
+			Response<GraphResult> response = responses.get(i);
+			
+			if (response != null) {
+				result.add(tasks.get(i).getResult(response));
+			}
+		}
+		
+		return result;
+	}
+	
 	protected static void appendGraphStats(Map<String, EventResult> eventMap, Graph graph) {
 		
 		for (GraphPoint gp : graph.points) {
@@ -2480,20 +2606,19 @@ public abstract class GrafanaFunction {
 		Graph graph, Pair<DateTime, DateTime> timespan) {
 		
 		long result = 0;
+		long[] times = GraphTimes.of(graph);
 		
-		for (GraphPoint gp : graph.points) {
+		for (int i = 0; i < times.length; i++) {
+			
+			GraphPoint gp = graph.points.get(i);
 			
 			if (gp.contributors == null) {
 				continue;
 			}
 			
-			if (timespan != null) {
-				
-				DateTime gpTime = TimeUtil.getDateTime(gp.time);
-				
-				if (!timespanContains(timespan.getFirst(), timespan.getSecond(), gpTime)) {
-					continue;
-				}
+			if ((timespan != null) 
+			&& (!timespanContains(timespan.getFirst(), timespan.getSecond(), times[i]))) {
+				continue;
 			}
 	
 			for (GraphPointContributor gpc : gp.contributors) {		
@@ -2746,29 +2871,50 @@ public abstract class GrafanaFunction {
 			executor  = GrafanaThreadPool.getFunctionExecutor(apiClient);
 		}
 		
-		CompletionService<Object> completionService = new ExecutorCompletionService<Object>(executor);
+		List<CompletableTask<Object>> futures = new ArrayList<CompletableTask<Object>>(tasks.size());
 		
 		for (Callable<Object> task : tasks)	{
-			completionService.submit(task);
+			futures.add(CompletableTask.submit(executor, task));
 		}
 		
-		List<Object> result = new ArrayList<Object>();
-		
-		int received = 0;
+		//the calling thread runs any task still waiting for a tenant permit itself
+		//rather than block on it - so functions waiting on their own sub tasks
+		//can't deadlock the shared pools, however many permits their tenant holds
+		return joinTasks(futures);
+	}
+	
+	/**
+	 * Waits for the results of the tasks. Once the query's deadline passes (or it's cancelled) 
+	 * the results of tasks that completed are returned, with null in place of the rest, and the
+	 * statement is marked as partial. 
+	 */
+	private static <T> List<T> joinTasks(List<? extends CompletableFuture<? extends T>> futures) {
 		
-		while (received < tasks.size()) {
-			try {
-				Future<Object> future = completionService.take();
-				
-				received++;
-				Object asynResult = future.get();
-				result.add(asynResult);
-			} catch (Exception e) {
+		try {
+			return CompletableTask.join(futures);
+		} catch (Exception e) {
+			
+			QueryContext context = QueryContext.current();
+			
+			if ((context == null) || (!context.isExpired())) {
 				throw new IllegalStateException(e);
 			}
+			
+			context.markPartial();
+			
+			List<T> result = new ArrayList<T>(futures.size());
+			
+			for (CompletableFuture<? extends T> future : futures) {
+				
+				if ((future.isDone()) && (!future.isCompletedExceptionally())) {
+					result.add(future.join());
+				} else {
+					result.add(null);
+				}
+			}
+			
+			return result;
 		}
-		
-		return result;
 	}
 	
 	protected void applyFilters(EnvironmentsFilterInput input, String serviceId,
@@ -3023,5 +3169,20 @@ public abstract class GrafanaFunction {
 			, Collections.singletonList("No Environments"));
 	}
 	
+	/**
+	 * The data processing the input is known to fetch, planned and prefetched together with that
+	 * of the other statements of the query - see {@link QueryPlan}.
+	 */
+	public Collection<DataDependency> getDependencies(FunctionInput functionInput) {
+		return Collections.emptyList();
+	}
+	
+	/**
+	 * The priority the tasks processing the function are queued with.
+	 */
+	public TaskPriority getPriority() {
+		return TaskPriority.Interactive;
+	}
+	
 	public abstract List<Series> process(FunctionInput functionInput);
 }
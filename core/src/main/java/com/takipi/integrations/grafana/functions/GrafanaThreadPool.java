@@ -1,55 +1,304 @@
 package com.takipi.integrations.grafana.functions;
 
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Strings;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.takipi.api.client.ApiClient;
 import com.takipi.common.util.Pair;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import com.takipi.integrations.grafana.util.AdaptiveLimit;
+import com.takipi.integrations.grafana.util.GrafanaMetrics;
+import com.takipi.integrations.grafana.util.PriorityTaskQueue;
+import com.takipi.integrations.grafana.util.TaskPriority;
+import com.takipi.integrations.grafana.util.TenantExecutor;
 
+/**
+ * Two process wide thread pools - one for functions and one for the query slices they fan out
+ * to - shared by all api keys. Each api key (tenant) submits through its own pair of
+ * {@link TenantExecutor}s, which cap the number of threads it may hold in each pool. The function
+ * cap is fixed, while the query cap follows the tenant's OverOps API latency AIMD style: it grows
+ * while responses are fast, and is cut when they slow down or fail.
+ * 
+ * When running on JDK 21+ with threadPool.virtualThreads set, both pools start a virtual thread
+ * per task instead, and the tenant permits (threadPool.virtualPermits) are all that bounds the
+ * number of concurrent blocking API calls.
+ * 
+ * Tasks waiting for a tenant permit or a pool thread are served by {@link TaskPriority}, so the
+ * metadata lookups of template variables are not queued behind the slices of heavy reports.
+ */
 public class GrafanaThreadPool {
 	
 	private static final Logger logger = LoggerFactory.getLogger(GrafanaThreadPool.class);
 	
-	private static final int CACHE_SIZE = 100;
-	private static final int CACHE_RETENTION_MIN = 2;
-	private static final int THREADS_PER_API_KEY = 50;
+	private static final String FUNCTION_THREADS_PROPERTY	= "threadPool.functionThreads";
+	private static final String QUERY_THREADS_PROPERTY		= "threadPool.queryThreads";
+	private static final String FUNCTION_PERMITS_PROPERTY	= "threadPool.functionPermits";
+	private static final String QUERY_PERMITS_PROPERTY		= "threadPool.queryPermits";
+	private static final String LATENCY_THRESHOLD_PROPERTY	= "threadPool.latencyThreshold";
+	private static final String VIRTUAL_THREADS_PROPERTY	= "threadPool.virtualThreads";
+	private static final String VIRTUAL_PERMITS_PROPERTY	= "threadPool.virtualPermits";
+	
+	private static final int DEFAULT_FUNCTION_THREADS = 100;
+	private static final int DEFAULT_QUERY_THREADS = 200;
+	
+	//per tenant - matching the 25 + 25 threads each api key used to get
+	private static final int DEFAULT_FUNCTION_PERMITS = 25;
+	private static final int DEFAULT_QUERY_PERMITS = 25;
+	
+	//per tenant when on virtual threads - permits are not backed by a platform thread each
+	private static final int DEFAULT_VIRTUAL_PERMITS = 500;
+	
+	private static final int MIN_QUERY_PERMITS = 2;
+	private static final int INITIAL_QUERY_PERMITS = 10;
+	
+	private static final long DEFAULT_LATENCY_THRESHOLD = TimeUnit.SECONDS.toMillis(5);
+	private static final long LIMIT_BACKOFF_INTERVAL = TimeUnit.SECONDS.toMillis(1);
+	
+	private static final int THREAD_KEEP_ALIVE_SEC = 60;
+	
+	private static final int CACHE_RETENTION_MIN = 10;
+	private static final long SWEEP_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+	
+	private static final String FUNCTION_POOL = "function";
+	private static final String QUERY_POOL = "query";
+	
+	private static final boolean virtualThreads = Boolean.getBoolean(VIRTUAL_THREADS_PROPERTY);
 	
-	public static final LoadingCache<ApiClient, Pair<ThreadPoolExecutor, ThreadPoolExecutor>> executorCache = CacheBuilder
+	//the thread pools must be separated to prevent deadlocking between
+	//a func query slice that's waiting on a thread, but the thread pool has been depleted
+	//by other functions waiting on this query to come back from the guava cache
+	public static final ExecutorService functionExecutor = createExecutor(FUNCTION_POOL,
+		getIntProperty(FUNCTION_THREADS_PROPERTY, DEFAULT_FUNCTION_THREADS));
+	
+	public static final ExecutorService queryExecutor = createExecutor(QUERY_POOL,
+		getIntProperty(QUERY_THREADS_PROPERTY, DEFAULT_QUERY_THREADS));
+	
+	private static final int functionPermits;
+	private static final int queryPermits;
+	private static final long latencyThreshold = getIntProperty(LATENCY_THRESHOLD_PROPERTY, (int)DEFAULT_LATENCY_THRESHOLD);
+	
+	private static final AtomicLong nextSweepTime = new AtomicLong();
+	
+	//tenant executors are only dropped once idle for CACHE_RETENTION_MIN - see sweepExecutors - as
+	//a tenant whose executors were evicted with tasks running would get new ones, and new permits
+	public static final LoadingCache<ApiClient, Pair<TenantExecutor, TenantExecutor>> executorCache = CacheBuilder
 			.newBuilder()
-			.maximumSize(CACHE_SIZE)
-			.expireAfterWrite(CACHE_RETENTION_MIN, TimeUnit.MINUTES)
-			.<ApiClient, Pair<ThreadPoolExecutor, ThreadPoolExecutor>> removalListener(notification -> {
-				try {
-					notification.getValue().getFirst().shutdown();
-					notification.getValue().getSecond().shutdown();
-				} catch (Exception e) {
-					logger.error("Error shutting down cached thread pool executors", e);
-				}
-			})
-			.build(new CacheLoader<ApiClient, Pair<ThreadPoolExecutor, ThreadPoolExecutor>>() {
+			.build(new CacheLoader<ApiClient, Pair<TenantExecutor, TenantExecutor>>() {
 				
 				@Override
-				public Pair<ThreadPoolExecutor, ThreadPoolExecutor> load(ApiClient key) {
+				public Pair<TenantExecutor, TenantExecutor> load(ApiClient key) {
+					
+					TenantExecutor tenantFunctionExecutor = new TenantExecutor(functionExecutor,
+						AdaptiveLimit.fixed(Math.min(functionPermits, getMaxThreads(functionExecutor))));
+					
+					int maxQueryPermits = Math.max(MIN_QUERY_PERMITS, Math.min(queryPermits, getMaxThreads(queryExecutor)));
 					
-					//the thread pools must be separated to prevent deadlocking between 
-					//a func query slice that's waiting on a thread, but the thread pool has been depleted
-					//by other functions waiting on this query to come back from the guava cache 
-					ThreadPoolExecutor functionExecutor = (ThreadPoolExecutor)Executors.newFixedThreadPool(THREADS_PER_API_KEY / 2);
-					ThreadPoolExecutor queryExecutor = (ThreadPoolExecutor)Executors.newFixedThreadPool(THREADS_PER_API_KEY / 2);
+					TenantExecutor tenantQueryExecutor = new TenantExecutor(queryExecutor,
+						new AdaptiveLimit(MIN_QUERY_PERMITS, INITIAL_QUERY_PERMITS, maxQueryPermits,
+						latencyThreshold, LIMIT_BACKOFF_INTERVAL));
 					
-					return Pair.of(functionExecutor, queryExecutor);
+					return Pair.of(tenantFunctionExecutor, tenantQueryExecutor);
 				}
 			});
 	
-	public static Pair<ThreadPoolExecutor, ThreadPoolExecutor> getExecutors(ApiClient apiClient) {
+	static {
+		
+		if (isVirtual(queryExecutor)) {
+			int virtualPermits = getIntProperty(VIRTUAL_PERMITS_PROPERTY, DEFAULT_VIRTUAL_PERMITS);
+			
+			functionPermits = getIntProperty(FUNCTION_PERMITS_PROPERTY, virtualPermits);
+			queryPermits = getIntProperty(QUERY_PERMITS_PROPERTY, virtualPermits);
+		} else {
+			functionPermits = getIntProperty(FUNCTION_PERMITS_PROPERTY, DEFAULT_FUNCTION_PERMITS);
+			queryPermits = getIntProperty(QUERY_PERMITS_PROPERTY, DEFAULT_QUERY_PERMITS);
+		}
+		
+		registerGauges(FUNCTION_POOL, functionExecutor, pair -> pair.getFirst());
+		registerGauges(QUERY_POOL, queryExecutor, pair -> pair.getSecond());
+		
+		GrafanaMetrics.registerGauge("executor_tenants", "Number of api keys with tenant executors",
+			"pool", "all", () -> executorCache.size());
+	}
+	
+	private static ExecutorService createExecutor(String name, int threads) {
+		
+		if (virtualThreads) {
+			
+			ExecutorService result = createVirtualExecutor(name);
+			
+			if (result != null) {
+				return result;
+			}
+		}
+		
+		ThreadPoolExecutor result = new ThreadPoolExecutor(threads, threads,
+			THREAD_KEEP_ALIVE_SEC, TimeUnit.SECONDS, 
+			new PriorityTaskQueue(),
+			new ThreadFactoryBuilder().setNameFormat("oo-influx-" + name + "-%d").setDaemon(true).build());
+		
+		result.allowCoreThreadTimeOut(true);
+		
+		return result;
+	}
+	
+	/**
+	 * Looked up reflectively, as the code is compiled for Java 8.
+	 * 
+	 * @return a virtual thread per task executor, or null if the JVM doesn't support them 
+	 */
+	private static ExecutorService createVirtualExecutor(String name) {
+		
+		try {
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = builderClass.getMethod("name", String.class, long.class)
+				.invoke(builder, "oo-influx-virtual-" + name + "-", 0L);
+			
+			ThreadFactory threadFactory = (ThreadFactory)builderClass.getMethod("factory").invoke(builder);
+			
+			return (ExecutorService)Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+				.invoke(null, threadFactory);
+		} catch (Exception e) {
+			logger.warn("Virtual threads are not supported by this JVM ({}), using a {} thread pool",
+				System.getProperty("java.version"), name);
+			return null;
+		}
+	}
+	
+	private static boolean isVirtual(ExecutorService executor) {
+		return !(executor instanceof ThreadPoolExecutor);
+	}
+	
+	private static int getMaxThreads(ExecutorService executor) {
+		
+		if (executor instanceof ThreadPoolExecutor) {
+			return ((ThreadPoolExecutor)executor).getMaximumPoolSize();
+		}
+		
+		return Integer.MAX_VALUE;
+	}
+	
+	private static int getIntProperty(String name, int defaultValue) {
+		try {
+			String value = System.getProperty(name);
+			
+			if (Strings.isNullOrEmpty(value)) {
+				return defaultValue;
+			}
+			
+			return Math.max(1, Integer.parseInt(value));
+		}
+		catch (Exception e) {
+			return defaultValue;
+		}
+	}
+	
+	private static void registerGauges(String pool, ExecutorService executor,
+		Function<Pair<TenantExecutor, TenantExecutor>, TenantExecutor> executorFunction) {
+		
+		GrafanaMetrics.registerGauge("executor_queue_depth", "Tasks waiting for a thread or a tenant permit",
+			"pool", pool, () -> getQueueSize(executor) + sumExecutors(executorFunction, tenant -> tenant.getPendingCount()));
+		
+		GrafanaMetrics.registerGauge("executor_max_queue_depth", "Tasks waiting for a permit of the most loaded tenant",
+			"pool", pool, () -> maxExecutors(executorFunction, tenant -> tenant.getPendingCount()));
+		
+		GrafanaMetrics.registerGauge("executor_active_threads", "Threads executing tasks",
+			"pool", pool, () -> getActiveCount(executor, executorFunction));
+		
+		GrafanaMetrics.registerGauge("executor_tenant_permits", "Permits of all tenants, adapted to API latency for the query pool",
+			"pool", pool, () -> sumExecutors(executorFunction, tenant -> tenant.getLimit().get()));
+	}
+	
+	/**
+	 * @return the threads of the shared function pool, or for virtual threads the number started
+	 * for the tasks running
+	 */
+	public static long getFunctionPoolSize() {
+		return getPoolSize(functionExecutor, pair -> pair.getFirst());
+	}
+	
+	/**
+	 * @return the threads of the shared query pool, or for virtual threads the number started
+	 * for the tasks running
+	 */
+	public static long getQueryPoolSize() {
+		return getPoolSize(queryExecutor, pair -> pair.getSecond());
+	}
+	
+	private static long getPoolSize(ExecutorService executor,
+		Function<Pair<TenantExecutor, TenantExecutor>, TenantExecutor> executorFunction) {
+		
+		if (executor instanceof ThreadPoolExecutor) {
+			return ((ThreadPoolExecutor)executor).getPoolSize();
+		}
+		
+		return getActiveCount(executor, executorFunction);
+	}
+	
+	private static int getQueueSize(ExecutorService executor) {
+		
+		if (executor instanceof ThreadPoolExecutor) {
+			return ((ThreadPoolExecutor)executor).getQueue().size();
+		}
+		
+		return 0;
+	}
+	
+	private static long getActiveCount(ExecutorService executor,
+		Function<Pair<TenantExecutor, TenantExecutor>, TenantExecutor> executorFunction) {
+		
+		if (executor instanceof ThreadPoolExecutor) {
+			return ((ThreadPoolExecutor)executor).getActiveCount();
+		}
+		
+		//a virtual thread is started for each task a tenant executor passes on
+		return sumExecutors(executorFunction, tenant -> tenant.getRunningCount());
+	}
+	
+	private static long sumExecutors(Function<Pair<TenantExecutor, TenantExecutor>, TenantExecutor> executorFunction,
+		ToIntFunction<TenantExecutor> valueFunction) {
+		
+		long result = 0;
+		
+		for (Pair<TenantExecutor, TenantExecutor> executors : executorCache.asMap().values()) {
+			result += valueFunction.applyAsInt(executorFunction.apply(executors));
+		}
+		
+		return result;
+	}
+	
+	private static long maxExecutors(Function<Pair<TenantExecutor, TenantExecutor>, TenantExecutor> executorFunction,
+		ToIntFunction<TenantExecutor> valueFunction) {
+		
+		long result = 0;
+		
+		for (Pair<TenantExecutor, TenantExecutor> executors : executorCache.asMap().values()) {
+			result = Math.max(result, valueFunction.applyAsInt(executorFunction.apply(executors)));
+		}
+		
+		return result;
+	}
+	
+	public static Pair<TenantExecutor, TenantExecutor> getExecutors(ApiClient apiClient) {
+		
+		sweepExecutors();
 		
 		try {
 			return executorCache.get(apiClient);
@@ -58,11 +307,62 @@ public class GrafanaThreadPool {
 		}
 	}
 	
+	/**
+	 * Drops the executors of tenants idle for CACHE_RETENTION_MIN. Called on each lookup, and only
+	 * scans the tenants once per SWEEP_INTERVAL.
+	 */
+	private static void sweepExecutors() {
+		
+		long now = System.currentTimeMillis();
+		long nextSweep = nextSweepTime.get();
+		
+		if ((now < nextSweep) || (!nextSweepTime.compareAndSet(nextSweep, now + SWEEP_INTERVAL))) {
+			return;
+		}
+		
+		long idleTime = TimeUnit.MINUTES.toMillis(CACHE_RETENTION_MIN);
+		
+		for (Map.Entry<ApiClient, Pair<TenantExecutor, TenantExecutor>> entry : executorCache.asMap().entrySet()) {
+			
+			Pair<TenantExecutor, TenantExecutor> executors = entry.getValue();
+			
+			if ((executors.getFirst().isIdle(idleTime)) && (executors.getSecond().isIdle(idleTime))) {
+				executorCache.asMap().remove(entry.getKey(), executors);
+			}
+		}
+	}
+	
 	public static Executor getQueryExecutor(ApiClient apiClient) {
 		return getExecutors(apiClient).getSecond();
 	}
 	
-	public static ThreadPoolExecutor getFunctionExecutor(ApiClient apiClient) {	
+	/**
+	 * @return an executor queuing the tasks submitted to it with a set priority, rather than that
+	 * of the submitting query
+	 */
+	public static Executor getQueryExecutor(ApiClient apiClient, TaskPriority priority) {
+		
+		TenantExecutor tenantExecutor = getExecutors(apiClient).getSecond();
+		
+		return task -> tenantExecutor.execute(task, priority);
+	}
+	
+	public static Executor getFunctionExecutor(ApiClient apiClient) {
 		return getExecutors(apiClient).getFirst();
 	}
+	
+	public static Executor getFunctionExecutor(ApiClient apiClient, TaskPriority priority) {
+		
+		TenantExecutor tenantExecutor = getExecutors(apiClient).getFirst();
+		
+		return task -> tenantExecutor.execute(task, priority);
+	}
+	
+	/**
+	 * Feeds the latency of an OverOps API call made on behalf of a tenant into the limit of its
+	 * query executor.
+	 */
+	public static void recordApiLatency(ApiClient apiClient, long latency, boolean failed) {
+		getExecutors(apiClient).getSecond().getLimit().onSample(latency, failed);
+	}
 }
@@ -1,7 +1,6 @@
 package com.takipi.integrations.grafana.functions;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -21,10 +20,11 @@ import com.takipi.api.client.util.validation.ValidationUtil.VolumeType;
 import com.takipi.common.util.Pair;
 import com.takipi.integrations.grafana.input.BaseGraphInput;
 import com.takipi.integrations.grafana.input.FunctionInput;
-import com.takipi.integrations.grafana.input.FunctionInput.TimeFormat;
 import com.takipi.integrations.grafana.input.GraphInput;
 import com.takipi.integrations.grafana.output.Series;
+import com.takipi.integrations.grafana.output.TimeSeriesValues;
 import com.takipi.integrations.grafana.settings.ServiceSettings;
+import com.takipi.integrations.grafana.util.GraphTimes;
 import com.takipi.integrations.grafana.util.TimeUtil;
 
 public class GraphFunction extends BaseGraphFunction {
@@ -110,7 +110,7 @@ public class GraphFunction extends BaseGraphFunction {
 
 		long volume = 0;
 	
-		List<List<Object>> values = new ArrayList<List<Object>>(graph.points.size());
+		TimeSeriesValues values = new TimeSeriesValues(input.getTimeFormat(), graph.points.size());
 		
 		EventFilter eventFilter;
 		Map<String, EventResult> eventMap;
@@ -151,19 +151,15 @@ public class GraphFunction extends BaseGraphFunction {
 			debugTransactions = null;
 		}	
 		
-		for (GraphPoint gp : graph.points) {
+		long[] times = GraphTimes.of(graph);
+		
+		for (int i = 0; i < times.length; i++) {
 
-			Object timeValue;
-			
-			if (input.getTimeFormat() == TimeFormat.ISO_UTC) {
-				timeValue = gp.time;
-			} else {
-				DateTime gpTime = TimeUtil.getDateTime(gp.time);
-				timeValue = Long.valueOf(gpTime.getMillis());
-			}	
+			GraphPoint gp = graph.points.get(i);
+			long time = times[i];
 
 			if (gp.contributors == null) {
-				values.add(Arrays.asList(new Object[] {timeValue , Long.valueOf(0l) }));
+				values.add(time, 0l);
 				continue;
 			}
 			
@@ -221,7 +217,7 @@ public class GraphFunction extends BaseGraphFunction {
 			}
 
 			volume += value;
-			values.add(Arrays.asList(new Object[] { timeValue, Long.valueOf(value) }));
+			values.add(time, value);
 		}
 			
 		if ((debugMap != null) && (debugTransactions != null)) {
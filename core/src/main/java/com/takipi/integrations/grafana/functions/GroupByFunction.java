@@ -31,6 +31,7 @@ import com.takipi.integrations.grafana.input.FunctionInput;
 import com.takipi.integrations.grafana.input.GroupByInput;
 import com.takipi.integrations.grafana.output.Series;
 import com.takipi.integrations.grafana.util.DeploymentUtil;
+import com.takipi.integrations.grafana.util.GraphTimes;
 import com.takipi.integrations.grafana.util.TimeUtil;
 
 public class GroupByFunction extends BaseVolumeFunction {
@@ -206,7 +207,11 @@ public class GroupByFunction extends BaseVolumeFunction {
 				return;
 			}
 
-			for (GraphPoint gp : graph.points) {
+			long[] times = GraphTimes.of(graph);
+			
+			for (int i = 0; i < times.length; i++) {
+
+				GraphPoint gp = graph.points.get(i);
 
 				if (gp.contributors == null) {
 					continue;
@@ -224,7 +229,7 @@ public class GroupByFunction extends BaseVolumeFunction {
 						continue;
 					}
 
-					int index = TimeUtil.getStartDateTimeIndex(intervals, gp.time);
+					int index = TimeUtil.getStartDateTimeIndex(intervals, times[i]);
 
 					if (index == -1) {
 						continue;
@@ -580,7 +585,11 @@ public class GroupByFunction extends BaseVolumeFunction {
 			return;
 		}
 		
-		for (GraphPoint gp : graph.points) {
+		long[] times = GraphTimes.of(graph);
+		
+		for (int i = 0; i < times.length; i++) {
+
+			GraphPoint gp = graph.points.get(i);
 
 			if (gp.contributors == null) {
 				continue;
@@ -598,7 +607,7 @@ public class GroupByFunction extends BaseVolumeFunction {
 					continue;
 				}
 
-				int index = TimeUtil.getStartDateTimeIndex(intervals, gp.time);
+				int index = TimeUtil.getStartDateTimeIndex(intervals, times[i]);
 
 				if (index == -1) {
 					continue;
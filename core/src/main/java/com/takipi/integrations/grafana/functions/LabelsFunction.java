@@ -10,6 +10,8 @@ import com.takipi.api.client.result.label.LabelsResult;
 import com.takipi.api.core.url.UrlClient.Response;
 import com.takipi.integrations.grafana.input.BaseEnvironmentsInput;
 import com.takipi.integrations.grafana.input.LabelsInput;
+import com.takipi.integrations.grafana.util.GrafanaMetrics;
+import com.takipi.integrations.grafana.util.LatencyTimer;
 
 public class LabelsFunction extends EnvironmentVariableFunction {
 	
@@ -46,7 +48,15 @@ public class LabelsFunction extends EnvironmentVariableFunction {
 		LabelsInput labelsInput = (LabelsInput)input;
 		
 		LabelsRequest request = LabelsRequest.newBuilder().setServiceId(serviceId).build();
-		Response<LabelsResult> response = apiClient.get(request);
+		
+		long startTime = LatencyTimer.start();
+		Response<LabelsResult> response = null;
+		
+		try {
+			response = apiClient.get(request);
+		} finally {
+			GrafanaMetrics.recordApiRequest(request, startTime, response);
+		}
 		
 		validateResponse(response);
 		
@@ -2,10 +2,10 @@ package com.takipi.integrations.grafana.functions;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ThreadPoolExecutor;
 
 import com.takipi.api.client.ApiClient;
 import com.takipi.api.core.url.UrlClient.Response;
@@ -18,8 +18,16 @@ import com.takipi.integrations.grafana.input.QueryDiagnosticsInput.ReportMode;
 import com.takipi.integrations.grafana.output.Series;
 import com.takipi.integrations.grafana.util.ApiCache;
 import com.takipi.integrations.grafana.util.ApiCache.BaseCacheLoader;
+import com.takipi.integrations.grafana.util.ApiCache.CacheEntry;
 import com.takipi.integrations.grafana.util.ApiCache.QueryLogItem;
+import com.takipi.integrations.grafana.util.ApiCache.RefreshPolicy;
 import com.takipi.integrations.grafana.util.ApiCache.RegressionCacheLoader;
+import com.takipi.integrations.grafana.util.ApiGuard;
+import com.takipi.integrations.grafana.util.CacheWeights;
+import com.takipi.integrations.grafana.util.CircuitBreaker;
+import com.takipi.integrations.grafana.util.RequestCoalescer.InFlightLoad;
+import com.takipi.integrations.grafana.util.TenantExecutor;
+import com.takipi.integrations.grafana.util.TokenBucket;
 import com.takipi.integrations.grafana.util.TimeUtil;
 
 public class QueryDiagnosticsFunction extends GrafanaFunction {
@@ -65,6 +73,18 @@ public class QueryDiagnosticsFunction extends GrafanaFunction {
 			case Threads:
 				value = GrafanaThreadPool.executorCache.size();
 				break;
+			case Coalescing:
+				value = ApiCache.queryCoalescer.getCoalescingRate();
+				break;
+			case Refresh:
+				value = getStaleServedCount();
+				break;
+			case CacheWeights:
+				value = getTotalCacheWeight();
+				break;
+			case Circuits:
+				value = ApiGuard.getOpenCircuitCount();
+				break;
 			default:
 				throw new IllegalStateException(String.valueOf(reportMode));
 			
@@ -81,6 +101,14 @@ public class QueryDiagnosticsFunction extends GrafanaFunction {
 			case RegressionCache:
 			case ApiCache:
 				return QueryDiagnosticsInput.CACHE_FIELDS;
+			case Coalescing:
+				return QueryDiagnosticsInput.COALESCING_FIELDS;
+			case Refresh:
+				return QueryDiagnosticsInput.REFRESH_FIELDS;
+			case CacheWeights:
+				return QueryDiagnosticsInput.CACHE_WEIGHT_FIELDS;
+			case Circuits:
+				return QueryDiagnosticsInput.CIRCUIT_FIELDS;
 			case Log:
 				return QueryDiagnosticsInput.LOG_FIELDS;
 			case Threads:
@@ -92,7 +120,7 @@ public class QueryDiagnosticsFunction extends GrafanaFunction {
 	
 	private 	List<List<Object>> getLogValues() {
 		
-		List<QueryLogItem> items = new ArrayList<QueryLogItem>(ApiCache.queryLogItems);
+		List<QueryLogItem> items = ApiCache.queryLogItems.snapshot();
 		List<List<Object>> result = new ArrayList<List<Object>>(items.size());
 		
 		for (QueryLogItem queryLogItem : items) {
@@ -110,29 +138,38 @@ public class QueryDiagnosticsFunction extends GrafanaFunction {
 	
 	private 	List<List<Object>> getThreadValues() {
 				
-		List<Map.Entry<ApiClient, Pair<ThreadPoolExecutor, ThreadPoolExecutor>>> items = 
-			new ArrayList<Map.Entry<ApiClient, Pair<ThreadPoolExecutor,
-			ThreadPoolExecutor>>>(GrafanaThreadPool.executorCache.asMap().entrySet());
+		List<Map.Entry<ApiClient, Pair<TenantExecutor, TenantExecutor>>> items = 
+			new ArrayList<Map.Entry<ApiClient, Pair<TenantExecutor,
+			TenantExecutor>>>(GrafanaThreadPool.executorCache.asMap().entrySet());
 		
 		List<List<Object>> result = new ArrayList<List<Object>>(items.size());
+		
+		//tenants share the pools, so each row shows the size of the shared ones
+		long functionPoolSize = GrafanaThreadPool.getFunctionPoolSize();
+		long queryPoolSize = GrafanaThreadPool.getQueryPoolSize();
 
-		for (Map.Entry<ApiClient, Pair<ThreadPoolExecutor, ThreadPoolExecutor>> entry : items) {
+		for (Map.Entry<ApiClient, Pair<TenantExecutor, TenantExecutor>> entry : items) {
 			
-			ThreadPoolExecutor functionPool = entry.getValue().getFirst();
-			ThreadPoolExecutor queryPool = entry.getValue().getSecond();
+			TenantExecutor functionPool = entry.getValue().getFirst();
+			TenantExecutor queryPool = entry.getValue().getSecond();
 
 			
 			result.add(Arrays.asList(new Object[] {
 					entry.getKey().hashCode(),
 					
-					functionPool.getActiveCount(),
-					functionPool.getPoolSize(),
+					functionPool.getRunningCount(),
+					functionPoolSize,
+					
+					queryPool.getRunningCount(),
+					queryPoolSize,
 					
-					queryPool.getActiveCount(),
-					queryPool.getPoolSize(),
+					functionPool.getPendingCount(),
+					queryPool.getPendingCount(),
 					
-					functionPool.getQueue().size(),
-					queryPool.getQueue().size()
+					functionPool.getLimit().get(),
+					queryPool.getLimit().get(),
+					
+					Math.round(queryPool.getLimit().getAvgLatency())
 
 				}));
 
@@ -143,20 +180,21 @@ public class QueryDiagnosticsFunction extends GrafanaFunction {
 	
 	private 	List<List<Object>> getQueryCacheValues() {
 		
-		List<Map.Entry<BaseCacheLoader, Response<?>>> items = 
-			new ArrayList<Map.Entry<BaseCacheLoader, Response<?>>>(ApiCache.queryCache.asMap().entrySet());
+		List<Map.Entry<BaseCacheLoader, CacheEntry<Response<?>>>> items = 
+			new ArrayList<Map.Entry<BaseCacheLoader, CacheEntry<Response<?>>>>(ApiCache.queryCache.asMap().entrySet());
 		
 		List<List<Object>> result = new ArrayList<List<Object>>(items.size());
 
-		for (Map.Entry<BaseCacheLoader, Response<?>> entry : items) {
+		for (Map.Entry<BaseCacheLoader, CacheEntry<Response<?>>> entry : items) {
 			
 			result.add(Arrays.asList(new Object[] {
 					entry.getKey().loadT1,
 					Long.valueOf(entry.getKey().loadT2 - entry.getKey().loadT1),
 					entry.getKey().apiClient.hashCode(),
 					entry.getKey().toString(),
-					entry.getKey().getLoaderData(entry.getValue())
-
+					entry.getKey().getLoaderData(entry.getValue().value),
+					entry.getValue().getAge(),
+					getEntryState(entry.getKey(), entry.getValue())
 				}));
 
 		}
@@ -166,21 +204,22 @@ public class QueryDiagnosticsFunction extends GrafanaFunction {
 	
 	private 	List<List<Object>> getRegressionCacheValues() {
 		
-		List<Map.Entry<RegressionCacheLoader, RegressionOutput>> items =
+		List<Map.Entry<RegressionCacheLoader, CacheEntry<RegressionOutput>>> items =
 			new ArrayList<Map.Entry<RegressionCacheLoader, 
-			RegressionOutput>>(ApiCache.regressionOutputCache.asMap().entrySet());
+			CacheEntry<RegressionOutput>>>(ApiCache.regressionOutputCache.asMap().entrySet());
 		
 		List<List<Object>> result = new ArrayList<List<Object>>(items.size());
 		
-		for (Map.Entry<RegressionCacheLoader, RegressionOutput> entry : items) {
+		for (Map.Entry<RegressionCacheLoader, CacheEntry<RegressionOutput>> entry : items) {
 			
 			result.add(Arrays.asList(new Object[] {
 					entry.getKey().loadT1,
 					Long.valueOf(Math.max(0, entry.getKey().loadT2 - entry.getKey().loadT1)),
 					entry.getKey().apiClient.hashCode(),
 					entry.getKey().toString(),
-					entry.getKey().getLoaderData(entry.getValue())
-
+					entry.getKey().getLoaderData(entry.getValue().value),
+					entry.getValue().getAge(),
+					getEntryState(entry.getKey(), entry.getValue())
 				}));
 
 		}
@@ -189,6 +228,152 @@ public class QueryDiagnosticsFunction extends GrafanaFunction {
 	}
 
 	
+	private static String getEntryState(Object key, CacheEntry<?> entry) {
+		
+		RefreshPolicy refreshPolicy = ApiCache.getRefreshPolicy(key.getClass());
+		
+		if (refreshPolicy.isExpired(entry)) {
+			return "Expired";
+		}
+		
+		if (refreshPolicy.isStale(entry)) {
+			return "Stale";
+		}
+		
+		return "Fresh";
+	}
+	
+	private static long getStaleServedCount() {
+		
+		long result = 0;
+		
+		for (RefreshPolicy refreshPolicy : ApiCache.getRefreshPolicies()) {
+			result += refreshPolicy.staleServed.get();
+		}
+		
+		return result;
+	}
+	
+	private 	List<List<Object>> getRefreshValues() {
+		
+		Collection<RefreshPolicy> refreshPolicies = ApiCache.getRefreshPolicies();
+		List<List<Object>> result = new ArrayList<List<Object>>(refreshPolicies.size());
+		
+		for (RefreshPolicy refreshPolicy : refreshPolicies) {
+			
+			result.add(Arrays.asList(new Object[] {
+					refreshPolicy.name,
+					refreshPolicy.softTtl,
+					refreshPolicy.hardTtl,
+					refreshPolicy.staleServed.get(),
+					refreshPolicy.refreshes.get(),
+					refreshPolicy.expired.get()
+				}));
+		}
+		
+		return result;
+	}
+	
+	private static long getTotalCacheWeight() {
+		
+		long result = 0;
+		
+		for (CacheWeights<?> cacheWeights : CacheWeights.getInstances()) {
+			result += cacheWeights.getWeight();
+		}
+		
+		return result;
+	}
+	
+	private 	List<List<Object>> getCacheWeightValues() {
+		
+		List<List<Object>> result = new ArrayList<List<Object>>();
+		
+		for (CacheWeights<?> cacheWeights : CacheWeights.getInstances()) {
+			
+			result.add(Arrays.asList(new Object[] {
+					cacheWeights.name,
+					"All",
+					cacheWeights.getWeight(),
+					cacheWeights.maxWeight
+				}));
+			
+			for (Map.Entry<Object, Long> entry : cacheWeights.getTenantWeights().entrySet()) {
+				
+				result.add(Arrays.asList(new Object[] {
+						cacheWeights.name,
+						entry.getKey().hashCode(),
+						entry.getValue(),
+						cacheWeights.tenantQuota
+					}));
+			}
+		}
+		
+		return result;
+	}
+	
+	private 	List<List<Object>> getCircuitValues() {
+		
+		List<Map.Entry<ApiClient, ApiGuard>> items = 
+			new ArrayList<Map.Entry<ApiClient, ApiGuard>>(ApiGuard.getGuards().entrySet());
+		
+		List<List<Object>> result = new ArrayList<List<Object>>(items.size());
+		
+		for (Map.Entry<ApiClient, ApiGuard> entry : items) {
+			
+			CircuitBreaker circuitBreaker = entry.getValue().getCircuitBreaker();
+			TokenBucket rateLimiter = entry.getValue().getRateLimiter();
+			
+			result.add(Arrays.asList(new Object[] {
+					entry.getKey().hashCode(),
+					circuitBreaker.getState().toString(),
+					circuitBreaker.getFailures(),
+					circuitBreaker.trips.get(),
+					circuitBreaker.rejected.get(),
+					(rateLimiter != null) ? Math.round(rateLimiter.getAvailable()) : -1
+				}));
+		}
+		
+		return result;
+	}
+	
+	private 	List<List<Object>> getCoalescingValues() {
+		
+		List<InFlightLoad<BaseCacheLoader, Response<?>>> queryLoads = 
+			new ArrayList<InFlightLoad<BaseCacheLoader, Response<?>>>(ApiCache.queryCoalescer.getInFlightLoads());
+		
+		List<InFlightLoad<RegressionCacheLoader, RegressionOutput>> regressionLoads = 
+			new ArrayList<InFlightLoad<RegressionCacheLoader, RegressionOutput>>(ApiCache.regressionCoalescer.getInFlightLoads());
+		
+		List<List<Object>> result = new ArrayList<List<Object>>(queryLoads.size() + regressionLoads.size());
+		
+		long now = System.currentTimeMillis();
+		
+		for (InFlightLoad<BaseCacheLoader, Response<?>> inFlightLoad : queryLoads) {
+			
+			result.add(Arrays.asList(new Object[] {
+					inFlightLoad.startTime,
+					Long.valueOf(Math.max(0, now - inFlightLoad.startTime)),
+					inFlightLoad.key.apiClient.hashCode(),
+					inFlightLoad.key.toString(),
+					inFlightLoad.getWaiters()
+				}));
+		}
+		
+		for (InFlightLoad<RegressionCacheLoader, RegressionOutput> inFlightLoad : regressionLoads) {
+			
+			result.add(Arrays.asList(new Object[] {
+					inFlightLoad.startTime,
+					Long.valueOf(Math.max(0, now - inFlightLoad.startTime)),
+					inFlightLoad.key.apiClient.hashCode(),
+					inFlightLoad.key.toString(),
+					inFlightLoad.getWaiters()
+				}));
+		}
+		
+		return result;
+	}
+	
 	private List<Series> processGrid(QueryDiagnosticsInput input) {
 		
 		ReportMode reportMode = input.getReportMode();
@@ -208,6 +393,18 @@ public class QueryDiagnosticsFunction extends GrafanaFunction {
 			case Threads:
 				series.values = getThreadValues();
 				break;
+			case Coalescing:
+				series.values = getCoalescingValues();
+				break;
+			case Refresh:
+				series.values = getRefreshValues();
+				break;
+			case CacheWeights:
+				series.values = getCacheWeightValues();
+				break;
+			case Circuits:
+				series.values = getCircuitValues();
+				break;
 			default:
 				throw new IllegalStateException(String.valueOf(reportMode));
 			
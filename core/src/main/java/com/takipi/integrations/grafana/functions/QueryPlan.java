@@ -0,0 +1,70 @@
+package com.takipi.integrations.grafana.functions;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.takipi.integrations.grafana.util.CacheKey;
+import com.takipi.integrations.grafana.util.CompletableTask;
+import com.takipi.integrations.grafana.util.QueryContext;
+
+/**
+ * The merged data dependencies of all statements of a query. Data asked for by several statements
+ * is fetched once, and all fetches are started together before any statement is processed. The
+ * plan is advisory - a statement whose data was not prefetched (or failed to be) loads it as it
+ * would have without a plan, and concurrent loads of the same data are coalesced by ApiCache.
+ */
+public class QueryPlan {
+	
+	private static final Logger logger = LoggerFactory.getLogger(QueryPlan.class);
+	
+	private final Map<CacheKey, DataDependency> dependencies;
+	
+	public QueryPlan() {
+		this.dependencies = new LinkedHashMap<CacheKey, DataDependency>();
+	}
+	
+	public void add(Collection<DataDependency> values) {
+		
+		for (DataDependency dependency : values) {
+			
+			CacheKey key = dependency.getMergeKey();
+			DataDependency existing = dependencies.get(key);
+			
+			if (existing == null) {
+				dependencies.put(key, dependency);
+			} else {
+				dependencies.put(key, existing.merge(dependency));
+			}
+		}
+	}
+	
+	public int size() {
+		return dependencies.size();
+	}
+	
+	/**
+	 * Starts fetching all planned dependencies within the query's context. Failures are logged and
+	 * left for the statements needing the data to run into.
+	 */
+	public void prefetch(Executor executor, QueryContext queryContext) {
+		
+		for (DataDependency dependency : dependencies.values()) {
+			
+			CompletableTask.submit(executor, () -> {
+				
+				try {
+					dependency.fetch();
+				} catch (Exception e) {
+					logger.warn("Could not prefetch " + dependency, e);
+				}
+				
+				return null;
+			}, queryContext);
+		}
+	}
+}
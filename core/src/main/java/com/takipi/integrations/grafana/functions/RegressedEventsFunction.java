@@ -10,6 +10,7 @@ import com.takipi.integrations.grafana.functions.RegressionFunction.RegressionOu
 import com.takipi.integrations.grafana.input.BaseEnvironmentsInput;
 import com.takipi.integrations.grafana.input.RegressedEventsInput;
 import com.takipi.integrations.grafana.input.RegressionsInput;
+import com.takipi.integrations.grafana.util.TaskPriority;
 
 public class RegressedEventsFunction extends EnvironmentVariableFunction {
 
@@ -35,6 +36,11 @@ public class RegressedEventsFunction extends EnvironmentVariableFunction {
 		super(apiClient);
 	}
 
+	@Override
+	public TaskPriority getPriority() {
+		return TaskPriority.Report;
+	}
+
 	@Override
 	protected void populateServiceValues(BaseEnvironmentsInput input, Collection<String> serviceIds, String serviceId,
 			VariableAppender appender) {
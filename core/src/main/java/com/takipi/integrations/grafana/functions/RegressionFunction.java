@@ -6,14 +6,20 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.joda.time.DateTime;
 
 import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.takipi.api.client.ApiClient;
 import com.takipi.api.client.data.metrics.Graph;
 import com.takipi.api.client.result.event.EventResult;
@@ -40,7 +46,15 @@ import com.takipi.integrations.grafana.input.ViewInput;
 import com.takipi.integrations.grafana.output.Series;
 import com.takipi.integrations.grafana.settings.ServiceSettings;
 import com.takipi.integrations.grafana.util.ApiCache;
+import com.takipi.integrations.grafana.util.ApiCache.BaseCacheLoader;
+import com.takipi.integrations.grafana.util.ApiCache.CacheEntry;
+import com.takipi.integrations.grafana.util.BaselineCache.Baseline;
+import com.takipi.integrations.grafana.util.BaselineCache.BaselinePart;
+import com.takipi.integrations.grafana.util.CacheKey;
+import com.takipi.integrations.grafana.util.EventCounters;
 import com.takipi.integrations.grafana.util.EventLinkEncoder;
+import com.takipi.integrations.grafana.util.GrafanaMetrics;
+import com.takipi.integrations.grafana.util.GraphMerger;
 import com.takipi.integrations.grafana.util.TimeUtil;
 
 public class RegressionFunction extends EventsFunction {	
@@ -678,9 +692,77 @@ public class RegressionFunction extends EventsFunction {
 		}
 	}
 	
-	protected class DeterminantGraphsLists {
-		public List<Graph> baselineGraph = new ArrayList<Graph>();
-		public List<Graph> activeWindowGraph = new ArrayList<Graph>();
+	/**
+	 * The baseline and active window graphs of a determinant key, merged as slices are added
+	 */
+	protected class DeterminantGraphs {
+		public final GraphMerger baselineGraphs = new GraphMerger();
+		public final GraphMerger activeWindowGraphs = new GraphMerger();
+	}
+	
+	/**
+	 * What an incremental evaluation of a regression query leaves for the next one - the active
+	 * window counters of its events, and the output scored from them along with the inputs it
+	 * was scored against
+	 */
+	public static class RegressionState {
+		
+		protected final EventCounters eventCounters = new EventCounters();
+		
+		protected Map<DeterminantKey, Graph> baselineGraphs;
+		protected CacheKey scoringKey;
+		protected Set<String> eventIds;
+		protected DateTime activeWindowStart;
+		protected RegressionOutput output;
+		
+		protected void clear() {
+			baselineGraphs = null;
+			scoringKey = null;
+			eventIds = null;
+			activeWindowStart = null;
+			output = null;
+		}
+		
+		public EventCounters getEventCounters() {
+			return eventCounters;
+		}
+		
+		public int getEventCount() {
+			
+			if (eventIds == null) {
+				return 0;
+			}
+			
+			return eventIds.size();
+		}
+	}
+	
+	private static final int REGRESSION_STATES_RETENTION = 10;
+	
+	//states are re-put after each evaluation, so that they're weighed as they grow or shrink
+	private static final Cache<BaseCacheLoader, CacheEntry<RegressionState>> regressionStates = CacheBuilder.newBuilder()
+			.maximumWeight(ApiCache.regressionStateCacheWeights.maxWeight)
+			.weigher(ApiCache.regressionStateCacheWeights).removalListener(ApiCache.regressionStateCacheWeights)
+			.expireAfterAccess(REGRESSION_STATES_RETENTION, TimeUnit.MINUTES)
+			.recordStats()
+			.build();
+	
+	private static final AtomicLong reusedRegressions = new AtomicLong();
+	private static final AtomicLong rescoredRegressions = new AtomicLong();
+	
+	static {
+		ApiCache.regressionStateCacheWeights.attach(regressionStates);
+		
+		GrafanaMetrics.registerCache(ApiCache.regressionStateCacheWeights.name, regressionStates);
+		
+		GrafanaMetrics.registerCounter("incremental_regressions_total", "Incremental regression evaluations", 
+			"outcome", "reused", () -> reusedRegressions.get());
+		GrafanaMetrics.registerCounter("incremental_regressions_total", "Incremental regression evaluations", 
+			"outcome", "rescored", () -> rescoredRegressions.get());
+	}
+	
+	public static void clearRegressionStates() {
+		regressionStates.invalidateAll();
 	}
 	
 	private RegressionSettings getRegressionSettings(String serviceId) {
@@ -771,12 +853,12 @@ public class RegressionFunction extends EventsFunction {
 		
 		EventFilterInput baselineInput;
 		DateTime baselineStart = regressionWindow.activeWindowStart.minusMinutes(regressionInput.baselineTimespan);
-		DateTime baselineEnd = regressionWindow.activeWindowStart;
+		DateTime baselineEnd;
 		
 		DateTime activeStart = regressionWindow.activeWindowStart;
 		DateTime activeEnd = regressionWindow.activeWindowStart.plusMinutes(regressionWindow.activeTimespan);
 		
-		Set<BreakdownType> baselineQueryBreakdownTypes = queryBreakdownTypes;
+		Set<BreakdownType> baselineQueryBreakdownTypes;
 		
 		if (input.hasDeployments()) {
 			// for deployments baseline graph will start baseline timespan before the first deployment
@@ -791,16 +873,8 @@ public class RegressionFunction extends EventsFunction {
 			baselineQueryBreakdownTypes = null;
 		} else {
 			baselineInput = input;
-		}
-		
-		Collection<GraphSliceTask> baselineGraphTasks;
-		
-		if (!newOnly) {
-			baselineGraphTasks = getGraphTasks(serviceId, viewId, baselineInput, 
-				VolumeType.all, baselineStart, baselineEnd,
-				regressionInput.baselineTimespan, regressionWindow.activeTimespan, false, baselineQueryBreakdownTypes);
-		} else {
-			baselineGraphTasks = null;
+			baselineEnd = regressionWindow.activeWindowStart;
+			baselineQueryBreakdownTypes = queryBreakdownTypes;
 		}
 		
 		int graphActiveTimespan;
@@ -814,48 +888,162 @@ public class RegressionFunction extends EventsFunction {
 		Collection<GraphSliceTask> activeGraphTasks = getGraphTasks(serviceId, viewId, 
 			input, VolumeType.all, activeStart, activeEnd, 0, graphActiveTimespan, false, queryBreakdownTypes);
 		
-		List<GraphSliceTask> graphTasks = new ArrayList<GraphSliceTask>(); 
+		Map<DeterminantKey, Graph> baselineGraphs;
 		
-		if (baselineGraphTasks != null) {
-			graphTasks.addAll(baselineGraphTasks);
-		}
+		//set if this call loads the baseline graphs, in which case the active window slices are
+		//fetched along with the baseline ones rather than after them
+		AtomicReference<Map<DeterminantKey, DeterminantGraphs>> loadedGraphsMap = 
+			new AtomicReference<Map<DeterminantKey, DeterminantGraphs>>();
 		
-		graphTasks.addAll(activeGraphTasks);
+		if (!newOnly) {
+			Baseline baseline = getBaseline(serviceId, input, 
+				regressionInput.baselineTimespan, regressionWindow.activeTimespan);
+			
+			CacheKey baselinePartKey = getBaselinePartKey(baselineQueryBreakdownTypes, 
+				determinantBreakdownTypes, applicationGroupsMap);
+			
+			baselineGraphs = baseline.getPart(baselinePartKey, () -> {
+				
+				Collection<GraphSliceTask> baselineGraphTasks = getGraphTasks(serviceId, viewId, baselineInput, 
+					VolumeType.all, baselineStart, baselineEnd,
+					regressionInput.baselineTimespan, regressionWindow.activeTimespan, false, baselineQueryBreakdownTypes);
+				
+				for (GraphSliceTask baselineGraphTask : baselineGraphTasks) {
+					baselineGraphTask.baselineSlice = true;
+				}
+				
+				List<GraphSliceTask> graphTasks = new ArrayList<GraphSliceTask>(baselineGraphTasks);
+				graphTasks.addAll(activeGraphTasks);
+				
+				Map<DeterminantKey, DeterminantGraphs> graphsMap = divideGraphsByDeterminant(
+					executeGraphTasks(graphTasks, false), applicationGroupsMap, determinantBreakdownTypes);
+				
+				loadedGraphsMap.set(graphsMap);
+				
+				return getBaselineGraphs(graphsMap);
+			});
+		} else {
+			baselineGraphs = Collections.emptyMap();
+		}
 		
-		Collection<GraphSliceTaskResult> graphSliceTaskResults = executeGraphTasks(graphTasks, false);
+		Map<DeterminantKey, DeterminantGraphs> determinantGraphsMap = loadedGraphsMap.get();
 		
-		Map<DeterminantKey, DeterminantGraphsLists> determinantGraphsMap = divideGraphsByDeterminant(baselineGraphTasks,
-				graphSliceTaskResults, applicationGroupsMap, determinantBreakdownTypes);
+		if (determinantGraphsMap == null) {
+			determinantGraphsMap = divideGraphsByDeterminant(executeGraphTasks(activeGraphTasks, false), 
+				applicationGroupsMap, determinantBreakdownTypes);
+		}
 		
-		Map<DeterminantKey, Pair<Graph, Graph>> result = new HashMap<DeterminantKey, Pair<Graph, Graph>>();
+		Set<DeterminantKey> determinantKeys = new HashSet<DeterminantKey>(
+				(determinantGraphsMap.size() + baselineGraphs.size()) * 4 / 3 + 1);
 		
-		DeterminantGraphsLists emptyDeterminantGraphs = determinantGraphsMap.get(DeterminantKey.Empty);
+		determinantKeys.addAll(determinantGraphsMap.keySet());
+		determinantKeys.addAll(baselineGraphs.keySet());
 		
-		List<Graph> allBaselineGraphs = new ArrayList<Graph>();
+		Map<DeterminantKey, Pair<Graph, Graph>> result = new HashMap<DeterminantKey, Pair<Graph, Graph>>(
+				determinantKeys.size() * 4 / 3 + 1);
 		
-		if (emptyDeterminantGraphs != null) {
-			allBaselineGraphs = emptyDeterminantGraphs.baselineGraph;
-		}
+		Graph allBaselineGraph = baselineGraphs.get(DeterminantKey.Empty);
 		
-		for (DeterminantKey determinantGraphListsMapKey : determinantGraphsMap.keySet()) {
-			if (shouldExcludeEmptyDetreminantGraph(determinantBreakdownTypes, determinantGraphListsMapKey)) {
+		for (DeterminantKey determinantKey : determinantKeys) {
+			
+			if (shouldExcludeEmptyDetreminantGraph(determinantBreakdownTypes, determinantKey)) {
 				continue;
 			}
 			
-			DeterminantGraphsLists determinantGraphsLists = determinantGraphsMap.get(determinantGraphListsMapKey);
+			DeterminantGraphs determinantGraphs = determinantGraphsMap.get(determinantKey);
+			Graph activeWindowGraph;
 			
-			Pair<Graph, Graph> determinantGraphs = getDeterminantGraphs(input, allBaselineGraphs,
-					determinantGraphsLists.baselineGraph, determinantGraphsLists.activeWindowGraph);
+			if (determinantGraphs != null) {
+				activeWindowGraph = determinantGraphs.activeWindowGraphs.getGraph();
+			} else {
+				activeWindowGraph = null;
+			}
 			
-			Graph baselineGraph = determinantGraphs.getFirst();
-			Graph activeWindowGraph = determinantGraphs.getSecond();
+			result.put(determinantKey, getDeterminantGraphs(input, allBaselineGraph, 
+				baselineGraphs.get(determinantKey), activeWindowGraph));
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * @return the merged baseline graph of each determinant key, as kept by the baseline of the query
+	 */
+	private static Map<DeterminantKey, Graph> getBaselineGraphs(Map<DeterminantKey, DeterminantGraphs> determinantGraphsMap) {
+		
+		Map<DeterminantKey, Graph> result = new HashMap<DeterminantKey, Graph>(determinantGraphsMap.size() * 4 / 3 + 1);
+		
+		for (Map.Entry<DeterminantKey, DeterminantGraphs> entry : determinantGraphsMap.entrySet()) {
+			
+			Graph baselineGraph = entry.getValue().baselineGraphs.getGraph();
 			
-			result.put(determinantGraphListsMapKey, Pair.of(baselineGraph, activeWindowGraph));
+			if (baselineGraph != null) {
+				result.put(entry.getKey(), baselineGraph);
+			}
 		}
 		
 		return result;
 	}
 	
+	private static CacheKey getBaselinePartKey(Set<BreakdownType> baselineQueryBreakdownTypes,
+			Set<BreakdownType> determinantBreakdownTypes, Map<String, Collection<String>> applicationGroupsMap) {
+		
+		return Baseline.newPartKey(BaselinePart.DeterminantGraphs)
+			.addSorted(baselineQueryBreakdownTypes)
+			.addSorted(determinantBreakdownTypes)
+			.add(getApplicationGroupsKey(applicationGroupsMap, determinantBreakdownTypes))
+			.build();
+	}
+	
+	/**
+	 * The baseline graphs {@link #getRegressionGraphs} returns for a query without deployments or
+	 * breakdowns, for evaluations fetching their active window separately. They are shared with
+	 * getRegressionGraphs through the baseline of the query.
+	 */
+	private Map<DeterminantKey, Graph> getRegressionBaselineGraphs(String serviceId, String viewId,
+			RegressionInput regressionInput, RegressionWindow regressionWindow, 
+			BaseEventVolumeInput input, boolean newOnly) {
+		
+		if (newOnly) {
+			return Collections.emptyMap();
+		}
+		
+		Baseline baseline = getBaseline(serviceId, input, 
+			regressionInput.baselineTimespan, regressionWindow.activeTimespan);
+		
+		return baseline.getPart(getBaselinePartKey(null, null, null), () -> {
+			
+			DateTime baselineStart = regressionWindow.activeWindowStart.minusMinutes(regressionInput.baselineTimespan);
+			
+			Collection<GraphSliceTask> baselineGraphTasks = getGraphTasks(serviceId, viewId, input, 
+				VolumeType.all, baselineStart, regressionWindow.activeWindowStart,
+				regressionInput.baselineTimespan, regressionWindow.activeTimespan, false, null);
+			
+			for (GraphSliceTask baselineGraphTask : baselineGraphTasks) {
+				baselineGraphTask.baselineSlice = true;
+			}
+			
+			Collection<GraphSliceTaskResult> graphSliceTaskResults = executeGraphTasks(baselineGraphTasks, false);
+			
+			return getBaselineGraphs(divideGraphsByDeterminant(graphSliceTaskResults, null, null));
+		});
+	}
+	
+	/**
+	 * App groups only split the baseline graphs when breaking down by app 
+	 */
+	private static Object getApplicationGroupsKey(Map<String, Collection<String>> applicationGroupsMap,
+			Set<BreakdownType> determinantBreakdownTypes) {
+		
+		if ((CollectionUtil.safeIsEmpty(applicationGroupsMap)) 
+		|| (CollectionUtil.safeIsEmpty(determinantBreakdownTypes))
+		|| (!determinantBreakdownTypes.contains(BreakdownType.App))) {
+			return null;
+		}
+		
+		return new HashMap<String, Collection<String>>(applicationGroupsMap);
+	}
+	
 	public boolean shouldExcludeEmptyDetreminantGraph(Set<BreakdownType> determinantBreakdownTypes, DeterminantKey determinantGraphListsMapKey) {
 		// Take empty determinant graph only if determinant breakdown was requested
 		boolean result = ((determinantGraphListsMapKey.equals(DeterminantKey.Empty)) && (!CollectionUtil.safeIsEmpty(determinantBreakdownTypes)));
@@ -863,90 +1051,75 @@ public class RegressionFunction extends EventsFunction {
 		return result;
 	}
 	
+	/**
+	 * @param allBaselineGraph - the baseline graph of the empty determinant key, which serves
+	 * determinant keys without one of their own when regressing deployments
+	 */
 	public Pair<Graph, Graph> getDeterminantGraphs(BaseEventVolumeInput input,
-			List<Graph> allBaselineGraphs, List<Graph> baselineGraphs, List<Graph> activeWindowGraphs) {
+			Graph allBaselineGraph, Graph determinantBaselineGraph, Graph activeWindowGraph) {
 		
-		Graph baselineGraph = new Graph();
-		baselineGraph.points = new ArrayList<>();
+		Graph baselineGraph = determinantBaselineGraph;
 		
-		Graph activeWindowGraph = null;
-		
-		boolean hasBaselineGraphs = (!CollectionUtil.safeIsEmpty(baselineGraphs));
-		
-		if (hasBaselineGraphs) {
-			baselineGraph = mergeGraphs(baselineGraphs);
+		if ((baselineGraph == null) && (activeWindowGraph != null) 
+		&& (input.hasDeployments())) {
+			baselineGraph = allBaselineGraph;
 		}
 		
-		if (!CollectionUtil.safeIsEmpty(activeWindowGraphs)) {
-			activeWindowGraph = mergeGraphs(activeWindowGraphs);
-		}
-		
-		if (activeWindowGraph != null) {
-			GraphResult activeGraphResult = new GraphResult();
-			
-			activeGraphResult.graphs = Collections.singletonList(activeWindowGraph);
-			
-			if ((input.hasDeployments()) && (!hasBaselineGraphs)) {
-				if (!CollectionUtil.safeIsEmpty(allBaselineGraphs)) {
-					
-					baselineGraph = mergeGraphs(allBaselineGraphs);
-				}
-			}
+		if (baselineGraph == null) {
+			baselineGraph = new Graph();
+			baselineGraph.points = new ArrayList<>();
 		}
 		
 		return Pair.of(baselineGraph, activeWindowGraph);
 	}
 	
-	private Map<DeterminantKey, DeterminantGraphsLists> divideGraphsByDeterminant(Collection<GraphSliceTask> baselineGraphTasks,
+	/**
+	 * Streams the graphs of all slices into the mergers of their determinant keys in a single
+	 * pass. Slices know whether they belong to the baseline window, and the app group keys of an
+	 * application are resolved once rather than for each of its graphs.
+	 */
+	private Map<DeterminantKey, DeterminantGraphs> divideGraphsByDeterminant(
 			Collection<GraphSliceTaskResult> graphSliceTaskResults, Map<String, Collection<String>> applicationGroupsMap,
 			Set<BreakdownType> determinantBreakdownTypes) {
 		
-		Map<DeterminantKey, DeterminantGraphsLists> result = new HashMap<DeterminantKey, DeterminantGraphsLists>();
+		boolean hasAppGroups = (!CollectionUtil.safeIsEmpty(determinantBreakdownTypes)) 
+			&& (!CollectionUtil.safeIsEmpty(applicationGroupsMap))
+			&& (determinantBreakdownTypes.contains(BreakdownType.App));
+		
+		int graphsPerSlice = 0;
+		
+		for (GraphSliceTaskResult graphSliceTaskResult : graphSliceTaskResults) {
+			graphsPerSlice = Math.max(graphsPerSlice, graphSliceTaskResult.graphs.size());
+		}
+		
+		int keyCount = graphsPerSlice + 1;
+		
+		if (hasAppGroups) {
+			keyCount += applicationGroupsMap.size();
+		}
+		
+		Map<DeterminantKey, DeterminantGraphs> result = new HashMap<DeterminantKey, DeterminantGraphs>(keyCount * 4 / 3 + 1);
+		Map<String, List<DeterminantKey>> appGroupKeys = new HashMap<String, List<DeterminantKey>>();
 		
 		for (GraphSliceTaskResult graphSliceTaskResult : graphSliceTaskResults) {
 			
-			boolean isBaselineTask = (baselineGraphTasks != null ? baselineGraphTasks.contains(graphSliceTaskResult.task) : false);
+			boolean isBaselineTask = graphSliceTaskResult.task.baselineSlice;
 			
 			for (Graph graph : graphSliceTaskResult.graphs) {
 				
-				Set<DeterminantKey> graphsKeys = new HashSet<DeterminantKey>();
-				
 				DeterminantKey determinantKey = DeterminantKey.create(determinantBreakdownTypes, "",
 						graph.application_name, graph.deployment_name);
 				
-				graphsKeys.add(determinantKey);
+				addDeterminantGraph(result, determinantKey, graph, isBaselineTask, determinantBreakdownTypes);
 				
-				if ((!CollectionUtil.safeIsEmpty(determinantBreakdownTypes)) &&
-					(!CollectionUtil.safeIsEmpty(applicationGroupsMap)) &&
-					(determinantBreakdownTypes.contains(BreakdownType.App))) {
-					
-					Collection<String> appGroups = applicationGroupsMap.get(graph.application_name);
-					
-					if (!CollectionUtil.safeIsEmpty(appGroups)) {
-						for (String appGroup : appGroups) {
-							graphsKeys.add(DeterminantKey.create("", appGroup, ""));
-						}
-					}
+				if (!hasAppGroups) {
+					continue;
 				}
 				
-				for (DeterminantKey graphKey : graphsKeys) {
-					DeterminantGraphsLists determinantGraphsLists = result.get(graphKey);
-					
-					if (determinantGraphsLists == null) {
-						determinantGraphsLists = new DeterminantGraphsLists();
-						
-						result.put(graphKey, determinantGraphsLists);
-					}
+				for (DeterminantKey appGroupKey : getAppGroupKeys(appGroupKeys, applicationGroupsMap, graph.application_name)) {
 					
-					if (isBaselineTask) {
-						determinantGraphsLists.baselineGraph.add(graph);
-					} else {
-						if (shouldExcludeEmptyDetreminantGraph(determinantBreakdownTypes, graphKey)) {
-							// The relevant apps for the filter does not exist
-							continue;
-						}
-						
-						determinantGraphsLists.activeWindowGraph.add(graph);
+					if (!appGroupKey.equals(determinantKey)) {
+						addDeterminantGraph(result, appGroupKey, graph, isBaselineTask, determinantBreakdownTypes);
 					}
 				}
 			}
@@ -955,6 +1128,52 @@ public class RegressionFunction extends EventsFunction {
 		return result;
 	}
 	
+	private static List<DeterminantKey> getAppGroupKeys(Map<String, List<DeterminantKey>> appGroupKeys,
+			Map<String, Collection<String>> applicationGroupsMap, String applicationName) {
+		
+		List<DeterminantKey> result = appGroupKeys.get(applicationName);
+		
+		if (result != null) {
+			return result;
+		}
+		
+		Collection<String> appGroups = applicationGroupsMap.get(applicationName);
+		
+		if (CollectionUtil.safeIsEmpty(appGroups)) {
+			result = Collections.emptyList();
+		} else {
+			Set<DeterminantKey> keys = new LinkedHashSet<DeterminantKey>(appGroups.size());
+			
+			for (String appGroup : appGroups) {
+				keys.add(DeterminantKey.create("", appGroup, ""));
+			}
+			
+			result = new ArrayList<DeterminantKey>(keys);
+		}
+		
+		appGroupKeys.put(applicationName, result);
+		
+		return result;
+	}
+	
+	private void addDeterminantGraph(Map<DeterminantKey, DeterminantGraphs> determinantGraphsMap,
+			DeterminantKey determinantKey, Graph graph, boolean isBaselineTask, Set<BreakdownType> determinantBreakdownTypes) {
+		
+		DeterminantGraphs determinantGraphs = determinantGraphsMap.get(determinantKey);
+		
+		if (determinantGraphs == null) {
+			determinantGraphs = new DeterminantGraphs();
+			determinantGraphsMap.put(determinantKey, determinantGraphs);
+		}
+		
+		if (isBaselineTask) {
+			determinantGraphs.baselineGraphs.add(graph);
+		} else if (!shouldExcludeEmptyDetreminantGraph(determinantBreakdownTypes, determinantKey)) {
+			// an empty key's active window graph means the relevant apps for the filter do not exist
+			determinantGraphs.activeWindowGraphs.add(graph);
+		}
+	}
+	
 	protected RegressionOutput createRegressionOutput(String serviceId,
 			BaseEventVolumeInput input, RegressionInput regressionInput, RegressionWindow regressionWindow,
 			RateRegression rateRegression, Map<String, EventResult> eventListMap,
@@ -1072,6 +1291,224 @@ public class RegressionFunction extends EventsFunction {
 				regressionWindow, eventListMap, baselineGraph, activeWindowGraph);
 	}
 	
+	/**
+	 * @return whether regressions of the input can be evaluated incrementally - their timeframe must
+	 * slide with the current time, and not be anchored to deployments
+	 */
+	public static boolean isIncremental(ViewInput input) {
+		return (TimeUtil.getTimeUnit(input.timeFilter) != null) && (!input.hasDeployments());
+	}
+	
+	/**
+	 * Evaluates a regression from the state its previous evaluation left under the state key. 
+	 * The active window graph is extended by its tail (see {@link #getEventsGraph}), and only the
+	 * points that slid in or out of the timeframe are applied to the event counters. When no
+	 * counter of the filtered events changed, no event entered or left them or crossed the start of
+	 * the active window, and the baseline and regression settings are those scored last, the
+	 * previous scoring is returned for the new window. Otherwise the events are re-scored with
+	 * their counters.
+	 */
+	public RegressionOutput executeIncrementalRegression(String serviceId, 
+			BaseEventVolumeInput input, boolean newOnly, BaseCacheLoader stateKey) {
+		
+		String viewId = getViewId(serviceId, input.view);
+		
+		if (viewId == null) {
+			return RegressionOutput.emptyOutput;
+		}
+		
+		Pair<DateTime, DateTime> timespan = TimeUtil.getTimeFilter(input.timeFilter);
+		
+		Pair<RegressionInput, RegressionWindow> regressionInputs =
+				getRegressionInput(serviceId, viewId, input, timespan, newOnly);
+		
+		if (regressionInputs == null) {
+			return RegressionOutput.emptyOutput;
+		}
+		
+		RegressionInput regressionInput = regressionInputs.getFirst();
+		RegressionWindow regressionWindow = regressionInputs.getSecond();
+		
+		DateTime from = regressionWindow.activeWindowStart;
+		DateTime to = regressionWindow.activeWindowStart.plusMinutes(regressionInput.activeTimespan);
+		
+		Map<String, EventResult> eventListMap = getEventMap(serviceId, input,
+			from, to, null);
+			
+		if (eventListMap == null) {
+			return RegressionOutput.emptyOutput;
+		}
+		
+		Map<DeterminantKey, Graph> baselineGraphs = getRegressionBaselineGraphs(serviceId, viewId, 
+			regressionInput, regressionWindow, input, newOnly);
+		
+		Graph activeWindowGraph = getEventsGraph(serviceId, viewId, input, 
+			VolumeType.all, from, to, 0, 0, false);
+		
+		if ((activeWindowGraph == null) || (activeWindowGraph.points == null)) {
+			return RegressionOutput.emptyOutput;
+		}
+		
+		Graph baselineGraph;
+		
+		if (baselineGraphs.isEmpty()) {
+			baselineGraph = new Graph();
+			baselineGraph.points = new ArrayList<>();
+		} else {
+			baselineGraph = mergeGraphs(baselineGraphs.values());
+		}
+		
+		RegressionState state;
+		
+		try {
+			state = regressionStates.get(stateKey, () -> new CacheEntry<RegressionState>(new RegressionState())).value;
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e);
+		}
+		
+		synchronized (state) {
+			
+			try {
+				RegressionOutput result = executeIncrementalRegression(serviceId, input, timespan, 
+					regressionInput, regressionWindow, eventListMap, 
+					baselineGraphs, baselineGraph, activeWindowGraph, state);
+				
+				regressionStates.put(stateKey, new CacheEntry<RegressionState>(state));
+				
+				return result;
+			} catch (RuntimeException e) {
+				//the counters may be partially updated, so the next evaluation starts over
+				regressionStates.invalidate(stateKey);
+				throw e;
+			}
+		}
+	}
+	
+	private RegressionOutput executeIncrementalRegression(String serviceId, BaseEventVolumeInput input, 
+			Pair<DateTime, DateTime> timespan, RegressionInput regressionInput, RegressionWindow regressionWindow,
+			Map<String, EventResult> eventListMap, Map<DeterminantKey, Graph> baselineGraphs, 
+			Graph baselineGraph, Graph activeWindowGraph, RegressionState state) {
+		
+		Pair<Map<String, EventResult>, Long> filteredResult = filterEvents(serviceId,
+			timespan, input, eventListMap.values());
+			
+		Map<String, EventResult> filteredMap = filteredResult.getFirst();
+		
+		//the points of the active window graph are only shared between evaluations through its segment
+		Set<String> changedIds = state.eventCounters.update(activeWindowGraph, 
+			timespan.getFirst().getMillis(), timespan.getSecond().getMillis(), ApiCache.SEGMENT_GRAPHS);
+		
+		long volume = state.eventCounters.applyTo(filteredMap.values());
+		
+		regressionInput.events = filteredMap.values();
+		regressionInput.baselineGraph = baselineGraph;
+		
+		CacheKey scoringKey = getScoringKey(regressionInput);
+		
+		RegressionOutput result;
+		
+		if ((state.output != null) && (state.baselineGraphs == baselineGraphs) 
+		&& (scoringKey.equals(state.scoringKey)) && (filteredMap.keySet().equals(state.eventIds))
+		&& (!hasChangedEvents(filteredMap, changedIds, state.activeWindowStart, regressionWindow.activeWindowStart))) {
+			
+			result = copyRegressionOutput(state.output, regressionWindow, activeWindowGraph);
+			
+			reusedRegressions.incrementAndGet();
+			
+		} else {
+			
+			state.clear();
+			
+			rescoredRegressions.incrementAndGet();
+			
+			result = executeRegression(serviceId, input, regressionInput, 
+				regressionWindow, eventListMap, volume, baselineGraph, activeWindowGraph, false);
+			
+			state.baselineGraphs = baselineGraphs;
+			state.scoringKey = scoringKey;
+			state.eventIds = new HashSet<String>(filteredMap.keySet());
+			state.output = result;
+		}
+		
+		state.activeWindowStart = regressionWindow.activeWindowStart;
+		
+		return result;
+	}
+	
+	/**
+	 * @return whether a filtered event's counters changed, or its first seen time crossed the start
+	 * of the active window as it slid - making it no longer a new issue
+	 */
+	private static boolean hasChangedEvents(Map<String, EventResult> filteredMap, Set<String> changedIds,
+			DateTime previousWindowStart, DateTime windowStart) {
+		
+		for (String changedId : changedIds) {
+			
+			if (filteredMap.containsKey(changedId)) {
+				return true;
+			}
+		}
+		
+		if ((previousWindowStart == null) || (previousWindowStart.equals(windowStart))) {
+			return false;
+		}
+		
+		for (EventResult event : filteredMap.values()) {
+			
+			if (event.first_seen == null) {
+				continue;
+			}
+			
+			if (timespanContains(previousWindowStart, windowStart, TimeUtil.getLongTime(event.first_seen))) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * The regression settings an output was scored with
+	 */
+	private static CacheKey getScoringKey(RegressionInput regressionInput) {
+		
+		return CacheKey.newBuilder()
+			.add(regressionInput.activeTimespan)
+			.add(regressionInput.baselineTimespan)
+			.add(regressionInput.minVolumeThreshold)
+			.add(regressionInput.minErrorRateThreshold)
+			.add(regressionInput.regressionDelta)
+			.add(regressionInput.criticalRegressionDelta)
+			.add(regressionInput.applySeasonality)
+			.addSorted(regressionInput.criticalExceptionTypes)
+			.build();
+	}
+	
+	private static RegressionOutput copyRegressionOutput(RegressionOutput output, 
+			RegressionWindow regressionWindow, Graph activeWindowGraph) {
+		
+		RegressionOutput result = new RegressionOutput(output.empty);
+		
+		result.input = output.input;
+		result.regressionInput = output.regressionInput;
+		result.regressionWindow = regressionWindow;
+		result.rateRegression = output.rateRegression;
+		result.baseVolumeGraph = output.baseVolumeGraph;
+		result.activeVolumeGraph = activeWindowGraph;
+		result.eventListMap = output.eventListMap;
+		result.eventDatas = output.eventDatas;
+		
+		result.score = output.score;
+		result.volume = output.volume;
+		
+		result.severeNewIssues = output.severeNewIssues;
+		result.newIssues = output.newIssues;
+		result.criticalRegressions = output.criticalRegressions;
+		result.regressions = output.regressions;
+		
+		return result;
+	}
+	
 	public RegressionOutput getRegressionOutput(String serviceId, BaseEventVolumeInput input, boolean newOnly,
 				Pair<DateTime, DateTime> timespan, RegressionInput regressionInput, RegressionWindow regressionWindow,
 				Map<String, EventResult> eventListMap, Graph baselineGraph, Graph activeWindowGraph) {
@@ -1535,6 +1972,11 @@ public class RegressionFunction extends EventsFunction {
 		return createSingleStatSeries(timeSpan, result.toString());
 	}
 	
+	@Override
+	public Collection<DataDependency> getDependencies(FunctionInput functionInput) {
+		return Collections.emptyList();
+	}
+	
 	@Override
 	public List<Series> process(FunctionInput functionInput) {
 		
@@ -23,6 +23,7 @@ import com.takipi.integrations.grafana.input.GraphInput;
 import com.takipi.integrations.grafana.input.RegressionGraphInput;
 import com.takipi.integrations.grafana.input.RegressionGraphInput.GraphType;
 import com.takipi.integrations.grafana.input.RegressionGraphInput.RegressionType;
+import com.takipi.integrations.grafana.util.GraphTimes;
 import com.takipi.integrations.grafana.util.TimeUtil;
 
 public class RegressionGraphFunction extends LimitGraphFunction {
@@ -72,10 +73,13 @@ public class RegressionGraphFunction extends LimitGraphFunction {
 		List<GraphData> matchingGraphs = new ArrayList<GraphData>();
 
 		
-		for (GraphPoint gp : graph.points) {
+		long[] times = GraphTimes.of(graph);
+		
+		for (int i = 0; i < times.length; i++) {
 
-			DateTime gpTime = TimeUtil.getDateTime(gp.time);
-			Long epochTime = Long.valueOf(gpTime.getMillis());
+			GraphPoint gp = graph.points.get(i);
+			long gpTime = times[i];
+			Long epochTime = Long.valueOf(gpTime);
 			
 			if (gp.contributors == null) {
 				
@@ -40,6 +40,11 @@ import com.takipi.integrations.grafana.input.ReliabilityReportInput.ReliabilityK
 import com.takipi.integrations.grafana.input.ReliabilityReportInput.ReportMode;
 import com.takipi.integrations.grafana.output.Series;
 import com.takipi.integrations.grafana.settings.ServiceSettings;
+import com.takipi.integrations.grafana.util.BaselineCache.Baseline;
+import com.takipi.integrations.grafana.util.BaselineCache.BaselinePart;
+import com.takipi.integrations.grafana.util.CacheKey;
+import com.takipi.integrations.grafana.util.GraphTimes;
+import com.takipi.integrations.grafana.util.TaskPriority;
 import com.takipi.integrations.grafana.util.TimeUtil;
 
 public class ReliabilityKpiGraphFunction extends BaseGraphFunction {
@@ -166,10 +171,20 @@ public class ReliabilityKpiGraphFunction extends BaseGraphFunction {
 			
 			TransactionResultData result = new TransactionResultData();
 
+			ReliabilityKpiGraphInput baselineInput = timelineData.baselineInput;
+			
+			Baseline baseline = getBaseline(serviceId, baselineInput, timelineData.baselineWindow, 0);
+			
+			CacheKey partKey = Baseline.newPartKey(BaselinePart.TransactionGraphs)
+				.add(baselineInput.hasTransactions() ? baselineInput.transactions : null)
+				.add(baselineInput.getSearchText())
+				.build();
+			
 			result.isBaseline = true;
-			result.graphs = getTransactionGraphs(timelineData.baselineInput, serviceId, viewId, 
-					timelineData.baselineTimespan, timelineData.baselineInput.getSearchText(), 
-					0, timelineData.baselineWindow);
+			result.graphs = baseline.getPart(partKey, () -> 
+				getTransactionGraphs(baselineInput, serviceId, viewId, 
+					timelineData.baselineTimespan, baselineInput.getSearchText(), 
+					0, timelineData.baselineWindow));
 						
 			return result;
 		}
@@ -377,6 +392,11 @@ public class ReliabilityKpiGraphFunction extends BaseGraphFunction {
 		super(apiClient, settingsMaps);
 	}
 	
+	@Override
+	public TaskPriority getPriority() {
+		return TaskPriority.Report;
+	}
+	
 	private Collection<TransactionGraph> sectionGraphs(Collection<TransactionGraph> graphs,
 		DateTime start, DateTime end) {
 		
@@ -394,12 +414,12 @@ public class ReliabilityKpiGraphFunction extends BaseGraphFunction {
 				
 			result.add(resultGraph);
 				
-			for (com.takipi.api.client.data.transaction.TransactionGraph.GraphPoint gp : graph.points) {
-					
-				DateTime gpTime = TimeUtil.getDateTime(gp.time);
+			long[] times = GraphTimes.of(graph);
+				
+			for (int i = 0; i < times.length; i++) {
 					
-				if (timespanContains(start, end, gpTime)) {
-					resultGraph.points.add(gp);
+				if (timespanContains(start, end, times[i])) {
+					resultGraph.points.add(graph.points.get(i));
 				} 
 			}					
 		}
@@ -532,14 +552,17 @@ public class ReliabilityKpiGraphFunction extends BaseGraphFunction {
 			}
 		}
 		
-		for (GraphPoint gp : graph.points) {
+		long[] times = GraphTimes.of(graph);
+		
+		for (int i = 0; i < times.length; i++) {
 			
-			DateTime gpTime = TimeUtil.getDateTime(gp.time);
+			GraphPoint gp = graph.points.get(i);
+			long gpTime = times[i];
 
 			for (Pair<DateTime, DateTime> period : periods) {
 			
-				if ((gpTime.isAfter(period.getFirst())) 
-				&& (gpTime.isBefore(period.getSecond()))) {
+				if ((gpTime > period.getFirst().getMillis()) 
+				&& (gpTime < period.getSecond().getMillis())) {
 					
 					VolumeInterval volumeInterval = (VolumeInterval)(result.get(period.getSecond()));
 					
@@ -1088,6 +1111,9 @@ public class ReliabilityKpiGraphFunction extends BaseGraphFunction {
 	
 		TimelineData result = new TimelineData();
 		
+		//keys the shared baseline of the timeline's transaction graphs - see TransactionBaselineGraphTask
+		result.baselineWindow = baselineTimespan;
+		
 		String expandedTimeFilter;
 
 		String timeUnit = TimeUtil.getTimeUnit(input.timeFilter);
@@ -86,6 +86,9 @@ import com.takipi.integrations.grafana.properties.GrafanaConfig;
 import com.takipi.integrations.grafana.util.ApiCache;
 import com.takipi.integrations.grafana.util.ApiCache.EventsDeterminantMap;
 import com.takipi.integrations.grafana.util.DeploymentUtil;
+import com.takipi.integrations.grafana.util.GraphTimes;
+import com.takipi.integrations.grafana.util.RequestBatcher;
+import com.takipi.integrations.grafana.util.TaskPriority;
 import com.takipi.integrations.grafana.util.TimeUtil;
 
 public class ReliabilityReportFunction extends EventsFunction {
@@ -961,6 +964,89 @@ public class ReliabilityReportFunction extends EventsFunction {
 		}
 	}
 	
+	/**
+	 * The volumes of a batch of plain apps, loaded through the batcher by a single request for
+	 * all of them rather than one volume request per app.
+	 */
+	protected class AppsVolumeAsyncTask extends BaseAsyncTask {
+
+		protected List<String> apps;
+		protected String serviceId;
+		protected RequestBatcher<String, VolumeOutput> batcher;
+
+		protected AppsVolumeAsyncTask(RequestBatcher<String, VolumeOutput> batcher, String serviceId,
+				List<String> apps) {
+
+			this.apps = apps;
+			this.serviceId = serviceId;
+			this.batcher = batcher;
+		}
+
+		@Override
+		public Object call() {
+
+			beforeCall();
+
+			try {
+				return new ArrayList<VolumeOutput>(batcher.load(apps).values());
+			} finally {
+				afterCall();
+			}
+		}
+
+		@Override
+		public String toString() {
+			return String.join(" ", "Apps Volume", serviceId, String.valueOf(apps));
+		}
+	}
+	
+	/**
+	 * Loads the volumes of a batch of plain apps with an event list request filtered to all of
+	 * them and broken down by app, splitting the hits of each event's app contributors back to
+	 * the apps they belong to.
+	 */
+	private Map<String, VolumeOutput> loadAppsVolume(String serviceId, ReliabilityReportInput input,
+			Pair<DateTime, DateTime> timeSpan, List<String> apps) {
+		
+		Map<String, VolumeOutput> result = new HashMap<String, VolumeOutput>();
+		
+		for (String app : apps) {
+			result.put(app, new VolumeOutput(app));
+		}
+		
+		String appsStr = String.join(GrafanaFunction.GRAFANA_SEPERATOR_RAW, apps);
+		RegressionsInput appsInput = getInput(input, serviceId, appsStr, false);
+		
+		Map<String, EventResult> eventsMap = getEventMap(serviceId, appsInput, timeSpan.getFirst(),
+				timeSpan.getSecond(), VolumeType.hits, false, Collections.singleton(BreakdownType.App));
+		
+		if (eventsMap == null) {
+			return result;
+		}
+		
+		for (EventResult event : eventsMap.values()) {
+			
+			if ((event.stats == null) || (event.stats.contributors == null)) {
+				continue;
+			}
+			
+			for (Stats stats : event.stats.contributors) {
+				
+				if (stats.application_name == null) {
+					continue;
+				}
+				
+				VolumeOutput volume = result.get(stats.application_name);
+				
+				if (volume != null) {
+					volume.volume += stats.hits;
+				}
+			}
+		}
+		
+		return result;
+	}
+	
 	protected class ReportKeyReliability {
 		protected ReliabilityState failRateState;
 		protected ReliabilityState scoreState;
@@ -1012,6 +1098,11 @@ public class ReliabilityReportFunction extends EventsFunction {
 		super(apiClient);
 	}
 	
+	@Override
+	public TaskPriority getPriority() {
+		return TaskPriority.Report;
+	}
+	
 	private ReliabilityReportInput getInput(ReliabilityReportInput reportInput,
 		String serviceId, String name, boolean mustCopy) {
 		
@@ -1195,10 +1286,24 @@ public class ReliabilityReportFunction extends EventsFunction {
 			Pair<DateTime, DateTime> timeSpan, Collection<String> apps) {
 
 		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+		List<String> plainApps = new ArrayList<String>();
 
 		for (String app : apps) {
-			RegressionsInput appInput = getInput(input, serviceId, app, false);
-			tasks.add(new AppVolumeAsyncTask(appInput, serviceId, app, timeSpan));
+			
+			//labels and groups do not match the app names of a breakdown, and are queried one by one
+			if ((EnvironmentsFilterInput.isLabelApp(app)) || (GroupSettings.isGroup(app))) {
+				RegressionsInput appInput = getInput(input, serviceId, app, false);
+				tasks.add(new AppVolumeAsyncTask(appInput, serviceId, app, timeSpan));
+			} else {
+				plainApps.add(app);
+			}
+		}
+		
+		RequestBatcher<String, VolumeOutput> batcher = new RequestBatcher<String, VolumeOutput>(
+			GrafanaConfig.BATCH_REQUEST_SIZE, batchApps -> loadAppsVolume(serviceId, input, timeSpan, batchApps));
+		
+		for (List<String> batchApps : batcher.getBatches(plainApps)) {
+			tasks.add(new AppsVolumeAsyncTask(batcher, serviceId, batchApps));
 		}
 
 		List<VolumeOutput> result = new ArrayList<VolumeOutput>();
@@ -1208,6 +1313,11 @@ public class ReliabilityReportFunction extends EventsFunction {
 
 			if (taskResult instanceof VolumeOutput) {
 				result.add((VolumeOutput) taskResult);
+			} else if (taskResult instanceof List) {
+				
+				for (Object volumeOutput : (List<?>)taskResult) {
+					result.add((VolumeOutput) volumeOutput);
+				}
 			}
 		}
 
@@ -1777,21 +1887,22 @@ public class ReliabilityReportFunction extends EventsFunction {
 			result = regressionOutput.regressionInput.activeTimespan;
 		} else {
 						
-			DateTime lastPointTime = null;
+			long[] times = GraphTimes.of(regressionOutput.activeVolumeGraph);
+			long lastPointTime = 0;
 			
-			for (int i = regressionOutput.activeVolumeGraph.points.size() - 1; i >= 0; i--) {
+			for (int i = times.length - 1; i >= 0; i--) {
 				
 				GraphPoint gp = regressionOutput.activeVolumeGraph.points.get(i);
 				
 				if ((gp.stats != null) && 
 					((gp.stats.invocations > 0) || (gp.stats.hits > 0))) {
-					lastPointTime = TimeUtil.getDateTime(gp.time);
+					lastPointTime = times[i];
 					break;
 				}
 			}
 			
-			if (lastPointTime != null) {
-				long delta  = lastPointTime.minus(regressionOutput.regressionInput.activeWindowStart.getMillis()).getMillis();
+			if (lastPointTime != 0) {
+				long delta  = lastPointTime - regressionOutput.regressionInput.activeWindowStart.getMillis();
 				result = (int)TimeUnit.MILLISECONDS.toMinutes(delta);
 			} else {
 				result = regressionOutput.regressionInput.activeTimespan;			
@@ -2170,6 +2281,11 @@ public class ReliabilityReportFunction extends EventsFunction {
 		});
 	}
 
+	@Override
+	public Collection<DataDependency> getDependencies(FunctionInput functionInput) {
+		return Collections.emptyList();
+	}
+
 	@Override
 	public List<Series> process(FunctionInput functionInput) {
 
@@ -18,7 +18,7 @@ import com.takipi.api.client.util.validation.ValidationUtil.VolumeType;
 import com.takipi.common.util.Pair;
 import com.takipi.integrations.grafana.input.GraphInput;
 import com.takipi.integrations.grafana.input.GraphLimitInput;
-import com.takipi.integrations.grafana.util.TimeUtil;
+import com.takipi.integrations.grafana.util.GraphTimes;
 
 public class SplitGraphFunction extends LimitGraphFunction {
 	
@@ -112,10 +112,13 @@ public class SplitGraphFunction extends LimitGraphFunction {
 		
 		List<GraphData> matchingGraphs = new ArrayList<GraphData>();
 		
-		for (GraphPoint gp : graph.points) {
+		long[] times = GraphTimes.of(graph);
+		
+		for (int i = 0; i < times.length; i++) {
 
-			DateTime gpTime = TimeUtil.getDateTime(gp.time);
-			Long epochTime = Long.valueOf(gpTime.getMillis());
+			GraphPoint gp = graph.points.get(i);
+			long gpTime = times[i];
+			Long epochTime = Long.valueOf(gpTime);
 			
 			if (gp.contributors == null) {
 				
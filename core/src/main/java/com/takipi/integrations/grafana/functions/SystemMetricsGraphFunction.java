@@ -1,7 +1,6 @@
 package com.takipi.integrations.grafana.functions;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -21,8 +20,10 @@ import com.takipi.api.core.url.UrlClient.Response;
 import com.takipi.common.util.Pair;
 import com.takipi.integrations.grafana.functions.SystemMetricsMetadata.SystemMetric;
 import com.takipi.integrations.grafana.input.BaseGraphInput;
+import com.takipi.integrations.grafana.input.FunctionInput.TimeFormat;
 import com.takipi.integrations.grafana.input.SystemMetricsGraphInput;
 import com.takipi.integrations.grafana.output.Series;
+import com.takipi.integrations.grafana.output.TimeSeriesValues;
 import com.takipi.integrations.grafana.settings.ServiceSettings;
 import com.takipi.integrations.grafana.util.ApiCache;
 import com.takipi.integrations.grafana.util.TimeUtil;
@@ -160,11 +161,11 @@ public class SystemMetricsGraphFunction extends BaseGraphFunction {
 			index++;
 		}
 		
-		List<List<Object>> seriesValues = new ArrayList<List<Object>>(values.size());
+		TimeSeriesValues seriesValues = new TimeSeriesValues(TimeFormat.EPOCH, values.size());
 
 		for (Map.Entry<Long, double[]> entry : values.entrySet()) {
 			double value = systemMetric.getValue(entry.getValue());
-			seriesValues.add(Arrays.asList(new Object[] { entry.getKey(), value }));
+			seriesValues.add(entry.getKey().longValue(), value);
 
 		}
 		
@@ -24,7 +24,7 @@ import com.takipi.integrations.grafana.input.GraphInput;
 import com.takipi.integrations.grafana.input.GraphLimitInput;
 import com.takipi.integrations.grafana.input.TiersGraphInput;
 import com.takipi.integrations.grafana.util.ApiCache;
-import com.takipi.integrations.grafana.util.TimeUtil;
+import com.takipi.integrations.grafana.util.GraphTimes;
 
 public class TiersGraphFunction extends LimitGraphFunction {
 	
@@ -88,12 +88,15 @@ public class TiersGraphFunction extends LimitGraphFunction {
 
 		HashSet<String> filtered = new HashSet<String>(eventMap.size());
 		
-		for (GraphPoint gp : graph.points) {
+		long[] times = GraphTimes.of(graph);
+		
+		for (int i = 0; i < times.length; i++) {
 
-			DateTime gpTime = TimeUtil.getDateTime(gp.time);
+			GraphPoint gp = graph.points.get(i);
+			long gpTime = times[i];
 		
 			lastKey = key;
-			key = Long.valueOf(gpTime.getMillis());
+			key = Long.valueOf(gpTime);
 
 			if (gp.contributors == null) {
 				
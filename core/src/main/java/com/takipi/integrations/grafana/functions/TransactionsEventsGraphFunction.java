@@ -23,7 +23,7 @@ import com.takipi.common.util.Pair;
 import com.takipi.integrations.grafana.input.GraphInput;
 import com.takipi.integrations.grafana.input.GraphLimitInput;
 import com.takipi.integrations.grafana.input.TiersGraphInput;
-import com.takipi.integrations.grafana.util.TimeUtil;
+import com.takipi.integrations.grafana.util.GraphTimes;
 
 public class TransactionsEventsGraphFunction extends LimitGraphFunction {
 	
@@ -91,12 +91,15 @@ public class TransactionsEventsGraphFunction extends LimitGraphFunction {
 				
 		Set<String> eventTypes = new HashSet<String>();
 		
-		for (GraphPoint gp : graph.points) {
+		long[] times = GraphTimes.of(graph);
+		
+		for (int i = 0; i < times.length; i++) {
 
-			DateTime gpTime = TimeUtil.getDateTime(gp.time);
+			GraphPoint gp = graph.points.get(i);
+			long gpTime = times[i];
 		
 			lastKey = key;
-			key = Long.valueOf(gpTime.getMillis());
+			key = Long.valueOf(gpTime);
 
 			if (gp.contributors == null) {
 				
@@ -253,12 +256,15 @@ public class TransactionsEventsGraphFunction extends LimitGraphFunction {
 				
 		Set<String> eventTransactions = new HashSet<String>();
 		
-		for (GraphPoint gp : graph.points) {
+		long[] times = GraphTimes.of(graph);
+		
+		for (int i = 0; i < times.length; i++) {
 
-			DateTime gpTime = TimeUtil.getDateTime(gp.time);
+			GraphPoint gp = graph.points.get(i);
+			long gpTime = times[i];
 		
 			lastKey = key;
-			key = Long.valueOf(gpTime.getMillis());
+			key = Long.valueOf(gpTime);
 
 			if (gp.contributors == null) {
 				
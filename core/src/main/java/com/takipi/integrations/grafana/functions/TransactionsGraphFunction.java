@@ -2,16 +2,13 @@ package com.takipi.integrations.grafana.functions;
 
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
 import org.joda.time.DateTime;
-import org.joda.time.format.ISODateTimeFormat;
 
 import com.takipi.api.client.ApiClient;
 import com.takipi.api.client.data.transaction.TransactionGraph;
@@ -32,7 +29,9 @@ import com.takipi.integrations.grafana.input.TransactionsGraphInput.GraphType;
 import com.takipi.integrations.grafana.input.TransactionsGraphInput.TimeWindow;
 import com.takipi.integrations.grafana.input.TransactionsListInput;
 import com.takipi.integrations.grafana.output.Series;
+import com.takipi.integrations.grafana.output.TimeSeriesValues;
 import com.takipi.integrations.grafana.settings.ServiceSettings;
+import com.takipi.integrations.grafana.util.GraphTimes;
 import com.takipi.integrations.grafana.util.TimeUtil;
 
 public class TransactionsGraphFunction extends BaseGraphFunction {
@@ -355,16 +354,19 @@ public class TransactionsGraphFunction extends BaseGraphFunction {
 			targetGraphs = graphs;
 		}
 			
-		Map<String, TimeAvg> timeAvgMap = new HashMap<String, TimeAvg>();
+		Map<Long, TimeAvg> timeAvgMap = new TreeMap<Long, TimeAvg>();
 
 		for (TransactionGraph graph : targetGraphs) {
 			
-			for (GraphPoint gp : graph.points) {
-				TimeAvg timeAvg = timeAvgMap.get(gp.time);
+			long[] times = GraphTimes.of(graph);
+			
+			for (int i = 0; i < times.length; i++) {
+				GraphPoint gp = graph.points.get(i);
+				TimeAvg timeAvg = timeAvgMap.get(Long.valueOf(times[i]));
 				
 				if (timeAvg == null) {
 					timeAvg = new TimeAvg();
-					timeAvgMap.put(gp.time, timeAvg);
+					timeAvgMap.put(Long.valueOf(times[i]), timeAvg);
 				} 
 				
 				timeAvg.invocations += gp.stats.invocations;
@@ -373,8 +375,11 @@ public class TransactionsGraphFunction extends BaseGraphFunction {
 
 		for (TransactionGraph graph : targetGraphs) {
 			
-			for (GraphPoint gp : graph.points) {
-				TimeAvg timeAvg = timeAvgMap.get(gp.time);
+			long[] times = GraphTimes.of(graph);
+			
+			for (int i = 0; i < times.length; i++) {
+				GraphPoint gp = graph.points.get(i);
+				TimeAvg timeAvg = timeAvgMap.get(Long.valueOf(times[i]));
 				
 				if (timeAvg.invocations == 0) {
 					continue;
@@ -388,31 +393,18 @@ public class TransactionsGraphFunction extends BaseGraphFunction {
 			}
 		}
 
-		List<List<Object>> result = new ArrayList<List<Object>>(timeAvgMap.size());
-		Map<Long, TimeAvg> sortedAvgMap = new TreeMap<Long, TimeAvg>();
-
-		for (Map.Entry<String, TimeAvg> entry : timeAvgMap.entrySet()) {
-			
-			String time = entry.getKey();
-			TimeAvg timeAvg = entry.getValue();
-			
-			DateTime gpTime = ISODateTimeFormat.dateTimeParser().parseDateTime(time);
-			Long epochTime = Long.valueOf(gpTime.getMillis());
-			
-			sortedAvgMap.put(epochTime, timeAvg);
-		}
+		TimeSeriesValues result = new TimeSeriesValues(input.getTimeFormat(), timeAvgMap.size());
 			
 		long volume = 0;
 		
-		for (Map.Entry<Long, TimeAvg> entry : sortedAvgMap.entrySet()) {
+		for (Map.Entry<Long, TimeAvg> entry : timeAvgMap.entrySet()) {
 			
 			Long time = entry.getKey();
 			TimeAvg timeAvg = entry.getValue();
 						
 			volume += timeAvg.invocations;
-			Object timeValue = getTimeValue(time, input);
 	
-			result.add(Arrays.asList(new Object[] { timeValue, Double.valueOf(timeAvg.avgTime) }));
+			result.add(time.longValue(), timeAvg.avgTime);
 		}
 		
 		return SeriesVolume.of(result, volume);
@@ -433,9 +425,11 @@ public class TransactionsGraphFunction extends BaseGraphFunction {
 				continue;
 			}
 			
-			for (GraphPoint gp : graph.points) {
-				DateTime gpTime = ISODateTimeFormat.dateTimeParser().parseDateTime(gp.time);
-				Long epochTime = Long.valueOf(gpTime.getMillis());
+			long[] times = GraphTimes.of(graph);
+			
+			for (int i = 0; i < times.length; i++) {
+				GraphPoint gp = graph.points.get(i);
+				Long epochTime = Long.valueOf(times[i]);
 
 				Long value = values.get(epochTime);
 
@@ -451,16 +445,14 @@ public class TransactionsGraphFunction extends BaseGraphFunction {
 		}
 
 		long volume = 0;
-		List<List<Object>> result = new ArrayList<List<Object>>();
+		TimeSeriesValues result = new TimeSeriesValues(input.getTimeFormat(), values.size());
 
 		for (Map.Entry<Long, Long> entry : values.entrySet()) {
 			
 			Long time = entry.getKey();
 			Long value = entry.getValue();
 			
-			Object timeValue = getTimeValue(time, input);
-
-			result.add(Arrays.asList(new Object[] { timeValue, value }));
+			result.add(time.longValue(), value.longValue());
 			volume += value.longValue();
 		}
 
@@ -521,10 +513,12 @@ public class TransactionsGraphFunction extends BaseGraphFunction {
 
 		double volume = 0;
 		
-		Map<DateTime, Double> values = new TreeMap<DateTime, Double>();
+		Map<Long, Double> values = new TreeMap<Long, Double>();
+		long[] times = GraphTimes.of(graph);
 		
-		for (GraphPoint gp : graph.points) {
+		for (int i = 0; i < times.length; i++) {
 		
+			GraphPoint gp = graph.points.get(i);
 			double value;
 
 			if (volumeType.equals(GraphType.avg_time)) {
@@ -533,7 +527,7 @@ public class TransactionsGraphFunction extends BaseGraphFunction {
 				value = gp.stats.invocations;
 			}
 			
-			DateTime gpTime = ISODateTimeFormat.dateTimeParser().parseDateTime(gp.time);
+			Long gpTime = Long.valueOf(times[i]);
 
 			volume += value;
 						
@@ -547,12 +541,10 @@ public class TransactionsGraphFunction extends BaseGraphFunction {
 			}
 		}
 		
-		List<List<Object>> points = new ArrayList<List<Object>>(values.size());
+		TimeSeriesValues points = new TimeSeriesValues(input.getTimeFormat(), values.size());
 		
-		for (Map.Entry<DateTime, Double> entry : values.entrySet()) {
-			
-			Object timeValue = getTimeValue(entry.getKey().getMillis(), input);
-			points.add(Arrays.asList(new Object[] {timeValue, entry.getValue() }));
+		for (Map.Entry<Long, Double> entry : values.entrySet()) {
+			points.add(entry.getKey().longValue(), entry.getValue().doubleValue());
 		}
 
 		return SeriesVolume.of(points, Long.valueOf((long)volume));
@@ -10,6 +10,7 @@ import com.takipi.api.client.ApiClient;
 import com.takipi.integrations.grafana.input.FunctionInput;
 import com.takipi.integrations.grafana.input.VariableInput;
 import com.takipi.integrations.grafana.output.Series;
+import com.takipi.integrations.grafana.util.TaskPriority;
 
 public abstract class VariableFunction extends GrafanaFunction {
 
@@ -71,6 +72,11 @@ public abstract class VariableFunction extends GrafanaFunction {
 		super(apiClient);
 	}
 
+	@Override
+	public TaskPriority getPriority() {
+		return TaskPriority.Metadata;
+	}
+
 	protected String getStringValue(Object o) {
 		return o.toString();//.toLowerCase();
 	}
@@ -1,5 +1,8 @@
 package com.takipi.integrations.grafana.functions;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 import org.joda.time.DateTime;
@@ -37,6 +40,32 @@ public class VolumeFunction extends BaseVolumeFunction {
 		super(apiClient);
 	}
 
+	@Override
+	public Collection<DataDependency> getDependencies(FunctionInput functionInput) {
+		
+		if (!(functionInput instanceof VolumeInput)) {
+			return Collections.emptyList();
+		}
+		
+		VolumeInput input = (VolumeInput)getInput((ViewInput)functionInput);
+		
+		if ((input.volumeType == null) || (input.timeFilter == null)) {
+			return Collections.emptyList();
+		}
+		
+		Pair<DateTime, DateTime> timeSpan = TimeUtil.getTimeFilter(input.timeFilter);
+		
+		Collection<String> serviceIds = getServiceIds(input);
+		List<DataDependency> result = new ArrayList<DataDependency>(serviceIds.size());
+		
+		for (String serviceId : serviceIds) {
+			result.add(new EventListDependency(this, serviceId, input, 
+				timeSpan, input.volumeType, null));
+		}
+		
+		return result;
+	}
+	
 	@Override
 	public  List<Series> process(FunctionInput functionInput) {
 		
@@ -9,7 +9,11 @@ public class QueryDiagnosticsInput extends FunctionInput {
 		ApiCache,
 		RegressionCache,
 		Log,
-		Threads
+		Threads,
+		Coalescing,
+		Refresh,
+		CacheWeights,
+		Circuits
 	}
 	
 	public enum OutputMode {
@@ -45,7 +49,46 @@ public class QueryDiagnosticsInput extends FunctionInput {
 			"Duration",
 			"ApiHash",
 			"Key",
-			"Value"
+			"Value",
+			"Age",
+			"State"
+		});
+	
+	public static final List<String> COALESCING_FIELDS = Arrays.asList(
+		new String[] { 	
+			"Time",
+			"Duration",
+			"ApiHash",
+			"Key",
+			"Waiters"
+		});
+	
+	public static final List<String> REFRESH_FIELDS = Arrays.asList(
+		new String[] { 	
+			"Loader",
+			"SoftTtl",
+			"HardTtl",
+			"StaleServed",
+			"Refreshes",
+			"Expired"
+		});
+	
+	public static final List<String> CACHE_WEIGHT_FIELDS = Arrays.asList(
+		new String[] { 	
+			"Cache",
+			"ApiHash",
+			"Weight",
+			"MaxWeight"
+		});
+	
+	public static final List<String> CIRCUIT_FIELDS = Arrays.asList(
+		new String[] { 	
+			"ApiHash",
+			"State",
+			"Failures",
+			"Trips",
+			"Rejected",
+			"AvailableTokens"
 		});
 	
 	public static final List<String> LOG_FIELDS = Arrays.asList(
@@ -68,6 +111,11 @@ public class QueryDiagnosticsInput extends FunctionInput {
 				"QueryThreadPoolSize",
 				
 				"FunctionQueueSize",
-				"QueryQueueSize"
+				"QueryQueueSize",
+				
+				"FunctionPermits",
+				"QueryPermits",
+				
+				"QueryAvgLatency"
 			});
 }
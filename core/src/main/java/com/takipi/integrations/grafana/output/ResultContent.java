@@ -5,4 +5,10 @@ import java.util.List;
 public class ResultContent {
 	public int statement_id;
 	public List<Series> series;
+	
+	//set when the statement could not complete before the query's deadline
+	public String error;
+	
+	//set when some of the statement's data was dropped to meet the query's deadline
+	public Boolean partial;
 }
@@ -0,0 +1,374 @@
+package com.takipi.integrations.grafana.output;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.takipi.integrations.grafana.input.FunctionInput.TimeFormat;
+import com.takipi.integrations.grafana.util.TimeUtil;
+
+/**
+ * The values of a time series, held as primitive time and value columns instead of a list of
+ * boxed [time, value] rows. Rows are materialized only when read through the List interface,
+ * while serialization writes the columns straight to the JSON writer. Each value keeps the type it
+ * was added with - a double is held by its bits and tagged as such - so that a series serializes
+ * exactly as a list of [time, Long / Double] rows would. Rows that do not fit the columns
+ * (non numeric values, other row sizes) switch the series to a plain list of rows.
+ */
+public class TimeSeriesValues extends AbstractList<List<Object>> {
+
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private final TimeFormat timeFormat;
+
+	private long[] times;
+	private long[] values;
+	private BitSet doubleValues;
+	private int size;
+
+	private List<List<Object>> rows;
+
+	public TimeSeriesValues(TimeFormat timeFormat) {
+		this(timeFormat, DEFAULT_CAPACITY);
+	}
+
+	public TimeSeriesValues(TimeFormat timeFormat, int capacity) {
+		this.timeFormat = timeFormat;
+		this.times = new long[Math.max(1, capacity)];
+		this.values = new long[times.length];
+	}
+
+	private void ensureCapacity() {
+
+		if (size < times.length) {
+			return;
+		}
+
+		int capacity = times.length * 2;
+
+		times = Arrays.copyOf(times, capacity);
+		values = Arrays.copyOf(values, capacity);
+	}
+
+	private boolean isDoubleValue(int index) {
+		return (doubleValues != null) && (doubleValues.get(index));
+	}
+
+	public void add(long time, long value) {
+
+		if (rows != null) {
+			rows.add(Arrays.asList(new Object[] { getTimeValue(time), Long.valueOf(value) }));
+			modCount++;
+			return;
+		}
+
+		ensureCapacity();
+
+		times[size] = time;
+		values[size] = value;
+
+		size++;
+		modCount++;
+	}
+
+	public void add(long time, double value) {
+
+		if (rows != null) {
+			rows.add(Arrays.asList(new Object[] { getTimeValue(time), Double.valueOf(value) }));
+			modCount++;
+			return;
+		}
+
+		ensureCapacity();
+
+		if (doubleValues == null) {
+			doubleValues = new BitSet(times.length);
+		}
+
+		times[size] = time;
+		values[size] = Double.doubleToRawLongBits(value);
+		doubleValues.set(size);
+
+		size++;
+		modCount++;
+	}
+
+	@Override
+	public void add(int index, List<Object> row) {
+
+		if (rows == null) {
+
+			if ((index == size) && (row.size() == 2) && (addColumns(row.get(0), row.get(1)))) {
+				return;
+			}
+
+			toRows();
+		}
+
+		rows.add(index, row);
+		modCount++;
+	}
+
+	private boolean addColumns(Object timeValue, Object value) {
+
+		long time;
+
+		if ((timeFormat == TimeFormat.EPOCH) && (timeValue instanceof Long)) {
+			time = ((Long)timeValue).longValue();
+		} else {
+			return false;
+		}
+
+		if ((value instanceof Long) || (value instanceof Integer)) {
+			add(time, ((Number)value).longValue());
+		} else if (value instanceof Double) {
+			add(time, ((Double)value).doubleValue());
+		} else {
+			return false;
+		}
+
+		return true;
+	}
+
+	private void toRows() {
+
+		List<List<Object>> result = new ArrayList<List<Object>>(Math.max(size, DEFAULT_CAPACITY));
+
+		for (int i = 0; i < size; i++) {
+			result.add(getRow(i));
+		}
+
+		rows = result;
+
+		times = null;
+		values = null;
+		doubleValues = null;
+		size = 0;
+	}
+
+	private Object getTimeValue(long time) {
+
+		switch (timeFormat) {
+
+			case EPOCH: return Long.valueOf(time);
+			case ISO_UTC: return TimeUtil.getDateTimeFromEpoch(time);
+		}
+
+		throw new IllegalStateException();
+	}
+
+	private Object getValue(int index) {
+
+		if (isDoubleValue(index)) {
+			return Double.valueOf(Double.longBitsToDouble(values[index]));
+		}
+
+		return Long.valueOf(values[index]);
+	}
+
+	private List<Object> getRow(int index) {
+		return Arrays.asList(new Object[] { getTimeValue(times[index]), getValue(index) });
+	}
+
+	@Override
+	public List<Object> get(int index) {
+
+		if (rows != null) {
+			return rows.get(index);
+		}
+
+		if ((index < 0) || (index >= size)) {
+			throw new IndexOutOfBoundsException(String.valueOf(index));
+		}
+
+		return getRow(index);
+	}
+
+	@Override
+	public List<Object> set(int index, List<Object> row) {
+
+		if (rows == null) {
+			toRows();
+		}
+
+		return rows.set(index, row);
+	}
+
+	@Override
+	public List<Object> remove(int index) {
+
+		if (rows == null) {
+			toRows();
+		}
+
+		modCount++;
+
+		return rows.remove(index);
+	}
+
+	@Override
+	public int size() {
+
+		if (rows != null) {
+			return rows.size();
+		}
+
+		return size;
+	}
+
+	public long getTime(int index) {
+
+		if (rows != null) {
+			throw new IllegalStateException("Series values are not columnar");
+		}
+
+		return times[index];
+	}
+
+	public double getDoubleValue(int index) {
+
+		if (rows != null) {
+			throw new IllegalStateException("Series values are not columnar");
+		}
+
+		if (isDoubleValue(index)) {
+			return Double.longBitsToDouble(values[index]);
+		}
+
+		return values[index];
+	}
+
+	private void write(JsonWriter out, TypeAdapter<Object> rowValueAdapter) throws IOException {
+
+		out.beginArray();
+
+		if (rows != null) {
+
+			for (List<Object> row : rows) {
+
+				out.beginArray();
+
+				for (Object value : row) {
+					rowValueAdapter.write(out, value);
+				}
+
+				out.endArray();
+			}
+		} else {
+
+			for (int i = 0; i < size; i++) {
+
+				out.beginArray();
+
+				if (timeFormat == TimeFormat.EPOCH) {
+					out.value(times[i]);
+				} else {
+					out.value(TimeUtil.getDateTimeFromEpoch(times[i]));
+				}
+
+				if (isDoubleValue(i)) {
+					out.value(Double.longBitsToDouble(values[i]));
+				} else {
+					out.value(values[i]);
+				}
+
+				out.endArray();
+			}
+		}
+
+		out.endArray();
+	}
+
+	/**
+	 * Writes the columns without boxing. Gson prefers it over the declared List adapter of 
+	 * Series.values whenever the runtime list is a TimeSeriesValues.
+	 */
+	public static class JsonAdapterFactory implements TypeAdapterFactory {
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+
+			if (!TimeSeriesValues.class.isAssignableFrom(type.getRawType())) {
+				return null;
+			}
+
+			return (TypeAdapter<T>)new JsonAdapter(gson.getAdapter(Object.class));
+		}
+	}
+
+	private static class JsonAdapter extends TypeAdapter<TimeSeriesValues> {
+
+		private final TypeAdapter<Object> rowValueAdapter;
+
+		protected JsonAdapter(TypeAdapter<Object> rowValueAdapter) {
+			this.rowValueAdapter = rowValueAdapter;
+		}
+
+		@Override
+		public void write(JsonWriter out, TimeSeriesValues value) throws IOException {
+
+			if (value == null) {
+				out.nullValue();
+				return;
+			}
+
+			value.write(out, rowValueAdapter);
+		}
+
+		/**
+		 * Reads the rows as the declared List adapter of Series.values would, keeping them as
+		 * columns where they fit.
+		 */
+		@Override
+		public TimeSeriesValues read(JsonReader in) throws IOException {
+
+			if (in.peek() == JsonToken.NULL) {
+				in.nextNull();
+				return null;
+			}
+
+			List<List<Object>> rows = new ArrayList<List<Object>>();
+
+			in.beginArray();
+
+			while (in.hasNext()) {
+
+				List<Object> row = new ArrayList<Object>(2);
+
+				in.beginArray();
+
+				while (in.hasNext()) {
+					row.add(rowValueAdapter.read(in));
+				}
+
+				in.endArray();
+
+				rows.add(row);
+			}
+
+			in.endArray();
+
+			TimeFormat timeFormat = TimeFormat.EPOCH;
+
+			if ((rows.size() > 0) && (rows.get(0).size() > 0) && (rows.get(0).get(0) instanceof String)) {
+				timeFormat = TimeFormat.ISO_UTC;
+			}
+
+			TimeSeriesValues result = new TimeSeriesValues(timeFormat, rows.size());
+			result.addAll(rows);
+
+			return result;
+		}
+	}
+}
@@ -2,6 +2,7 @@ package com.takipi.integrations.grafana.servlet;
 
 import java.nio.charset.StandardCharsets;
 import java.util.Base64;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -58,6 +59,46 @@ public class ServletUtil {
 		return null;
 	}
 
+	/**
+	 * The query's timeout in ms - from the "timeout" query parameter, or the X-Query-Timeout
+	 * header which can be set as a custom header of the Grafana datasource. Values are in 
+	 * seconds unless suffixed by ms / s / m.
+	 * 
+	 * @return the timeout, or defaultTimeout if neither is set or valid
+	 */
+	public static long getQueryTimeout(HttpServletRequest request, long defaultTimeout) {
+		
+		String value = request.getParameter("timeout");
+		
+		if ((value == null) || (value.isEmpty())) {
+			value = request.getHeader("X-Query-Timeout");
+		}
+		
+		if ((value == null) || (value.isEmpty())) {
+			return defaultTimeout;
+		}
+		
+		try {
+			String trimmed = value.trim().toLowerCase();
+			
+			if (trimmed.endsWith("ms")) {
+				return Long.parseLong(trimmed.substring(0, trimmed.length() - 2));
+			}
+			
+			if (trimmed.endsWith("m")) {
+				return TimeUnit.MINUTES.toMillis(Long.parseLong(trimmed.substring(0, trimmed.length() - 1)));
+			}
+			
+			if (trimmed.endsWith("s")) {
+				trimmed = trimmed.substring(0, trimmed.length() - 1);
+			}
+			
+			return TimeUnit.SECONDS.toMillis(Long.parseLong(trimmed));
+		} catch (NumberFormatException e) {
+			return defaultTimeout;
+		}
+	}
+
 	public static class Auth {
 		public String hostname;
 		public String token;
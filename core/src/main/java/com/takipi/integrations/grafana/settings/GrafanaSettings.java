@@ -25,6 +25,8 @@ import com.takipi.api.core.url.UrlClient.Response;
 import com.takipi.common.util.Pair;
 import com.takipi.integrations.grafana.storage.FolderStorage;
 import com.takipi.integrations.grafana.util.ApiCache;
+import com.takipi.integrations.grafana.util.GrafanaMetrics;
+import com.takipi.integrations.grafana.util.LatencyTimer;
 
 public class GrafanaSettings {
 	
@@ -178,7 +180,15 @@ public class GrafanaSettings {
 		if (result == null) {
 			
 			GetReliabilitySettingsRequest request = GetReliabilitySettingsRequest.newBuilder().setServiceId(serviceId).build();
-			Response<GetReliabilitySettingsResult> response = apiClient.get(request);
+			
+			long startTime = LatencyTimer.start();
+			Response<GetReliabilitySettingsResult> response = null;
+			
+			try {
+				response = apiClient.get(request);
+			} finally {
+				GrafanaMetrics.recordApiRequest(request, startTime, response);
+			}
 			
 			if ((response.isOK() && (response.data != null) 
 			&& (response.data.reliability_settings_json != null))) {
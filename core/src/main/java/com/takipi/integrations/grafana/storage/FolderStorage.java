@@ -29,6 +29,31 @@ public class FolderStorage extends BaseStorage {
 		return file;
 	}
 	
+	/**
+	 * Deletes the files of the folder - every stored value.
+	 */
+	public void clear() {
+		
+		String storageFolder = System.getProperty(folder);
+		
+		if (storageFolder == null) {
+			return;
+		}
+		
+		File[] files = new File(storageFolder).listFiles();
+		
+		if (files == null) {
+			return;
+		}
+		
+		for (File file : files) {
+			
+			if (file.isFile()) {
+				file.delete();
+			}
+		}
+	}
+	
 	@Override
 	protected InputStream getInputStream(String key) {
 				
@@ -0,0 +1,441 @@
+package com.takipi.integrations.grafana.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.takipi.api.client.data.event.Stats;
+import com.takipi.api.client.data.metrics.Graph;
+import com.takipi.api.client.data.metrics.Graph.GraphPoint;
+import com.takipi.api.client.data.metrics.Graph.GraphPointContributor;
+import com.takipi.api.client.result.metrics.GraphResult;
+
+/**
+ * Columnar binary encoding of graph results. Each graph is written as a header followed by
+ * its point times, hits and invocations columns, and a contributor section whose ids are
+ * dictionary encoded per graph. Times are kept as the strings the API returned, each written
+ * as the suffix it doesn't share with the previous one, while numbers are zigzag varints.
+ * Optional deflate compression is applied to whole payloads.
+ */
+public class GraphCodec {
+
+	private static final int FORMAT_VERSION = 2;
+
+	public static byte[] encode(GraphResult graphResult) {
+
+		Writer writer = new Writer();
+
+		writer.writeVarint(FORMAT_VERSION);
+
+		if (graphResult.graphs == null) {
+			writer.writeVarint(0);
+			return writer.toByteArray();
+		}
+
+		writer.writeVarint(graphResult.graphs.size() + 1);
+
+		for (Graph graph : graphResult.graphs) {
+			encodeGraph(writer, graph);
+		}
+
+		return writer.toByteArray();
+	}
+
+	private static void encodeGraph(Writer writer, Graph graph) {
+
+		writer.writeString(graph.id);
+		writer.writeString(graph.type);
+		writer.writeString(graph.machine_name);
+		writer.writeString(graph.deployment_name);
+		writer.writeString(graph.application_name);
+
+		if (graph.points == null) {
+			writer.writeVarint(0);
+			return;
+		}
+
+		int size = graph.points.size();
+
+		writer.writeVarint(size + 1);
+
+		String prevTime = "";
+
+		for (GraphPoint gp : graph.points) {
+
+			if (gp.time == null) {
+				writer.writeVarint(0);
+				continue;
+			}
+
+			int prefixLength = getCommonPrefixLength(prevTime, gp.time);
+
+			writer.writeVarint(prefixLength + 1);
+			writer.writeString(gp.time.substring(prefixLength));
+
+			prevTime = gp.time;
+		}
+
+		for (GraphPoint gp : graph.points) {
+			writer.writeSignedVarint(getHits(gp.stats));
+		}
+
+		for (GraphPoint gp : graph.points) {
+			writer.writeSignedVarint(getInvocations(gp.stats));
+		}
+
+		Map<String, Integer> dictionary = new HashMap<String, Integer>();
+		List<String> ids = new ArrayList<String>();
+
+		for (GraphPoint gp : graph.points) {
+
+			if (gp.contributors == null) {
+				continue;
+			}
+
+			for (GraphPointContributor contributor : gp.contributors) {
+
+				if ((contributor != null) && (!dictionary.containsKey(contributor.id))) {
+					dictionary.put(contributor.id, Integer.valueOf(ids.size()));
+					ids.add(contributor.id);
+				}
+			}
+		}
+
+		writer.writeVarint(ids.size());
+
+		for (String id : ids) {
+			writer.writeString(id);
+		}
+
+		for (GraphPoint gp : graph.points) {
+
+			if (gp.contributors == null) {
+				writer.writeVarint(0);
+				continue;
+			}
+
+			int count = 0;
+
+			for (GraphPointContributor contributor : gp.contributors) {
+				if (contributor != null) {
+					count++;
+				}
+			}
+
+			writer.writeVarint(count + 1);
+
+			for (GraphPointContributor contributor : gp.contributors) {
+
+				if (contributor == null) {
+					continue;
+				}
+
+				writer.writeVarint(dictionary.get(contributor.id).intValue());
+				writer.writeSignedVarint(getHits(contributor.stats));
+				writer.writeSignedVarint(getInvocations(contributor.stats));
+			}
+		}
+	}
+
+	private static int getCommonPrefixLength(String s1, String s2) {
+
+		int length = Math.min(s1.length(), s2.length());
+
+		for (int i = 0; i < length; i++) {
+
+			if (s1.charAt(i) != s2.charAt(i)) {
+				return i;
+			}
+		}
+
+		return length;
+	}
+
+	public static GraphResult decode(byte[] data) {
+
+		Reader reader = new Reader(data);
+
+		int version = reader.readVarint();
+
+		if (version != FORMAT_VERSION) {
+			throw new IllegalStateException("Unsupported graph format " + version);
+		}
+
+		GraphResult result = new GraphResult();
+
+		int graphCount = reader.readVarint();
+
+		if (graphCount == 0) {
+			return result;
+		}
+
+		result.graphs = new ArrayList<Graph>(graphCount - 1);
+
+		for (int i = 0; i < graphCount - 1; i++) {
+			result.graphs.add(decodeGraph(reader));
+		}
+
+		return result;
+	}
+
+	private static Graph decodeGraph(Reader reader) {
+
+		Graph graph = new Graph();
+
+		graph.id = reader.readString();
+		graph.type = reader.readString();
+		graph.machine_name = reader.readString();
+		graph.deployment_name = reader.readString();
+		graph.application_name = reader.readString();
+
+		int pointCount = reader.readVarint();
+
+		if (pointCount == 0) {
+			return graph;
+		}
+
+		int size = pointCount - 1;
+
+		graph.points = new ArrayList<GraphPoint>(size);
+
+		String prevTime = "";
+
+		for (int i = 0; i < size; i++) {
+
+			GraphPoint gp = new GraphPoint();
+
+			int prefixLength = reader.readVarint();
+
+			if (prefixLength > 0) {
+				gp.time = prevTime.substring(0, prefixLength - 1) + reader.readString();
+				prevTime = gp.time;
+			}
+
+			gp.stats = new Stats();
+
+			graph.points.add(gp);
+		}
+
+		for (GraphPoint gp : graph.points) {
+			gp.stats.hits = reader.readSignedVarint();
+		}
+
+		for (GraphPoint gp : graph.points) {
+			gp.stats.invocations = reader.readSignedVarint();
+		}
+
+		int idCount = reader.readVarint();
+		String[] ids = new String[idCount];
+
+		for (int i = 0; i < idCount; i++) {
+			ids[i] = reader.readString();
+		}
+
+		for (GraphPoint gp : graph.points) {
+
+			int contributorCount = reader.readVarint();
+
+			if (contributorCount == 0) {
+				continue;
+			}
+
+			gp.contributors = new ArrayList<GraphPointContributor>(contributorCount - 1);
+
+			for (int i = 0; i < contributorCount - 1; i++) {
+
+				GraphPointContributor contributor = new GraphPointContributor();
+
+				contributor.id = ids[reader.readVarint()];
+				contributor.stats = new Stats();
+				contributor.stats.hits = reader.readSignedVarint();
+				contributor.stats.invocations = reader.readSignedVarint();
+
+				gp.contributors.add(contributor);
+			}
+		}
+
+		return graph;
+	}
+
+	private static long getHits(Stats stats) {
+
+		if (stats == null) {
+			return 0;
+		}
+
+		return stats.hits;
+	}
+
+	private static long getInvocations(Stats stats) {
+
+		if (stats == null) {
+			return 0;
+		}
+
+		return stats.invocations;
+	}
+
+	public static byte[] compress(byte[] data) {
+
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+		try {
+			deflater.setInput(data);
+			deflater.finish();
+
+			ByteArrayOutputStream outputStream = new ByteArrayOutputStream(data.length / 4 + 16);
+			byte[] buffer = new byte[8192];
+
+			ByteBuffer header = ByteBuffer.allocate(4);
+			header.putInt(data.length);
+			outputStream.write(header.array(), 0, 4);
+
+			while (!deflater.finished()) {
+				int count = deflater.deflate(buffer);
+				outputStream.write(buffer, 0, count);
+			}
+
+			return outputStream.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	public static byte[] decompress(byte[] data) {
+
+		Inflater inflater = new Inflater();
+
+		try {
+			int length = ByteBuffer.wrap(data, 0, 4).getInt();
+			byte[] result = new byte[length];
+
+			inflater.setInput(data, 4, data.length - 4);
+
+			int offset = 0;
+
+			while (offset < length) {
+
+				int count = inflater.inflate(result, offset, length - offset);
+
+				if ((count == 0) && ((inflater.finished()) || (inflater.needsInput()))) {
+					throw new IllegalStateException("Truncated graph payload");
+				}
+
+				offset += count;
+			}
+
+			return result;
+		} catch (DataFormatException e) {
+			throw new IllegalStateException(e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	private static class Writer {
+
+		private final ByteArrayOutputStream outputStream;
+
+		protected Writer() {
+			this.outputStream = new ByteArrayOutputStream(1024);
+		}
+
+		protected void writeVarint(long value) {
+
+			long current = value;
+
+			while ((current & ~0x7FL) != 0) {
+				outputStream.write((int)((current & 0x7F) | 0x80));
+				current >>>= 7;
+			}
+
+			outputStream.write((int)current);
+		}
+
+		protected void writeSignedVarint(long value) {
+			writeVarint((value << 1) ^ (value >> 63));
+		}
+
+		protected void writeString(String value) {
+
+			if (value == null) {
+				writeVarint(0);
+				return;
+			}
+
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+
+			writeVarint(bytes.length + 1);
+			outputStream.write(bytes, 0, bytes.length);
+		}
+
+		protected byte[] toByteArray() {
+			return outputStream.toByteArray();
+		}
+	}
+
+	private static class Reader {
+
+		private final byte[] data;
+		private int position;
+
+		protected Reader(byte[] data) {
+			this.data = data;
+			this.position = 0;
+		}
+
+		protected long readVarLong() {
+
+			long result = 0;
+			int shift = 0;
+
+			while (true) {
+
+				if (position >= data.length) {
+					throw new IllegalStateException("Truncated graph data");
+				}
+
+				byte b = data[position++];
+				result |= (long)(b & 0x7F) << shift;
+
+				if ((b & 0x80) == 0) {
+					return result;
+				}
+
+				shift += 7;
+			}
+		}
+
+		protected int readVarint() {
+			return (int)readVarLong();
+		}
+
+		protected long readSignedVarint() {
+
+			long value = readVarLong();
+
+			return (value >>> 1) ^ -(value & 1);
+		}
+
+		protected String readString() {
+
+			int length = readVarint();
+
+			if (length == 0) {
+				return null;
+			}
+
+			String result = new String(data, position, length - 1, StandardCharsets.UTF_8);
+			position += length - 1;
+
+			return result;
+		}
+	}
+}
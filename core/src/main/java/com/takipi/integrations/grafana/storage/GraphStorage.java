@@ -0,0 +1,8 @@
+package com.takipi.integrations.grafana.storage;
+
+import com.takipi.api.client.result.metrics.GraphResult;
+
+public interface GraphStorage {
+	public GraphResult getGraphResult(String name);
+	public void setGraphResult(String name, GraphResult graphResult);
+}
@@ -0,0 +1,662 @@
+package com.takipi.integrations.grafana.storage;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.takipi.api.client.result.metrics.GraphResult;
+import com.takipi.integrations.grafana.functions.GrafanaFunction;
+
+/**
+ * Stores graph slices in append-only segment files, read back through memory mappings.
+ * Graphs are kept in the columnar {@link GraphCodec} format, deflated, while plain string
+ * values are supported so this can stand in for any {@link KeyValueStorage}. The key index
+ * is held in memory and rebuilt by scanning the segments on first use. Records older than
+ * the TTL are ignored, and sealed segments that are mostly dead (overwritten or expired)
+ * are compacted into the active segment and deleted once the reads in progress on them end.
+ */
+public class SegmentGraphStorage implements KeyValueStorage, GraphStorage {
+	private static final Logger logger = LoggerFactory.getLogger(SegmentGraphStorage.class);
+
+	private static final String SEGMENT_PREFIX = "graphs-";
+	private static final String SEGMENT_SUFFIX = ".seg";
+
+	private static final int RECORD_MAGIC = 0x47524150;
+	private static final int HEADER_SIZE = 12;
+
+	private static final byte STRING_RECORD = 0;
+	private static final byte GRAPH_RECORD = 1;
+
+	private static final long MAX_SEGMENT_SIZE = 64 * 1024 * 1024;
+	
+	//records appended past a segment's mapping are read from its channel until this many bytes
+	//accumulated, and only then is the mapping grown over them
+	private static final long MAP_CHUNK_SIZE = 4 * 1024 * 1024;
+	private static final long DEFAULT_TTL = TimeUnit.DAYS.toMillis(30);
+
+	//sealed segments with less than this percentage of live bytes are compacted
+	private static final int COMPACTION_THRESHOLD = 50;
+
+	private static class Segment {
+
+		protected final int id;
+		protected final File file;
+		protected final FileChannel channel;
+		protected final AtomicLong liveBytes;
+		protected final AtomicInteger readers;
+		protected final AtomicBoolean closed;
+
+		protected volatile MappedByteBuffer buffer;
+		protected volatile long size;
+		protected volatile boolean retired;
+
+		protected Segment(int id, File file) throws IOException {
+			this.id = id;
+			this.file = file;
+			this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+			this.liveBytes = new AtomicLong();
+			this.readers = new AtomicInteger();
+			this.closed = new AtomicBoolean();
+			this.size = channel.size();
+		}
+
+		/**
+		 * @return the record's body, or null if the segment was retired by a compaction
+		 */
+		protected ByteBuffer read(long offset, int length) throws IOException {
+
+			//a reader registers before checking for retirement, and retire() marks the segment
+			//before checking for readers, so one of them always sees the other
+			readers.incrementAndGet();
+
+			try {
+				if (retired) {
+					return null;
+				}
+
+				return readRecord(offset, length);
+			} finally {
+
+				if ((readers.decrementAndGet() == 0) && (retired)) {
+					close();
+				}
+			}
+		}
+
+		private ByteBuffer readRecord(long offset, int length) throws IOException {
+
+			MappedByteBuffer currBuffer = buffer;
+			long end = offset + length;
+
+			//the active segment grows past its mapping as records are appended
+			if ((currBuffer == null) || (currBuffer.capacity() < end)) {
+
+				long mapped = (currBuffer == null) ? 0 : currBuffer.capacity();
+
+				if (size - mapped < MAP_CHUNK_SIZE) {
+					return readChannel(offset, length);
+				}
+
+				synchronized (this) {
+
+					currBuffer = buffer;
+
+					if ((currBuffer == null) || (currBuffer.capacity() < end)) {
+						currBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+						buffer = currBuffer;
+					}
+				}
+			}
+
+			ByteBuffer result = currBuffer.duplicate();
+
+			result.position((int)offset);
+			result.limit((int)end);
+
+			return result.slice();
+		}
+
+		private ByteBuffer readChannel(long offset, int length) throws IOException {
+
+			ByteBuffer result = ByteBuffer.allocate(length);
+
+			while (result.hasRemaining()) {
+
+				if (channel.read(result, offset + result.position()) < 0) {
+					throw new EOFException(file + " " + offset + " " + length);
+				}
+			}
+
+			result.flip();
+
+			return result;
+		}
+
+		/**
+		 * Stops new reads of the segment, and closes and deletes it once the reads in progress end
+		 */
+		protected void retire() {
+
+			retired = true;
+
+			if (readers.get() == 0) {
+				close();
+			}
+		}
+
+		private void close() {
+
+			if (!closed.compareAndSet(false, true)) {
+				return;
+			}
+
+			try {
+				channel.close();
+			} catch (IOException e) {
+				logger.warn("Could not close segment " + file, e);
+			}
+
+			if (!file.delete()) {
+				logger.warn("Could not delete compacted segment {}", file);
+			}
+		}
+	}
+
+	private static class RecordLocation {
+
+		protected final Segment segment;
+		protected final long offset;
+		protected final int length;
+		protected final long writeTime;
+		protected final byte type;
+
+		protected RecordLocation(Segment segment, long offset, int length, long writeTime, byte type) {
+			this.segment = segment;
+			this.offset = offset;
+			this.length = length;
+			this.writeTime = writeTime;
+			this.type = type;
+		}
+	}
+
+	private final String folder;
+	private final long ttl;
+
+	private final ConcurrentMap<String, RecordLocation> index;
+	private final Map<Integer, Segment> segments;
+
+	private volatile boolean opened;
+	private Segment activeSegment;
+
+	public SegmentGraphStorage(String folder) {
+		this(folder, DEFAULT_TTL);
+	}
+
+	/**
+	 * @param folder - the name of the system property holding the storage folder, as in {@link FolderStorage}
+	 * @param ttl - the time in ms after which stored values are discarded
+	 */
+	public SegmentGraphStorage(String folder, long ttl) {
+		this.folder = folder;
+		this.ttl = ttl;
+		this.index = new ConcurrentHashMap<String, RecordLocation>();
+		this.segments = new ConcurrentHashMap<Integer, Segment>();
+	}
+
+	private File getFolder() {
+
+		String storageFolder = System.getProperty(folder);
+
+		if (storageFolder == null) {
+			return null;
+		}
+
+		return new File(storageFolder);
+	}
+
+	private boolean open() {
+
+		if (opened) {
+			return true;
+		}
+
+		synchronized (this) {
+
+			if (opened) {
+				return true;
+			}
+
+			File storageFolder = getFolder();
+
+			if (storageFolder == null) {
+				return false;
+			}
+
+			if (!storageFolder.exists()) {
+				storageFolder.mkdirs();
+			}
+
+			try {
+				int maxId = 0;
+
+				File[] files = storageFolder.listFiles();
+
+				if (files != null) {
+
+					List<Integer> ids = new ArrayList<Integer>();
+
+					for (File file : files) {
+
+						Integer id = getSegmentId(file.getName());
+
+						if (id != null) {
+							ids.add(id);
+						}
+					}
+
+					ids.sort(null);
+
+					for (Integer id : ids) {
+
+						Segment segment = new Segment(id.intValue(), getSegmentFile(storageFolder, id.intValue()));
+
+						segments.put(id, segment);
+						scanSegment(segment);
+
+						maxId = Math.max(maxId, id.intValue());
+					}
+				}
+
+				activeSegment = new Segment(maxId + 1, getSegmentFile(storageFolder, maxId + 1));
+				segments.put(Integer.valueOf(activeSegment.id), activeSegment);
+
+				opened = true;
+
+				compact();
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+
+			return true;
+		}
+	}
+
+	private static File getSegmentFile(File storageFolder, int id) {
+		return new File(storageFolder, SEGMENT_PREFIX + id + SEGMENT_SUFFIX);
+	}
+
+	private static Integer getSegmentId(String fileName) {
+
+		if ((!fileName.startsWith(SEGMENT_PREFIX)) || (!fileName.endsWith(SEGMENT_SUFFIX))) {
+			return null;
+		}
+
+		try {
+			return Integer.valueOf(fileName.substring(SEGMENT_PREFIX.length(),
+				fileName.length() - SEGMENT_SUFFIX.length()));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private void scanSegment(Segment segment) throws IOException {
+
+		long offset = 0;
+		long size = segment.channel.size();
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+		while (offset + HEADER_SIZE <= size) {
+
+			header.clear();
+			segment.channel.read(header, offset);
+			header.flip();
+
+			int magic = header.getInt();
+			int bodyLength = header.getInt();
+			int crc = header.getInt();
+
+			if ((magic != RECORD_MAGIC) || (bodyLength <= 0) || (offset + HEADER_SIZE + bodyLength > size)) {
+				break;
+			}
+
+			ByteBuffer body = ByteBuffer.allocate(bodyLength);
+			segment.channel.read(body, offset + HEADER_SIZE);
+			body.flip();
+
+			if (getCrc(body) != crc) {
+				break;
+			}
+
+			long writeTime = body.getLong();
+			byte type = body.get();
+			byte[] key = new byte[body.getShort() & 0xFFFF];
+			body.get(key);
+
+			RecordLocation location = new RecordLocation(segment, offset + HEADER_SIZE,
+				bodyLength, writeTime, type);
+
+			updateIndex(new String(key, StandardCharsets.UTF_8), location);
+
+			offset += HEADER_SIZE + bodyLength;
+		}
+
+		//drop a partially written record left by a crash
+		if (offset < size) {
+			logger.warn("Truncating segment {} from {} to {}", segment.file, size, offset);
+			segment.channel.truncate(offset);
+		}
+
+		segment.size = offset;
+	}
+
+	private static int getCrc(ByteBuffer body) {
+
+		CRC32 crc32 = new CRC32();
+		crc32.update(body.duplicate());
+
+		return (int)crc32.getValue();
+	}
+
+	private void updateIndex(String key, RecordLocation location) {
+
+		RecordLocation prev = index.put(key, location);
+
+		location.segment.liveBytes.addAndGet(HEADER_SIZE + location.length);
+
+		if (prev != null) {
+			prev.segment.liveBytes.addAndGet(-(HEADER_SIZE + prev.length));
+		}
+	}
+
+	private void removeIndex(String key, RecordLocation location) {
+
+		if (index.remove(key, location)) {
+			location.segment.liveBytes.addAndGet(-(HEADER_SIZE + location.length));
+		}
+	}
+
+	/**
+	 * @return true if the active segment was sealed to make room for this record
+	 */
+	private synchronized boolean append(String key, byte type, byte[] payload, long writeTime) throws IOException {
+
+		byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+
+		if (keyBytes.length > 0xFFFF) {
+			throw new IllegalArgumentException("Key too long: " + key);
+		}
+
+		int bodyLength = 8 + 1 + 2 + keyBytes.length + payload.length;
+
+		ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + bodyLength);
+
+		record.position(HEADER_SIZE);
+		record.putLong(writeTime);
+		record.put(type);
+		record.putShort((short)keyBytes.length);
+		record.put(keyBytes);
+		record.put(payload);
+
+		record.position(HEADER_SIZE);
+		int crc = getCrc(record.slice());
+
+		record.position(0);
+		record.putInt(RECORD_MAGIC);
+		record.putInt(bodyLength);
+		record.putInt(crc);
+		record.position(0);
+
+		boolean rolled = false;
+
+		if (activeSegment.size + HEADER_SIZE + bodyLength > MAX_SEGMENT_SIZE) {
+			rollSegment();
+			rolled = true;
+		}
+
+		Segment segment = activeSegment;
+		long offset = segment.size;
+		long position = offset;
+
+		while (record.hasRemaining()) {
+			position += segment.channel.write(record, position);
+		}
+
+		segment.size = position;
+
+		updateIndex(key, new RecordLocation(segment, offset + HEADER_SIZE, bodyLength, writeTime, type));
+
+		return rolled;
+	}
+
+	private void rollSegment() throws IOException {
+
+		Segment segment = new Segment(activeSegment.id + 1,
+			getSegmentFile(activeSegment.file.getParentFile(), activeSegment.id + 1));
+
+		segments.put(Integer.valueOf(segment.id), segment);
+		activeSegment = segment;
+	}
+
+	/**
+	 * Rewrites the live, unexpired records of mostly dead sealed segments into the active
+	 * segment, and deletes those segments.
+	 */
+	public synchronized void compact() {
+
+		if (!opened) {
+			return;
+		}
+
+		long now = System.currentTimeMillis();
+
+		for (Map.Entry<String, RecordLocation> entry : index.entrySet()) {
+
+			if (now - entry.getValue().writeTime > ttl) {
+				removeIndex(entry.getKey(), entry.getValue());
+			}
+		}
+
+		for (Segment segment : new ArrayList<Segment>(segments.values())) {
+
+			if ((segment == activeSegment) || (segment.size == 0)) {
+				continue;
+			}
+
+			if (segment.liveBytes.get() * 100 >= segment.size * COMPACTION_THRESHOLD) {
+				continue;
+			}
+
+			try {
+				for (Map.Entry<String, RecordLocation> entry : index.entrySet()) {
+
+					RecordLocation location = entry.getValue();
+
+					if (location.segment != segment) {
+						continue;
+					}
+
+					ByteBuffer body = segment.read(location.offset, location.length);
+					byte[] payload = getPayload(body);
+
+					append(entry.getKey(), location.type, payload, location.writeTime);
+				}
+
+				segments.remove(Integer.valueOf(segment.id));
+				segment.retire();
+			} catch (IOException e) {
+				logger.error("Could not compact segment " + segment.file, e);
+			}
+		}
+	}
+
+	private static byte[] getPayload(ByteBuffer body) {
+
+		ByteBuffer buffer = body.duplicate();
+
+		buffer.position(8 + 1);
+
+		int keyLength = buffer.getShort() & 0xFFFF;
+
+		buffer.position(buffer.position() + keyLength);
+
+		byte[] result = new byte[buffer.remaining()];
+		buffer.get(result);
+
+		return result;
+	}
+
+	private byte[] readPayload(String name, byte type) {
+
+		if (!open()) {
+			return null;
+		}
+
+		RecordLocation location = index.get(name);
+
+		if ((location == null) || (location.type != type)) {
+			return null;
+		}
+
+		if (System.currentTimeMillis() - location.writeTime > ttl) {
+			removeIndex(name, location);
+			return null;
+		}
+
+		try {
+			ByteBuffer body = location.segment.read(location.offset, location.length);
+
+			//the segment was compacted away since the location was read, and its live records
+			//were moved to the active segment before it was retired
+			if (body == null) {
+
+				location = index.get(name);
+
+				if ((location == null) || (location.type != type)) {
+					return null;
+				}
+
+				body = location.segment.read(location.offset, location.length);
+
+				if (body == null) {
+					logger.debug("Segment {} of {} was retired while being read", location.segment.file, name);
+					return null;
+				}
+			}
+
+			return GraphCodec.decompress(getPayload(body));
+		} catch (Exception e) {
+			logger.error("Could not read " + name + " from " + location.segment.file, e);
+			return null;
+		}
+	}
+
+	private void writePayload(String name, byte type, byte[] data) {
+
+		if (!open()) {
+			throw new IllegalStateException("Can not store data for " + name);
+		}
+
+		try {
+			boolean rolled = append(name, type, GraphCodec.compress(data), System.currentTimeMillis());
+			
+			if (rolled) {
+				compact();
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public GraphResult getGraphResult(String name) {
+
+		byte[] data = readPayload(name, GRAPH_RECORD);
+
+		if (data == null) {
+			return null;
+		}
+
+		try {
+			return GraphCodec.decode(data);
+		} catch (Exception e) {
+
+			//a record in a format this version can't read is dropped, so it's fetched and
+			//written again while compaction reclaims the old one
+			logger.error("Could not decode " + name, e);
+
+			RecordLocation location = index.get(name);
+
+			if (location != null) {
+				removeIndex(name, location);
+			}
+
+			return null;
+		}
+	}
+
+	@Override
+	public void setGraphResult(String name, GraphResult graphResult) {
+		writePayload(name, GRAPH_RECORD, GraphCodec.encode(graphResult));
+	}
+
+	@Override
+	public String getValue(String name) {
+
+		byte[] data = readPayload(name, STRING_RECORD);
+
+		if (data != null) {
+			return new String(data, StandardCharsets.UTF_8);
+		}
+
+		GraphResult graphResult = getGraphResult(name);
+
+		if (graphResult != null) {
+			return GrafanaFunction.gson.toJson(graphResult);
+		}
+
+		return null;
+	}
+
+	@Override
+	public void setValue(String name, String value) {
+		writePayload(name, STRING_RECORD, value.getBytes(StandardCharsets.UTF_8));
+	}
+
+	public int getSize() {
+		return index.size();
+	}
+
+	/**
+	 * Drops every stored value. Their records are left dead, to be deleted by compaction.
+	 */
+	public synchronized void clear() {
+
+		if (!open()) {
+			return;
+		}
+
+		for (Map.Entry<String, RecordLocation> entry : index.entrySet()) {
+			removeIndex(entry.getKey(), entry.getValue());
+		}
+	}
+}
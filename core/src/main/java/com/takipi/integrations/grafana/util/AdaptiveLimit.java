@@ -0,0 +1,79 @@
+package com.takipi.integrations.grafana.util;
+
+/**
+ * An AIMD concurrency limit - grows by one for every limit's worth of samples that came back
+ * within the latency threshold, and is cut by a constant factor when a sample is slow or failed.
+ * Cuts are spaced at least a backoff interval apart, so that a burst of slow responses issued
+ * under the old limit only shrinks it once.
+ */
+public class AdaptiveLimit {
+
+	private static final double DECREASE_FACTOR = 0.75;
+	private static final double LATENCY_SMOOTHING = 0.1;
+
+	private final int minLimit;
+	private final int maxLimit;
+	private final long latencyThreshold;
+	private final long backoffInterval;
+
+	private double limit;
+	private long lastDecreaseTime;
+
+	private volatile int currentLimit;
+	private volatile double avgLatency;
+
+	/**
+	 * @param latencyThreshold - samples slower than this (in ms) decrease the limit
+	 * @param backoffInterval - the minimal time (in ms) between two decreases
+	 */
+	public AdaptiveLimit(int minLimit, int initialLimit, int maxLimit,
+		long latencyThreshold, long backoffInterval) {
+
+		if ((minLimit < 1) || (maxLimit < minLimit)) {
+			throw new IllegalArgumentException(minLimit + " - " + maxLimit);
+		}
+
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.latencyThreshold = latencyThreshold;
+		this.backoffInterval = backoffInterval;
+
+		this.limit = Math.min(maxLimit, Math.max(minLimit, initialLimit));
+		this.currentLimit = (int)limit;
+	}
+
+	public static AdaptiveLimit fixed(int limit) {
+		return new AdaptiveLimit(limit, limit, limit, Long.MAX_VALUE, 0);
+	}
+
+	public int get() {
+		return currentLimit;
+	}
+
+	public double getAvgLatency() {
+		return avgLatency;
+	}
+
+	public synchronized void onSample(long latency, boolean failed) {
+
+		if (avgLatency == 0) {
+			avgLatency = latency;
+		} else {
+			avgLatency += (latency - avgLatency) * LATENCY_SMOOTHING;
+		}
+
+		if ((failed) || (latency > latencyThreshold)) {
+
+			long now = System.currentTimeMillis();
+
+			if (now - lastDecreaseTime >= backoffInterval) {
+				limit = Math.max(minLimit, limit * DECREASE_FACTOR);
+				lastDecreaseTime = now;
+			}
+		} else {
+			limit = Math.min(maxLimit, limit + 1.0 / limit);
+		}
+
+		currentLimit = (int)limit;
+	}
+}
@@ -7,22 +7,25 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.base.Objects;
+import com.google.common.base.Strings;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
-import com.google.common.collect.EvictingQueue;
-import com.google.common.collect.Queues;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
 import com.takipi.api.client.ApiClient;
 import com.takipi.api.client.data.application.SummarizedApplication;
 import com.takipi.api.client.data.deployment.SummarizedDeployment;
@@ -85,7 +88,10 @@ import com.takipi.integrations.grafana.input.ReliabilityReportInput;
 import com.takipi.integrations.grafana.input.SystemMetricsGraphInput;
 import com.takipi.integrations.grafana.input.ViewInput;
 import com.takipi.integrations.grafana.storage.FolderStorage;
+import com.takipi.integrations.grafana.storage.GraphStorage;
 import com.takipi.integrations.grafana.storage.KeyValueStorage;
+import com.takipi.integrations.grafana.storage.SegmentGraphStorage;
+import com.takipi.integrations.grafana.util.ApiGuard.ApiUnavailableException;
 
 public class ApiCache {
 	private static final Logger logger = LoggerFactory.getLogger(ApiCache.class);
@@ -94,16 +100,27 @@ public class ApiCache {
 	
 	private static final int CACHE_SIZE = 500;
 	private static final int CACHE_REFRESH_RETENTION = 90;
+	private static final int CACHE_MAX_RETENTION = 600;
+	private static final int CACHE_STALE_RETENTION = 300;
 	
 	private static final int SLOW_QUERY_THRESHOLD = 10;
 		
 	public static final int NO_GRAPH_SLICE = -1;
+	public static final int TAIL_GRAPH_SLICE = -2;
 	public static final int MIN_SLICE_POINTS = 3;
 	
 	public static boolean CACHE_GRAPHS = true;
 	public static boolean SLICE_GRAPHS = true;
+	public static boolean SEGMENT_GRAPHS = true;
+	public static boolean INCREMENTAL_REGRESSIONS = true;
 	
 	private static final String CACHE_FOLDER = "GraphCacheFolder";
+	private static final String CACHE_FORMAT = "GraphCacheFormat";
+	private static final String CACHE_FORMAT_BINARY = "binary";
+	
+	//<LoaderClass>.softTtl / <LoaderClass>.hardTtl override the TTLs (in seconds) of a loader's refresh policy
+	private static final String SOFT_TTL_PROPERTY = ".softTtl";
+	private static final String HARD_TTL_PROPERTY = ".hardTtl";
 	public static boolean PRINT_DURATIONS = true;
 
 	public static class QueryLogItem {
@@ -168,6 +185,64 @@ public class ApiCache {
 		}
 	}
 	
+	public static class CacheEntry<V> {
+		
+		public final V value;
+		public final long loadTime;
+		public final int weight;
+		
+		public CacheEntry(V value) {
+			this.value = value;
+			this.loadTime = System.currentTimeMillis();
+			this.weight = CacheWeights.estimate(value);
+		}
+		
+		public long getAge() {
+			return Math.max(0, System.currentTimeMillis() - loadTime);
+		}
+	}
+	
+	/**
+	 * Controls how long a loader's results are served for. Entries older than softTtl are still
+	 * returned immediately, while a background reload is queued to replace them. Entries older 
+	 * than hardTtl are no longer served, and the caller waits for a synchronous reload. 
+	 * A policy whose soft and hard TTLs are equal disables stale-while-revalidate.
+	 */
+	public static class RefreshPolicy {
+		
+		public final String name;
+		public final int softTtl;
+		public final int hardTtl;
+		
+		public final AtomicLong staleServed;
+		public final AtomicLong refreshes;
+		public final AtomicLong expired;
+		
+		protected RefreshPolicy(String name, int softTtl, int hardTtl) {
+			
+			if ((softTtl <= 0) || (hardTtl < softTtl) || (hardTtl > CACHE_MAX_RETENTION)) {
+				throw new IllegalArgumentException("Invalid refresh policy for " + name + 
+					": " + softTtl + " - " + hardTtl);
+			}
+			
+			this.name = name;
+			this.softTtl = softTtl;
+			this.hardTtl = hardTtl;
+			
+			this.staleServed = new AtomicLong();
+			this.refreshes = new AtomicLong();
+			this.expired = new AtomicLong();
+		}
+		
+		public boolean isStale(CacheEntry<?> entry) {
+			return entry.getAge() > TimeUnit.SECONDS.toMillis(softTtl);
+		}
+		
+		public boolean isExpired(CacheEntry<?> entry) {
+			return entry.getAge() > TimeUnit.SECONDS.toMillis(hardTtl);
+		}
+	}
+	
 	public abstract static class BaseCacheLoader {
 
 		public ApiClient apiClient;
@@ -176,7 +251,8 @@ public class ApiCache {
 		
 		public long loadT1;
 		public long loadT2;
-
+		
+		private volatile CacheKey cacheKey;
 		
 		public BaseCacheLoader(ApiClient apiClient, ApiGetRequest<?> request, String query) {
 			this.apiClient = apiClient;
@@ -199,25 +275,51 @@ public class ApiCache {
 			return true;
 		}
 		
+		/**
+		 * Appends the values identifying this loader to its cache key. Children must call
+		 * super before adding their own fields.
+		 */
+		protected void buildCacheKey(CacheKey.Builder builder) {
+			builder.add(getClass()).add(apiClient);
+		}
+		
+		/**
+		 * The key is built once, on first use after construction, so that equals and hashCode
+		 * do not need to re-evaluate the input filters on every cache probe
+		 */
+		public CacheKey getCacheKey() {
+			
+			CacheKey result = cacheKey;
+			
+			if (result == null) {
+				CacheKey.Builder builder = CacheKey.newBuilder();
+				buildCacheKey(builder);
+				result = builder.build();
+				cacheKey = result;
+			}
+			
+			return result;
+		}
+		
 		@Override
 		public boolean equals(Object obj) {
 
+			if (this == obj) {
+				return true;
+			}
+			
 			if (!(obj instanceof BaseCacheLoader)) {
 				return false;
 			}
 
 			BaseCacheLoader other = (BaseCacheLoader) obj;
 
-			if (!Objects.equal(apiClient, other.apiClient)) {
-				return false;
-			}
-
-			return true;
+			return getCacheKey().equals(other.getCacheKey());
 		}
 
 		@Override
 		public int hashCode() {
-			return apiClient.getHostname().hashCode();
+			return getCacheKey().hashCode();
 		}
 		
 		public Response<?> load() {
@@ -236,17 +338,35 @@ public class ApiCache {
 				
 				if (queryLogItem.serviceId != null) {
 					
-					Pair<ThreadPoolExecutor, ThreadPoolExecutor> serviceExecutors = 
+					Pair<TenantExecutor, TenantExecutor> serviceExecutors = 
 						GrafanaThreadPool.getExecutors(apiClient);
 					
-					queryLogItem.functionThreadSize = serviceExecutors.getFirst().getActiveCount();
-					queryLogItem.functionQueueSize = serviceExecutors.getFirst().getQueue().size();
+					queryLogItem.functionThreadSize = serviceExecutors.getFirst().getRunningCount();
+					queryLogItem.functionQueueSize = serviceExecutors.getFirst().getPendingCount();
 					
-					queryLogItem.queryThreadSize = serviceExecutors.getSecond().getActiveCount();
-					queryLogItem.queryQueueSize = serviceExecutors.getSecond().getQueue().size();				
+					queryLogItem.queryThreadSize = serviceExecutors.getSecond().getRunningCount();
+					queryLogItem.queryQueueSize = serviceExecutors.getSecond().getPendingCount();				
 				}
 				
-				Response<?> result = apiClient.get(request);
+				ApiGuard apiGuard = ApiGuard.get(apiClient);
+				apiGuard.acquire();
+				
+				long startTime = LatencyTimer.start();
+				
+				Response<?> result = null;
+				
+				try {
+					result = apiClient.get(request);
+				} finally {
+					GrafanaMetrics.recordApiRequest(request, startTime, result);
+					
+					long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+					
+					GrafanaThreadPool.recordApiLatency(apiClient, latency,
+						(result == null) || (result.isBadResponse()));
+					
+					apiGuard.onResponse(latency, (result != null) ? result.responseCode : 0);
+				}
 				
 				queryLogItem.t2 = System.currentTimeMillis();
 				this.loadT2 = queryLogItem.t2;
@@ -265,6 +385,14 @@ public class ApiCache {
 								
 				return result;
 				
+			} catch (ApiUnavailableException e) {
+				queryLogItem.t2 = System.currentTimeMillis();
+				this.loadT2 = queryLogItem.t2;
+				
+				queryLogItem.exception = e.getMessage();
+				
+				//rethrown as is, for callers to tell it apart from a failed call 
+				throw e;
 			} catch (Throwable e) {
 				queryLogItem.t2 = System.currentTimeMillis();
 				this.loadT2 = queryLogItem.t2;
@@ -286,20 +414,6 @@ public class ApiCache {
 		public ServicesCacheLoader(ApiClient apiClient, ApiGetRequest<?> request, String query) {
 			super(apiClient, request, query);
 		}
-		
-		@Override
-		public boolean equals(Object obj) {
-
-			if (!(obj instanceof ServicesCacheLoader)) {
-				return false;
-			}
-
-			if (!super.equals(obj)) {
-				return false;
-			}
-
-			return true;
-		}		
 	}
 
 	protected abstract static class ServiceCacheLoader extends BaseCacheLoader {
@@ -312,28 +426,9 @@ public class ApiCache {
 		}
 
 		@Override
-		public boolean equals(Object obj) {
-
-			if (!(obj instanceof ServiceCacheLoader)) {
-				return false;
-			}
-
-			ServiceCacheLoader other = (ServiceCacheLoader) obj;
-
-			if (!super.equals(obj)) {
-				return false;
-			}
-
-			if (!Objects.equal(serviceId, other.serviceId)) {
-				return false;
-			}
-
-			return true;
-		}
-
-		@Override
-		public int hashCode() {
-			return super.hashCode() ^ serviceId.hashCode();
+		protected void buildCacheKey(CacheKey.Builder builder) {
+			super.buildCacheKey(builder);
+			builder.add(serviceId);
 		}
 		
 		@Override
@@ -347,16 +442,7 @@ public class ApiCache {
 		public AlertSettingsCacheLoader(ApiClient apiClient, ApiGetRequest<?> request, String serviceId, String query) {
 			super(apiClient, request, serviceId, query);
 		}
-		
-		@Override
-		public boolean equals(Object obj) {
-			
-			if (!(obj instanceof AlertSettingsCacheLoader)) {
-				return false;
-			}
-			
-			return super.equals(obj);
-		}	
+
 	}
 	
 	protected static class CategoriesCacheLoader extends ServiceCacheLoader {
@@ -370,20 +456,10 @@ public class ApiCache {
 		}
 		
 		@Override
-		public boolean equals(Object obj) {
-			
-			if (!(obj instanceof CategoriesCacheLoader)) {
-				return false;
-			}
-			
-			CategoriesCacheLoader other = (CategoriesCacheLoader)obj;
-			
-			if (includeViews != other.includeViews) {
-				return false;
-			}
-			
-			return super.equals(obj);
-		}	
+		protected void buildCacheKey(CacheKey.Builder builder) {
+			super.buildCacheKey(builder);
+			builder.add(includeViews);
+		}
 	}
 	
 	protected static class ViewsCacheLoader extends ServiceCacheLoader {
@@ -392,16 +468,7 @@ public class ApiCache {
 			String serviceId, String query) {
 			super(apiClient, request, serviceId, query);
 		}
-		
-		@Override
-		public boolean equals(Object obj) {
-			
-			if (!(obj instanceof ViewsCacheLoader)) {
-				return false;
-			}
-			
-			return super.equals(obj);
-		}	
+
 	}
 		
 	protected static class LabelsCacheLoader extends ServiceCacheLoader {
@@ -410,16 +477,7 @@ public class ApiCache {
 			String serviceId, String query) {
 			super(apiClient, request, serviceId, query);
 		}
-		
-		@Override
-		public boolean equals(Object obj) {
-			
-			if (!(obj instanceof LabelsCacheLoader)) {
-				return false;
-			}
-			
-			return super.equals(obj);
-		}	
+
 	}
 	
 	protected static class SystemMetricsMetadataCacheLoader extends ServiceCacheLoader {
@@ -428,16 +486,7 @@ public class ApiCache {
 			String serviceId, String query) {
 			super(apiClient, null, serviceId, query);
 		}
-		
-		@Override
-		public boolean equals(Object obj) {
-			
-			if (!(obj instanceof SystemMetricsMetadataCacheLoader)) {
-				return false;
-			}
-			
-			return super.equals(obj);
-		}	
+
 	}
 	
 	
@@ -447,16 +496,7 @@ public class ApiCache {
 			ApiGetRequest<?> request, String serviceId, String query) {
 			super(apiClient, request, serviceId, query);
 		}
-		
-		@Override
-		public boolean equals(Object obj) {
-			
-			if (!(obj instanceof SystemMetricMetadatasCacheLoader)) {
-				return false;
-			}
-					
-			return super.equals(obj);
-		}	
+
 	}
 
 	
@@ -477,33 +517,9 @@ public class ApiCache {
 		}
 		
 		@Override
-		public boolean equals(Object obj) {
-
-			if (!(obj instanceof EventCacheLoader)) {
-				return false;
-			}
-
-			if (!super.equals(obj)) {
-				return false;
-			}
-
-			EventCacheLoader other = (EventCacheLoader) obj;
-
-			if (!Objects.equal(Id, other.Id)) {
-				return false;
-			}
-
-			return true;
-		}
-
-		@Override
-		public int hashCode() {
-
-			if (Id == null) {
-				return super.hashCode();
-			}
-
-			return super.hashCode() ^ Id.hashCode();
+		protected void buildCacheKey(CacheKey.Builder builder) {
+			super.buildCacheKey(builder);
+			builder.add(Id);
 		}
 		
 		@Override
@@ -525,28 +541,9 @@ public class ApiCache {
 		}
 		
 		@Override
-		public boolean equals(Object obj) {
-
-			if (!(obj instanceof DeploymentsCacheLoader)) {
-				return false;
-			}
-
-			if (!super.equals(obj)) {
-				return false;
-			}
-
-			DeploymentsCacheLoader other = (DeploymentsCacheLoader) obj;
-
-			if (active != other.active) {
-				return false;
-			}
-
-			return true;
-		}
-
-		@Override
-		public int hashCode() {
-			return super.hashCode();
+		protected void buildCacheKey(CacheKey.Builder builder) {
+			super.buildCacheKey(builder);
+			builder.add(active);
 		}
 		
 		@Override
@@ -568,28 +565,9 @@ public class ApiCache {
 		}
 		
 		@Override
-		public boolean equals(Object obj) {
-
-			if (!(obj instanceof ProcessesCacheLoader)) {
-				return false;
-			}
-
-			if (!super.equals(obj)) {
-				return false;
-			}
-
-			ProcessesCacheLoader other = (ProcessesCacheLoader) obj;
-
-			if (active != other.active) {
-				return false;
-			}
-
-			return true;
-		}
-
-		@Override
-		public int hashCode() {
-			return super.hashCode();
+		protected void buildCacheKey(CacheKey.Builder builder) {
+			super.buildCacheKey(builder);
+			builder.add(active);
 		}
 		
 		@Override
@@ -611,28 +589,9 @@ public class ApiCache {
 		}
 		
 		@Override
-		public boolean equals(Object obj) {
-
-			if (!(obj instanceof ApplicationsCacheLoader)) {
-				return false;
-			}
-
-			if (!super.equals(obj)) {
-				return false;
-			}
-
-			ApplicationsCacheLoader other = (ApplicationsCacheLoader) obj;
-
-			if (active != other.active) {
-				return false;
-			}
-
-			return true;
-		}
-
-		@Override
-		public int hashCode() {
-			return super.hashCode();
+		protected void buildCacheKey(CacheKey.Builder builder) {
+			super.buildCacheKey(builder);
+			builder.add(active);
 		}
 		
 		@Override
@@ -654,31 +613,9 @@ public class ApiCache {
 		}
 
 		@Override
-		public boolean equals(Object obj) {
-
-			if (!(obj instanceof ViewCacheLoader)) {
-				return false;
-			}
-
-			if (!super.equals(obj)) {
-				return false;
-			}
-
-			ViewCacheLoader other = (ViewCacheLoader) obj;
-
-			if (!Objects.equal(GrafanaFunction.getViewName(viewName),
-					GrafanaFunction.getViewName(other.viewName))) {
-				return false;
-			}
-
-			return true;
-		}
-
-		@Override
-		public int hashCode() {
-			
-			return super.hashCode() ^ 
-				GrafanaFunction.getViewName(viewName).hashCode();
+		protected void buildCacheKey(CacheKey.Builder builder) {
+			super.buildCacheKey(builder);
+			builder.add(GrafanaFunction.getViewName(viewName));
 		}
 		
 		@Override
@@ -709,103 +646,32 @@ public class ApiCache {
 			this.apps = getApps(settingsData);	
 		}
 
-		private static boolean compare(Collection<String> a, Collection<String> b) {
-
-			if (a.size() != b.size()) {
-				return false;
-			}
-
-			for (String s : a) {
-				if (!b.contains(s)) {
-					return false;
-				}
-			}
-
-			return true;
-		}
-		
-		private boolean compareTimeFilters(String t1, String t2) {
+		/**
+		 * Time filters of the "last X" form are normalized to their length in minutes,
+		 * so that "last 24h" and "last 1d" share the same entries
+		 */
+		protected static Object getTimeframeKey(String timeFilter) {
 			
-			String tu1 = TimeUtil.getTimeUnit(t1);
-			String tu2 = TimeUtil.getTimeUnit(t2);
+			String timeUnit = TimeUtil.getTimeUnit(timeFilter);
 			
-			if ((tu1 == null) || (tu2 == null)) {
-				return t1.equals(t2);
+			if (timeUnit == null) {
+				return timeFilter;
 			}
 			
-			int ti1 = TimeUtil.parseInterval(tu1);
-			int ti2 = TimeUtil.parseInterval(tu2);
-
-			boolean result = ti1 == ti2;
-			
-			return result;
-			
-		}
-		
-		protected boolean compareTimeframes(ViewInputCacheLoader other) {
-			
-			String timeFilter = input.timeFilter;
-			String otherTimeFilter = other.input.timeFilter;
-
-			
-			if ((timeFilter != null) && (otherTimeFilter != null) &&
-		    		(!compareTimeFilters(timeFilter, otherTimeFilter))) {	
-				return false;	
-			}
-		
-			return true;
+			return Integer.valueOf(TimeUtil.parseInterval(timeUnit));
 		}
 
 		@Override
-		public boolean equals(Object obj) {
-		
-			if (!(obj instanceof ViewInputCacheLoader)) {
-				return false;
-			}
-
-			if (!super.equals(obj)) {
-				return false;
-			}
-
-			ViewInputCacheLoader other = (ViewInputCacheLoader) obj;
-			
-			if (!compareTimeframes(other)) {
-				return false;
-			}
-
-			if (!Objects.equal(GrafanaFunction.getViewName(input.view),
-				GrafanaFunction.getViewName((other.input.view)))) {
-				return false;
-			}
-
-			Collection<String> deps = input.getDeployments(serviceId);
-			Collection<String> otherDeps = other.input.getDeployments(serviceId);
-			
-			if (!compare(deps, otherDeps)) {
-				return false;
-			}
+		protected void buildCacheKey(CacheKey.Builder builder) {
 			
-			Collection<String> servers = input.getServers(serviceId);
-			Collection<String> otherServers = other.input.getServers(serviceId);
+			super.buildCacheKey(builder);
 			
-			if (!compare(servers, otherServers)) {
-				return false;
-			}
+			builder.add(getTimeframeKey(input.timeFilter));
+			builder.add(GrafanaFunction.getViewName(input.view));
 			
-			if (!compare(apps, other.apps)) {
-				return false;
-			}
-
-			return true;
-		}
-
-		@Override
-		public int hashCode() {
-
-			int result = super.hashCode() ^ 
-				GrafanaFunction.getViewName(input.view).hashCode();
-			
-			return result;
+			builder.addSorted(input.getDeployments(serviceId));
+			builder.addSorted(input.getServers(serviceId));
+			builder.addSorted(apps);
 		}
 
 		@Override
@@ -828,47 +694,9 @@ public class ApiCache {
 		}
 
 		@Override
-		public boolean equals(Object obj) {
-
-			if (!(obj instanceof VolumeCacheLoader)) {
-				return false;
-			}
-
-			if (!super.equals(obj)) {
-				return false;
-			}
-
-			VolumeCacheLoader other = (VolumeCacheLoader) obj;
-			/*
-			if (volumeType != null) {
-				
-				switch (volumeType) {
-					case hits: 
-						//if ((other.volumeType == null) || (other.volumeType.equals(VolumeType.invocations))) {
-						//	return false;
-						//}
-						return true;
-						//break;
-					
-					case invocations: 
-						if ((other.volumeType == null) || (other.volumeType.equals(VolumeType.hits))) {
-							return false;
-						}
-						break;
-					case all: 
-						if ((other.volumeType == null) || (!other.volumeType.equals(VolumeType.all))) {
-							return false;
-						}
-						break;
-				}
-			}
-			*/
-			
-			if (!Objects.equal(volumeType, other.volumeType)) {
-				return false;
-			}
-
-			return true;
+		protected void buildCacheKey(CacheKey.Builder builder) {
+			super.buildCacheKey(builder);
+			builder.add(volumeType);
 		}
 
 		@Override
@@ -885,20 +713,6 @@ public class ApiCache {
 
 			super(apiClient, request, serviceId, input, settingsData, volumeType);
 		}
-		
-		@Override
-		public boolean equals(Object obj) {
-
-			if (!(obj instanceof SlimVolumeCacheLoader)) {
-				return false;
-			}
-
-			if (!super.equals(obj)) {
-				return false;
-			}
-
-			return true;
-		}
 	}
 
 
@@ -915,23 +729,9 @@ public class ApiCache {
 		}
 		
 		@Override
-		public boolean equals(Object obj) {
-
-			if (!(obj instanceof EventsCacheLoader)) {
-				return false;
-			}
-
-			if (!super.equals(obj)) {
-				return false;
-			}
-			
-			EventsCacheLoader other = (EventsCacheLoader)obj;
-			
-			if (!Objects.equal(breakdownTypes, other.breakdownTypes)) {
-				return false;
-			}
-			
-			return true;
+		protected void buildCacheKey(CacheKey.Builder builder) {
+			super.buildCacheKey(builder);
+			builder.addSorted(breakdownTypes);
 		}
 		
 		@Override
@@ -976,34 +776,20 @@ public class ApiCache {
 		}
 				
 		@Override
-		public boolean equals(Object obj) {
-			if (!(obj instanceof GraphCacheLoader)) {
-				return false;
-			}
-
-			if (!super.equals( obj)) {
-				return false;
-			}
-
-			GraphCacheLoader other = (GraphCacheLoader) obj;
+		protected void buildCacheKey(CacheKey.Builder builder) {
 			
-			if (activeWindow != other.activeWindow) {
-				return false;
-			}
-			
-			if (baselineWindow != other.baselineWindow) {
-				return false;
-			}
+			super.buildCacheKey(builder);
 			
-			if (windowSlice != other.windowSlice) {
-				return false;
-			}
+			builder.add(activeWindow);
+			builder.add(baselineWindow);
+			builder.add(windowSlice);
+			builder.addSorted(breakdownTypes);
 			
-			if (!Objects.equal(breakdownTypes, other.breakdownTypes)) {
-				return false;
+			//tails of a graph segment cover a moving interval, rather than a fixed timeframe
+			if (windowSlice == TAIL_GRAPH_SLICE) {
+				builder.add(timespan.getFirst().getMillis());
+				builder.add(timespan.getSecond().getMillis());
 			}
-			
-			return true;
 		}
 		
 		@Override
@@ -1018,45 +804,45 @@ public class ApiCache {
 				writeKeyName = keyPair.getFirst();
 				Collection<String> readKeyNames = keyPair.getSecond();
 				
-				String value = null;
+				GraphResult graphResult = null;
 				
 				for (String keyName : readKeyNames) {
 				
 					this.loadT1 = System.currentTimeMillis();
 					
 					try {
-						value = cacheStorage.getValue(keyName);
+						graphResult = readGraphResult(keyName);
 					} catch (Exception e) {
 						logger.error("Could not load data for " + keyName, e);
 					}
 			
 					this.loadT2 = System.currentTimeMillis();
 					
-					if (value != null) {
+					if (graphResult != null) {
 						break;
 					}
 				}
 
-				if (value != null) {
-					
-					GraphResult graphResult = GrafanaFunction.gson.fromJson(value, GraphResult.class);
+				if (graphResult != null) {
+					GraphTimes.index(graphResult.graphs);
 					
-					if (graphResult != null) {
-						Response<GraphResult> response = Response.of(200, graphResult);						
-						return response;
-					}
+					Response<GraphResult> response = Response.of(200, graphResult);						
+					return response;
 				}
 			} 
 			
 			@SuppressWarnings("unchecked")
 			Response<GraphResult> response = (Response<GraphResult>)super.load();
 
+			if ((response != null) && (response.data != null)) {
+				GraphTimes.index(response.data.graphs);
+			}
+			
 			if ((cachable) && (response != null) 
 			&& (response.data != null) && (response.isOK())) {
 				
 				try {
-					String value = GrafanaFunction.gson.toJson(response.data); 
-					cacheStorage.setValue(writeKeyName, value);
+					writeGraphResult(writeKeyName, response.data);
 				} catch (Exception e) {
 					logger.error("Could not store data for " + writeKeyName, e);
 				}
@@ -1066,6 +852,31 @@ public class ApiCache {
 			return response;
 		}
 			
+		private static GraphResult readGraphResult(String keyName) {
+			
+			if (cacheStorage instanceof GraphStorage) {
+				return ((GraphStorage)cacheStorage).getGraphResult(keyName);
+			}
+			
+			String value = cacheStorage.getValue(keyName);
+			
+			if (value == null) {
+				return null;
+			}
+			
+			return GrafanaFunction.gson.fromJson(value, GraphResult.class);
+		}
+		
+		private static void writeGraphResult(String keyName, GraphResult graphResult) {
+			
+			if (cacheStorage instanceof GraphStorage) {
+				((GraphStorage)cacheStorage).setGraphResult(keyName, graphResult);
+			} else {
+				String value = GrafanaFunction.gson.toJson(graphResult); 
+				cacheStorage.setValue(keyName, value);
+			}
+		}
+		
 		private String getKeyVolumeTypName(VolumeType volumeType) {
 			
 			String result = String.join("_", serviceId, input.view, input.applications,
@@ -1133,26 +944,12 @@ public class ApiCache {
 		protected int activeTimespan;
 		
 		@Override
-		public boolean equals(Object obj) {
-			if (!(obj instanceof TransactionsCacheLoader)) {
-				return false;
-			}
-
-			if (!super.equals(obj)) {
-				return false;
-			}
+		protected void buildCacheKey(CacheKey.Builder builder) {
 			
-			TransactionsCacheLoader other = (TransactionsCacheLoader)obj;
+			super.buildCacheKey(builder);
 			
-			if (activeTimespan != other.activeTimespan) {
-				return false;
-			}
-			
-			if (baselineTimespan != other.baselineTimespan) {
-				return false;
-			}
-
-			return true;
+			builder.add(activeTimespan);
+			builder.add(baselineTimespan);
 		}
 
 		public TransactionsCacheLoader(ApiClient apiClient, ApiGetRequest<?> request, 
@@ -1199,23 +996,9 @@ public class ApiCache {
 		}
 
 		@Override
-		public boolean equals(Object obj) {
-
-			if (!(obj instanceof SystemMetricsGraphCacheLoader)) {
-				return false;
-			}
-
-			if (!super.equals(obj)) {
-				return false;
-			}
-			
-			SystemMetricsGraphCacheLoader other = (SystemMetricsGraphCacheLoader)obj;
-			
-			if (!Objects.equal(metricName, other.metricName)) {
-				return false;
-			}
-			
-			return true;
+		protected void buildCacheKey(CacheKey.Builder builder) {
+			super.buildCacheKey(builder);
+			builder.add(metricName);
 		}
 	}
 
@@ -1226,27 +1009,12 @@ public class ApiCache {
 		protected int activeTimespan;
 
 		@Override
-		public boolean equals(Object obj) {
-
-			if (!(obj instanceof TransactionsGraphCacheLoader)) {
-				return false;
-			}
-
-			if (!super.equals(obj)) {
-				return false;
-			}
-
-			TransactionsGraphCacheLoader other = (TransactionsGraphCacheLoader) obj;
-
-			if (baselineTimespan != other.baselineTimespan) {
-				return false;
-			}
+		protected void buildCacheKey(CacheKey.Builder builder) {
 			
-			if (activeTimespan != other.activeTimespan) {
-				return false;
-			}
-
-			return true;
+			super.buildCacheKey(builder);
+			
+			builder.add(baselineTimespan);
+			builder.add(activeTimespan);
 		}
 		
 		@Override
@@ -1261,6 +1029,18 @@ public class ApiCache {
 
 		}
 		
+		@Override
+		public Response<?> load() {
+			
+			Response<?> response = super.load();
+			
+			if ((response != null) && (response.data instanceof TransactionsGraphResult)) {
+				GraphTimes.indexTransactions(((TransactionsGraphResult)response.data).graphs);
+			}
+			
+			return response;
+		}
+		
 		@Override
 		public String getLoaderData(Response<?> response) 	{
 
@@ -1300,77 +1080,38 @@ public class ApiCache {
 	private static class RegresionWindowCacheLoader {
 		protected RegressionInput input;
 		protected ApiClient apiClient;
+		protected CacheKey cacheKey;
 
 		protected RegresionWindowCacheLoader(ApiClient apiClient, RegressionInput input) {
 			this.input = input;
-			this.apiClient = apiClient;
-		}
-
-		@Override
-		public boolean equals(Object obj) {
-
-			RegresionWindowCacheLoader other = (RegresionWindowCacheLoader) obj;
-
-			if (!apiClient.getHostname().equals(other.apiClient.getHostname())) {
-				return false;
-			}
-
-			if (!input.serviceId.equals(other.input.serviceId)) {
-				return false;
-			}
-
-			if (!input.viewId.equals(other.input.viewId)) {
-				return false;
-			}
-
-			if (input.activeTimespan != other.input.activeTimespan) {
-				return false;
-			}
-
-			if (input.baselineTimespan != other.input.baselineTimespan) {
-				return false;
-			}
-
-			if ((input.deployments == null) != (other.input.deployments == null)) {
-				return false;
-			}
-			
-			if (!Objects.equal(input.activeWindowStart, other.input.activeWindowStart)) {
-				return false;
-			}
-
-			if (input.deployments != null) {
-				
-				if (input.deployments.size() != other.input.deployments.size()) {
-					return false;
-				}
-	
-				for (String dep : input.deployments) {
-					if (!other.input.deployments.contains(dep)) {
-						return false;
-					}
-				}
-			}
-
-			return true;
+			this.apiClient = apiClient;
+			
+			this.cacheKey = CacheKey.newBuilder()
+				.add(apiClient.getHostname())
+				.add(input.serviceId)
+				.add(input.viewId)
+				.add(input.activeTimespan)
+				.add(input.baselineTimespan)
+				.add(input.activeWindowStart)
+				.addSorted(input.deployments)
+				.build();
 		}
 
 		@Override
-		public int hashCode() {
-
-			StringBuilder result = new StringBuilder();
-
-			result.append(input.serviceId).append(input.viewId);
-
-			if (input.deployments != null) {
-
-				for (String dep : input.deployments) {
-					result.append(dep);
-				}
+		public boolean equals(Object obj) {
 
+			if (!(obj instanceof RegresionWindowCacheLoader)) {
+				return false;
 			}
+			
+			RegresionWindowCacheLoader other = (RegresionWindowCacheLoader) obj;
+
+			return cacheKey.equals(other.cacheKey);
+		}
 
-			return result.toString().hashCode();
+		@Override
+		public int hashCode() {
+			return cacheKey.hashCode();
 		}
 	}
 	
@@ -1429,51 +1170,23 @@ public class ApiCache {
 		protected RegressionFunction function;
 		
 		@Override
-		public boolean equals(Object obj) {
-
-			if (!(obj instanceof RegressionCacheLoader)) {
-				return false;
-			}
-
-			if (!super.equals(obj)) {
-				return false;
-			}
-
-			RegressionCacheLoader other = (RegressionCacheLoader) obj;
-			
-			EventFilterInput eventInput = (EventFilterInput)input;
-			EventFilterInput otherInput = (EventFilterInput)(other.input);
+		protected void buildCacheKey(CacheKey.Builder builder) {
 			
-			if (!Objects.equal(eventInput.types, otherInput.types)) {
-				return false;
-			}
-						
-			if (!Objects.equal(eventInput.hasTransactions(), 
-				otherInput.hasTransactions())) {
-				return false;
-			}
+			super.buildCacheKey(builder);
 			
-			if ((eventInput.hasTransactions())
-			&& (!Objects.equal(eventInput.transactions, 
-				otherInput.transactions))) {
-				return false;
-			}
+			EventFilterInput eventInput = (EventFilterInput)input;
 			
-			if (!Objects.equal(eventInput.searchText, 
-				otherInput.searchText)) {
-				return false;
-			}
+			builder.add(eventInput.types);
 			
-			if (!Objects.equal(eventInput.eventLocations, 
-				otherInput.eventLocations)) {
-				return false;
+			if (eventInput.hasTransactions()) {
+				builder.add(eventInput.transactions);
+			} else {
+				builder.add(null);
 			}
 			
-			if (newOnly != other.newOnly) {
-				return false;
-			}
-
-			return true;
+			builder.add(eventInput.searchText);
+			builder.add(eventInput.eventLocations);
+			builder.add(newOnly);
 		}
 		
 		public RegressionOutput executeRegression() {
@@ -1523,20 +1236,220 @@ public class ApiCache {
 			return result;
 		}
 	}
+	
+	/**
+	 * A regression over a sliding "last X" timeframe, evaluated from the state left by its previous
+	 * evaluation - see {@link RegressionFunction#executeIncrementalRegression}. The loader 
+	 * identifies that state.
+	 */
+	public static class IncrementalRegressionCacheLoader extends RegressionCacheLoader {
+		
+		public IncrementalRegressionCacheLoader(ApiClient apiClient, String serviceId, 
+				ViewInput input, RegressionFunction function, boolean newOnly) {
+			super(apiClient, serviceId, input, null, function, newOnly);
+		}
+		
+		@Override
+		public RegressionOutput executeRegression() {
+			return function.executeIncrementalRegression(serviceId, 
+				(BaseEventVolumeInput)input, newOnly, this);
+		}
+	}
+	private static Response<?> loadCoalesced(BaseCacheLoader key) {
+		return queryCoalescer.load(key, () -> timeLoad(key, () -> key.load()));
+	}
+	
+	private static <V> V timeLoad(Object key, Callable<V> loader) throws Exception {
+		
+		LatencyTimer timer = GrafanaMetrics.getLoaderTimer(getLoaderClassName(key.getClass()));
+		long startTime = LatencyTimer.start();
+		
+		try {
+			V result = loader.call();
+			timer.record(startTime);
+			return result;
+		} catch (Exception e) {
+			timer.recordError(startTime);
+			throw e;
+		}
+	}
+	
+	private static class ResponseCacheLoader extends CacheLoader<BaseCacheLoader, CacheEntry<Response<?>>> {
+		
+		@Override
+		public CacheEntry<Response<?>> load(BaseCacheLoader key) {
+			
+			Response<?> result = loadCoalesced(key);
+			return new CacheEntry<Response<?>>(result);
+		}
+		
+		@Override
+		public ListenableFuture<CacheEntry<Response<?>>> reload(BaseCacheLoader key, 
+			CacheEntry<Response<?>> oldValue) {
+			return reloadAsync(GrafanaThreadPool.getQueryExecutor(key.apiClient, TaskPriority.Background), 
+				getRefreshPolicy(key.getClass()), () -> loadCoalesced(key));
+		}
+	}
+	
 	private static Response<?> getItem(BaseCacheLoader key) {
 		return getItem(queryCache, key);
 	}
 
-	private static Response<?> getItem(LoadingCache<BaseCacheLoader, Response<?>> cache, BaseCacheLoader key) {
+	/**
+	 * Sets the policy of the loader class and its subclasses. The TTLs are overridden by the
+	 * loader's softTtl / hardTtl system properties, if set - see {@link #createRefreshPolicy}.
+	 */
+	public static void setRefreshPolicy(Class<?> loaderClass, int softTtl, int hardTtl) {
+		refreshPolicies.put(loaderClass, createRefreshPolicy(loaderClass, softTtl, hardTtl));
+	}
+	
+	/**
+	 * @return a policy with the TTLs set by the <LoaderClass>.softTtl and <LoaderClass>.hardTtl 
+	 * system properties, e.g. -DRegressionCacheLoader.hardTtl=600, falling back to the given TTLs 
+	 * for a property not set or a policy they don't make valid. The default policy, of loaders 
+	 * without a policy of their own, is set by the BaseCacheLoader properties.
+	 */
+	private static RefreshPolicy createRefreshPolicy(Class<?> loaderClass, int softTtl, int hardTtl) {
+		
+		String name;
+		
+		if (loaderClass == BaseCacheLoader.class) {
+			name = "Default";
+		} else {
+			name = getLoaderClassName(loaderClass);
+		}
+		
+		String propertyPrefix = loaderClass.getSimpleName();
+		
+		int configuredSoftTtl = getTtlProperty(propertyPrefix + SOFT_TTL_PROPERTY, softTtl);
+		int configuredHardTtl = getTtlProperty(propertyPrefix + HARD_TTL_PROPERTY, hardTtl);
+		
+		try {
+			return new RefreshPolicy(name, configuredSoftTtl, configuredHardTtl);
+		} catch (IllegalArgumentException e) {
+			logger.error(e.getMessage() + ", using " + softTtl + " - " + hardTtl);
+			return new RefreshPolicy(name, softTtl, hardTtl);
+		}
+	}
+	
+	private static int getTtlProperty(String property, int defaultValue) {
+		try {
+			String ttlProp = System.getProperty(property);
+			
+			if (Strings.isNullOrEmpty(ttlProp)) {
+				return defaultValue;
+			}
+			
+			return Integer.parseInt(ttlProp.trim());
+		}
+		catch (Exception e) {
+			logger.error("Invalid " + property + ": " + System.getProperty(property));
+			return defaultValue;
+		}
+	}
+	
+	public static RefreshPolicy getRefreshPolicy(Class<?> loaderClass) {
+		
+		Class<?> current = loaderClass;
+		
+		while (current != null) {
+			
+			RefreshPolicy result = refreshPolicies.get(current);
+			
+			if (result != null) {
+				return result;
+			}
+			
+			current = current.getSuperclass();
+		}
+		
+		return defaultRefreshPolicy;
+	}
+	
+	public static Collection<RefreshPolicy> getRefreshPolicies() {
+		
+		List<RefreshPolicy> result = new ArrayList<RefreshPolicy>(refreshPolicies.values());
+		result.add(defaultRefreshPolicy);
+		
+		return result;
+	}
+	
+	private static <K, V> V getValue(LoadingCache<K, CacheEntry<V>> cache, K key) throws ExecutionException {
+		
+		CacheEntry<V> entry = cache.get(key);
+		RefreshPolicy refreshPolicy = getRefreshPolicy(key.getClass());
+		
+		CacheWeights.enforceQuotas();
+		
+		//while the API is unavailable an entry is served for as long as it's retained,
+		//rather than expire into a reload bound to fail
+		boolean available = isAvailable(key);
+		
+		if ((refreshPolicy.isExpired(entry)) && (available)) {
+			refreshPolicy.expired.incrementAndGet();
+			cache.invalidate(key);
+			entry = cache.get(key);
+		} else if (refreshPolicy.isStale(entry)) {
+			refreshPolicy.staleServed.incrementAndGet();
+			
+			//refresh is a no-op if a reload for this key is already in flight
+			if (available) {
+				cache.refresh(key);
+			}
+		}
+		
+		return entry.value;
+	}
+	
+	private static boolean isAvailable(Object key) {
+		
+		if (key instanceof BaseCacheLoader) {
+			return ApiGuard.isAvailable(((BaseCacheLoader)key).apiClient);
+		}
+		
+		return true;
+	}
+	
+	private static <K, V> V getValueIfPresent(LoadingCache<K, CacheEntry<V>> cache, K key) {
+		
+		CacheEntry<V> entry = cache.getIfPresent(key);
+		
+		if (entry == null) {
+			return null;
+		}
+		
+		if ((getRefreshPolicy(key.getClass()).isExpired(entry)) && (isAvailable(key))) {
+			return null;
+		}
+		
+		return entry.value;
+	}
+	
+	private static <K, V> ListenableFuture<CacheEntry<V>> reloadAsync(Executor executor, 
+		RefreshPolicy refreshPolicy, Callable<V> loader) {
+		
+		refreshPolicy.refreshes.incrementAndGet();
+		
+		ListenableFutureTask<CacheEntry<V>> task = ListenableFutureTask.create(
+			() -> new CacheEntry<V>(loader.call()));
+		
+		executor.execute(task);
+		
+		return task;
+	}
+	
+	private static Response<?> getItem(LoadingCache<BaseCacheLoader, CacheEntry<Response<?>>> cache, BaseCacheLoader key) {
+		
+		QueryContext.checkDeadline();
 		
 		try {
 			
 			Response<?> result;
 			
 			if (CACHE_LOAD) {
-				result = cache.get(key);
+				result = getValue(cache, key);
 			} else {
-				result = key.load();
+				result = loadCoalesced(key);
 			}
 			
 			if (result.isBadResponse()) {
@@ -1550,6 +1463,28 @@ public class ApiCache {
 		}
 	}
 
+	/**
+	 * Resolves a cache item without parking the calling thread - a value already cached (or
+	 * being served stale) completes immediately, a key already being loaded attaches to the pending
+	 * load, and only a miss is loaded, as a task on the tenant's query executor.
+	 */
+	private static CompletableFuture<Response<?>> getItemAsync(LoadingCache<BaseCacheLoader, 
+		CacheEntry<Response<?>>> cache, BaseCacheLoader key) {
+		
+		if ((CACHE_LOAD) && (getValueIfPresent(cache, key) != null)) {
+			return CompletableFuture.completedFuture(getItem(cache, key));
+		}
+		
+		CompletableFuture<Response<?>> inFlight = queryCoalescer.attach(key);
+		
+		if (inFlight != null) {
+			return inFlight;
+		}
+		
+		return CompletableTask.submit(GrafanaThreadPool.getQueryExecutor(key.apiClient), 
+			() -> getItem(cache, key));
+	}
+	
 	@SuppressWarnings("unchecked")
 	public static Response<ViewsResult> getView(ApiClient apiClient, String serviceId, String viewName,
 		ViewsRequest viewsRequest, String query) {
@@ -1743,22 +1678,51 @@ public class ApiCache {
 			int baselineWindow, int activeWindow, int windowSlice,
 			Pair<DateTime, DateTime> timespan, Set<BreakdownType> breakdownTypes, boolean cache) {
 
+		GraphCacheLoader cacheKey = getEventGraphKey(apiClient, serviceId, input, settingsData, 
+			volumeType, request, baselineWindow, activeWindow, windowSlice, timespan, breakdownTypes, cache);
+		
+		Response<GraphResult> response = (Response<GraphResult>) getItem(getGraphCache(cacheKey), cacheKey);
+
+		return response;
+	}
+	
+	/**
+	 * The non blocking form of {@link #getEventGraph}, for slices that fan out in parallel.
+	 */
+	@SuppressWarnings("unchecked")
+	public static CompletableFuture<Response<GraphResult>> getEventGraphAsync(ApiClient apiClient, String serviceId,
+			ViewInput input, ServiceSettingsData settingsData,
+			VolumeType volumeType, GraphRequest request, 
+			int baselineWindow, int activeWindow, int windowSlice,
+			Pair<DateTime, DateTime> timespan, Set<BreakdownType> breakdownTypes, boolean cache) {
+
+		GraphCacheLoader cacheKey = getEventGraphKey(apiClient, serviceId, input, settingsData, 
+			volumeType, request, baselineWindow, activeWindow, windowSlice, timespan, breakdownTypes, cache);
+		
+		CompletableFuture<?> result = getItemAsync(getGraphCache(cacheKey), cacheKey);
+		
+		return (CompletableFuture<Response<GraphResult>>)result;
+	}
+	
+	private static GraphCacheLoader getEventGraphKey(ApiClient apiClient, String serviceId,
+			ViewInput input, ServiceSettingsData settingsData,
+			VolumeType volumeType, GraphRequest request, 
+			int baselineWindow, int activeWindow, int windowSlice,
+			Pair<DateTime, DateTime> timespan, Set<BreakdownType> breakdownTypes, boolean cache) {
+		
 		boolean cachable = (CACHE_GRAPHS) && (cacheStorage != null) && (cache);
 		
-		GraphCacheLoader cacheKey = new GraphCacheLoader(apiClient, request, serviceId, input, 
+		return new GraphCacheLoader(apiClient, request, serviceId, input, 
 			settingsData, volumeType, baselineWindow, activeWindow, windowSlice, timespan, breakdownTypes , cachable);
+	}
+	
+	private static LoadingCache<BaseCacheLoader, CacheEntry<Response<?>>> getGraphCache(GraphCacheLoader cacheKey) {
 		
-		LoadingCache<BaseCacheLoader, Response<?>> loadingCache;
-		
-		if (cachable) {
-			loadingCache = graphSliceCache;
+		if (cacheKey.cachable) {
+			return graphSliceCache;
 		} else {
-			loadingCache = queryCache;
+			return queryCache;
 		}
-		
-		Response<GraphResult> response = (Response<GraphResult>) getItem(loadingCache, cacheKey);
-
-		return response;
 	}
 
 	@SuppressWarnings("unchecked")
@@ -1784,7 +1748,7 @@ public class ApiCache {
 		if (load) {
 			response = getItem(cacheKey);
 		} else {
-			response = queryCache.getIfPresent(cacheKey);
+			response = getValueIfPresent(queryCache, cacheKey);
 		}
 	
 		return response;
@@ -1855,7 +1819,7 @@ public class ApiCache {
 	public static RegressionWindow getRegressionWindow(ApiClient apiClient, RegressionInput input) {
 
 		try {
-			return regressionWindowCache.get(new RegresionWindowCacheLoader(apiClient, input));
+			return getValue(regressionWindowCache, new RegresionWindowCacheLoader(apiClient, input));
 
 		} catch (ExecutionException e) {
 			throw new IllegalStateException(e);
@@ -1876,7 +1840,13 @@ public class ApiCache {
 	public static RegressionOutput getRegressionOutput(ApiClient apiClient, String serviceId,
 			EventFilterInput input, RegressionFunction function, boolean newOnly, boolean load) {
 		
-		RegressionCacheLoader key = new RegressionCacheLoader(apiClient, serviceId, input, null, function, newOnly);
+		RegressionCacheLoader key;
+		
+		if ((INCREMENTAL_REGRESSIONS) && (RegressionFunction.isIncremental(input))) {
+			key = new IncrementalRegressionCacheLoader(apiClient, serviceId, input, function, newOnly);
+		} else {
+			key = new RegressionCacheLoader(apiClient, serviceId, input, null, function, newOnly);
+		}
 		
 		return getRegressionOutput(key, load);
 	}
@@ -1886,7 +1856,7 @@ public class ApiCache {
 		if (load) {
 			
 			try {
-				RegressionOutput result = regressionOutputCache.get(key);
+				RegressionOutput result = getValue(regressionOutputCache, key);
 				
 				if (result.empty) {
 					regressionOutputCache.invalidate(key);
@@ -1897,7 +1867,7 @@ public class ApiCache {
 				throw new IllegalStateException(e);
 			}
 		} else {
-			return regressionOutputCache.getIfPresent(key);
+			return getValueIfPresent(regressionOutputCache, key);
 		}
 	}
 	
@@ -1920,6 +1890,29 @@ public class ApiCache {
 		ApiCache.cacheStorage = cacheStorage;
 	}
 	
+	/**
+	 * Drops every cached result - of the API, the graph store and the caches reduced from them - 
+	 * so that the next queries run cold. Meant for tests and benchmarks.
+	 */
+	public static void clearAll() {
+		
+		queryCache.invalidateAll();
+		graphSliceCache.invalidateAll();
+		regressionOutputCache.invalidateAll();
+		regressionWindowCache.invalidateAll();
+		categoryCache.invalidateAll();
+		
+		GraphSegmentCache.clear();
+		BaselineCache.clear();
+		RegressionFunction.clearRegressionStates();
+		
+		if (cacheStorage instanceof SegmentGraphStorage) {
+			((SegmentGraphStorage)cacheStorage).clear();
+		} else if (cacheStorage instanceof FolderStorage) {
+			((FolderStorage)cacheStorage).clear();
+		}
+	}
+	
 	private static final Map<Class<?>, String> loaderClassNames;
 	
 	static {
@@ -1952,51 +1945,111 @@ public class ApiCache {
 		
 	}
 	
-	private static KeyValueStorage cacheStorage = new FolderStorage(CACHE_FOLDER);
+	private static KeyValueStorage cacheStorage = createCacheStorage();
 	
-	public static final LoadingCache<RegressionCacheLoader, RegressionOutput> regressionOutputCache = CacheBuilder
-			.newBuilder().maximumSize(CACHE_SIZE).expireAfterWrite(CACHE_REFRESH_RETENTION, TimeUnit.SECONDS)
-			.build(new CacheLoader<RegressionCacheLoader, RegressionOutput>() {
+	//setting GraphCacheFormat=binary stores graph slices in compact segment files instead of JSON ones
+	private static KeyValueStorage createCacheStorage() {
+		
+		if (CACHE_FORMAT_BINARY.equalsIgnoreCase(System.getProperty(CACHE_FORMAT))) {
+			return new SegmentGraphStorage(CACHE_FOLDER);
+		}
+		
+		return new FolderStorage(CACHE_FOLDER);
+	}
+	
+	//loads are coalesced across caches, so a graph slice requested via both the query 
+	//and slice caches, or by several panels at once, only hits the API once
+	public static final RequestCoalescer<BaseCacheLoader, Response<?>> queryCoalescer = 
+		new RequestCoalescer<BaseCacheLoader, Response<?>>();
+	
+	public static final RequestCoalescer<RegressionCacheLoader, RegressionOutput> regressionCoalescer = 
+		new RequestCoalescer<RegressionCacheLoader, RegressionOutput>();
+	
+	private static final RequestCoalescer<RegresionWindowCacheLoader, RegressionWindow> regressionWindowCoalescer = 
+		new RequestCoalescer<RegresionWindowCacheLoader, RegressionWindow>();
+	
+	private static final Map<Class<?>, RefreshPolicy> refreshPolicies = new ConcurrentHashMap<Class<?>, RefreshPolicy>();
+	
+	private static final RefreshPolicy defaultRefreshPolicy = createRefreshPolicy(BaseCacheLoader.class, 
+		CACHE_REFRESH_RETENTION, CACHE_REFRESH_RETENTION);
+	
+	static {
+		//the heavy, view based queries and regressions are served stale while reloading in the background,
+		//metadata queries (views, apps, deployments..) are cheap enough to reload synchronously
+		setRefreshPolicy(ViewInputCacheLoader.class, CACHE_REFRESH_RETENTION, CACHE_STALE_RETENTION);
+		setRefreshPolicy(RegressionCacheLoader.class, CACHE_REFRESH_RETENTION, CACHE_STALE_RETENTION);
+		setRefreshPolicy(RegresionWindowCacheLoader.class, CACHE_REFRESH_RETENTION, CACHE_STALE_RETENTION);
+	}
+	
+	//the global weight budget (cache.maxWeight) is split between the caches holding API results,
+	//with the remaining 10% given to the baselines reduced from them - see BaselineCache
+	public static final CacheWeights<BaseCacheLoader> queryCacheWeights = 
+		new CacheWeights<BaseCacheLoader>("QueryCache", 30, key -> key.apiClient);
+	
+	public static final CacheWeights<BaseCacheLoader> graphSliceCacheWeights = 
+		new CacheWeights<BaseCacheLoader>("GraphSliceCache", 35, key -> key.apiClient);
+	
+	public static final CacheWeights<BaseCacheLoader> regressionOutputCacheWeights = 
+		new CacheWeights<BaseCacheLoader>("RegressionOutputCache", 20, key -> key.apiClient);
+	
+	public static final CacheWeights<BaseCacheLoader> regressionStateCacheWeights = 
+		new CacheWeights<BaseCacheLoader>("RegressionStates", 5, key -> key.apiClient);
+	
+	//regressions fan out to slice tasks on the query pool, so they're reloaded via the function pool
+	public static final LoadingCache<RegressionCacheLoader, CacheEntry<RegressionOutput>> regressionOutputCache = CacheBuilder
+			.newBuilder().maximumWeight(regressionOutputCacheWeights.maxWeight)
+			.weigher(regressionOutputCacheWeights).removalListener(regressionOutputCacheWeights)
+			.expireAfterWrite(CACHE_MAX_RETENTION, TimeUnit.SECONDS).recordStats()
+			.build(new CacheLoader<RegressionCacheLoader, CacheEntry<RegressionOutput>>() {
+				
+				@Override
+				public CacheEntry<RegressionOutput> load(RegressionCacheLoader key) {
+					return new CacheEntry<RegressionOutput>(loadRegressionOutput(key));
+				}
 				
 				@Override
-				public RegressionOutput load(RegressionCacheLoader key) {
-					return key.executeRegression();
+				public ListenableFuture<CacheEntry<RegressionOutput>> reload(RegressionCacheLoader key,
+					CacheEntry<RegressionOutput> oldValue) {
+					return reloadAsync(GrafanaThreadPool.getFunctionExecutor(key.apiClient, TaskPriority.Background), 
+						getRefreshPolicy(key.getClass()), () -> loadRegressionOutput(key));
 				}
 			});
 	
+	private static RegressionOutput loadRegressionOutput(RegressionCacheLoader key) {
+		return regressionCoalescer.load(key, () -> timeLoad(key, () -> key.executeRegression()));
+	}
+	
 	protected static class EventCategoriesCacheLoader {
 		protected CategoryType categoryType;
 		protected String className;
 		protected Categories categories;
 		
+		protected CacheKey cacheKey;
+		
 		protected EventCategoriesCacheLoader(CategoryType categoryType,
 			String className, Categories categories) {
 			this.categoryType = categoryType;
 			this.className = className;
 			this.categories = categories;
+			
+			this.cacheKey = CacheKey.newBuilder().add(categoryType).add(className).build();
 		}
 		
 		@Override
 		public boolean equals(Object obj) {
 			
-			EventCategoriesCacheLoader other = (EventCategoriesCacheLoader)obj;
-			
-			
-			if (!Objects.equal(categoryType, other.categoryType)) {
+			if (!(obj instanceof EventCategoriesCacheLoader)) {
 				return false;
 			}
 			
-			if (!Objects.equal(className, other.className)) {
-				return false;
-			}
-			
-			return true;
+			EventCategoriesCacheLoader other = (EventCategoriesCacheLoader)obj;
 			
+			return cacheKey.equals(other.cacheKey);
 		}
 		
 		@Override
 		public int hashCode() {
-			return categoryType.hashCode() ^ className.hashCode();
+			return cacheKey.hashCode();
 		}
 		
 		protected Set<String> load() {
@@ -2006,6 +2059,7 @@ public class ApiCache {
 	
 	private static final LoadingCache<EventCategoriesCacheLoader, Set<String>> categoryCache = CacheBuilder
 			.newBuilder().maximumSize(CACHE_SIZE).expireAfterWrite(CACHE_REFRESH_RETENTION, TimeUnit.SECONDS)
+			.recordStats()
 			.build(new CacheLoader<EventCategoriesCacheLoader, Set<String>>() {
 				
 				@Override
@@ -2014,79 +2068,96 @@ public class ApiCache {
 				}
 			});
 	
-	private static final LoadingCache<RegresionWindowCacheLoader, RegressionWindow> regressionWindowCache = CacheBuilder
+	private static final LoadingCache<RegresionWindowCacheLoader, CacheEntry<RegressionWindow>> regressionWindowCache = CacheBuilder
 			.newBuilder().maximumSize(CACHE_SIZE)
-			.expireAfterWrite(CACHE_REFRESH_RETENTION, TimeUnit.SECONDS)
-			.build(new CacheLoader<RegresionWindowCacheLoader, RegressionWindow>() {
+			.expireAfterWrite(CACHE_MAX_RETENTION, TimeUnit.SECONDS).recordStats()
+			.build(new CacheLoader<RegresionWindowCacheLoader, CacheEntry<RegressionWindow>>() {
 				
 				@Override
-				public RegressionWindow load(RegresionWindowCacheLoader key) {
-					
-					RegressionWindow result;
-					
-					if (CollectionUtil.safeIsEmpty(key.input.deployments)) {
-						result = RegressionUtil.getActiveWindow(key.apiClient, key.input, Collections.emptyList(),
-								System.out);
-						
-						return result;
-					}
-					
-					Response<DeploymentsResult> activeDeploymentsResult = getDeployments(key.apiClient, key.input.serviceId, true, null);
-					
-					if (activeDeploymentsResult.data != null) {
-						RegressionWindow activeDeploymentsWindow = RegressionUtil.getActiveWindow(key.apiClient, key.input,
-								activeDeploymentsResult.data.deployments, System.out);
-						
-						if ((activeDeploymentsWindow != null) && (activeDeploymentsWindow.deploymentFound)) {
-							result = activeDeploymentsWindow;
-							
-							return result;
-						}
-					}
-					
-					Response<DeploymentsResult> nonActiveDeploymentsResult = getDeployments(key.apiClient, key.input.serviceId, false, null);
-					
-					if (nonActiveDeploymentsResult.data != null) {
-						result = RegressionUtil.getActiveWindow(key.apiClient, key.input,
-								nonActiveDeploymentsResult.data.deployments, System.out);
-						
-						return result;
-					}
-					
-					result = RegressionUtil.getActiveWindow(key.apiClient, key.input, Collections.emptyList(),
-							System.out);
-					
-					return result;
+				public CacheEntry<RegressionWindow> load(RegresionWindowCacheLoader key) {
+					return new CacheEntry<RegressionWindow>(
+						regressionWindowCoalescer.load(key, () -> timeLoad(key, () -> loadRegressionWindow(key))));
 				}
-			});
-	
-	public static final LoadingCache<BaseCacheLoader, Response<?>> queryCache = CacheBuilder.newBuilder()
-			.maximumSize(CACHE_SIZE)
-			.expireAfterWrite(CACHE_REFRESH_RETENTION, TimeUnit.SECONDS)
-			.build(new CacheLoader<BaseCacheLoader, Response<?>>() {
 				
 				@Override
-				public Response<?> load(BaseCacheLoader key) {
-					
-					Response<?> result = key.load();
-					return result;
+				public ListenableFuture<CacheEntry<RegressionWindow>> reload(RegresionWindowCacheLoader key,
+					CacheEntry<RegressionWindow> oldValue) {
+					return reloadAsync(GrafanaThreadPool.getQueryExecutor(key.apiClient, TaskPriority.Background), 
+						getRefreshPolicy(key.getClass()), 
+						() -> regressionWindowCoalescer.load(key, () -> timeLoad(key, () -> loadRegressionWindow(key))));
 				}
 			});
 	
-	public static final LoadingCache<BaseCacheLoader, Response<?>> graphSliceCache = CacheBuilder.newBuilder()
-			.maximumSize(CACHE_SIZE)
-			.expireAfterWrite(CACHE_REFRESH_RETENTION, TimeUnit.SECONDS)
-			.build(new CacheLoader<BaseCacheLoader, Response<?>>() {
+	private static RegressionWindow loadRegressionWindow(RegresionWindowCacheLoader key) {
+		
+		RegressionWindow result;
+		
+		if (CollectionUtil.safeIsEmpty(key.input.deployments)) {
+			result = RegressionUtil.getActiveWindow(key.apiClient, key.input, Collections.emptyList(),
+					System.out);
+			
+			return result;
+		}
+		
+		Response<DeploymentsResult> activeDeploymentsResult = getDeployments(key.apiClient, key.input.serviceId, true, null);
+		
+		if (activeDeploymentsResult.data != null) {
+			RegressionWindow activeDeploymentsWindow = RegressionUtil.getActiveWindow(key.apiClient, key.input,
+					activeDeploymentsResult.data.deployments, System.out);
+			
+			if ((activeDeploymentsWindow != null) && (activeDeploymentsWindow.deploymentFound)) {
+				result = activeDeploymentsWindow;
 				
-				@Override
-				public Response<?> load(BaseCacheLoader key) {
-					
-					Response<?> result = key.load();
-					return result;
-				}
-			});
+				return result;
+			}
+		}
+		
+		Response<DeploymentsResult> nonActiveDeploymentsResult = getDeployments(key.apiClient, key.input.serviceId, false, null);
+		
+		if (nonActiveDeploymentsResult.data != null) {
+			result = RegressionUtil.getActiveWindow(key.apiClient, key.input,
+					nonActiveDeploymentsResult.data.deployments, System.out);
+			
+			return result;
+		}
+		
+		result = RegressionUtil.getActiveWindow(key.apiClient, key.input, Collections.emptyList(),
+				System.out);
+		
+		return result;
+	}
+	
+	public static final LoadingCache<BaseCacheLoader, CacheEntry<Response<?>>> queryCache = CacheBuilder.newBuilder()
+			.maximumWeight(queryCacheWeights.maxWeight)
+			.weigher(queryCacheWeights).removalListener(queryCacheWeights)
+			.expireAfterWrite(CACHE_MAX_RETENTION, TimeUnit.SECONDS).recordStats()
+			.build(new ResponseCacheLoader());
+	
+	public static final LoadingCache<BaseCacheLoader, CacheEntry<Response<?>>> graphSliceCache = CacheBuilder.newBuilder()
+			.maximumWeight(graphSliceCacheWeights.maxWeight)
+			.weigher(graphSliceCacheWeights).removalListener(graphSliceCacheWeights)
+			.expireAfterWrite(CACHE_MAX_RETENTION, TimeUnit.SECONDS).recordStats()
+			.build(new ResponseCacheLoader());
+	
+	static {
+		queryCacheWeights.attach(queryCache);
+		graphSliceCacheWeights.attach(graphSliceCache);
+		regressionOutputCacheWeights.attach(regressionOutputCache);
+		
+		GrafanaMetrics.registerCache(queryCacheWeights.name, queryCache);
+		GrafanaMetrics.registerCache(graphSliceCacheWeights.name, graphSliceCache);
+		GrafanaMetrics.registerCache(regressionOutputCacheWeights.name, regressionOutputCache);
+		GrafanaMetrics.registerCache("RegressionWindowCache", regressionWindowCache);
+		GrafanaMetrics.registerCache("CategoryCache", categoryCache);
+		
+		for (CacheWeights<?> cacheWeights : CacheWeights.getInstances()) {
+			GrafanaMetrics.registerGauge("cache_weight_bytes", "Estimated retained size of cache entries", 
+				"cache", cacheWeights.name, () -> cacheWeights.getWeight());
+			GrafanaMetrics.registerGauge("cache_max_weight_bytes", "Weight budget of the cache", 
+				"cache", cacheWeights.name, () -> cacheWeights.maxWeight);
+		}
+	}
 	
-	public static final Queue<QueryLogItem> queryLogItems = Queues.synchronizedQueue(
-			EvictingQueue.create(CACHE_SIZE));
+	public static final RingBuffer<QueryLogItem> queryLogItems = new RingBuffer<QueryLogItem>(CACHE_SIZE);
 	
 }
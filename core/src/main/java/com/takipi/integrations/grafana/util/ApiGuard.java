@@ -0,0 +1,194 @@
+package com.takipi.integrations.grafana.util;
+
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Strings;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.takipi.api.client.ApiClient;
+
+/**
+ * Guards the OverOps API calls of an api key. Calls are spread by a token bucket (api.rateLimit
+ * calls / sec, bursting to api.rateBurst), and pass through a circuit breaker that opens after
+ * api.circuitFailures consecutive server errors or calls slower than api.circuitLatency ms, for
+ * api.circuitOpenTime sec. A call that would have to wait for a token longer than
+ * api.rateMaxWait ms, or is made while the circuit is open, fails fast with an
+ * {@link ApiUnavailableException} instead of holding a thread on a host that can't serve it.
+ */
+public class ApiGuard {
+	
+	private static final String RATE_LIMIT_PROPERTY			= "api.rateLimit";
+	private static final String RATE_BURST_PROPERTY			= "api.rateBurst";
+	private static final String RATE_MAX_WAIT_PROPERTY		= "api.rateMaxWait";
+	private static final String CIRCUIT_FAILURES_PROPERTY	= "api.circuitFailures";
+	private static final String CIRCUIT_OPEN_TIME_PROPERTY	= "api.circuitOpenTime";
+	private static final String CIRCUIT_LATENCY_PROPERTY	= "api.circuitLatency";
+	
+	private static final int DEFAULT_RATE_LIMIT = 100;
+	private static final int DEFAULT_RATE_BURST = 200;
+	private static final int DEFAULT_RATE_MAX_WAIT = 10000; //ms
+	private static final int DEFAULT_CIRCUIT_FAILURES = 20;
+	private static final int DEFAULT_CIRCUIT_OPEN_TIME = 30; //sec
+	private static final int DEFAULT_CIRCUIT_LATENCY = 60000; //ms
+	
+	private static final int CACHE_SIZE = 1000;
+	private static final int CACHE_RETENTION_MIN = 10;
+	
+	private static final int SERVER_ERROR = 500;
+	
+	private static final int rateLimit = getIntProperty(RATE_LIMIT_PROPERTY, DEFAULT_RATE_LIMIT);
+	private static final int rateBurst = getIntProperty(RATE_BURST_PROPERTY, DEFAULT_RATE_BURST);
+	private static final int rateMaxWait = getIntProperty(RATE_MAX_WAIT_PROPERTY, DEFAULT_RATE_MAX_WAIT);
+	private static final int circuitFailures = getIntProperty(CIRCUIT_FAILURES_PROPERTY, DEFAULT_CIRCUIT_FAILURES);
+	private static final int circuitOpenTime = getIntProperty(CIRCUIT_OPEN_TIME_PROPERTY, DEFAULT_CIRCUIT_OPEN_TIME);
+	private static final int circuitLatency = getIntProperty(CIRCUIT_LATENCY_PROPERTY, DEFAULT_CIRCUIT_LATENCY);
+	
+	public static class ApiUnavailableException extends IllegalStateException {
+		
+		private static final long serialVersionUID = -6407937418412318542L;
+		
+		protected ApiUnavailableException(String message) {
+			super(message);
+		}
+	}
+	
+	private static final LoadingCache<ApiClient, ApiGuard> guards = CacheBuilder
+			.newBuilder()
+			.maximumSize(CACHE_SIZE)
+			.expireAfterAccess(CACHE_RETENTION_MIN, TimeUnit.MINUTES)
+			.build(new CacheLoader<ApiClient, ApiGuard>() {
+				
+				@Override
+				public ApiGuard load(ApiClient key) {
+					return new ApiGuard();
+				}
+			});
+	
+	static {
+		GrafanaMetrics.registerGauge("api_open_circuits", "Api keys whose circuit is not closed",
+			"pool", "all", () -> getOpenCircuitCount());
+	}
+	
+	private final TokenBucket rateLimiter;
+	private final CircuitBreaker circuitBreaker;
+	
+	private ApiGuard() {
+		
+		if (rateLimit > 0) {
+			this.rateLimiter = new TokenBucket(rateLimit, Math.max(rateLimit, rateBurst));
+		} else {
+			this.rateLimiter = null;
+		}
+		
+		this.circuitBreaker = new CircuitBreaker(circuitFailures, 
+			TimeUnit.SECONDS.toMillis(circuitOpenTime), circuitLatency);
+	}
+	
+	public static ApiGuard get(ApiClient apiClient) {
+		
+		try {
+			return guards.get(apiClient);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	public static Map<ApiClient, ApiGuard> getGuards() {
+		return guards.asMap();
+	}
+	
+	/**
+	 * @return whether the api key's calls are currently let through - when not, cached results
+	 * are served for as long as they're retained rather than expire into a failing reload. Once
+	 * an open circuit's interval has passed this holds until a reload takes its trial call, so
+	 * that the circuit gets to close again.
+	 */
+	public static boolean isAvailable(ApiClient apiClient) {
+		
+		ApiGuard guard = guards.getIfPresent(apiClient);
+		
+		return (guard == null) || (guard.circuitBreaker.isAvailable());
+	}
+	
+	public static long getOpenCircuitCount() {
+		
+		long result = 0;
+		
+		for (ApiGuard guard : guards.asMap().values()) {
+			if (!guard.circuitBreaker.isClosed()) {
+				result++;
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Waits for the call's turn, and must be followed by a call to {@link #onResponse} once
+	 * the call is made.
+	 * 
+	 * @throws ApiUnavailableException if the call can't be made now
+	 */
+	public void acquire() {
+		
+		//a call the circuit rejects doesn't take a token, or wait for one
+		if (!circuitBreaker.allowRequest()) {
+			throw new ApiUnavailableException("OverOps API unavailable, retrying in up to " + 
+				circuitOpenTime + " sec");
+		}
+		
+		if (rateLimiter == null) {
+			return;
+		}
+		
+		long wait = rateLimiter.reserve(rateMaxWait);
+		
+		if (wait < 0) {
+			circuitBreaker.onCancel();
+			throw new ApiUnavailableException("OverOps API rate limit exceeded");
+		}
+		
+		if (wait > 0) {
+			try {
+				Thread.sleep(wait);
+			} catch (InterruptedException e) {
+				circuitBreaker.onCancel();
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+	
+	/**
+	 * @param responseCode - of the call's response, or 0 if it threw
+	 */
+	public void onResponse(long latency, int responseCode) {
+		circuitBreaker.onSample(latency, (responseCode == 0) || (responseCode >= SERVER_ERROR));
+	}
+	
+	public TokenBucket getRateLimiter() {
+		return rateLimiter;
+	}
+	
+	public CircuitBreaker getCircuitBreaker() {
+		return circuitBreaker;
+	}
+	
+	private static int getIntProperty(String name, int defaultValue) {
+		try {
+			String value = System.getProperty(name);
+			
+			if (Strings.isNullOrEmpty(value)) {
+				return defaultValue;
+			}
+			
+			return Integer.parseInt(value);
+		}
+		catch (Exception e) {
+			return defaultValue;
+		}
+	}
+}
@@ -0,0 +1,191 @@
+package com.takipi.integrations.grafana.util;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.takipi.api.client.ApiClient;
+import com.takipi.integrations.grafana.functions.GrafanaFunction;
+import com.takipi.integrations.grafana.input.ViewInput;
+import com.takipi.integrations.grafana.util.ApiCache.CacheEntry;
+
+/**
+ * Holds the baseline period of a view as reduced by the regression family of functions - the
+ * merged baseline graph of each determinant key, the per transaction baseline stats and the
+ * transaction graphs slowdowns are scored against - so that the panels of a dashboard sharing
+ * a baseline fetch and reduce it once between them.
+ *
+ * A baseline is identified as the ApiCache entries it is reduced from are - by the service,
+ * view, timeframe, deployments, servers and applications of the query, and by the baseline and
+ * active timespans of its regression window - and is kept for as long as those entries are
+ * served before being refreshed. Each reduction of a baseline is a part of it, keyed by the
+ * reducer and the parameters it depends on, and built by the first function requesting it while
+ * concurrent requests for the same part wait on that load.
+ *
+ * Baselines are weighed by their parts against a share of the global cache weight budget - see
+ * {@link CacheWeights}. As parts are added after a baseline is cached, it is re-put whenever one
+ * is, so that it's weighed again, while its retention is still counted from its creation.
+ */
+public class BaselineCache {
+
+	private static final int CACHE_RETENTION = 90;
+
+	public enum BaselinePart {
+		DeterminantGraphs,
+		TransactionStats,
+		TransactionGraphs,
+		TransactionWindowGraphs
+	}
+
+	public static class Baseline {
+
+		private final CacheKey key;
+		private final long createTime;
+		private final Map<CacheKey, Object> parts;
+		private final RequestCoalescer<CacheKey, Object> partCoalescer;
+
+		protected Baseline(CacheKey key) {
+			this.key = key;
+			this.createTime = System.currentTimeMillis();
+			this.parts = new ConcurrentHashMap<CacheKey, Object>();
+			this.partCoalescer = new RequestCoalescer<CacheKey, Object>();
+		}
+
+		public static CacheKey.Builder newPartKey(BaselinePart part) {
+			return CacheKey.newBuilder().add(part);
+		}
+
+		@SuppressWarnings("unchecked")
+		public <T> T getPart(CacheKey partKey) {
+			return (T)parts.get(partKey);
+		}
+
+		public void putPart(CacheKey partKey, Object value) {
+
+			if (value != null) {
+				parts.put(partKey, value);
+				reweigh(this);
+			}
+		}
+
+		/**
+		 * @return the part if already reduced, otherwise the result of the loader, which is kept
+		 * unless null. A failed load is not kept, so the next request for the part retries it.
+		 */
+		@SuppressWarnings("unchecked")
+		public <T> T getPart(CacheKey partKey, Callable<T> loader) {
+
+			Object result = parts.get(partKey);
+
+			if (result != null) {
+				return (T)result;
+			}
+
+			result = partCoalescer.load(partKey, () -> {
+
+				//a load of the part may have completed between the probe above and this one
+				Object value = parts.get(partKey);
+
+				if (value == null) {
+					value = loader.call();
+					putPart(partKey, value);
+				}
+
+				return value;
+			});
+
+			return (T)result;
+		}
+
+		public int getPartCount() {
+			return parts.size();
+		}
+
+		public Collection<Object> getParts() {
+			return Collections.unmodifiableCollection(parts.values());
+		}
+
+		protected boolean isExpired() {
+			return System.currentTimeMillis() - createTime >= TimeUnit.SECONDS.toMillis(CACHE_RETENTION);
+		}
+
+		@Override
+		public String toString() {
+			return "Baseline: " + key + " parts: " + parts.keySet();
+		}
+	}
+
+	//the keys of baselines start with the api client of the tenant - see getBaseline
+	public static final CacheWeights<CacheKey> baselineCacheWeights = 
+		new CacheWeights<CacheKey>("BaselineCache", 10, key -> key.get(0));
+
+	private static final Cache<CacheKey, CacheEntry<Baseline>> baselineCache = CacheBuilder.newBuilder()
+			.maximumWeight(baselineCacheWeights.maxWeight)
+			.weigher(baselineCacheWeights).removalListener(baselineCacheWeights)
+			.expireAfterWrite(CACHE_RETENTION, TimeUnit.SECONDS)
+			.recordStats()
+			.build();
+
+	static {
+		baselineCacheWeights.attach(baselineCache);
+
+		GrafanaMetrics.registerCache(baselineCacheWeights.name, baselineCache);
+	}
+
+	/**
+	 * @param apps - the applications of the input, with groups expanded as for its ApiCache entries
+	 */
+	public static Baseline getBaseline(ApiClient apiClient, String serviceId, ViewInput input,
+			Collection<String> apps, int baselineTimespan, int activeTimespan) {
+
+		CacheKey key = CacheKey.newBuilder()
+			.add(apiClient)
+			.add(serviceId)
+			.add(ApiCache.ViewInputCacheLoader.getTimeframeKey(input.timeFilter))
+			.add(GrafanaFunction.getViewName(input.view))
+			.addSorted(input.getDeployments(serviceId))
+			.addSorted(input.getServers(serviceId))
+			.addSorted(apps)
+			.add(baselineTimespan)
+			.add(activeTimespan)
+			.build();
+
+		try {
+
+			CacheEntry<Baseline> entry = baselineCache.get(key, () -> new CacheEntry<Baseline>(new Baseline(key)));
+
+			if (entry.value.isExpired()) {
+				baselineCache.asMap().remove(key, entry);
+				entry = baselineCache.get(key, () -> new CacheEntry<Baseline>(new Baseline(key)));
+			}
+
+			return entry.value;
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	//re-puts the baseline if it's still cached, so its added parts are weighed
+	private static void reweigh(Baseline baseline) {
+
+		CacheEntry<Baseline> entry = baselineCache.getIfPresent(baseline.key);
+
+		if ((entry != null) && (entry.value == baseline)) {
+			baselineCache.asMap().replace(baseline.key, entry, new CacheEntry<Baseline>(baseline));
+		}
+	}
+
+	public static long getSize() {
+		return baselineCache.size();
+	}
+
+	public static void clear() {
+		baselineCache.invalidateAll();
+	}
+}
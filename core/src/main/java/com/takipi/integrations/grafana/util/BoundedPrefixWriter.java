@@ -0,0 +1,68 @@
+package com.takipi.integrations.grafana.util;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Passes everything written to it through to a target writer, while keeping a copy of 
+ * only the first maxPrefix characters - allowing a streamed response to be logged without
+ * holding all of it in memory.
+ */
+public class BoundedPrefixWriter extends Writer {
+	
+	private final Writer target;
+	private final StringBuilder prefix;
+	private final int maxPrefix;
+	
+	private long length;
+	
+	public BoundedPrefixWriter(Writer target, int maxPrefix) {
+		this.target = target;
+		this.maxPrefix = maxPrefix;
+		this.prefix = new StringBuilder(Math.min(maxPrefix, 1024));
+	}
+	
+	@Override
+	public void write(char[] cbuf, int off, int len) throws IOException {
+		
+		int remaining = maxPrefix - prefix.length();
+		
+		if (remaining > 0) {
+			prefix.append(cbuf, off, Math.min(remaining, len));
+		}
+		
+		length += len;
+		target.write(cbuf, off, len);
+	}
+	
+	@Override
+	public void write(String str, int off, int len) throws IOException {
+		
+		int remaining = maxPrefix - prefix.length();
+		
+		if (remaining > 0) {
+			prefix.append(str, off, off + Math.min(remaining, len));
+		}
+		
+		length += len;
+		target.write(str, off, len);
+	}
+	
+	@Override
+	public void flush() throws IOException {
+		target.flush();
+	}
+	
+	@Override
+	public void close() throws IOException {
+		target.close();
+	}
+	
+	public String getPrefix() {
+		return prefix.toString();
+	}
+	
+	public long getLength() {
+		return length;
+	}
+}
@@ -0,0 +1,154 @@
+package com.takipi.integrations.grafana.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * An immutable, canonical cache key built from an ordered list of parts. Collection parts
+ * are copied and sorted so that equal filter selections produce equal keys regardless of
+ * the order in which they were specified, and string values are interned to keep the
+ * many keys referring to the same apps / deployments / servers cheap to hold.
+ * The hash is computed once when the key is built.
+ */
+public final class CacheKey {
+
+	private static final Interner<String> interner = Interners.newWeakInterner();
+
+	private final Object[] parts;
+	private final int hash;
+
+	private CacheKey(Object[] parts) {
+		this.parts = parts;
+		this.hash = mix(Arrays.hashCode(parts));
+	}
+
+	//murmur3 finalizer - spreads the poorly distributed 31 based hash across all bits
+	private static int mix(int value) {
+
+		int result = value;
+
+		result ^= result >>> 16;
+		result *= 0x85ebca6b;
+		result ^= result >>> 13;
+		result *= 0xc2b2ae35;
+		result ^= result >>> 16;
+
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+
+		if (this == obj) {
+			return true;
+		}
+
+		if (!(obj instanceof CacheKey)) {
+			return false;
+		}
+
+		CacheKey other = (CacheKey)obj;
+
+		if (hash != other.hash) {
+			return false;
+		}
+
+		return Arrays.equals(parts, other.parts);
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	/**
+	 * @return the index'th part the key was built from, as added to its builder
+	 */
+	public Object get(int index) {
+		return parts[index];
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(parts);
+	}
+
+	public static Builder newBuilder() {
+		return new Builder();
+	}
+
+	public static class Builder {
+
+		private final List<Object> parts;
+
+		protected Builder() {
+			this.parts = new ArrayList<Object>();
+		}
+
+		public Builder add(Object value) {
+
+			if (value instanceof String) {
+				parts.add(interner.intern((String)value));
+			} else {
+				parts.add(value);
+			}
+
+			return this;
+		}
+
+		public Builder add(int value) {
+			parts.add(Integer.valueOf(value));
+			return this;
+		}
+
+		public Builder add(long value) {
+			parts.add(Long.valueOf(value));
+			return this;
+		}
+
+		public Builder add(boolean value) {
+			parts.add(Boolean.valueOf(value));
+			return this;
+		}
+
+		/**
+		 * Adds the values of a collection, ignoring their order. A null collection
+		 * is kept distinct from an empty one.
+		 */
+		public <T extends Comparable<? super T>> Builder addSorted(Collection<T> values) {
+
+			if (values == null) {
+				parts.add(null);
+				return this;
+			}
+
+			List<Object> sorted = new ArrayList<Object>(values.size());
+			List<T> copy = new ArrayList<T>(values);
+
+			Collections.sort(copy);
+
+			for (T value : copy) {
+
+				if (value instanceof String) {
+					sorted.add(interner.intern((String)value));
+				} else {
+					sorted.add(value);
+				}
+			}
+
+			parts.add(Collections.unmodifiableList(sorted));
+
+			return this;
+		}
+
+		public CacheKey build() {
+			return new CacheKey(parts.toArray());
+		}
+	}
+}
@@ -0,0 +1,445 @@
+package com.takipi.integrations.grafana.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.takipi.api.client.data.metrics.Graph;
+import com.takipi.api.client.data.metrics.Graph.GraphPoint;
+import com.takipi.api.client.data.transaction.TransactionGraph;
+import com.takipi.api.client.result.event.EventsResult;
+import com.takipi.api.client.result.event.EventsSlimVolumeResult;
+import com.takipi.api.client.result.metrics.GraphResult;
+import com.takipi.api.client.result.metrics.system.SystemMetricGraphResult;
+import com.takipi.api.client.result.transaction.TransactionsGraphResult;
+import com.takipi.api.client.result.transaction.TransactionsVolumeResult;
+import com.takipi.api.core.url.UrlClient.Response;
+import com.takipi.integrations.grafana.functions.RegressionFunction.RegressionOutput;
+import com.takipi.integrations.grafana.functions.RegressionFunction.RegressionState;
+import com.takipi.integrations.grafana.util.ApiCache.CacheEntry;
+import com.takipi.integrations.grafana.util.BaselineCache.Baseline;
+
+/**
+ * Weighs cache entries by their estimated retained size in bytes and keeps a running total
+ * per tenant (api key), so that a cache bounded by weight can also limit the share of it
+ * that a single tenant may hold. Tenants exceeding their quota have their oldest entries
+ * evicted by {@link #enforceQuotas()}, leaving other tenants' entries in place. A tenant's
+ * total is dropped once all of its entries are removed, so departed tenants aren't tracked.
+ */
+public class CacheWeights<K> implements Weigher<K, CacheEntry<?>>, RemovalListener<K, CacheEntry<?>> {
+
+	private static final String MAX_WEIGHT_PROPERTY		= "cache.maxWeight";
+	private static final String TENANT_QUOTA_PROPERTY	= "cache.tenantQuota";
+
+	private static final long DEFAULT_MAX_WEIGHT_MB		= 256;
+	private static final int DEFAULT_TENANT_QUOTA		= 25;
+
+	//rough retained sizes (in bytes) of the objects returned by the OverOps API
+	private static final int BASE_WEIGHT				= 1024;
+	private static final int EVENT_WEIGHT				= 2048;
+	private static final int SLIM_EVENT_WEIGHT			= 256;
+	private static final int TRANSACTION_WEIGHT			= 512;
+	private static final int GRAPH_WEIGHT				= 256;
+	private static final int GRAPH_POINT_WEIGHT			= 96;
+	private static final int CONTRIBUTOR_WEIGHT			= 64;
+	private static final int EVENT_COUNTER_WEIGHT		= 96;
+	private static final int POINT_REFERENCE_WEIGHT		= 32;
+	private static final int EVENT_ID_WEIGHT			= 64;
+
+	//once over quota, a tenant is trimmed down to this percentage of it
+	private static final int QUOTA_TRIM_PERCENTAGE		= 80;
+
+	private static final long QUOTA_CHECK_INTERVAL		= TimeUnit.SECONDS.toNanos(1);
+
+	private static final List<CacheWeights<?>> instances = new CopyOnWriteArrayList<CacheWeights<?>>();
+
+	//set whenever a tenant exceeds its quota, so that until one does a check costs a single read
+	private static volatile boolean quotasExceeded;
+	private static final AtomicLong nextQuotaCheck = new AtomicLong(System.nanoTime());
+
+	public final String name;
+	public final long maxWeight;
+	public final long tenantQuota;
+
+	private final Function<K, Object> tenantFunction;
+	private final AtomicLong totalWeight;
+	private final ConcurrentMap<Object, AtomicLong> tenantWeights;
+	private final Set<Object> overQuotaTenants;
+
+	private volatile Cache<K, ? extends CacheEntry<?>> cache;
+
+	/**
+	 * @param budgetPercentage - the share of the global cache.maxWeight budget given to this cache
+	 * @param tenantFunction - maps a cache key to the tenant owning it
+	 */
+	public CacheWeights(String name, int budgetPercentage, Function<K, Object> tenantFunction) {
+
+		this.name = name;
+		this.maxWeight = getMaxWeight() * budgetPercentage / 100;
+		this.tenantQuota = maxWeight * getTenantQuota() / 100;
+		this.tenantFunction = tenantFunction;
+
+		this.totalWeight = new AtomicLong();
+		this.tenantWeights = new ConcurrentHashMap<Object, AtomicLong>();
+		this.overQuotaTenants = Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+
+		instances.add(this);
+	}
+
+	public void attach(Cache<K, ? extends CacheEntry<?>> cache) {
+		this.cache = cache;
+	}
+
+	//called by the cache once per inserted or replaced value, the removal of which will be
+	//reported to onRemoval, so the entry's weight is added and subtracted exactly once
+	@Override
+	public int weigh(K key, CacheEntry<?> value) {
+
+		Object tenant = tenantFunction.apply(key);
+
+		totalWeight.addAndGet(value.weight);
+
+		//added within compute, so it can't land on a total onRemoval has just dropped
+		AtomicLong tenantWeight = tenantWeights.compute(tenant, (k, currWeight) -> {
+
+			AtomicLong result = currWeight;
+
+			if (result == null) {
+				result = new AtomicLong();
+			}
+
+			result.addAndGet(value.weight);
+
+			return result;
+		});
+
+		if (tenantWeight.get() > tenantQuota) {
+			overQuotaTenants.add(tenant);
+			quotasExceeded = true;
+		}
+
+		return value.weight;
+	}
+
+	@Override
+	public void onRemoval(RemovalNotification<K, CacheEntry<?>> notification) {
+
+		if ((notification.getKey() == null) || (notification.getValue() == null)) {
+			return;
+		}
+
+		int weight = notification.getValue().weight;
+
+		totalWeight.addAndGet(-weight);
+
+		tenantWeights.computeIfPresent(tenantFunction.apply(notification.getKey()), (k, tenantWeight) -> {
+
+			if (tenantWeight.addAndGet(-weight) <= 0) {
+				return null;
+			}
+
+			return tenantWeight;
+		});
+	}
+
+	private void enforceQuota(Object tenant) {
+
+		Cache<K, ? extends CacheEntry<?>> currCache = cache;
+		AtomicLong tenantWeight = tenantWeights.get(tenant);
+
+		if ((currCache == null) || (tenantWeight == null) || (tenantWeight.get() <= tenantQuota)) {
+			return;
+		}
+
+		List<Map.Entry<K, ? extends CacheEntry<?>>> entries = new ArrayList<Map.Entry<K, ? extends CacheEntry<?>>>();
+
+		for (Map.Entry<K, ? extends CacheEntry<?>> entry : currCache.asMap().entrySet()) {
+
+			if (tenant.equals(tenantFunction.apply(entry.getKey()))) {
+				entries.add(entry);
+			}
+		}
+
+		entries.sort((e1, e2) -> Long.compare(e1.getValue().loadTime, e2.getValue().loadTime));
+
+		long target = tenantQuota * QUOTA_TRIM_PERCENTAGE / 100;
+		long weight = tenantWeight.get();
+
+		for (Map.Entry<K, ? extends CacheEntry<?>> entry : entries) {
+
+			if (weight <= target) {
+				break;
+			}
+
+			currCache.invalidate(entry.getKey());
+			weight -= entry.getValue().weight;
+		}
+	}
+
+	private void enforcePendingQuotas() {
+
+		if (overQuotaTenants.isEmpty()) {
+			return;
+		}
+
+		for (Object tenant : new ArrayList<Object>(overQuotaTenants)) {
+
+			if (overQuotaTenants.remove(tenant)) {
+				enforceQuota(tenant);
+			}
+		}
+	}
+
+	/**
+	 * Evicts the oldest entries of any tenant that has exceeded its quota since the last check.
+	 * Meant to be called on reads, outside of cache loads - a call is a single volatile read
+	 * while no tenant is over quota, and the caches are only scanned once per QUOTA_CHECK_INTERVAL
+	 * by whichever reader gets there first.
+	 */
+	public static void enforceQuotas() {
+
+		if (!quotasExceeded) {
+			return;
+		}
+
+		long now = System.nanoTime();
+		long nextCheck = nextQuotaCheck.get();
+
+		if ((now - nextCheck < 0) || (!nextQuotaCheck.compareAndSet(nextCheck, now + QUOTA_CHECK_INTERVAL))) {
+			return;
+		}
+
+		//cleared before the scan, so a tenant going over quota during it sets it again
+		quotasExceeded = false;
+
+		for (CacheWeights<?> cacheWeights : instances) {
+			cacheWeights.enforcePendingQuotas();
+		}
+	}
+
+	public static Collection<CacheWeights<?>> getInstances() {
+		return Collections.unmodifiableList(instances);
+	}
+
+	public long getWeight() {
+		return totalWeight.get();
+	}
+
+	public Map<Object, Long> getTenantWeights() {
+
+		Map<Object, Long> result = new HashMap<Object, Long>();
+
+		for (Map.Entry<Object, AtomicLong> entry : tenantWeights.entrySet()) {
+			result.put(entry.getKey(), Long.valueOf(entry.getValue().get()));
+		}
+
+		return result;
+	}
+
+	public static int estimate(Object value) {
+
+		long result = BASE_WEIGHT;
+
+		if (value instanceof Response) {
+			result += estimateData(((Response<?>)value).data);
+		} else if (value instanceof RegressionOutput) {
+
+			RegressionOutput regressionOutput = (RegressionOutput)value;
+
+			if (regressionOutput.eventListMap != null) {
+				result += (long)regressionOutput.eventListMap.size() * EVENT_WEIGHT;
+			}
+
+			if (regressionOutput.eventDatas != null) {
+				result += (long)regressionOutput.eventDatas.size() * EVENT_WEIGHT;
+			}
+
+			result += estimateGraph(regressionOutput.baseVolumeGraph);
+			result += estimateGraph(regressionOutput.activeVolumeGraph);
+		} else if (value instanceof RegressionState) {
+
+			//the output and points of a state are also held by the regression output and segment caches
+			RegressionState regressionState = (RegressionState)value;
+			EventCounters eventCounters = regressionState.getEventCounters();
+
+			result += (long)eventCounters.size() * EVENT_COUNTER_WEIGHT;
+			result += (long)eventCounters.getPointCount() * POINT_REFERENCE_WEIGHT;
+			result += (long)regressionState.getEventCount() * EVENT_ID_WEIGHT;
+		} else if (value instanceof Baseline) {
+
+			for (Object part : ((Baseline)value).getParts()) {
+				result += estimatePart(part);
+			}
+		}
+
+		return (int)Math.min(Integer.MAX_VALUE, result);
+	}
+
+	private static long estimateData(Object data) {
+
+		if (data instanceof EventsResult) {
+
+			EventsResult eventsResult = (EventsResult)data;
+
+			if (eventsResult.events != null) {
+				return (long)eventsResult.events.size() * EVENT_WEIGHT;
+			}
+		} else if (data instanceof EventsSlimVolumeResult) {
+
+			EventsSlimVolumeResult eventsResult = (EventsSlimVolumeResult)data;
+
+			if (eventsResult.events != null) {
+				return (long)eventsResult.events.size() * SLIM_EVENT_WEIGHT;
+			}
+		} else if (data instanceof GraphResult) {
+
+			GraphResult graphResult = (GraphResult)data;
+
+			if (graphResult.graphs != null) {
+
+				long result = 0;
+
+				for (Graph graph : graphResult.graphs) {
+					result += estimateGraph(graph);
+				}
+
+				return result;
+			}
+		} else if (data instanceof TransactionsGraphResult) {
+
+			TransactionsGraphResult graphResult = (TransactionsGraphResult)data;
+
+			if (graphResult.graphs != null) {
+
+				long result = 0;
+
+				for (TransactionGraph graph : graphResult.graphs) {
+
+					result += GRAPH_WEIGHT;
+
+					if (graph.points != null) {
+						result += (long)graph.points.size() * GRAPH_POINT_WEIGHT;
+					}
+				}
+
+				return result;
+			}
+		} else if (data instanceof TransactionsVolumeResult) {
+
+			TransactionsVolumeResult volumeResult = (TransactionsVolumeResult)data;
+
+			if (volumeResult.transactions != null) {
+				return (long)volumeResult.transactions.size() * TRANSACTION_WEIGHT;
+			}
+		} else if (data instanceof SystemMetricGraphResult) {
+
+			SystemMetricGraphResult graphResult = (SystemMetricGraphResult)data;
+
+			if (graphResult.points != null) {
+				return (long)graphResult.points.size() * GRAPH_POINT_WEIGHT;
+			}
+		}
+
+		return 0;
+	}
+
+	//the parts of a baseline - maps of merged graphs or of transaction stats, and transaction graphs
+	private static long estimatePart(Object part) {
+
+		long result = 0;
+
+		if (part instanceof Map) {
+
+			for (Object partValue : ((Map<?, ?>)part).values()) {
+
+				if (partValue instanceof Graph) {
+					result += estimateGraph((Graph)partValue);
+				} else {
+					result += TRANSACTION_WEIGHT;
+				}
+			}
+		} else if (part instanceof Collection) {
+
+			for (Object partValue : (Collection<?>)part) {
+
+				if (partValue instanceof TransactionGraph) {
+
+					TransactionGraph graph = (TransactionGraph)partValue;
+
+					result += GRAPH_WEIGHT;
+
+					if (graph.points != null) {
+						result += (long)graph.points.size() * GRAPH_POINT_WEIGHT;
+					}
+				}
+			}
+		}
+
+		return result;
+	}
+
+	private static long estimateGraph(Graph graph) {
+
+		if ((graph == null) || (graph.points == null)) {
+			return 0;
+		}
+
+		long result = GRAPH_WEIGHT;
+
+		for (GraphPoint gp : graph.points) {
+
+			result += GRAPH_POINT_WEIGHT;
+
+			if (gp.contributors != null) {
+				result += (long)gp.contributors.size() * CONTRIBUTOR_WEIGHT;
+			}
+		}
+
+		return result;
+	}
+
+	private static long getMaxWeight() {
+		try {
+			String maxWeightProp = System.getProperty(MAX_WEIGHT_PROPERTY);
+
+			if (Strings.isNullOrEmpty(maxWeightProp)) {
+				return DEFAULT_MAX_WEIGHT_MB * 1024 * 1024;
+			}
+
+			return Math.max(1, Long.parseLong(maxWeightProp)) * 1024 * 1024;
+		}
+		catch (Exception e) {
+			return DEFAULT_MAX_WEIGHT_MB * 1024 * 1024;
+		}
+	}
+
+	private static int getTenantQuota() {
+		try {
+			String tenantQuotaProp = System.getProperty(TENANT_QUOTA_PROPERTY);
+
+			if (Strings.isNullOrEmpty(tenantQuotaProp)) {
+				return DEFAULT_TENANT_QUOTA;
+			}
+
+			return Math.min(100, Math.max(1, Integer.parseInt(tenantQuotaProp)));
+		}
+		catch (Exception e) {
+			return DEFAULT_TENANT_QUOTA;
+		}
+	}
+}
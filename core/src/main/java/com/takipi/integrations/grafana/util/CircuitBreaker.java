@@ -0,0 +1,158 @@
+package com.takipi.integrations.grafana.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stops calls to a failing dependency. The circuit opens after a number of consecutive failed or
+ * slow calls, rejecting calls outright for an open interval. After that a single trial call is let
+ * through (half open) - the circuit closes if it succeeds, and re-opens if it fails.
+ */
+public class CircuitBreaker {
+	
+	public enum State {
+		Closed,
+		Open,
+		HalfOpen
+	}
+	
+	private final int failureThreshold;
+	private final long openInterval;
+	private final long latencyThreshold;
+	
+	private State state;
+	private int failures;
+	private long openTime;
+	private boolean trialInFlight;
+	
+	public final AtomicLong trips;
+	public final AtomicLong rejected;
+	
+	/**
+	 * @param openInterval - in ms
+	 * @param latencyThreshold - calls slower than this (in ms) count as failed
+	 */
+	public CircuitBreaker(int failureThreshold, long openInterval, long latencyThreshold) {
+		
+		if (failureThreshold < 1) {
+			throw new IllegalArgumentException(String.valueOf(failureThreshold));
+		}
+		
+		this.failureThreshold = failureThreshold;
+		this.openInterval = openInterval;
+		this.latencyThreshold = latencyThreshold;
+		
+		this.state = State.Closed;
+		
+		this.trips = new AtomicLong();
+		this.rejected = new AtomicLong();
+	}
+	
+	/**
+	 * @return whether a call may be made now. A call allowed while the circuit isn't closed is
+	 * its trial, and must be reported through {@link #onSample}
+	 */
+	public synchronized boolean allowRequest() {
+		
+		switch (state) {
+			
+			case Closed:
+				return true;
+				
+			case Open:
+				
+				if (System.currentTimeMillis() - openTime < openInterval) {
+					rejected.incrementAndGet();
+					return false;
+				}
+				
+				state = State.HalfOpen;
+				trialInFlight = true;
+				
+				return true;
+				
+			case HalfOpen:
+				
+				if (!trialInFlight) {
+					trialInFlight = true;
+					return true;
+				}
+				
+				rejected.incrementAndGet();
+				return false;
+				
+			default:
+				throw new IllegalStateException(String.valueOf(state));
+		}
+	}
+	
+	/**
+	 * @return whether {@link #allowRequest} would let a call through now, without taking the trial
+	 * of a circuit that isn't closed
+	 */
+	public synchronized boolean isAvailable() {
+		
+		switch (state) {
+			
+			case Closed:
+				return true;
+				
+			case Open:
+				return System.currentTimeMillis() - openTime >= openInterval;
+				
+			case HalfOpen:
+				return !trialInFlight;
+				
+			default:
+				throw new IllegalStateException(String.valueOf(state));
+		}
+	}
+	
+	/**
+	 * Releases a call allowed by {@link #allowRequest} that ended up not being made, so that a trial
+	 * it was given goes to the next call instead.
+	 */
+	public synchronized void onCancel() {
+		
+		if (state == State.HalfOpen) {
+			trialInFlight = false;
+		}
+	}
+	
+	public synchronized void onSample(long latency, boolean failed) {
+		
+		if ((!failed) && (latency <= latencyThreshold)) {
+			failures = 0;
+			state = State.Closed;
+			trialInFlight = false;
+			
+			return;
+		}
+		
+		failures++;
+		
+		//calls started before the circuit opened don't extend its open interval
+		if (state == State.Open) {
+			return;
+		}
+		
+		if ((state == State.HalfOpen) || (failures >= failureThreshold)) {
+			state = State.Open;
+			openTime = System.currentTimeMillis();
+			trialInFlight = false;
+			
+			trips.incrementAndGet();
+		}
+	}
+	
+	public synchronized State getState() {
+		return state;
+	}
+	
+	public synchronized int getFailures() {
+		return failures;
+	}
+	
+	public boolean isClosed() {
+		return getState() == State.Closed;
+	}
+}
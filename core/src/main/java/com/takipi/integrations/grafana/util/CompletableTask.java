@@ -0,0 +1,128 @@
+package com.takipi.integrations.grafana.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A {@link CompletableFuture} completed by running its callable, which may be claimed either by
+ * the executor it was submitted to or by a thread about to wait on its result - whichever gets to
+ * it first. A pool thread that needs the result of a task still queued behind a tenant permit runs
+ * it in place through {@link #help(CompletableFuture)} instead of parking on it, so it only ever
+ * waits on work that is actually in progress on another thread.
+ * 
+ * The task runs within the {@link QueryContext} of the thread that created it, and is failed
+ * without being called if that query expired while the task was queued.
+ */
+public class CompletableTask<T> extends CompletableFuture<T> implements Runnable {
+
+	private final Callable<T> callable;
+	private final QueryContext context;
+	private final AtomicBoolean claimed;
+
+	public CompletableTask(Callable<T> callable) {
+		this(callable, QueryContext.current());
+	}
+
+	public CompletableTask(Callable<T> callable, QueryContext context) {
+		this.callable = callable;
+		this.context = context;
+		this.claimed = new AtomicBoolean();
+	}
+
+	public QueryContext getContext() {
+		return context;
+	}
+
+	public static <T> CompletableTask<T> submit(Executor executor, Callable<T> callable) {
+		return submit(executor, callable, QueryContext.current());
+	}
+
+	public static <T> CompletableTask<T> submit(Executor executor, Callable<T> callable, QueryContext context) {
+
+		CompletableTask<T> result = new CompletableTask<T>(callable, context);
+		executor.execute(result);
+
+		return result;
+	}
+
+	@Override
+	public void run() {
+
+		if (!claimed.compareAndSet(false, true)) {
+			return;
+		}
+
+		if (context == null) {
+			try {
+				complete(callable.call());
+			} catch (Throwable e) {
+				completeExceptionally(e);
+			}
+
+			return;
+		}
+
+		if (context.isExpired()) {
+			completeExceptionally(context.newDeadlineException());
+			return;
+		}
+
+		try {
+			complete(context.call(callable));
+		} catch (Throwable e) {
+			completeExceptionally(e);
+		}
+	}
+
+	/**
+	 * Runs the future's task on the calling thread if it is a CompletableTask no thread has
+	 * claimed yet; a no-op otherwise.
+	 */
+	public static void help(CompletableFuture<?> future) {
+
+		if (future instanceof CompletableTask) {
+			((CompletableTask<?>)future).run();
+		}
+	}
+
+	/**
+	 * Completes once all futures complete, with their values in the order of the list.
+	 */
+	public static <T> CompletableFuture<List<T>> allOf(List<? extends CompletableFuture<? extends T>> futures) {
+
+		return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]))
+			.thenApply(v -> {
+
+				List<T> result = new ArrayList<T>(futures.size());
+
+				for (CompletableFuture<? extends T> future : futures) {
+					result.add(future.join());
+				}
+
+				return result;
+			});
+	}
+
+	/**
+	 * Helps each of the futures in turn, then waits for the result of all of them - or, when
+	 * called within a {@link QueryContext}, until the query expires.
+	 */
+	public static <T> List<T> join(List<? extends CompletableFuture<? extends T>> futures) {
+
+		for (CompletableFuture<? extends T> future : futures) {
+			help(future);
+		}
+
+		QueryContext context = QueryContext.current();
+
+		if (context != null) {
+			return context.await(allOf(futures));
+		}
+
+		return allOf(futures).join();
+	}
+}
@@ -0,0 +1,218 @@
+package com.takipi.integrations.grafana.util;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.takipi.api.client.data.metrics.Graph;
+import com.takipi.api.client.data.metrics.Graph.GraphPoint;
+import com.takipi.api.client.data.metrics.Graph.GraphPointContributor;
+import com.takipi.api.client.result.event.EventResult;
+
+/**
+ * The hits and invocations of each event over the points of a sliding window graph that fall
+ * within its timespan - the counters GrafanaFunction.applyGraphToEvents adds to events, kept
+ * across refreshes of the window rather than summed from scratch on each one.
+ *
+ * Points are tracked by identity. A graph extended from a {@link GraphSegmentCache} segment shares
+ * the points it kept with the previous one, so an update only visits the contributors of the points
+ * that slid out of the timespan and of those added by the tail. A graph sharing no points with the
+ * previous one is recounted as a whole, which is no more work than summing it directly. The points
+ * of an update are only held for the next one when the caller expects it to share them - otherwise
+ * they would keep a graph no cache holds alive, and the next update is a recount anyway.
+ */
+public class EventCounters {
+
+	private static final int HITS = 0;
+	private static final int INVOCATIONS = 1;
+
+	private final Map<String, long[]> counters;
+	private Set<GraphPoint> countedPoints;
+
+	public EventCounters() {
+		this.counters = new HashMap<String, long[]>();
+	}
+
+	/**
+	 * Counts the points of the graph whose time is within (from, to], in place of those of the
+	 * previous update.
+	 *
+	 * @param retainPoints - whether the points of the next update's graph may be shared with this one
+	 * @return the ids of the events whose counters changed
+	 */
+	public Set<String> update(Graph graph, long from, long to, boolean retainPoints) {
+
+		Set<GraphPoint> points;
+
+		if ((graph == null) || (graph.points == null)) {
+			points = Collections.emptySet();
+		} else {
+
+			long[] times = GraphTimes.of(graph);
+
+			points = Collections.newSetFromMap(new IdentityHashMap<GraphPoint, Boolean>(times.length));
+
+			for (int i = 0; i < times.length; i++) {
+
+				if ((times[i] > from) && (times[i] <= to)) {
+					points.add(graph.points.get(i));
+				}
+			}
+		}
+
+		//the counters of each id before this update, taken the first time the id is touched
+		Map<String, long[]> previousCounters = new HashMap<String, long[]>();
+
+		if (isShared(points)) {
+
+			for (GraphPoint gp : countedPoints) {
+
+				if (!points.contains(gp)) {
+					count(gp, -1, previousCounters);
+				}
+			}
+
+			for (GraphPoint gp : points) {
+
+				if (!countedPoints.contains(gp)) {
+					count(gp, 1, previousCounters);
+				}
+			}
+		} else {
+
+			for (Map.Entry<String, long[]> entry : counters.entrySet()) {
+				previousCounters.put(entry.getKey(), entry.getValue());
+			}
+
+			counters.clear();
+
+			for (GraphPoint gp : points) {
+				count(gp, 1, previousCounters);
+			}
+		}
+
+		if (retainPoints) {
+			countedPoints = points;
+		} else {
+			countedPoints = null;
+		}
+
+		Set<String> result = new HashSet<String>();
+
+		for (Map.Entry<String, long[]> entry : previousCounters.entrySet()) {
+
+			long[] previous = entry.getValue();
+			long[] current = counters.get(entry.getKey());
+
+			if (current == null) {
+
+				if ((previous[HITS] != 0) || (previous[INVOCATIONS] != 0)) {
+					result.add(entry.getKey());
+				}
+
+				continue;
+			}
+
+			if ((current[HITS] != previous[HITS]) || (current[INVOCATIONS] != previous[INVOCATIONS])) {
+				result.add(entry.getKey());
+			}
+		}
+
+		return result;
+	}
+
+	private boolean isShared(Set<GraphPoint> points) {
+
+		if ((countedPoints == null) || (countedPoints.isEmpty())) {
+			return false;
+		}
+
+		for (GraphPoint gp : points) {
+
+			if (countedPoints.contains(gp)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private void count(GraphPoint gp, int sign, Map<String, long[]> previousCounters) {
+
+		if (gp.contributors == null) {
+			return;
+		}
+
+		for (GraphPointContributor gpc : gp.contributors) {
+
+			if ((gpc == null) || (gpc.stats == null)) {
+				continue;
+			}
+
+			long[] eventCounters = counters.get(gpc.id);
+
+			if (eventCounters == null) {
+				eventCounters = new long[2];
+				counters.put(gpc.id, eventCounters);
+			}
+
+			if (!previousCounters.containsKey(gpc.id)) {
+				previousCounters.put(gpc.id, eventCounters.clone());
+			}
+
+			eventCounters[HITS] += sign * gpc.stats.hits;
+			eventCounters[INVOCATIONS] += sign * gpc.stats.invocations;
+
+			//ids whose points all slid out are dropped, so the map only holds the events of the window
+			if ((eventCounters[HITS] == 0) && (eventCounters[INVOCATIONS] == 0)) {
+				counters.remove(gpc.id);
+			}
+		}
+	}
+
+	/**
+	 * Adds the counters of each event to its stats, as applyGraphToEvents would
+	 *
+	 * @return the hits of the events the counters were added to
+	 */
+	public long applyTo(Collection<EventResult> events) {
+
+		long result = 0;
+
+		for (EventResult event : events) {
+
+			long[] eventCounters = counters.get(event.id);
+
+			if (eventCounters == null) {
+				continue;
+			}
+
+			event.stats.hits += eventCounters[HITS];
+			event.stats.invocations += eventCounters[INVOCATIONS];
+
+			result += eventCounters[HITS];
+		}
+
+		return result;
+	}
+
+	public int size() {
+		return counters.size();
+	}
+
+	/**
+	 * @return the number of points held for the next update
+	 */
+	public int getPointCount() {
+
+		if (countedPoints == null) {
+			return 0;
+		}
+
+		return countedPoints.size();
+	}
+}
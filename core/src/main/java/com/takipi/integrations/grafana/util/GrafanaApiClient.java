@@ -1,21 +1,74 @@
 package com.takipi.integrations.grafana.util;
 
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
 import com.takipi.api.client.ApiClient;
 import com.takipi.api.client.RemoteApiClient;
 import com.takipi.api.client.observe.LoggingObserver;
 import com.takipi.integrations.grafana.servlet.ServletUtil.Auth;
 
+/**
+ * Creates the ApiClients of incoming requests. A client is kept per (host, api key) and reused by
+ * all requests made with them, so the tenant executors and ApiCache entries keyed by it outlive
+ * a single request. Clients are keyed by a hash of the api key rather than the key itself, so it
+ * isn't held by the key interner nor printed with the key. Clients connect through the JDK's
+ * HttpURLConnection, whose keep-alive pool is shared by all of them - its size per OverOps host,
+ * and on Java 17 or later its idle timeout, are set on startup.
+ */
 public class GrafanaApiClient {
+	private static final Logger logger = LoggerFactory.getLogger(GrafanaApiClient.class);
+	
 	private static final String API_TIMEOUT_PROPERTY	= "api.timeout";
 	private static final String API_AUTH_PROPERTY		= "api.auth";
 	private static final String API_OBSERVE_PROPERTY	= "api.observe";
+	private static final String API_MAX_CLIENTS_PROPERTY		= "api.maxClients";
+	private static final String API_CLIENT_RETENTION_PROPERTY	= "api.clientRetention";
+	private static final String API_MAX_CONNECTIONS_PROPERTY	= "api.maxConnections";
+	private static final String API_KEEP_ALIVE_PROPERTY			= "api.keepAliveTime";
+	
+	//the JDK's keep-alive settings, read once by HttpURLConnection on its first connection.
+	//http.keepAlive.time.server is only read by Java 17 or later - Java 8 ignores it, and keeps
+	//an idle connection for as long as the server's Keep-Alive header allows, or 5 sec without one
+	private static final String HTTP_KEEP_ALIVE_PROPERTY		= "http.keepAlive";
+	private static final String HTTP_MAX_CONNECTIONS_PROPERTY	= "http.maxConnections";
+	private static final String HTTP_KEEP_ALIVE_TIME_PROPERTY	= "http.keepAlive.time.server";
 	
 	private static final int DEFAULT_TIMEOUT		= 120000;
 	private static final int MIN_TIMEOUT			= 5000;
 	
 	private static final boolean DEFAULT_OBSERVE	= false;
 	
+	private static final int DEFAULT_MAX_CLIENTS = 1000;
+	private static final int DEFAULT_CLIENT_RETENTION = 60; //min
+	private static final int DEFAULT_MAX_CONNECTIONS = 50; //idle connections kept per host
+	private static final int DEFAULT_KEEP_ALIVE_TIME = 30; //sec
+	
+	private static final Cache<CacheKey, ApiClient> clients;
+	
+	static {
+		configureConnections();
+		
+		clients = CacheBuilder.newBuilder()
+			.maximumSize(getIntProperty(API_MAX_CLIENTS_PROPERTY, DEFAULT_MAX_CLIENTS))
+			.expireAfterAccess(getIntProperty(API_CLIENT_RETENTION_PROPERTY, DEFAULT_CLIENT_RETENTION), TimeUnit.MINUTES)
+			.recordStats()
+			.build();
+		
+		GrafanaMetrics.registerCache("ApiClients", clients);
+		
+		GrafanaMetrics.registerGauge("api_clients", "Number of cached api clients",
+			"pool", "all", () -> clients.size());
+	}
+	
 	public static ApiClient getApiClient() {
 		return getApiClient(null); 
 	}
@@ -51,6 +104,26 @@ public class GrafanaApiClient {
 	}
 	
 	public static ApiClient getApiClient(String hostname, String token) {
+		
+		CacheKey key = CacheKey.newBuilder().add(hostname).add(getTokenHash(token)).build();
+		
+		try {
+			return clients.get(key, () -> createApiClient(hostname, token));
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+	
+	private static String getTokenHash(String token) {
+		
+		if (token == null) {
+			return null;
+		}
+		
+		return Hashing.sha256().hashString(token, StandardCharsets.UTF_8).toString();
+	}
+	
+	private static ApiClient createApiClient(String hostname, String token) {
 		RemoteApiClient.Builder builder =
 				RemoteApiClient.newBuilder()
 		            .setHostname(hostname)
@@ -95,4 +168,42 @@ public class GrafanaApiClient {
 			return DEFAULT_OBSERVE;
 		}
 	}
+	
+	//explicitly set JDK properties take precedence over ours
+	private static void configureConnections() {
+		
+		setDefaultProperty(HTTP_KEEP_ALIVE_PROPERTY, Boolean.TRUE.toString());
+		
+		setDefaultProperty(HTTP_MAX_CONNECTIONS_PROPERTY, String.valueOf(
+			getIntProperty(API_MAX_CONNECTIONS_PROPERTY, DEFAULT_MAX_CONNECTIONS)));
+		
+		setDefaultProperty(HTTP_KEEP_ALIVE_TIME_PROPERTY, String.valueOf(
+			getIntProperty(API_KEEP_ALIVE_PROPERTY, DEFAULT_KEEP_ALIVE_TIME)));
+		
+		logger.info("Api connections keep-alive: {}, max connections: {}, keep-alive time: {}",
+			System.getProperty(HTTP_KEEP_ALIVE_PROPERTY), System.getProperty(HTTP_MAX_CONNECTIONS_PROPERTY),
+			System.getProperty(HTTP_KEEP_ALIVE_TIME_PROPERTY));
+	}
+	
+	private static void setDefaultProperty(String name, String value) {
+		
+		if (Strings.isNullOrEmpty(System.getProperty(name))) {
+			System.setProperty(name, value);
+		}
+	}
+	
+	private static int getIntProperty(String name, int defaultValue) {
+		try {
+			String prop = System.getProperty(name);
+			
+			if (Strings.isNullOrEmpty(prop)) {
+				return defaultValue;
+			}
+			
+			return Integer.parseInt(prop);
+		}
+		catch (Exception e) {
+			return defaultValue;
+		}
+	}
 }
@@ -0,0 +1,292 @@
+package com.takipi.integrations.grafana.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheStats;
+import com.takipi.api.core.url.UrlClient.Response;
+
+/**
+ * Process wide registry of the timers, cache statistics, gauges and counters of the Influx
+ * backend, written in the Prometheus text exposition format. Timers are created on first use
+ * and recorded lock free; caches, gauges and counters are registered once and only evaluated
+ * when the metrics are written.
+ */
+public class GrafanaMetrics {
+
+	private static final String PREFIX = "oo_influx_";
+
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.95, 0.99 };
+
+	public static class TimerFamily {
+
+		public final String name;
+		public final String help;
+		public final String labelName;
+
+		private final ConcurrentMap<String, LatencyTimer> timers;
+
+		protected TimerFamily(String name, String help, String labelName) {
+			this.name = name;
+			this.help = help;
+			this.labelName = labelName;
+			this.timers = new ConcurrentSkipListMap<String, LatencyTimer>();
+		}
+
+		public LatencyTimer getTimer(String labelValue) {
+
+			LatencyTimer result = timers.get(labelValue);
+
+			if (result != null) {
+				return result;
+			}
+
+			return timers.computeIfAbsent(labelValue, k -> new LatencyTimer());
+		}
+
+		public Map<String, LatencyTimer> getTimers() {
+			return timers;
+		}
+	}
+
+	private static class Gauge {
+
+		protected final String labels;
+		protected final Supplier<? extends Number> supplier;
+
+		protected Gauge(String labels, Supplier<? extends Number> supplier) {
+			this.labels = labels;
+			this.supplier = supplier;
+		}
+	}
+
+	private static class GaugeFamily {
+
+		protected final String help;
+		protected final String type;
+		protected final List<Gauge> gauges;
+
+		protected GaugeFamily(String help, String type) {
+			this.help = help;
+			this.type = type;
+			this.gauges = new CopyOnWriteArrayList<Gauge>();
+		}
+	}
+
+	public static final TimerFamily functionTimers = new TimerFamily(PREFIX + "function_duration_seconds",
+		"Duration of Grafana function queries", "function");
+
+	public static final TimerFamily loaderTimers = new TimerFamily(PREFIX + "cache_load_duration_seconds",
+		"Duration of ApiCache loads, by cache loader", "loader");
+
+	public static final TimerFamily endpointTimers = new TimerFamily(PREFIX + "api_request_duration_seconds",
+		"Duration of OverOps API requests, by request type", "endpoint");
+
+	private static final Map<String, Cache<?, ?>> caches = new ConcurrentSkipListMap<String, Cache<?, ?>>();
+	private static final Map<String, GaugeFamily> gauges = new ConcurrentSkipListMap<String, GaugeFamily>();
+
+	public static LatencyTimer getFunctionTimer(String functionName) {
+		return functionTimers.getTimer(functionName);
+	}
+
+	public static LatencyTimer getLoaderTimer(String loaderName) {
+		return loaderTimers.getTimer(loaderName);
+	}
+
+	public static LatencyTimer getEndpointTimer(Object request) {
+		return endpointTimers.getTimer(request.getClass().getSimpleName());
+	}
+
+	/**
+	 * Records an OverOps API request started at startTime. A null (the request threw) or bad
+	 * response is counted as an error.
+	 */
+	public static void recordApiRequest(Object request, long startTime, Response<?> response) {
+
+		LatencyTimer timer = getEndpointTimer(request);
+
+		if ((response == null) || (response.isBadResponse())) {
+			timer.recordError(startTime);
+		} else {
+			timer.record(startTime);
+		}
+	}
+
+	/**
+	 * Exposes the statistics of a cache, which must be built with recordStats() for its
+	 * hit / miss / load counters to be non zero.
+	 */
+	public static void registerCache(String name, Cache<?, ?> cache) {
+		caches.put(name, cache);
+	}
+
+	public static void registerGauge(String name, String help, String labelName, String labelValue,
+		Supplier<? extends Number> supplier) {
+		register(name, help, "gauge", labelName, labelValue, supplier);
+	}
+
+	/**
+	 * Exposes a value that only goes up, such as a count of events since startup, so that it can
+	 * be read with rate() and increase(). The name should end with _total.
+	 */
+	public static void registerCounter(String name, String help, String labelName, String labelValue,
+		Supplier<? extends Number> supplier) {
+		register(name, help, "counter", labelName, labelValue, supplier);
+	}
+
+	private static void register(String name, String help, String type, String labelName, String labelValue,
+		Supplier<? extends Number> supplier) {
+
+		GaugeFamily family = gauges.computeIfAbsent(PREFIX + name, k -> new GaugeFamily(help, type));
+		family.gauges.add(new Gauge(formatLabel(labelName, labelValue), supplier));
+	}
+
+	public static void write(Writer writer) throws IOException {
+
+		for (TimerFamily timerFamily : new TimerFamily[] { functionTimers, loaderTimers, endpointTimers }) {
+			writeTimers(writer, timerFamily);
+		}
+
+		writeCaches(writer);
+		writeGauges(writer);
+	}
+
+	private static void writeTimers(Writer writer, TimerFamily timerFamily) throws IOException {
+
+		if (timerFamily.timers.isEmpty()) {
+			return;
+		}
+
+		String errorsName = timerFamily.name.replace("_duration_seconds", "_errors_total");
+
+		writeHeader(writer, timerFamily.name, timerFamily.help, "summary");
+
+		StringBuilder errors = new StringBuilder();
+
+		for (Map.Entry<String, LatencyTimer> entry : timerFamily.timers.entrySet()) {
+
+			String label = formatLabel(timerFamily.labelName, entry.getKey());
+			LatencyTimer.Snapshot snapshot = entry.getValue().getSnapshot();
+
+			for (double quantile : QUANTILES) {
+				writeSample(writer, timerFamily.name, label + ",quantile=\"" + quantile + "\"",
+					snapshot.getPercentile(quantile * 100));
+			}
+
+			writeSample(writer, timerFamily.name + "_sum", label, snapshot.sumSeconds);
+			writeSample(writer, timerFamily.name + "_count", label, snapshot.count);
+
+			errors.append(errorsName).append('{').append(label).append("} ").append(snapshot.errors).append('\n');
+		}
+
+		writeHeader(writer, errorsName, "Failed calls, by " + timerFamily.labelName, "counter");
+		writer.write(errors.toString());
+	}
+
+	private static void writeCaches(Writer writer) throws IOException {
+
+		if (caches.isEmpty()) {
+			return;
+		}
+
+		String requests = PREFIX + "cache_requests_total";
+		String loads = PREFIX + "cache_loads_total";
+		String loadTime = PREFIX + "cache_load_seconds_total";
+		String evictions = PREFIX + "cache_evictions_total";
+		String entries = PREFIX + "cache_entries";
+
+		writeHeader(writer, requests, "Cache lookups, by result", "counter");
+
+		for (Map.Entry<String, Cache<?, ?>> entry : caches.entrySet()) {
+
+			CacheStats stats = entry.getValue().stats();
+			String label = formatLabel("cache", entry.getKey());
+
+			writeSample(writer, requests, label + ",result=\"hit\"", stats.hitCount());
+			writeSample(writer, requests, label + ",result=\"miss\"", stats.missCount());
+		}
+
+		writeHeader(writer, loads, "Cache loads (including background refreshes), by result", "counter");
+
+		for (Map.Entry<String, Cache<?, ?>> entry : caches.entrySet()) {
+
+			CacheStats stats = entry.getValue().stats();
+			String label = formatLabel("cache", entry.getKey());
+
+			writeSample(writer, loads, label + ",result=\"success\"", stats.loadSuccessCount());
+			writeSample(writer, loads, label + ",result=\"failure\"", stats.loadExceptionCount());
+		}
+
+		writeHeader(writer, loadTime, "Total time spent loading cache values", "counter");
+
+		for (Map.Entry<String, Cache<?, ?>> entry : caches.entrySet()) {
+			writeSample(writer, loadTime, formatLabel("cache", entry.getKey()),
+				(double)entry.getValue().stats().totalLoadTime() / TimeUnit.SECONDS.toNanos(1));
+		}
+
+		writeHeader(writer, evictions, "Cache entries evicted by size, weight or expiration", "counter");
+
+		for (Map.Entry<String, Cache<?, ?>> entry : caches.entrySet()) {
+			writeSample(writer, evictions, formatLabel("cache", entry.getKey()), entry.getValue().stats().evictionCount());
+		}
+
+		writeHeader(writer, entries, "Current number of cache entries", "gauge");
+
+		for (Map.Entry<String, Cache<?, ?>> entry : caches.entrySet()) {
+			writeSample(writer, entries, formatLabel("cache", entry.getKey()), entry.getValue().size());
+		}
+	}
+
+	private static void writeGauges(Writer writer) throws IOException {
+
+		for (Map.Entry<String, GaugeFamily> entry : gauges.entrySet()) {
+
+			GaugeFamily family = entry.getValue();
+
+			writeHeader(writer, entry.getKey(), family.help, family.type);
+
+			for (Gauge gauge : family.gauges) {
+
+				Number value;
+
+				try {
+					value = gauge.supplier.get();
+				} catch (Exception e) {
+					continue;
+				}
+
+				if (value != null) {
+					writeSample(writer, entry.getKey(), gauge.labels, value.doubleValue());
+				}
+			}
+		}
+	}
+
+	private static void writeHeader(Writer writer, String name, String help, String type) throws IOException {
+		writer.write("# HELP " + name + " " + help + "\n");
+		writer.write("# TYPE " + name + " " + type + "\n");
+	}
+
+	private static void writeSample(Writer writer, String name, String labels, long value) throws IOException {
+		writer.write(name + "{" + labels + "} " + value + "\n");
+	}
+
+	private static void writeSample(Writer writer, String name, String labels, double value) throws IOException {
+		writer.write(name + "{" + labels + "} " + value + "\n");
+	}
+
+	private static String formatLabel(String name, String value) {
+
+		String escaped = String.valueOf(value).replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+
+		return name + "=\"" + escaped + "\"";
+	}
+}
@@ -0,0 +1,466 @@
+package com.takipi.integrations.grafana.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.takipi.api.client.data.event.Stats;
+import com.takipi.api.client.data.metrics.Graph;
+import com.takipi.api.client.data.metrics.Graph.GraphPoint;
+import com.takipi.api.client.data.metrics.Graph.GraphPointContributor;
+import com.takipi.common.util.CollectionUtil;
+
+/**
+ * Merges graphs - the time slices of one graph, or the graphs of several applications over the
+ * same timeframe - into a single graph whose points are the sum of all points sharing a time.
+ *
+ * The point times of each graph are read from its {@link GraphTimes} index, and the graphs are
+ * combined by a k-way merge over those arrays (graphs returned out of order are sorted first).
+ * A point present in a single graph is cloned as is. Points sharing a time are summed into a new
+ * point, whose contributors are aggregated by event id - every reader of graph contributors sums
+ * them per id, so this only saves the duplicates the merge would otherwise append. Ids are
+ * interned per merge, so the per point aggregation runs over primitive arrays indexed by them.
+ */
+public class GraphMerger {
+
+	private final Set<String> ids;
+	private final Set<String> types;
+	private final Set<String> machines;
+	private final Set<String> deployments;
+	private final Set<String> applications;
+
+	private final List<GraphPoint[]> points;
+	private final List<long[]> times;
+
+	private int graphCount;
+	private Graph firstGraph;
+	private Graph result;
+
+	//the k-way merge heap, holding the index of the graph each cursor belongs to
+	private int[] heap;
+	private int[] cursors;
+	private int heapSize;
+
+	private final Map<String, Integer> contributorIds;
+	private final List<String> internedIds;
+
+	private long[] contributorHits;
+	private long[] contributorInvocations;
+	private int[] contributorMarks;
+	private int[] touchedIds;
+	private int touchedCount;
+	private int mark;
+
+	private final List<GraphPoint> group;
+
+	public GraphMerger() {
+		this.ids = new HashSet<String>();
+		this.types = new HashSet<String>();
+		this.machines = new HashSet<String>();
+		this.deployments = new HashSet<String>();
+		this.applications = new HashSet<String>();
+
+		this.points = new ArrayList<GraphPoint[]>();
+		this.times = new ArrayList<long[]>();
+
+		this.contributorIds = new HashMap<String, Integer>();
+		this.internedIds = new ArrayList<String>();
+
+		this.contributorHits = new long[16];
+		this.contributorInvocations = new long[16];
+		this.contributorMarks = new int[16];
+		this.touchedIds = new int[16];
+
+		this.group = new ArrayList<GraphPoint>();
+	}
+
+	/**
+	 * @return null for no graphs, the graph itself for a single one, and a new merged graph otherwise
+	 */
+	public static Graph merge(Collection<Graph> graphs) {
+
+		if (graphs.size() == 0) {
+			return null;
+		}
+
+		if (graphs.size() == 1) {
+			return graphs.iterator().next();
+		}
+
+		GraphMerger merger = new GraphMerger();
+
+		for (Graph graph : graphs) {
+			merger.add(graph);
+		}
+
+		return merger.toGraph();
+	}
+
+	/**
+	 * Adds a graph to be merged, for callers that stream graphs into several mergers rather than
+	 * collecting them first. Null graphs are skipped.
+	 */
+	public void add(Graph graph) {
+
+		if (graph == null) {
+			return;
+		}
+
+		if (result != null) {
+			throw new IllegalStateException("Graphs already merged");
+		}
+
+		if (graphCount == 0) {
+			firstGraph = graph;
+		}
+
+		graphCount++;
+
+		ids.add(graph.id);
+		types.add(graph.type);
+
+		machines.add(graph.machine_name);
+		deployments.add(graph.deployment_name);
+		applications.add(graph.application_name);
+
+		addPoints(graph);
+	}
+
+	public int size() {
+		return graphCount;
+	}
+
+	/**
+	 * @return as {@link #merge} - null if no graph was added, the graph itself if only one was, and
+	 * otherwise the merged graph, which is built on the first call and returned by later ones
+	 */
+	public Graph getGraph() {
+
+		if (graphCount == 0) {
+			return null;
+		}
+
+		if (graphCount == 1) {
+			return firstGraph;
+		}
+
+		return toGraph();
+	}
+
+	private Graph toGraph() {
+
+		if (result != null) {
+			return result;
+		}
+
+		result = new Graph();
+
+		result.id = getMergedFieldName(ids);
+		result.type = getMergedFieldName(types);
+
+		result.machine_name = getMergedFieldName(machines);
+		result.deployment_name = getMergedFieldName(deployments);
+		result.application_name = getMergedFieldName(applications);
+
+		result.points = merge();
+
+		return result;
+	}
+
+	private static String getMergedFieldName(Set<String> mergedField) {
+		if (CollectionUtil.safeIsEmpty(mergedField)) {
+			return "";
+		}
+
+		return mergedField.size() == 1 ? mergedField.iterator().next() : "(" + String.join("|", mergedField) + ")";
+	}
+
+	private void addPoints(Graph graph) {
+
+		if ((graph.points == null) || (graph.points.isEmpty())) {
+			return;
+		}
+
+		GraphPoint[] graphPoints = graph.points.toArray(new GraphPoint[graph.points.size()]);
+		long[] graphTimes = GraphTimes.of(graph);
+
+		for (int i = 1; i < graphTimes.length; i++) {
+
+			if (graphTimes[i] < graphTimes[i - 1]) {
+				graphTimes = sort(graphPoints, graphTimes);
+				break;
+			}
+		}
+
+		points.add(graphPoints);
+		times.add(graphTimes);
+	}
+
+	//stable, so points sharing a time keep the order in which they are summed. The points are
+	//sorted in place, while the times array is shared with the graph's index and left as is
+	private static long[] sort(GraphPoint[] graphPoints, long[] graphTimes) {
+
+		Integer[] order = new Integer[graphPoints.length];
+
+		for (int i = 0; i < order.length; i++) {
+			order[i] = Integer.valueOf(i);
+		}
+
+		Arrays.sort(order, (a, b) -> Long.compare(graphTimes[a.intValue()], graphTimes[b.intValue()]));
+
+		GraphPoint[] sortedPoints = new GraphPoint[graphPoints.length];
+		long[] result = new long[graphTimes.length];
+
+		for (int i = 0; i < order.length; i++) {
+			sortedPoints[i] = graphPoints[order[i].intValue()];
+			result[i] = graphTimes[order[i].intValue()];
+		}
+
+		System.arraycopy(sortedPoints, 0, graphPoints, 0, graphPoints.length);
+
+		return result;
+	}
+
+	private List<GraphPoint> merge() {
+
+		int graphCount = points.size();
+		int pointCount = 0;
+
+		heap = new int[graphCount];
+		cursors = new int[graphCount];
+
+		for (int i = 0; i < graphCount; i++) {
+			pointCount += points.get(i).length;
+			heapPush(i);
+		}
+
+		List<GraphPoint> result = new ArrayList<GraphPoint>(pointCount);
+
+		while (heapSize > 0) {
+
+			int graphIndex = heap[0];
+			long time = currentTime(graphIndex);
+
+			group.clear();
+
+			//graphs are popped by (time, graph index), so points sharing a time are collected in
+			//the order of the merged collection
+			while ((heapSize > 0) && (currentTime(heap[0]) == time)) {
+
+				graphIndex = heap[0];
+
+				GraphPoint[] graphPoints = points.get(graphIndex);
+				long[] graphTimes = times.get(graphIndex);
+
+				int cursor = cursors[graphIndex];
+
+				while ((cursor < graphTimes.length) && (graphTimes[cursor] == time)) {
+					group.add(graphPoints[cursor]);
+					cursor++;
+				}
+
+				cursors[graphIndex] = cursor;
+
+				if (cursor < graphTimes.length) {
+					heapSiftDown(0);
+				} else {
+					heapPop();
+				}
+			}
+
+			result.add(materialize());
+		}
+
+		return result;
+	}
+
+	private GraphPoint materialize() {
+
+		GraphPoint first = group.get(0);
+
+		if (group.size() == 1) {
+			return first.clone();
+		}
+
+		long hits = 0;
+		long invocations = 0;
+
+		mark++;
+		touchedCount = 0;
+
+		for (GraphPoint gp : group) {
+
+			if (gp.stats != null) {
+				hits += gp.stats.hits;
+				invocations += gp.stats.invocations;
+			}
+
+			if (gp.contributors == null) {
+				continue;
+			}
+
+			for (GraphPointContributor contributor : gp.contributors) {
+				if (contributor != null) {
+					addContributor(contributor);
+				}
+			}
+		}
+
+		GraphPoint result = new GraphPoint();
+
+		result.time = first.time;
+		result.stats = new Stats();
+		result.stats.hits = hits;
+		result.stats.invocations = invocations;
+
+		if (touchedCount > 0) {
+
+			result.contributors = new ArrayList<GraphPointContributor>(touchedCount);
+
+			for (int i = 0; i < touchedCount; i++) {
+
+				int id = touchedIds[i];
+
+				GraphPointContributor contributor = new GraphPointContributor();
+
+				contributor.id = internedIds.get(id);
+				contributor.stats = new Stats();
+				contributor.stats.hits = contributorHits[id];
+				contributor.stats.invocations = contributorInvocations[id];
+
+				result.contributors.add(contributor);
+			}
+		}
+
+		return result;
+	}
+
+	private void addContributor(GraphPointContributor contributor) {
+
+		int id = intern(contributor);
+
+		if (contributorMarks[id] != mark) {
+
+			contributorMarks[id] = mark;
+			contributorHits[id] = 0;
+			contributorInvocations[id] = 0;
+
+			if (touchedCount == touchedIds.length) {
+				touchedIds = Arrays.copyOf(touchedIds, touchedCount * 2);
+			}
+
+			touchedIds[touchedCount++] = id;
+		}
+
+		if (contributor.stats != null) {
+			contributorHits[id] += contributor.stats.hits;
+			contributorInvocations[id] += contributor.stats.invocations;
+		}
+	}
+
+	private int intern(GraphPointContributor contributor) {
+
+		Integer id = contributorIds.get(contributor.id);
+
+		if (id != null) {
+			return id.intValue();
+		}
+
+		int result = internedIds.size();
+
+		contributorIds.put(contributor.id, Integer.valueOf(result));
+		internedIds.add(contributor.id);
+
+		if (result == contributorMarks.length) {
+
+			int capacity = result * 2;
+
+			contributorHits = Arrays.copyOf(contributorHits, capacity);
+			contributorInvocations = Arrays.copyOf(contributorInvocations, capacity);
+			contributorMarks = Arrays.copyOf(contributorMarks, capacity);
+		}
+
+		return result;
+	}
+
+	private long currentTime(int graphIndex) {
+		return times.get(graphIndex)[cursors[graphIndex]];
+	}
+
+	private boolean heapLess(int a, int b) {
+
+		long timeA = currentTime(a);
+		long timeB = currentTime(b);
+
+		if (timeA != timeB) {
+			return timeA < timeB;
+		}
+
+		return a < b;
+	}
+
+	private void heapPush(int graphIndex) {
+
+		int index = heapSize++;
+		heap[index] = graphIndex;
+
+		while (index > 0) {
+
+			int parent = (index - 1) / 2;
+
+			if (!heapLess(heap[index], heap[parent])) {
+				break;
+			}
+
+			heapSwap(index, parent);
+			index = parent;
+		}
+	}
+
+	private void heapPop() {
+
+		heapSize--;
+
+		if (heapSize > 0) {
+			heap[0] = heap[heapSize];
+			heapSiftDown(0);
+		}
+	}
+
+	private void heapSiftDown(int index) {
+
+		while (true) {
+
+			int left = index * 2 + 1;
+
+			if (left >= heapSize) {
+				return;
+			}
+
+			int child = left;
+			int right = left + 1;
+
+			if ((right < heapSize) && (heapLess(heap[right], heap[left]))) {
+				child = right;
+			}
+
+			if (!heapLess(heap[child], heap[index])) {
+				return;
+			}
+
+			heapSwap(index, child);
+			index = child;
+		}
+	}
+
+	private void heapSwap(int a, int b) {
+		int temp = heap[a];
+		heap[a] = heap[b];
+		heap[b] = temp;
+	}
+}
@@ -0,0 +1,210 @@
+package com.takipi.integrations.grafana.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.takipi.api.client.data.metrics.Graph;
+import com.takipi.api.client.data.metrics.Graph.GraphPoint;
+import com.takipi.api.client.util.validation.ValidationUtil.GraphResolution;
+
+/**
+ * Holds the last merged graph returned for a sliding "last X" timeframe, so that the next
+ * refresh of the same panel only needs to fetch the points added since it was stored. The
+ * tail is appended to the stored points (replacing the last, partial, point) and points that
+ * slid out of the requested timeframe are trimmed from the head.
+ *
+ * The points of a segment are shared, not copied - by the graph each caller receives, and by
+ * the segment extended from it, which is what lets {@link EventCounters} tell the points that
+ * slid in or out of a window by identity. They are therefore read only: the points list of a
+ * returned graph is unmodifiable, and its GraphPoint objects must not be modified. A caller
+ * needing different points replaces the graph's list with its own.
+ */
+public class GraphSegmentCache {
+
+	private static final int CACHE_SIZE = 500;
+	private static final int CACHE_RETENTION = 10;
+
+	//a tail longer than this fraction of the timeframe is fetched as a full graph
+	private static final int MAX_TAIL_FRACTION = 4;
+
+	public static class GraphSegment {
+
+		public final Graph graph;
+		public final DateTime from;
+		public final DateTime to;
+		public final GraphResolution resolution;
+
+		public GraphSegment(Graph graph, DateTime from, DateTime to, GraphResolution resolution) {
+			this.graph = graph;
+			this.from = from;
+			this.to = to;
+			this.resolution = resolution;
+		}
+
+		public boolean canExtend(DateTime newFrom, DateTime newTo) {
+
+			if ((graph == null) || (graph.points == null) || (graph.points.isEmpty())) {
+				return false;
+			}
+
+			if ((newTo.isBefore(to)) || (newFrom.isBefore(from))) {
+				return false;
+			}
+
+			long span = newTo.getMillis() - newFrom.getMillis();
+			long tail = newTo.getMillis() - getTailStart().getMillis();
+
+			return tail <= span / MAX_TAIL_FRACTION;
+		}
+
+		/**
+		 * @return the time of the last stored point. That point may have been partial when it was
+		 * fetched, so it is requested again as the start of the tail.
+		 */
+		public DateTime getTailStart() {
+
+			long[] times = GraphTimes.of(graph);
+
+			return new DateTime(times[times.length - 1], DateTimeZone.UTC);
+		}
+
+		public GraphSegment extend(Graph tailGraph, DateTime newFrom, DateTime newTo) {
+
+			long headStart = newFrom.getMillis() - getResolutionMillis(resolution);
+			long tailStart = getTailStart().getMillis();
+
+			List<GraphPoint> tailPoints;
+			long[] tailTimes;
+
+			if ((tailGraph != null) && (tailGraph.points != null)) {
+				tailPoints = tailGraph.points;
+				tailTimes = GraphTimes.of(tailGraph);
+			} else {
+				tailPoints = Collections.emptyList();
+				tailTimes = new long[0];
+			}
+
+			long[] times = GraphTimes.of(graph);
+
+			List<GraphPoint> points = new ArrayList<GraphPoint>(graph.points.size() + tailPoints.size());
+			long[] pointTimes = new long[graph.points.size() + tailPoints.size()];
+
+			for (int i = 0; i < times.length; i++) {
+
+				if ((times[i] > headStart) && (times[i] < tailStart)) {
+					pointTimes[points.size()] = times[i];
+					points.add(graph.points.get(i));
+				}
+			}
+
+			for (int i = 0; i < tailTimes.length; i++) {
+
+				if (tailTimes[i] >= tailStart) {
+					pointTimes[points.size()] = tailTimes[i];
+					points.add(tailPoints.get(i));
+				}
+			}
+
+			Graph result = copyGraph(graph, points, Arrays.copyOf(pointTimes, points.size()));
+
+			return new GraphSegment(result, newFrom, newTo, resolution);
+		}
+	}
+
+	private static final Cache<CacheKey, GraphSegment> segmentCache = CacheBuilder.newBuilder()
+			.maximumSize(CACHE_SIZE)
+			.expireAfterAccess(CACHE_RETENTION, TimeUnit.MINUTES)
+			.recordStats()
+			.build();
+
+	static {
+		GrafanaMetrics.registerCache("GraphSegmentCache", segmentCache);
+	}
+
+	private static final RequestCoalescer<CacheKey, Graph> segmentCoalescer = new RequestCoalescer<CacheKey, Graph>();
+
+	public static GraphSegment getSegment(CacheKey key) {
+		return segmentCache.getIfPresent(key);
+	}
+
+	public static void putSegment(CacheKey key, GraphSegment segment) {
+		segmentCache.put(key, segment);
+	}
+
+	/**
+	 * Runs the loader for a segment key, attaching concurrent requests for the same panel to it
+	 */
+	public static Graph load(CacheKey key, Callable<Graph> loader) {
+
+		Graph graph = segmentCoalescer.load(key, loader);
+
+		if (graph == null) {
+			return null;
+		}
+
+		//callers may replace the points list of the graph they receive, though not modify its points
+		return copyGraph(graph);
+	}
+
+	public static long getSize() {
+		return segmentCache.size();
+	}
+
+	public static void clear() {
+		segmentCache.invalidateAll();
+	}
+
+	public static long getResolutionMillis(GraphResolution resolution) {
+
+		switch (resolution) {
+
+			case M1:
+				return TimeUnit.MINUTES.toMillis(1);
+			case M5:
+				return TimeUnit.MINUTES.toMillis(5);
+			case H1:
+				return TimeUnit.HOURS.toMillis(1);
+			case H8:
+				return TimeUnit.HOURS.toMillis(8);
+			default:
+				throw new IllegalStateException(String.valueOf(resolution));
+		}
+	}
+
+	private static Graph copyGraph(Graph graph) {
+
+		if (graph.points == null) {
+			return copyGraph(graph, null, null);
+		}
+
+		return copyGraph(graph, graph.points, GraphTimes.of(graph));
+	}
+
+	//the copy shares the times parsed for the points it's given, rather than parse them again
+	private static Graph copyGraph(Graph graph, List<GraphPoint> points, long[] times) {
+
+		Graph result = new Graph();
+
+		result.id = graph.id;
+		result.type = graph.type;
+		result.machine_name = graph.machine_name;
+		result.deployment_name = graph.deployment_name;
+		result.application_name = graph.application_name;
+
+		if (points != null) {
+			result.points = Collections.unmodifiableList(points);
+			GraphTimes.set(result, times);
+		}
+
+		return result;
+	}
+}
@@ -0,0 +1,127 @@
+package com.takipi.integrations.grafana.util;
+
+import java.util.List;
+import java.util.function.Function;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.takipi.api.client.data.metrics.Graph;
+import com.takipi.api.client.data.transaction.TransactionGraph;
+
+/**
+ * The times of a graph's points as epoch millis, parsed once per graph rather than by every
+ * function iterating it. ApiCache indexes the graphs it loads, so functions reading cached
+ * graphs find their times already parsed; graphs built by functions are indexed on first use.
+ *
+ * The array returned for a graph is aligned with its points list - index i holds the time of
+ * points.get(i). An index is tied to the list it was built from and its size, and is rebuilt if
+ * either changes, so points must not be replaced or reordered in place once indexed. Graphs are
+ * weakly held, so an index lives exactly as long as its graph. The returned arrays are shared
+ * between graphs copied from one another, and must not be modified.
+ */
+public class GraphTimes {
+
+	private static final long[] EMPTY_TIMES = new long[0];
+
+	private static final Cache<Object, GraphTimes> graphTimes = CacheBuilder.newBuilder()
+			.weakKeys()
+			.build();
+
+	private final List<?> points;
+	private final int size;
+	private final long[] times;
+
+	private GraphTimes(List<?> points, long[] times) {
+		this.points = points;
+		this.size = points.size();
+		this.times = times;
+	}
+
+	private boolean isValid(List<?> graphPoints) {
+		return (graphPoints == points) && (graphPoints.size() == size);
+	}
+
+	public static long[] of(Graph graph) {
+		return get(graph, graph.points, gp -> gp.time);
+	}
+
+	public static long[] of(TransactionGraph graph) {
+		return get(graph, graph.points, gp -> gp.time);
+	}
+
+	private static <T> long[] get(Object graph, List<T> points, Function<T, String> timeFunction) {
+
+		if ((points == null) || (points.isEmpty())) {
+			return EMPTY_TIMES;
+		}
+
+		GraphTimes result = graphTimes.getIfPresent(graph);
+
+		if ((result != null) && (result.isValid(points))) {
+			return result.times;
+		}
+
+		result = new GraphTimes(points, parse(points, timeFunction));
+
+		graphTimes.put(graph, result);
+
+		return result.times;
+	}
+
+	/**
+	 * Indexes a graph by times already known - those of the graph its points were copied from,
+	 * or of the points it was assembled from - rather than parsing them again.
+	 * 
+	 * @param times - aligned with the graph's points
+	 */
+	public static void set(Graph graph, long[] times) {
+
+		if ((graph.points == null) || (graph.points.size() != times.length)) {
+			throw new IllegalArgumentException("Times not aligned with the points of " + graph.id);
+		}
+
+		graphTimes.put(graph, new GraphTimes(graph.points, times));
+	}
+
+	private static <T> long[] parse(List<T> points, Function<T, String> timeFunction) {
+
+		long[] result = new long[points.size()];
+
+		int index = 0;
+
+		for (T point : points) {
+			result[index++] = TimeUtil.parseEpoch(timeFunction.apply(point));
+		}
+
+		return result;
+	}
+
+	/**
+	 * Parses the times of all the graphs up front - called where graphs enter the process.
+	 */
+	public static void index(List<Graph> graphs) {
+
+		if (graphs == null) {
+			return;
+		}
+
+		for (Graph graph : graphs) {
+			if (graph != null) {
+				of(graph);
+			}
+		}
+	}
+
+	public static void indexTransactions(List<TransactionGraph> graphs) {
+
+		if (graphs == null) {
+			return;
+		}
+
+		for (TransactionGraph graph : graphs) {
+			if (graph != null) {
+				of(graph);
+			}
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package com.takipi.integrations.grafana.util;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Records durations into an HdrHistogram {@link Recorder}, whose writers never block or
+ * contend on a lock, alongside running count / sum / error totals. Percentiles are taken
+ * over a rolling window of recent slots, which are only rotated when the timer is read,
+ * so the recording path stays a couple of atomic operations no matter how often it's scraped.
+ */
+public class LatencyTimer {
+
+	private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.HOURS.toMicros(1);
+	private static final int SIGNIFICANT_DIGITS = 2;
+
+	//percentiles cover the last WINDOW_SLOTS * SLOT_DURATION seconds
+	private static final int WINDOW_SLOTS = 4;
+	private static final long SLOT_DURATION = TimeUnit.SECONDS.toMillis(15);
+
+	public static class Snapshot {
+
+		public final long count;
+		public final long errors;
+		public final double sumSeconds;
+
+		protected final Histogram window;
+
+		protected Snapshot(long count, long errors, double sumSeconds, Histogram window) {
+			this.count = count;
+			this.errors = errors;
+			this.sumSeconds = sumSeconds;
+			this.window = window;
+		}
+
+		/**
+		 * @return the duration at the given percentile (0-100) within the rolling window, in seconds
+		 */
+		public double getPercentile(double percentile) {
+
+			if (window.getTotalCount() == 0) {
+				return 0;
+			}
+
+			return (double)window.getValueAtPercentile(percentile) / TimeUnit.SECONDS.toMicros(1);
+		}
+
+		public long getWindowCount() {
+			return window.getTotalCount();
+		}
+	}
+
+	private final Recorder recorder;
+
+	private final LongAdder count;
+	private final LongAdder errors;
+	private final LongAdder sumMicros;
+
+	private final Deque<Histogram> slots;
+	private long slotStartTime;
+
+	private Histogram intervalHistogram;
+
+	public LatencyTimer() {
+		this.recorder = new Recorder(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+
+		this.count = new LongAdder();
+		this.errors = new LongAdder();
+		this.sumMicros = new LongAdder();
+
+		this.slots = new ArrayDeque<Histogram>(WINDOW_SLOTS);
+		this.slots.addFirst(newHistogram());
+		this.slotStartTime = System.currentTimeMillis();
+	}
+
+	private static Histogram newHistogram() {
+		return new Histogram(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+	}
+
+	/**
+	 * @return a start time to later pass to {@link #record(long)} or {@link #recordError(long)}
+	 */
+	public static long start() {
+		return System.nanoTime();
+	}
+
+	public void record(long startNanos) {
+
+		long micros = TimeUnit.NANOSECONDS.toMicros(Math.max(0, System.nanoTime() - startNanos));
+
+		recorder.recordValue(Math.min(micros, HIGHEST_TRACKABLE_MICROS));
+		count.increment();
+		sumMicros.add(micros);
+	}
+
+	public void recordError(long startNanos) {
+		record(startNanos);
+		errors.increment();
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * Moves the values recorded since the last call into the current slot, rotating slots
+	 * that are older than SLOT_DURATION out of the window. Only readers synchronize here.
+	 */
+	public synchronized Snapshot getSnapshot() {
+
+		intervalHistogram = recorder.getIntervalHistogram(intervalHistogram);
+
+		long elapsedSlots = (System.currentTimeMillis() - slotStartTime) / SLOT_DURATION;
+
+		//a slot is opened for every slot duration that passed since the last read, so that
+		//a timer read after a long pause doesn't report percentiles of stale values
+		for (int i = 0; i < Math.min(elapsedSlots, WINDOW_SLOTS); i++) {
+
+			if (slots.size() >= WINDOW_SLOTS) {
+				slots.removeLast();
+			}
+
+			slots.addFirst(newHistogram());
+		}
+
+		slotStartTime += elapsedSlots * SLOT_DURATION;
+
+		slots.peekFirst().add(intervalHistogram);
+
+		Histogram window = newHistogram();
+
+		for (Histogram slot : slots) {
+			window.add(slot);
+		}
+
+		return new Snapshot(count.sum(), errors.sum(),
+			(double)sumMicros.sum() / TimeUnit.SECONDS.toMicros(1), window);
+	}
+}
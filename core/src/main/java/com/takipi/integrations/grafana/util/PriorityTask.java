@@ -0,0 +1,50 @@
+package com.takipi.integrations.grafana.util;
+
+/**
+ * A task queued with a {@link TaskPriority} - see {@link PriorityTaskQueue} for the order it is
+ * served in. Its submit time is taken from System.nanoTime and only compared with other such times.
+ */
+public class PriorityTask implements Runnable {
+	
+	private final Runnable task;
+	private final TaskPriority priority;
+	private final long submitTime;
+	
+	public PriorityTask(Runnable task, TaskPriority priority) {
+		this(task, priority, System.nanoTime());
+	}
+	
+	PriorityTask(Runnable task, TaskPriority priority, long submitTime) {
+		this.task = task;
+		this.priority = priority;
+		this.submitTime = submitTime;
+	}
+	
+	/**
+	 * A task in the place of another in the order - used to pass a dequeued task on to the next
+	 * queue without losing the time it already waited.
+	 */
+	public PriorityTask(Runnable task, PriorityTask order) {
+		this.task = task;
+		this.priority = order.priority;
+		this.submitTime = order.submitTime;
+	}
+	
+	public TaskPriority getPriority() {
+		return priority;
+	}
+	
+	public long getSubmitTime() {
+		return submitTime;
+	}
+	
+	@Override
+	public void run() {
+		task.run();
+	}
+	
+	@Override
+	public String toString() {
+		return priority + " " + task;
+	}
+}
@@ -0,0 +1,358 @@
+package com.takipi.integrations.grafana.util;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The queue of tasks waiting for a tenant permit or a pool thread. Tasks are kept in a FIFO queue
+ * per {@link TaskPriority} and served by strict priority - a queued task of a higher class always
+ * goes before one of a lower class. Runnables that aren't {@link PriorityTask}s are served ahead
+ * of every class, as they were before priorities were introduced.
+ *
+ * So that a lower class is never starved, the head of a class queue that has waited for longer
+ * than its class's aging delay is promoted ahead of the higher classes - but on no more than one
+ * of every {@link #AGING_INTERVAL} polls, so however large a backlog of aged report or background
+ * tasks grows, metadata and interactive tasks keep the rest of the turns. Waits are measured on
+ * System.nanoTime, so wall clock changes don't reorder the queue.
+ */
+public class PriorityTaskQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+
+	//at most one of every this many polls goes to an aged task of a lower class
+	private static final int AGING_INTERVAL = 4;
+
+	private final ReentrantLock lock;
+	private final Condition notEmpty;
+
+	private final Queue<Runnable> directTasks;
+	private final List<Queue<PriorityTask>> classTasks;
+
+	private int size;
+	private int turns;
+
+	public PriorityTaskQueue() {
+		this.lock = new ReentrantLock();
+		this.notEmpty = lock.newCondition();
+
+		this.directTasks = new ArrayDeque<Runnable>();
+		this.classTasks = new ArrayList<Queue<PriorityTask>>();
+
+		for (int i = 0; i < TaskPriority.values().length; i++) {
+			classTasks.add(new ArrayDeque<PriorityTask>());
+		}
+	}
+
+	@Override
+	public boolean offer(Runnable task) {
+
+		if (task == null) {
+			throw new NullPointerException();
+		}
+
+		lock.lock();
+
+		try {
+
+			if (task instanceof PriorityTask) {
+				PriorityTask priorityTask = (PriorityTask)task;
+				classTasks.get(priorityTask.getPriority().ordinal()).add(priorityTask);
+			} else {
+				directTasks.add(task);
+			}
+
+			size++;
+			notEmpty.signal();
+		} finally {
+			lock.unlock();
+		}
+
+		return true;
+	}
+
+	@Override
+	public void put(Runnable task) {
+		offer(task);
+	}
+
+	@Override
+	public boolean offer(Runnable task, long timeout, TimeUnit unit) {
+		return offer(task);
+	}
+
+	@Override
+	public Runnable poll() {
+
+		lock.lock();
+
+		try {
+			return dequeue();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public Runnable take() throws InterruptedException {
+
+		lock.lockInterruptibly();
+
+		try {
+
+			while (size == 0) {
+				notEmpty.await();
+			}
+
+			return dequeue();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+
+		long nanos = unit.toNanos(timeout);
+
+		lock.lockInterruptibly();
+
+		try {
+
+			while (size == 0) {
+
+				if (nanos <= 0) {
+					return null;
+				}
+
+				nanos = notEmpty.awaitNanos(nanos);
+			}
+
+			return dequeue();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the head of the highest non empty class, without regard to aging
+	 */
+	@Override
+	public Runnable peek() {
+
+		lock.lock();
+
+		try {
+
+			if (!directTasks.isEmpty()) {
+				return directTasks.peek();
+			}
+
+			for (Queue<PriorityTask> queue : classTasks) {
+
+				if (!queue.isEmpty()) {
+					return queue.peek();
+				}
+			}
+
+			return null;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private Runnable dequeue() {
+
+		if (size == 0) {
+			return null;
+		}
+
+		size--;
+
+		if (!directTasks.isEmpty()) {
+			return directTasks.poll();
+		}
+
+		int highest = 0;
+
+		while (classTasks.get(highest).isEmpty()) {
+			highest++;
+		}
+
+		//a turn not taken by an aged task is kept until one is, rather than lost
+		if (turns < AGING_INTERVAL) {
+			turns++;
+		}
+
+		if (turns >= AGING_INTERVAL) {
+
+			Queue<PriorityTask> aged = getAgedQueue(highest);
+
+			if (aged != null) {
+				turns = 0;
+				return aged.poll();
+			}
+		}
+
+		return classTasks.get(highest).poll();
+	}
+
+	/**
+	 * @return the queue of a class below the highest one whose head is the furthest past its
+	 * class's aging delay, or null if none is
+	 */
+	private Queue<PriorityTask> getAgedQueue(int highest) {
+
+		long now = System.nanoTime();
+
+		Queue<PriorityTask> result = null;
+		long resultOverdue = 0;
+
+		for (int i = highest + 1; i < classTasks.size(); i++) {
+
+			PriorityTask head = classTasks.get(i).peek();
+
+			if (head == null) {
+				continue;
+			}
+
+			long overdue = now - head.getSubmitTime() - head.getPriority().getAgingDelay();
+
+			if (overdue > resultOverdue) {
+				result = classTasks.get(i);
+				resultOverdue = overdue;
+			}
+		}
+
+		return result;
+	}
+
+	@Override
+	public boolean remove(Object task) {
+
+		lock.lock();
+
+		try {
+
+			boolean removed;
+
+			if (task instanceof PriorityTask) {
+				removed = classTasks.get(((PriorityTask)task).getPriority().ordinal()).remove(task);
+			} else {
+				removed = directTasks.remove(task);
+			}
+
+			if (removed) {
+				size--;
+			}
+
+			return removed;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int size() {
+
+		lock.lock();
+
+		try {
+			return size;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int remainingCapacity() {
+		return Integer.MAX_VALUE;
+	}
+
+	@Override
+	public int drainTo(Collection<? super Runnable> collection) {
+		return drainTo(collection, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public int drainTo(Collection<? super Runnable> collection, int maxElements) {
+
+		if (collection == this) {
+			throw new IllegalArgumentException();
+		}
+
+		lock.lock();
+
+		try {
+
+			int result = 0;
+
+			while ((result < maxElements) && (size > 0)) {
+				collection.add(dequeue());
+				result++;
+			}
+
+			return result;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return an iterator over a snapshot of the queued tasks, highest class first. Removing
+	 * through it removes the task from the queue.
+	 */
+	@Override
+	public Iterator<Runnable> iterator() {
+
+		List<Runnable> result = new ArrayList<Runnable>();
+
+		lock.lock();
+
+		try {
+
+			result.addAll(directTasks);
+
+			for (Queue<PriorityTask> queue : classTasks) {
+				result.addAll(queue);
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		Iterator<Runnable> snapshot = result.iterator();
+
+		return new Iterator<Runnable>() {
+
+			private Runnable last;
+
+			@Override
+			public boolean hasNext() {
+				return snapshot.hasNext();
+			}
+
+			@Override
+			public Runnable next() {
+				last = snapshot.next();
+				return last;
+			}
+
+			@Override
+			public void remove() {
+
+				if (last == null) {
+					throw new IllegalStateException();
+				}
+
+				PriorityTaskQueue.this.remove(last);
+				last = null;
+			}
+		};
+	}
+}
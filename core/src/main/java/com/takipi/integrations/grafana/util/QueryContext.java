@@ -0,0 +1,174 @@
+package com.takipi.integrations.grafana.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The deadline and cancellation state of a query, carried by the thread processing it and by
+ * every {@link CompletableTask} submitted on its behalf. Each statement of a query gets a child
+ * context, sharing the query's deadline and cancellation but tracking on its own whether some of
+ * its results were dropped.
+ */
+public class QueryContext {
+
+	//how often a thread waiting on tasks of a query without a deadline checks for cancellation
+	private static final long CANCEL_POLL_INTERVAL = TimeUnit.SECONDS.toMillis(1);
+
+	private static final ThreadLocal<QueryContext> currentContext = new ThreadLocal<QueryContext>();
+
+	public static class DeadlineExceededException extends IllegalStateException {
+
+		private static final long serialVersionUID = 4312466571268235170L;
+
+		protected DeadlineExceededException(String message) {
+			super(message);
+		}
+	}
+
+	private final QueryContext parent;
+	private final long deadline;
+
+	private volatile boolean cancelled;
+	private volatile boolean partial;
+	private volatile TaskPriority priority;
+
+	private QueryContext(QueryContext parent, long deadline, TaskPriority priority) {
+		this.parent = parent;
+		this.deadline = deadline;
+		this.priority = priority;
+	}
+
+	/**
+	 * @param timeout - in ms, 0 or less for a query that can only be cancelled
+	 */
+	public static QueryContext create(long timeout) {
+
+		if (timeout > 0) {
+			return new QueryContext(null, System.currentTimeMillis() + timeout, TaskPriority.Interactive);
+		}
+
+		return new QueryContext(null, 0, TaskPriority.Interactive);
+	}
+
+	public QueryContext newChild() {
+		return new QueryContext(this, deadline, priority);
+	}
+
+	/**
+	 * @return the context of the query processed by the calling thread, or null
+	 */
+	public static QueryContext current() {
+		return currentContext.get();
+	}
+
+	public void cancel() {
+		cancelled = true;
+	}
+
+	public boolean isExpired() {
+
+		if (cancelled) {
+			return true;
+		}
+
+		if ((parent != null) && (parent.isExpired())) {
+			return true;
+		}
+
+		return (deadline > 0) && (System.currentTimeMillis() > deadline);
+	}
+
+	/**
+	 * @return the priority the tasks of the query are queued with, inherited by child contexts
+	 */
+	public TaskPriority getPriority() {
+		return priority;
+	}
+
+	public void setPriority(TaskPriority priority) {
+		this.priority = priority;
+	}
+
+	public void markPartial() {
+		partial = true;
+	}
+
+	public boolean isPartial() {
+		return partial;
+	}
+
+	/**
+	 * Throws if the query processed by the calling thread is past its deadline or cancelled.
+	 */
+	public static void checkDeadline() {
+
+		QueryContext context = currentContext.get();
+
+		if ((context != null) && (context.isExpired())) {
+			throw context.newDeadlineException();
+		}
+	}
+
+	public DeadlineExceededException newDeadlineException() {
+
+		if ((deadline > 0) && (System.currentTimeMillis() > deadline)) {
+			return new DeadlineExceededException("Query deadline exceeded");
+		}
+
+		return new DeadlineExceededException("Query cancelled");
+	}
+
+	/**
+	 * Calls the callable with this context as the calling thread's current one.
+	 */
+	public <T> T call(Callable<T> callable) throws Exception {
+
+		QueryContext previous = currentContext.get();
+		currentContext.set(this);
+
+		try {
+			return callable.call();
+		} finally {
+			if (previous != null) {
+				currentContext.set(previous);
+			} else {
+				currentContext.remove();
+			}
+		}
+	}
+
+	/**
+	 * Waits for the future as {@link CompletableFuture#join()} does, but throws a
+	 * {@link DeadlineExceededException} once this context expires.
+	 */
+	public <T> T await(CompletableFuture<T> future) {
+
+		while (true) {
+
+			if (isExpired()) {
+				throw newDeadlineException();
+			}
+
+			long timeout = CANCEL_POLL_INTERVAL;
+
+			if (deadline > 0) {
+				timeout = Math.max(1, Math.min(timeout, deadline - System.currentTimeMillis()));
+			}
+
+			try {
+				return future.get(timeout, TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				continue;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(e);
+			} catch (ExecutionException e) {
+				throw new CompletionException(e.getCause());
+			}
+		}
+	}
+}
@@ -1,37 +1,158 @@
 package com.takipi.integrations.grafana.util;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.text.DecimalFormat;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
+import com.google.gson.JsonIOException;
+import com.google.gson.stream.JsonWriter;
 import com.takipi.integrations.grafana.functions.FunctionParser;
 import com.takipi.integrations.grafana.functions.GrafanaFunction;
 import com.takipi.integrations.grafana.output.QueryResult;
+import com.takipi.integrations.grafana.output.ResultContent;
 import com.takipi.integrations.grafana.servlet.ServletUtil.Auth;
 
 public class QueryUtil {
 	public static final DecimalFormat df = new DecimalFormat("#.00");
 	
+	private static final String RETENTION_POLICIES_RESULT = "{\"results\":[{\"statement_id\":0,\"series\":[{\"columns\":[\"name\",\"duration\",\"shardGroupDuration\",\"replicaN\",\"default\"],\"values\":[[\"autogen\",\"0s\",\"168h0m0s\",1,true]]}]}]}";
+	private static final String DATABASES_RESULT = "{\"results\":[{\"statement_id\":0,\"series\":[{\"name\":\"databases\",\"columns\":[\"name\"],\"values\":[[\"_internal\"],[\"telegraf\"]]}]}]}";
+	
+	private static final String RESULTS_START = "{\"results\":[";
+	private static final String RESULTS_END = "]}";
+	
 	public static String query(Auth auth, String query) {
+		
+		StringWriter writer = new StringWriter();
+		
+		try {
+			query(auth, query, writer);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		
+		return writer.toString();
+	}
+	
+	/**
+	 * Executes the query and serializes its result directly into the writer, so the
+	 * response is never held in memory as a whole
+	 */
+	public static void query(Auth auth, String query, Writer writer) throws IOException {
+		
+		if (writeStaticResult(query, writer)) {
+			return;
+		}
+	
+		QueryResult output = executeQuery(query, auth);
+		
+		writeResult(output, writer);
+	}
+	
+	/**
+	 * Executes the query on the function executor, serializing the result of each statement into
+	 * the writer and flushing it from the thread that completes it, in statement order - the
+	 * calling thread is not held while it's processed. Statements still running when the context
+	 * expires are returned with an error.
+	 * 
+	 * A write failing, as the client went away, cancels the context - so the statements of the
+	 * query still queued are dropped rather than processed for no one.
+	 */
+	public static CompletableFuture<Void> queryAsync(Auth auth, String query, Writer writer,
+		QueryContext queryContext) {
+		
+		try {
+			if (writeStaticResult(query, writer)) {
+				return CompletableFuture.completedFuture(null);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		
+		List<CompletableFuture<ResultContent>> statements = FunctionParser.processStatementsAsync(
+			GrafanaApiClient.getApiClient(auth), query, queryContext);
+		
+		CompletableFuture<Void> result = CompletableFuture.completedFuture(null);
+		
+		for (int i = 0; i < statements.size(); i++) {
+			
+			String prefix = (i == 0) ? RESULTS_START : ",";
+			
+			result = result.thenCombine(statements.get(i), (v, resultContent) -> {
+				writeStatement(prefix, resultContent, writer, queryContext);
+				return null;
+			});
+		}
+		
+		boolean empty = statements.isEmpty();
+		
+		return result.thenRun(() -> {
+			try {
+				writer.write(empty ? RESULTS_START + RESULTS_END : RESULTS_END);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+	}
+	
+	private static void writeStatement(String prefix, ResultContent resultContent, Writer writer,
+		QueryContext queryContext) {
+		
+		try {
+			writer.write(prefix);
+			
+			JsonWriter jsonWriter = new JsonWriter(writer);
+			GrafanaFunction.gson.toJson(resultContent, ResultContent.class, jsonWriter);
+			
+			//pushes the statement to the client, so a client that went away fails the write
+			jsonWriter.flush();
+		} catch (IOException e) {
+			queryContext.cancel();
+			throw new UncheckedIOException(e);
+		} catch (JsonIOException e) {
+			queryContext.cancel();
+			throw new UncheckedIOException(new IOException(e));
+		} catch (Exception e) {
+			queryContext.cancel();
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	private static boolean writeStaticResult(String query, Writer writer) throws IOException {
+		
 		if (query == null) {
-			return "No query provided";
+			writer.write("No query provided");
+			return true;
 		}
 		
 		if (query.startsWith("SHOW RETENTION POLICIES")) {
-			return "{\"results\":[{\"statement_id\":0,\"series\":[{\"columns\":[\"name\",\"duration\",\"shardGroupDuration\",\"replicaN\",\"default\"],\"values\":[[\"autogen\",\"0s\",\"168h0m0s\",1,true]]}]}]}";
+			writer.write(RETENTION_POLICIES_RESULT);
+			return true;
 		} else if (query.startsWith("SHOW DATABASES")) {
-			return"{\"results\":[{\"statement_id\":0,\"series\":[{\"name\":\"databases\",\"columns\":[\"name\"],\"values\":[[\"_internal\"],[\"telegraf\"]]}]}]}";
+			writer.write(DATABASES_RESULT);
+			return true;
 		}
+		
+		return false;
+	}
 	
-		Object output = executeQuery(query, auth);
-	
-		String json = null;
+	private static void writeResult(QueryResult output, Writer writer) throws IOException {
+		
+		JsonWriter jsonWriter = new JsonWriter(writer);
 		
 		try {
-			json =GrafanaFunction.gson.toJson(output);
+			GrafanaFunction.gson.toJson(output, QueryResult.class, jsonWriter);
+		} catch (JsonIOException e) {
+			throw new IOException(e);
 		} catch (Exception e) {
 			throw new IllegalStateException(e);
 		}
 		
-		return json;
+		jsonWriter.flush();
 	}
 	
 	private static QueryResult executeQuery(String query, Auth auth) {
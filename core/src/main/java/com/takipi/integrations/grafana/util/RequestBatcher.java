@@ -0,0 +1,79 @@
+package com.takipi.integrations.grafana.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Groups the keys of a fan-out - such as the apps a report would otherwise query one by one -
+ * into batches of up to a given size, each loaded by a single request that covers all of its
+ * keys, and splits the result of each batch back into the value of each key.
+ *
+ * The batches of a fan-out can be loaded concurrently, as tasks of the function's pool.
+ */
+public class RequestBatcher<K, V> {
+
+	public interface BatchLoader<K, V> {
+
+		/**
+		 * @return the value of each of the keys, loaded by a single request. Keys missing from the
+		 * result are given no value.
+		 */
+		Map<K, V> load(List<K> keys);
+	}
+
+	private final int batchSize;
+	private final BatchLoader<K, V> loader;
+
+	public RequestBatcher(int batchSize, BatchLoader<K, V> loader) {
+
+		if (batchSize < 1) {
+			throw new IllegalArgumentException(String.valueOf(batchSize));
+		}
+
+		this.batchSize = batchSize;
+		this.loader = loader;
+	}
+
+	/**
+	 * @return the keys in batches of up to the batch size, in their order
+	 */
+	public List<List<K>> getBatches(List<K> keys) {
+
+		List<List<K>> result = new ArrayList<List<K>>();
+
+		for (int startIndex = 0; startIndex < keys.size(); startIndex += batchSize) {
+
+			int endIndex = Math.min(keys.size(), startIndex + batchSize);
+			result.add(Collections.unmodifiableList(new ArrayList<K>(keys.subList(startIndex, endIndex))));
+		}
+
+		return result;
+	}
+
+	/**
+	 * @return the values of the keys of a batch, in the batch's order, loaded by a single request
+	 */
+	public Map<K, V> load(List<K> batch) {
+
+		Map<K, V> values = loader.load(batch);
+		Map<K, V> result = new LinkedHashMap<K, V>();
+
+		if (values == null) {
+			return result;
+		}
+
+		for (K key : batch) {
+
+			V value = values.get(key);
+
+			if (value != null) {
+				result.put(key, value);
+			}
+		}
+
+		return result;
+	}
+}
@@ -0,0 +1,151 @@
+package com.takipi.integrations.grafana.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single-flight load coalescing - the first caller to request a key performs the load,
+ * while any caller requesting an equal key before that load completes is attached to the
+ * pending future instead of issuing its own call. Entries only live while the load is
+ * in flight; caching of the results is left to the caller.
+ */
+public class RequestCoalescer<K, V> {
+
+	public static class InFlightLoad<K, V> {
+
+		public final K key;
+		public final long startTime;
+
+		protected final CompletableFuture<V> future;
+		protected final AtomicInteger waiters;
+
+		protected InFlightLoad(K key) {
+			this.key = key;
+			this.startTime = System.currentTimeMillis();
+			this.future = new CompletableFuture<V>();
+			this.waiters = new AtomicInteger();
+		}
+
+		public int getWaiters() {
+			return waiters.get();
+		}
+	}
+
+	private final ConcurrentMap<K, InFlightLoad<K, V>> inFlightLoads;
+
+	private final AtomicLong loads;
+	private final AtomicLong coalesced;
+
+	public RequestCoalescer() {
+		this.inFlightLoads = new ConcurrentHashMap<K, InFlightLoad<K, V>>();
+		this.loads = new AtomicLong();
+		this.coalesced = new AtomicLong();
+	}
+
+	public V load(K key, Callable<V> loader) {
+
+		InFlightLoad<K, V> inFlightLoad = new InFlightLoad<K, V>(key);
+		InFlightLoad<K, V> existing = inFlightLoads.putIfAbsent(key, inFlightLoad);
+
+		if (existing != null) {
+
+			coalesced.incrementAndGet();
+			existing.waiters.incrementAndGet();
+
+			return join(existing);
+		}
+
+		loads.incrementAndGet();
+
+		try {
+			V result = loader.call();
+			inFlightLoad.future.complete(result);
+
+			return result;
+		} catch (RuntimeException e) {
+			inFlightLoad.future.completeExceptionally(e);
+			throw e;
+		} catch (Throwable e) {
+			inFlightLoad.future.completeExceptionally(e);
+			throw new IllegalStateException(e);
+		} finally {
+			inFlightLoads.remove(key, inFlightLoad);
+		}
+	}
+
+	/**
+	 * Attaches to the load of an equal key if one is in flight, without waiting on it.
+	 *
+	 * @return the pending load's future, or null if no load for the key is in flight
+	 */
+	public CompletableFuture<V> attach(K key) {
+
+		InFlightLoad<K, V> existing = inFlightLoads.get(key);
+
+		if (existing == null) {
+			return null;
+		}
+
+		coalesced.incrementAndGet();
+		existing.waiters.incrementAndGet();
+
+		return existing.future;
+	}
+
+	private V join(InFlightLoad<K, V> inFlightLoad) {
+
+		try {
+			return inFlightLoad.future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted waiting on " + inFlightLoad.key, e);
+		} catch (ExecutionException e) {
+
+			Throwable cause = e.getCause();
+
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			}
+
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	public Collection<InFlightLoad<K, V>> getInFlightLoads() {
+		return new ArrayList<InFlightLoad<K, V>>(inFlightLoads.values());
+	}
+
+	public int getInFlightCount() {
+		return inFlightLoads.size();
+	}
+
+	public long getLoadCount() {
+		return loads.get();
+	}
+
+	public long getCoalescedCount() {
+		return coalesced.get();
+	}
+
+	/**
+	 * @return the percentage of requests that were served by attaching to a pending load
+	 */
+	public double getCoalescingRate() {
+
+		long coalescedCount = coalesced.get();
+		long total = loads.get() + coalescedCount;
+
+		if (total == 0) {
+			return 0;
+		}
+
+		return 100.0 * coalescedCount / total;
+	}
+}
@@ -0,0 +1,78 @@
+package com.takipi.integrations.grafana.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded log of the most recent items added to it, for any number of concurrent writers.
+ * Adding claims the next slot with a single atomic increment and overwrites its oldest item -
+ * writers never lock or wait on each other or on readers. Readers take a snapshot, which may
+ * miss items added while it is taken.
+ */
+public class RingBuffer<T> {
+	
+	private final AtomicReferenceArray<T> slots;
+	private final int mask;
+	private final AtomicLong cursor;
+	
+	/**
+	 * @param capacity - rounded up to a power of two
+	 */
+	public RingBuffer(int capacity) {
+		
+		if (capacity < 1) {
+			throw new IllegalArgumentException(String.valueOf(capacity));
+		}
+		
+		int size = Integer.highestOneBit(capacity);
+		
+		if (size < capacity) {
+			size <<= 1;
+		}
+		
+		this.slots = new AtomicReferenceArray<T>(size);
+		this.mask = size - 1;
+		this.cursor = new AtomicLong();
+	}
+	
+	public void add(T item) {
+		
+		long index = cursor.getAndIncrement();
+		slots.set((int)(index & mask), item);
+	}
+	
+	public int size() {
+		return (int)Math.min(cursor.get(), slots.length());
+	}
+	
+	/**
+	 * @return the items in the buffer, oldest first
+	 */
+	public List<T> snapshot() {
+		
+		long end = cursor.get();
+		long start = Math.max(0, end - slots.length());
+		
+		List<T> result = new ArrayList<T>((int)(end - start));
+		
+		//a slot overwritten while the snapshot is taken may be read twice - once at its old index
+		//and once at its new one
+		Set<T> seen = Collections.newSetFromMap(new IdentityHashMap<T, Boolean>());
+		
+		for (long index = start; index < end; index++) {
+			
+			T item = slots.get((int)(index & mask));
+			
+			if ((item != null) && (seen.add(item))) {
+				result.add(item);
+			}
+		}
+		
+		return result;
+	}
+}
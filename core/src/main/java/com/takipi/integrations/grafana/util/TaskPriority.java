@@ -0,0 +1,36 @@
+package com.takipi.integrations.grafana.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The scheduling class of a task queued for a pool thread or tenant permit. Classes are served
+ * in strict order, so a metadata lookup is served ahead of any queued panel and report slices,
+ * while a task of a lower class that has waited for longer than its class's aging delay is
+ * promoted on a capped share of the turns - see {@link PriorityTaskQueue} - and is never starved.
+ */
+public enum TaskPriority {
+	
+	//template variable and metadata lookups - views, apps, deployments etc.
+	Metadata(0),
+	
+	Interactive(TimeUnit.SECONDS.toNanos(1)),
+	
+	//reports fanning out to many graph and regression slices
+	Report(TimeUnit.SECONDS.toNanos(5)),
+	
+	//cache reloads nobody waits on
+	Background(TimeUnit.SECONDS.toNanos(30));
+	
+	private final long agingDelay;
+	
+	private TaskPriority(long agingDelay) {
+		this.agingDelay = agingDelay;
+	}
+	
+	/**
+	 * @return the nanoseconds a queued task of the class waits before it may be promoted
+	 */
+	public long getAgingDelay() {
+		return agingDelay;
+	}
+}
@@ -0,0 +1,141 @@
+package com.takipi.integrations.grafana.util;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A tenant's view of a shared executor. Tasks are passed on to the shared executor only while
+ * the tenant has fewer tasks running there than its {@link AdaptiveLimit} allows, the rest wait
+ * in a per tenant queue, so one tenant's burst can't occupy every shared thread. No thread is
+ * owned by the tenant executor, and dropping it never strands queued tasks - they are drained
+ * by the completions of its running ones.
+ * 
+ * Queued tasks are passed on in {@link TaskPriority} order, and keep the time they waited while
+ * waiting for a thread of the shared executor, if it queues them in a {@link PriorityTaskQueue}.
+ */
+public class TenantExecutor implements Executor {
+
+	private final Executor sharedExecutor;
+	private final AdaptiveLimit limit;
+
+	private final PriorityTaskQueue pendingTasks;
+	private final AtomicInteger pendingCount;
+	private final AtomicInteger runningCount;
+
+	private volatile long lastActiveTime;
+
+	public TenantExecutor(Executor sharedExecutor, AdaptiveLimit limit) {
+		this.sharedExecutor = sharedExecutor;
+		this.limit = limit;
+
+		this.pendingTasks = new PriorityTaskQueue();
+		this.pendingCount = new AtomicInteger();
+		this.runningCount = new AtomicInteger();
+		this.lastActiveTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Queues the task with the priority of the query it was submitted for - see {@link #getPriority}.
+	 */
+	@Override
+	public void execute(Runnable task) {
+		execute(task, getPriority(task));
+	}
+
+	public void execute(Runnable task, TaskPriority priority) {
+
+		//set ahead of the counts, so an executor checked for idleness while a task is submitted isn't idle
+		lastActiveTime = System.currentTimeMillis();
+
+		pendingTasks.add(new PriorityTask(task, priority));
+		pendingCount.incrementAndGet();
+
+		dispatch();
+	}
+
+	//called after every submission and completion - each call re-reads both the running count
+	//and the queue, so a task queued while the last running task completes is never left behind
+	private void dispatch() {
+
+		while (true) {
+
+			int running = runningCount.get();
+
+			if ((running >= limit.get()) || (pendingTasks.isEmpty())) {
+				return;
+			}
+
+			if (!runningCount.compareAndSet(running, running + 1)) {
+				continue;
+			}
+
+			//only PriorityTasks are queued
+			PriorityTask task = (PriorityTask)pendingTasks.poll();
+
+			if (task == null) {
+				runningCount.decrementAndGet();
+				continue;
+			}
+
+			pendingCount.decrementAndGet();
+
+			try {
+				sharedExecutor.execute(new PriorityTask(() -> run(task), task));
+			} catch (RuntimeException e) {
+				runningCount.decrementAndGet();
+				throw e;
+			}
+		}
+	}
+
+	private void run(Runnable task) {
+
+		try {
+			task.run();
+		} finally {
+			lastActiveTime = System.currentTimeMillis();
+			runningCount.decrementAndGet();
+			dispatch();
+		}
+	}
+
+	/**
+	 * @return the priority of the task's query context, or of the submitting thread's one 
+	 */
+	private static TaskPriority getPriority(Runnable task) {
+
+		QueryContext context;
+
+		if (task instanceof CompletableTask) {
+			context = ((CompletableTask<?>)task).getContext();
+		} else {
+			context = QueryContext.current();
+		}
+
+		if (context == null) {
+			return TaskPriority.Interactive;
+		}
+
+		return context.getPriority();
+	}
+
+	public AdaptiveLimit getLimit() {
+		return limit;
+	}
+
+	public int getRunningCount() {
+		return runningCount.get();
+	}
+
+	public int getPendingCount() {
+		return pendingCount.get();
+	}
+
+	/**
+	 * @return whether the executor has no running or queued tasks, and had none for the last idleTime ms
+	 */
+	public boolean isIdle(long idleTime) {
+		return (runningCount.get() == 0) && (pendingCount.get() == 0)
+			&& (System.currentTimeMillis() - lastActiveTime >= idleTime);
+	}
+}
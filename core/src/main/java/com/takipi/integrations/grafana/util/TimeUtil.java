@@ -29,6 +29,12 @@ public class TimeUtil {
 	public static final String DEFAULT_TIME_RANGE_STR = "1d";
 	
 	private static final DateTimeFormatter fmt = ISODateTimeFormat.dateTime().withZoneUTC();
+	private static final DateTimeFormatter parser = ISODateTimeFormat.dateTimeParser().withZoneUTC();
+	
+	//2018-11-23T10:00:00.000Z and 2018-11-23T10:00:00.000+02:00
+	private static final int ISO_UTC_LENGTH = 24;
+	private static final int ISO_OFFSET_LENGTH = 29;
+	private static final long SECONDS_PER_DAY = TimeUnit.DAYS.toSeconds(1);
 	private static final PrettyTime prettyTime = new PrettyTime();
 
 	public enum Interval {
@@ -127,7 +133,114 @@ public class TimeUtil {
 	}
 	
 	public static long getLongTime(String value) {
-		return fmt.parseDateTime(value).getMillis();
+		return parseEpoch(value);
+	}
+	
+	/**
+	 * Parses the ISO times of graph points without allocating - the yyyy-MM-ddTHH:mm:ss.SSS form
+	 * followed by a Z or a +HH:mm offset the API returns them in is read directly, anything else
+	 * goes through the lenient Joda ISO parser.
+	 */
+	public static long parseEpoch(String value) {
+		
+		int length = value.length();
+		
+		if (((length != ISO_UTC_LENGTH) && (length != ISO_OFFSET_LENGTH))
+		|| (value.charAt(4) != '-') || (value.charAt(7) != '-') || (value.charAt(10) != 'T') 
+		|| (value.charAt(13) != ':') || (value.charAt(16) != ':') || (value.charAt(19) != '.')) {
+			return parser.parseMillis(value);
+		}
+		
+		int year = parseDigits(value, 0, 4);
+		int month = parseDigits(value, 5, 7);
+		int day = parseDigits(value, 8, 10);
+		int hour = parseDigits(value, 11, 13);
+		int minute = parseDigits(value, 14, 16);
+		int second = parseDigits(value, 17, 19);
+		int millis = parseDigits(value, 20, 23);
+		
+		int offset = parseOffset(value);
+		
+		if ((year < 0) || (month < 1) || (month > 12) || (day < 1) || (day > getMonthLength(year, month))
+		|| (hour < 0) || (hour > 23) || (minute < 0) || (minute > 59) || (second < 0) || (second > 59)
+		|| (millis < 0) || (offset == Integer.MIN_VALUE)) {
+			return parser.parseMillis(value);
+		}
+		
+		long seconds = getEpochDay(year, month, day) * SECONDS_PER_DAY
+			+ hour * 3600 + minute * 60 + second - offset;
+		
+		return seconds * 1000 + millis;
+	}
+	
+	//-1 if any of the chars isn't a digit
+	private static int parseDigits(String value, int start, int end) {
+		
+		int result = 0;
+		
+		for (int i = start; i < end; i++) {
+			
+			int digit = value.charAt(i) - '0';
+			
+			if ((digit < 0) || (digit > 9)) {
+				return -1;
+			}
+			
+			result = result * 10 + digit;
+		}
+		
+		return result;
+	}
+	
+	//in seconds, Integer.MIN_VALUE for an offset the fast path doesn't handle
+	private static int parseOffset(String value) {
+		
+		char sign = value.charAt(ISO_UTC_LENGTH - 1);
+		
+		if (value.length() == ISO_UTC_LENGTH) {
+			return (sign == 'Z') ? 0 : Integer.MIN_VALUE;
+		}
+		
+		if (((sign != '+') && (sign != '-')) || (value.charAt(ISO_UTC_LENGTH + 2) != ':')) {
+			return Integer.MIN_VALUE;
+		}
+		
+		int hours = parseDigits(value, ISO_UTC_LENGTH, ISO_UTC_LENGTH + 2);
+		int minutes = parseDigits(value, ISO_UTC_LENGTH + 3, ISO_OFFSET_LENGTH);
+		
+		if ((hours < 0) || (hours > 23) || (minutes < 0) || (minutes > 59)) {
+			return Integer.MIN_VALUE;
+		}
+		
+		int result = hours * 3600 + minutes * 60;
+		
+		return (sign == '-') ? -result : result;
+	}
+	
+	private static int getMonthLength(int year, int month) {
+		
+		if (month == 2) {
+			boolean leap = ((year % 4 == 0) && (year % 100 != 0)) || (year % 400 == 0);
+			return leap ? 29 : 28;
+		}
+		
+		if ((month == 4) || (month == 6) || (month == 9) || (month == 11)) {
+			return 30;
+		}
+		
+		return 31;
+	}
+	
+	//days since 1970-01-01 of a proleptic gregorian date, for non negative years
+	private static long getEpochDay(int year, int month, int day) {
+		
+		int y = (month <= 2) ? year - 1 : year;
+		int era = y / 400;
+		int yearOfEra = y - era * 400;
+		int dayOfYear = (153 * (month + ((month > 2) ? -3 : 9)) + 2) / 5 + day - 1;
+		int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		
+		return era * 146097L + dayOfEra - 719468;
 	}
 	
 	public static long getEpoch(String value) {
@@ -145,22 +258,24 @@ public class TimeUtil {
 			return null;
 		}
 		
-		return fmt.parseDateTime(value);
+		return new DateTime(parseEpoch(value), DateTimeZone.UTC);
 	}
 
 	public static int getStartDateTimeIndex(List<Pair<DateTime, DateTime>> intervals, String value) {
+		return getStartDateTimeIndex(intervals, parseEpoch(value));
+	}
+	
+	public static int getStartDateTimeIndex(List<Pair<DateTime, DateTime>> intervals, long value) {
 		
-		DateTime dateTime = TimeUtil.getDateTime(value);
-
 		for (int i = 0; i < intervals.size(); i++) {
 			
 			Pair<DateTime, DateTime> interval = intervals.get(i);
 			
-			if ((i == intervals.size() -1) && (dateTime.isAfter(interval.getSecond()))) {
+			if ((i == intervals.size() -1) && (value > interval.getSecond().getMillis())) {
 				return i;
 			}
 			
-			if ((dateTime.isAfter(interval.getFirst())) && (dateTime.isBefore(interval.getSecond()))) {
+			if ((value > interval.getFirst().getMillis()) && (value < interval.getSecond().getMillis())) {
 				return i;
 			}
 		}
@@ -0,0 +1,72 @@
+package com.takipi.integrations.grafana.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket refilled at a fixed rate up to its burst size. Callers reserve a token ahead of
+ * time - the bucket may go into debt - and wait out the returned delay, so that a burst of
+ * requests is spread over time rather than rejected, up to the wait the caller is willing to take.
+ */
+public class TokenBucket {
+	
+	private final double tokensPerMilli;
+	private final double burst;
+	
+	private double tokens;
+	private long lastRefillTime;
+	
+	public TokenBucket(double tokensPerSecond, int burst) {
+		
+		if ((tokensPerSecond <= 0) || (burst < 1)) {
+			throw new IllegalArgumentException(tokensPerSecond + " - " + burst);
+		}
+		
+		this.tokensPerMilli = tokensPerSecond / TimeUnit.SECONDS.toMillis(1);
+		this.burst = burst;
+		
+		this.tokens = burst;
+		this.lastRefillTime = System.currentTimeMillis();
+	}
+	
+	/**
+	 * @param maxWait - in ms
+	 * @return the time in ms the caller must wait before using the token it was given, or -1 if
+	 * that would be longer than maxWait, in which case no token is taken
+	 */
+	public synchronized long reserve(long maxWait) {
+		
+		refill();
+		
+		tokens -= 1;
+		
+		if (tokens >= 0) {
+			return 0;
+		}
+		
+		long wait = (long)Math.ceil(-tokens / tokensPerMilli);
+		
+		if (wait > maxWait) {
+			tokens += 1;
+			return -1;
+		}
+		
+		return wait;
+	}
+	
+	public synchronized double getAvailable() {
+		
+		refill();
+		
+		return tokens;
+	}
+	
+	private void refill() {
+		
+		long now = System.currentTimeMillis();
+		
+		if (now > lastRefillTime) {
+			tokens = Math.min(burst, tokens + (now - lastRefillTime) * tokensPerMilli);
+			lastRefillTime = now;
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package com.takipi.integrations.grafana.output;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.takipi.integrations.grafana.input.FunctionInput.TimeFormat;
+import com.takipi.integrations.grafana.util.TimeUtil;
+
+public class TimeSeriesValuesTest {
+	
+	private static final Gson gson = new GsonBuilder()
+		.registerTypeAdapterFactory(new TimeSeriesValues.JsonAdapterFactory()).create();
+	
+	private static final Gson listGson = new Gson();
+	
+	private static class Values {
+		
+		private final List<List<Object>> values;
+		
+		protected Values(List<List<Object>> values) {
+			this.values = values;
+		}
+	}
+	
+	private static void assertSameJson(TimeSeriesValues values, List<List<Object>> rows) {
+		assertEquals(listGson.toJson(new Values(rows)), gson.toJson(new Values(values)));
+	}
+	
+	private static Object getTimeValue(TimeFormat timeFormat, long time) {
+		
+		if (timeFormat == TimeFormat.EPOCH) {
+			return Long.valueOf(time);
+		}
+		
+		return TimeUtil.getDateTimeFromEpoch(time);
+	}
+	
+	@Test
+	public void testLongsThenDoubles() {
+		
+		for (TimeFormat timeFormat : new TimeFormat[] { TimeFormat.EPOCH, TimeFormat.ISO_UTC }) {
+			
+			TimeSeriesValues values = new TimeSeriesValues(timeFormat, 1);
+			List<List<Object>> rows = new ArrayList<List<Object>>();
+			
+			long time = 1546300800000L;
+			
+			for (int i = 0; i < 3; i++) {
+				values.add(time + i, (long)5);
+				rows.add(Arrays.asList(getTimeValue(timeFormat, time + i), Long.valueOf(5)));
+			}
+			
+			values.add(time + 3, 5.0);
+			rows.add(Arrays.asList(getTimeValue(timeFormat, time + 3), Double.valueOf(5.0)));
+			
+			values.add(time + 4, 7);
+			rows.add(Arrays.asList(getTimeValue(timeFormat, time + 4), Long.valueOf(7)));
+			
+			values.add(time + 5, 0.25);
+			rows.add(Arrays.asList(getTimeValue(timeFormat, time + 5), Double.valueOf(0.25)));
+			
+			assertSameJson(values, rows);
+			assertEquals(rows, values);
+			assertTrue(gson.toJson(values).contains(",5]"));
+		}
+	}
+	
+	@Test
+	public void testRandomRows() {
+		
+		Random random = new Random(8);
+		
+		for (int n = 0; n < 100; n++) {
+			
+			TimeSeriesValues values = new TimeSeriesValues(TimeFormat.EPOCH);
+			List<List<Object>> rows = new ArrayList<List<Object>>();
+			
+			int size = random.nextInt(100);
+			
+			for (int i = 0; i < size; i++) {
+				
+				long time = Math.abs(random.nextLong() % 2000000000000L);
+				List<Object> row;
+				
+				if (random.nextBoolean()) {
+					row = Arrays.asList((Object)Long.valueOf(time), Long.valueOf(random.nextInt()));
+				} else if (random.nextBoolean()) {
+					row = Arrays.asList((Object)Long.valueOf(time), Double.valueOf(random.nextInt(10)));
+				} else {
+					row = Arrays.asList((Object)Long.valueOf(time), Double.valueOf(random.nextDouble()));
+				}
+				
+				values.add(row);
+				rows.add(row);
+			}
+			
+			assertSameJson(values, rows);
+			assertEquals(rows, values);
+		}
+	}
+	
+	@Test
+	public void testNonColumnarRows() {
+		
+		TimeSeriesValues values = new TimeSeriesValues(TimeFormat.EPOCH);
+		List<List<Object>> rows = new ArrayList<List<Object>>();
+		
+		values.add(1L, 2L);
+		rows.add(Arrays.asList((Object)Long.valueOf(1), Long.valueOf(2)));
+		
+		List<Object> row = Arrays.asList((Object)Long.valueOf(3), "label");
+		
+		values.add(row);
+		rows.add(row);
+		
+		values.add(4L, 0.5);
+		rows.add(Arrays.asList((Object)Long.valueOf(4), Double.valueOf(0.5)));
+		
+		assertSameJson(values, rows);
+		assertEquals(rows, values);
+	}
+	
+	@Test
+	public void testRead() {
+		
+		TimeSeriesValues values = new TimeSeriesValues(TimeFormat.EPOCH);
+		
+		values.add(1L, 2L);
+		values.add(3L, 4.5);
+		
+		String json = gson.toJson(values);
+		TimeSeriesValues result = gson.fromJson(json, TimeSeriesValues.class);
+		
+		//as read into the declared List<List<Object>> of Series.values
+		assertEquals(listGson.fromJson(json, List.class), result);
+	}
+}
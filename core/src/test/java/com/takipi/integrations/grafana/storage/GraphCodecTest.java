@@ -0,0 +1,223 @@
+package com.takipi.integrations.grafana.storage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.takipi.api.client.data.event.Stats;
+import com.takipi.api.client.data.metrics.Graph;
+import com.takipi.api.client.data.metrics.Graph.GraphPoint;
+import com.takipi.api.client.data.metrics.Graph.GraphPointContributor;
+import com.takipi.api.client.result.metrics.GraphResult;
+import com.takipi.integrations.grafana.util.TimeUtil;
+
+public class GraphCodecTest {
+	
+	private static final long START = 1546300800000L;
+	
+	private static Stats newStats(long hits, long invocations) {
+		
+		Stats result = new Stats();
+		
+		result.hits = hits;
+		result.invocations = invocations;
+		
+		return result;
+	}
+	
+	private static GraphPoint newPoint(String time, Stats stats, GraphPointContributor... contributors) {
+		
+		GraphPoint result = new GraphPoint();
+		
+		result.time = time;
+		result.stats = stats;
+		
+		if (contributors != null) {
+			result.contributors = new ArrayList<GraphPointContributor>(Arrays.asList(contributors));
+		}
+		
+		return result;
+	}
+	
+	private static GraphPointContributor newContributor(String id, long hits, long invocations) {
+		
+		GraphPointContributor result = new GraphPointContributor();
+		
+		result.id = id;
+		result.stats = newStats(hits, invocations);
+		
+		return result;
+	}
+	
+	private static GraphResult roundTrip(GraphResult graphResult) {
+		return GraphCodec.decode(GraphCodec.decompress(GraphCodec.compress(GraphCodec.encode(graphResult))));
+	}
+	
+	private static void assertGraphEquals(Graph expected, Graph actual) {
+		
+		assertEquals(expected.id, actual.id);
+		assertEquals(expected.type, actual.type);
+		assertEquals(expected.machine_name, actual.machine_name);
+		assertEquals(expected.deployment_name, actual.deployment_name);
+		assertEquals(expected.application_name, actual.application_name);
+		
+		if (expected.points == null) {
+			assertNull(actual.points);
+			return;
+		}
+		
+		assertEquals(expected.points.size(), actual.points.size());
+		
+		for (int i = 0; i < expected.points.size(); i++) {
+			
+			GraphPoint expectedPoint = expected.points.get(i);
+			GraphPoint actualPoint = actual.points.get(i);
+			
+			assertEquals(expectedPoint.time, actualPoint.time);
+			
+			long hits = (expectedPoint.stats != null) ? expectedPoint.stats.hits : 0;
+			long invocations = (expectedPoint.stats != null) ? expectedPoint.stats.invocations : 0;
+			
+			assertEquals(hits, actualPoint.stats.hits);
+			assertEquals(invocations, actualPoint.stats.invocations);
+			
+			if (expectedPoint.contributors == null) {
+				assertNull(actualPoint.contributors);
+				continue;
+			}
+			
+			List<GraphPointContributor> contributors = new ArrayList<GraphPointContributor>();
+			
+			for (GraphPointContributor gpc : expectedPoint.contributors) {
+				
+				if (gpc != null) {
+					contributors.add(gpc);
+				}
+			}
+			
+			assertEquals(contributors.size(), actualPoint.contributors.size());
+			
+			for (int j = 0; j < contributors.size(); j++) {
+				assertEquals(contributors.get(j).id, actualPoint.contributors.get(j).id);
+				assertEquals(contributors.get(j).stats.hits, actualPoint.contributors.get(j).stats.hits);
+				assertEquals(contributors.get(j).stats.invocations, actualPoint.contributors.get(j).stats.invocations);
+			}
+		}
+	}
+	
+	@Test
+	public void testTimesKeptAsReturned() {
+		
+		Graph graph = new Graph();
+		
+		graph.id = "graph";
+		graph.machine_name = "server";
+		graph.points = new ArrayList<GraphPoint>();
+		
+		graph.points.add(newPoint("2019-01-01T00:00:00.000Z", newStats(1, 10)));
+		graph.points.add(newPoint("2019-01-01T00:01:00.000+00:00", newStats(2, 20)));
+		graph.points.add(newPoint("2019-01-01T02:02:00.000+02:00", null));
+		graph.points.add(newPoint(null, newStats(3, 30)));
+		graph.points.add(newPoint("2019-01-01T00:04:00Z", newStats(-1, 0)));
+		graph.points.add(newPoint("2019-01-01T00:04:00Z", newStats(0, Long.MAX_VALUE)));
+		
+		GraphResult graphResult = new GraphResult();
+		graphResult.graphs = Arrays.asList(graph);
+		
+		GraphResult result = roundTrip(graphResult);
+		
+		assertEquals(1, result.graphs.size());
+		assertGraphEquals(graph, result.graphs.get(0));
+	}
+	
+	@Test
+	public void testContributors() {
+		
+		Graph graph = new Graph();
+		graph.points = new ArrayList<GraphPoint>();
+		
+		graph.points.add(newPoint(TimeUtil.getDateTimeFromEpoch(START), newStats(3, 30), 
+			newContributor("1", 1, 10), null, newContributor("2", 2, 20)));
+		graph.points.add(newPoint(TimeUtil.getDateTimeFromEpoch(START + 60000), newStats(0, 0), 
+			(GraphPointContributor[])null));
+		graph.points.add(newPoint(TimeUtil.getDateTimeFromEpoch(START + 120000), newStats(4, 5), 
+			newContributor("2", 4, 5)));
+		
+		Graph empty = new Graph();
+		empty.id = "empty";
+		
+		GraphResult graphResult = new GraphResult();
+		graphResult.graphs = Arrays.asList(graph, empty);
+		
+		GraphResult result = roundTrip(graphResult);
+		
+		assertEquals(2, result.graphs.size());
+		assertGraphEquals(graph, result.graphs.get(0));
+		assertGraphEquals(empty, result.graphs.get(1));
+	}
+	
+	@Test
+	public void testRandomGraphs() {
+		
+		Random random = new Random(6);
+		
+		for (int n = 0; n < 50; n++) {
+			
+			Graph graph = new Graph();
+			graph.id = String.valueOf(n);
+			graph.points = new ArrayList<GraphPoint>();
+			
+			long time = START + random.nextInt(1000000) * 1000L;
+			int size = random.nextInt(200);
+			
+			for (int i = 0; i < size; i++) {
+				
+				time += 60000L * (1 + random.nextInt(60));
+				
+				GraphPointContributor[] contributors = new GraphPointContributor[random.nextInt(4)];
+				
+				for (int j = 0; j < contributors.length; j++) {
+					contributors[j] = newContributor(String.valueOf(random.nextInt(20)), 
+						random.nextInt(100), random.nextInt(1000));
+				}
+				
+				graph.points.add(newPoint(TimeUtil.getDateTimeFromEpoch(time), 
+					newStats(random.nextInt(100), random.nextInt(1000)), contributors));
+			}
+			
+			GraphResult graphResult = new GraphResult();
+			graphResult.graphs = Arrays.asList(graph);
+			
+			assertGraphEquals(graph, roundTrip(graphResult).graphs.get(0));
+		}
+	}
+	
+	@Test
+	public void testNoGraphs() {
+		assertNull(roundTrip(new GraphResult()).graphs);
+	}
+	
+	@Test
+	public void testCompression() {
+		
+		byte[] data = new byte[100000];
+		
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte)(i % 7);
+		}
+		
+		assertArrayEquals(data, GraphCodec.decompress(GraphCodec.compress(data)));
+	}
+	
+	@Test(expected = IllegalStateException.class)
+	public void testUnsupportedVersion() {
+		GraphCodec.decode(new byte[] { 9, 0 });
+	}
+}
@@ -0,0 +1,76 @@
+package com.takipi.integrations.grafana.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class CacheKeyTest {
+	
+	@Test
+	public void testEqualParts() {
+		
+		CacheKey first = CacheKey.newBuilder().add("s1").add(10).add(true).add(20L).build();
+		CacheKey second = CacheKey.newBuilder().add("s1").add(10).add(true).add(20L).build();
+		
+		assertEquals(first, second);
+		assertEquals(first.hashCode(), second.hashCode());
+	}
+	
+	@Test
+	public void testPartOrderMatters() {
+		
+		CacheKey first = CacheKey.newBuilder().add("a").add("b").build();
+		CacheKey second = CacheKey.newBuilder().add("b").add("a").build();
+		
+		assertNotEquals(first, second);
+	}
+	
+	@Test
+	public void testSortedPartsIgnoreOrder() {
+		
+		CacheKey first = CacheKey.newBuilder().add("s1").addSorted(Arrays.asList("app2", "app1", "app3")).build();
+		CacheKey second = CacheKey.newBuilder().add("s1").addSorted(Arrays.asList("app3", "app2", "app1")).build();
+		
+		assertEquals(first, second);
+		assertEquals(first.hashCode(), second.hashCode());
+		
+		assertEquals(Arrays.asList("app1", "app2", "app3"), first.get(1));
+	}
+	
+	@Test
+	public void testNullCollectionIsNotEmpty() {
+		
+		CacheKey nullKey = CacheKey.newBuilder().addSorted((List<String>)null).build();
+		CacheKey emptyKey = CacheKey.newBuilder().addSorted(Collections.<String>emptyList()).build();
+		
+		assertNotEquals(nullKey, emptyKey);
+		assertNull(nullKey.get(0));
+	}
+	
+	@Test
+	public void testStringsAreInterned() {
+		
+		String value = new String("deployment");
+		
+		CacheKey first = CacheKey.newBuilder().add(value).build();
+		CacheKey second = CacheKey.newBuilder().addSorted(Collections.singletonList(new String("deployment"))).build();
+		
+		assertSame(first.get(0), ((List<?>)second.get(0)).get(0));
+	}
+	
+	@Test
+	public void testTypesAreDistinct() {
+		
+		CacheKey intKey = CacheKey.newBuilder().add(1).build();
+		CacheKey longKey = CacheKey.newBuilder().add(1L).build();
+		
+		assertNotEquals(intKey, longKey);
+	}
+}
@@ -0,0 +1,126 @@
+package com.takipi.integrations.grafana.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.takipi.integrations.grafana.util.CircuitBreaker.State;
+
+public class CircuitBreakerTest {
+	
+	private static final int FAILURES = 3;
+	private static final long OPEN_INTERVAL = 50;
+	private static final long LATENCY = 1000;
+	
+	private static CircuitBreaker open() {
+		
+		CircuitBreaker result = new CircuitBreaker(FAILURES, OPEN_INTERVAL, LATENCY);
+		
+		for (int i = 0; i < FAILURES; i++) {
+			assertTrue(result.allowRequest());
+			result.onSample(0, true);
+		}
+		
+		assertEquals(State.Open, result.getState());
+		
+		return result;
+	}
+	
+	@Test
+	public void testOpensAfterConsecutiveFailures() {
+		
+		CircuitBreaker breaker = new CircuitBreaker(FAILURES, OPEN_INTERVAL, LATENCY);
+		
+		breaker.onSample(0, true);
+		breaker.onSample(0, true);
+		breaker.onSample(0, false);
+		breaker.onSample(0, true);
+		breaker.onSample(0, true);
+		
+		assertEquals(State.Closed, breaker.getState());
+		
+		breaker.onSample(LATENCY + 1, false);
+		
+		assertEquals(State.Open, breaker.getState());
+		assertEquals(1, breaker.trips.get());
+	}
+	
+	@Test
+	public void testRejectsWhileOpen() {
+		
+		CircuitBreaker breaker = open();
+		
+		assertFalse(breaker.isAvailable());
+		assertFalse(breaker.allowRequest());
+		assertEquals(1, breaker.rejected.get());
+	}
+	
+	@Test
+	public void testAvailableOnceOpenIntervalPassed() throws InterruptedException {
+		
+		CircuitBreaker breaker = open();
+		
+		Thread.sleep(OPEN_INTERVAL + 10);
+		
+		//the circuit only moves to half open once a call takes its trial
+		assertTrue(breaker.isAvailable());
+		assertEquals(State.Open, breaker.getState());
+		
+		assertTrue(breaker.allowRequest());
+		assertEquals(State.HalfOpen, breaker.getState());
+		
+		assertFalse(breaker.isAvailable());
+		assertFalse(breaker.allowRequest());
+		
+		breaker.onSample(0, false);
+		
+		assertEquals(State.Closed, breaker.getState());
+		assertTrue(breaker.isAvailable());
+	}
+	
+	@Test
+	public void testFailedTrialReopens() throws InterruptedException {
+		
+		CircuitBreaker breaker = open();
+		
+		Thread.sleep(OPEN_INTERVAL + 10);
+		
+		assertTrue(breaker.allowRequest());
+		breaker.onSample(0, true);
+		
+		assertEquals(State.Open, breaker.getState());
+		assertEquals(2, breaker.trips.get());
+		assertFalse(breaker.isAvailable());
+	}
+	
+	@Test
+	public void testCancelledTrialGoesToNextCall() throws InterruptedException {
+		
+		CircuitBreaker breaker = open();
+		
+		Thread.sleep(OPEN_INTERVAL + 10);
+		
+		assertTrue(breaker.allowRequest());
+		breaker.onCancel();
+		
+		assertTrue(breaker.isAvailable());
+		assertTrue(breaker.allowRequest());
+		assertFalse(breaker.allowRequest());
+	}
+	
+	@Test
+	public void testLateFailureDoesNotExtendOpenInterval() throws InterruptedException {
+		
+		CircuitBreaker breaker = open();
+		
+		Thread.sleep(OPEN_INTERVAL + 10);
+		
+		//a call started before the circuit opened
+		breaker.onSample(0, true);
+		
+		assertTrue(breaker.isAvailable());
+		assertEquals(1, breaker.trips.get());
+	}
+}
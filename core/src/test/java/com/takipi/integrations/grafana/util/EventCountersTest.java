@@ -0,0 +1,233 @@
+package com.takipi.integrations.grafana.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.takipi.api.client.data.event.Stats;
+import com.takipi.api.client.data.metrics.Graph;
+import com.takipi.api.client.data.metrics.Graph.GraphPoint;
+import com.takipi.api.client.data.metrics.Graph.GraphPointContributor;
+import com.takipi.api.client.result.event.EventResult;
+
+public class EventCountersTest {
+	
+	private static final long STEP = TimeUnit.MINUTES.toMillis(1);
+	private static final long START = 1546300800000L;
+	private static final int EVENTS = 12;
+	
+	private final Random random = new Random(25);
+	
+	private GraphPoint newPoint(long time) {
+		
+		GraphPoint result = new GraphPoint();
+		
+		result.time = TimeUtil.getDateTimeFromEpoch(time);
+		result.stats = new Stats();
+		result.contributors = new ArrayList<GraphPointContributor>();
+		
+		int size = random.nextInt(5);
+		
+		for (int i = 0; i < size; i++) {
+			
+			GraphPointContributor gpc = new GraphPointContributor();
+			
+			gpc.id = "e" + random.nextInt(EVENTS);
+			gpc.stats = new Stats();
+			gpc.stats.hits = random.nextInt(3);
+			gpc.stats.invocations = random.nextInt(5);
+			
+			result.contributors.add(gpc);
+		}
+		
+		return result;
+	}
+	
+	private static GraphPoint copyPoint(GraphPoint gp) {
+		
+		GraphPoint result = new GraphPoint();
+		
+		result.time = gp.time;
+		result.stats = gp.stats;
+		result.contributors = new ArrayList<GraphPointContributor>(gp.contributors);
+		
+		return result;
+	}
+	
+	private static Map<String, long[]> sum(List<GraphPoint> points, long from, long to) {
+		
+		Map<String, long[]> result = new HashMap<String, long[]>();
+		
+		for (GraphPoint gp : points) {
+			
+			long time = TimeUtil.getLongTime(gp.time);
+			
+			if ((time <= from) || (time > to)) {
+				continue;
+			}
+			
+			for (GraphPointContributor gpc : gp.contributors) {
+				
+				long[] counters = result.get(gpc.id);
+				
+				if (counters == null) {
+					counters = new long[2];
+					result.put(gpc.id, counters);
+				}
+				
+				counters[0] += gpc.stats.hits;
+				counters[1] += gpc.stats.invocations;
+			}
+		}
+		
+		result.values().removeIf(counters -> (counters[0] == 0) && (counters[1] == 0));
+		
+		return result;
+	}
+	
+	private static Set<String> getChangedIds(Map<String, long[]> previous, Map<String, long[]> current) {
+		
+		Set<String> ids = new HashSet<String>(previous.keySet());
+		ids.addAll(current.keySet());
+		
+		Set<String> result = new HashSet<String>();
+		
+		for (String id : ids) {
+			
+			long[] previousCounters = previous.getOrDefault(id, new long[2]);
+			long[] currentCounters = current.getOrDefault(id, new long[2]);
+			
+			if ((previousCounters[0] != currentCounters[0]) || (previousCounters[1] != currentCounters[1])) {
+				result.add(id);
+			}
+		}
+		
+		return result;
+	}
+	
+	private void testSliding(boolean retainPoints) {
+		
+		for (int run = 0; run < 100; run++) {
+			
+			EventCounters eventCounters = new EventCounters();
+			
+			List<GraphPoint> points = new ArrayList<GraphPoint>();
+			
+			long from = START;
+			long span = 30 * STEP;
+			
+			for (long time = from; time <= from + span; time += STEP) {
+				points.add(newPoint(time));
+			}
+			
+			Map<String, long[]> previous = new HashMap<String, long[]>();
+			
+			for (int i = 0; i < 20; i++) {
+				
+				Graph graph = new Graph();
+				graph.points = new ArrayList<GraphPoint>(points);
+				
+				Set<String> changedIds = eventCounters.update(graph, from, from + span, retainPoints);
+				Map<String, long[]> current = sum(points, from, from + span);
+				
+				assertEquals(getChangedIds(previous, current), changedIds);
+				assertEquals(current.size(), eventCounters.size());
+				
+				List<EventResult> events = new ArrayList<EventResult>();
+				
+				for (int j = 0; j < EVENTS; j++) {
+					
+					EventResult event = new EventResult();
+					
+					event.id = "e" + j;
+					event.stats = new Stats();
+					
+					events.add(event);
+				}
+				
+				eventCounters.applyTo(events);
+				
+				for (EventResult event : events) {
+					
+					long[] counters = current.getOrDefault(event.id, new long[2]);
+					
+					assertEquals(event.id, counters[0], event.stats.hits);
+					assertEquals(event.id, counters[1], event.stats.invocations);
+				}
+				
+				previous = current;
+				
+				//replace the partial last point, append a tail and slide the window over it
+				int advance = random.nextInt(4);
+				long last = TimeUtil.getLongTime(points.get(points.size() - 1).time);
+				
+				points.remove(points.size() - 1);
+				
+				for (long time = last; time <= last + advance * STEP; time += STEP) {
+					points.add(newPoint(time));
+				}
+				
+				from += advance * STEP;
+				
+				long headStart = from - STEP;
+				points.removeIf(gp -> TimeUtil.getLongTime(gp.time) <= headStart);
+				
+				//a segment fetched anew shares no points with the previous one
+				if (random.nextInt(10) == 0) {
+					
+					List<GraphPoint> copies = new ArrayList<GraphPoint>();
+					
+					for (GraphPoint gp : points) {
+						copies.add(copyPoint(gp));
+					}
+					
+					points = copies;
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void testSlidingWindow() {
+		testSliding(true);
+	}
+	
+	@Test
+	public void testSlidingWindowRecounts() {
+		testSliding(false);
+	}
+	
+	@Test
+	public void testPointsRetained() {
+		
+		List<GraphPoint> points = new ArrayList<GraphPoint>();
+		
+		for (int i = 1; i <= 3; i++) {
+			points.add(newPoint(START + i * STEP));
+		}
+		
+		Graph graph = new Graph();
+		graph.points = points;
+		
+		EventCounters eventCounters = new EventCounters();
+		
+		eventCounters.update(graph, START, START + 3 * STEP, false);
+		assertEquals(0, eventCounters.getPointCount());
+		
+		eventCounters.update(graph, START, START + 3 * STEP, true);
+		assertEquals(3, eventCounters.getPointCount());
+		
+		eventCounters.update(null, START, START + 3 * STEP, true);
+		assertEquals(0, eventCounters.getPointCount());
+		assertEquals(0, eventCounters.size());
+	}
+}
@@ -0,0 +1,284 @@
+package com.takipi.integrations.grafana.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.takipi.api.client.data.event.Stats;
+import com.takipi.api.client.data.metrics.Graph;
+import com.takipi.api.client.data.metrics.Graph.GraphPoint;
+import com.takipi.api.client.data.metrics.Graph.GraphPointContributor;
+
+public class GraphMergerTest {
+
+	private static final long STEP = TimeUnit.MINUTES.toMillis(1);
+	private static final long START = 1546300800000L;
+
+	private final Random random = new Random(21);
+
+	private static GraphPoint newPoint(int minute, long hits, long invocations, String... contributorIds) {
+
+		GraphPoint result = new GraphPoint();
+
+		result.time = TimeUtil.getDateTimeFromEpoch(START + minute * STEP);
+		result.stats = new Stats();
+		result.stats.hits = hits;
+		result.stats.invocations = invocations;
+
+		if (contributorIds.length > 0) {
+
+			result.contributors = new ArrayList<GraphPointContributor>();
+
+			for (String id : contributorIds) {
+
+				GraphPointContributor gpc = new GraphPointContributor();
+
+				gpc.id = id;
+				gpc.stats = new Stats();
+				gpc.stats.hits = 1;
+				gpc.stats.invocations = 2;
+
+				result.contributors.add(gpc);
+			}
+		}
+
+		return result;
+	}
+
+	private static Graph newGraph(String id, GraphPoint... points) {
+
+		Graph result = new Graph();
+
+		result.id = id;
+		result.points = new ArrayList<GraphPoint>(Arrays.asList(points));
+
+		return result;
+	}
+
+	private Graph newRandomGraph() {
+
+		Graph result = newGraph("g" + random.nextInt(3));
+
+		int size = random.nextInt(20);
+
+		for (int i = 0; i < size; i++) {
+
+			String[] contributorIds = new String[random.nextInt(4)];
+
+			for (int j = 0; j < contributorIds.length; j++) {
+				contributorIds[j] = "e" + random.nextInt(5);
+			}
+
+			//drawn from fewer minutes than points, so graphs hold duplicate times
+			result.points.add(newPoint(random.nextInt(15), random.nextInt(100), random.nextInt(1000), contributorIds));
+		}
+
+		if (random.nextBoolean()) {
+			result.points.sort((a, b) -> Long.compare(TimeUtil.getLongTime(a.time), TimeUtil.getLongTime(b.time)));
+		}
+
+		return result;
+	}
+
+	//the TreeMap merge GrafanaFunction.mergeGraphs ran before GraphMerger
+	private static Graph legacyMerge(List<Graph> graphs) {
+
+		Graph result = new Graph();
+		Map<Long, GraphPoint> graphPoints = new TreeMap<Long, GraphPoint>();
+
+		Set<String> ids = new HashSet<String>();
+
+		for (Graph graph : graphs) {
+
+			if (graph == null) {
+				continue;
+			}
+
+			ids.add(graph.id);
+
+			for (GraphPoint gp : graph.points) {
+
+				Long time = Long.valueOf(TimeUtil.getDateTime(gp.time).getMillis());
+				GraphPoint graphPoint = graphPoints.get(time);
+
+				if (graphPoint == null) {
+					graphPoints.put(time, gp.clone());
+				} else {
+					graphPoint.stats.hits += gp.stats.hits;
+					graphPoint.stats.invocations += gp.stats.invocations;
+
+					if ((gp.contributors != null) && (!gp.contributors.isEmpty())) {
+
+						if (graphPoint.contributors == null) {
+							graphPoint.contributors = new ArrayList<GraphPointContributor>();
+						}
+
+						for (GraphPointContributor contributor : gp.contributors) {
+							graphPoint.contributors.add(contributor.clone());
+						}
+					}
+				}
+			}
+		}
+
+		result.id = (ids.size() == 1) ? ids.iterator().next() : "(" + String.join("|", ids) + ")";
+		result.points = new ArrayList<GraphPoint>(graphPoints.values());
+
+		return result;
+	}
+
+	//the points of a graph with the total of each contributor id, as every reader of contributors sums them
+	private static String describe(Graph graph) {
+
+		StringBuilder result = new StringBuilder(graph.id).append('\n');
+
+		for (GraphPoint gp : graph.points) {
+
+			result.append(TimeUtil.getLongTime(gp.time)).append(' ')
+				.append(gp.stats.hits).append('/').append(gp.stats.invocations);
+
+			Map<String, long[]> contributors = new TreeMap<String, long[]>();
+
+			if (gp.contributors != null) {
+
+				for (GraphPointContributor gpc : gp.contributors) {
+
+					long[] counters = contributors.computeIfAbsent(gpc.id, id -> new long[2]);
+
+					counters[0] += gpc.stats.hits;
+					counters[1] += gpc.stats.invocations;
+				}
+			}
+
+			for (Map.Entry<String, long[]> entry : contributors.entrySet()) {
+				result.append(' ').append(entry.getKey()).append('=')
+					.append(entry.getValue()[0]).append('/').append(entry.getValue()[1]);
+			}
+
+			result.append('\n');
+		}
+
+		return result.toString();
+	}
+
+	@Test
+	public void testMatchesTreeMapMerge() {
+
+		for (int i = 0; i < 500; i++) {
+
+			List<Graph> graphs = new ArrayList<Graph>();
+
+			int size = 2 + random.nextInt(6);
+
+			for (int j = 0; j < size; j++) {
+
+				if (random.nextInt(10) == 0) {
+					graphs.add(null);
+				} else {
+					graphs.add(newRandomGraph());
+				}
+			}
+
+			assertEquals(describe(legacyMerge(graphs)), describe(GraphMerger.merge(graphs)));
+		}
+	}
+
+	@Test
+	public void testUnsortedGraphs() {
+
+		Graph first = newGraph("g", newPoint(3, 1, 10), newPoint(1, 2, 20), newPoint(2, 3, 30));
+		Graph second = newGraph("g", newPoint(2, 4, 40), newPoint(0, 5, 50));
+
+		Graph result = GraphMerger.merge(Arrays.asList(first, second));
+
+		assertEquals(4, result.points.size());
+
+		for (int i = 0; i < 4; i++) {
+			assertEquals(START + i * STEP, TimeUtil.getLongTime(result.points.get(i).time));
+		}
+
+		assertEquals(5, result.points.get(0).stats.hits);
+		assertEquals(2, result.points.get(1).stats.hits);
+		assertEquals(7, result.points.get(2).stats.hits);
+		assertEquals(70, result.points.get(2).stats.invocations);
+		assertEquals(1, result.points.get(3).stats.hits);
+	}
+
+	@Test
+	public void testDuplicateTimesAreSummed() {
+
+		Graph first = newGraph("g", newPoint(1, 1, 10), newPoint(1, 2, 20));
+		Graph second = newGraph("g", newPoint(1, 4, 40));
+
+		Graph result = GraphMerger.merge(Arrays.asList(first, second));
+
+		assertEquals(1, result.points.size());
+		assertEquals(7, result.points.get(0).stats.hits);
+		assertEquals(70, result.points.get(0).stats.invocations);
+	}
+
+	@Test
+	public void testNullStatsCountAsZero() {
+
+		GraphPoint empty = newPoint(1, 0, 0, "e1");
+
+		empty.stats = null;
+		empty.contributors.get(0).stats = null;
+
+		Graph first = newGraph("g", empty);
+		Graph second = newGraph("g", newPoint(1, 3, 30, "e1"));
+
+		Graph result = GraphMerger.merge(Arrays.asList(first, second));
+
+		GraphPoint gp = result.points.get(0);
+
+		assertEquals(3, gp.stats.hits);
+		assertEquals(30, gp.stats.invocations);
+
+		assertEquals(1, gp.contributors.size());
+		assertEquals(1, gp.contributors.get(0).stats.hits);
+		assertEquals(2, gp.contributors.get(0).stats.invocations);
+	}
+
+	@Test
+	public void testContributorTotals() {
+
+		Graph first = newGraph("g", newPoint(1, 1, 1, "e1", "e2", "e1"));
+		Graph second = newGraph("g", newPoint(1, 1, 1, "e2", "e3"));
+
+		Graph result = GraphMerger.merge(Arrays.asList(first, second));
+
+		Map<String, Long> hits = new TreeMap<String, Long>();
+
+		for (GraphPointContributor gpc : result.points.get(0).contributors) {
+			assertNull(hits.put(gpc.id, Long.valueOf(gpc.stats.hits)));
+		}
+
+		assertEquals(Long.valueOf(2), hits.get("e1"));
+		assertEquals(Long.valueOf(2), hits.get("e2"));
+		assertEquals(Long.valueOf(1), hits.get("e3"));
+		assertEquals(3, hits.size());
+	}
+
+	@Test
+	public void testSingleAndNoGraphs() {
+
+		Graph graph = newGraph("g", newPoint(1, 1, 1));
+
+		assertSame(graph, GraphMerger.merge(Collections.singletonList(graph)));
+		assertNull(GraphMerger.merge(Collections.<Graph>emptyList()));
+	}
+}
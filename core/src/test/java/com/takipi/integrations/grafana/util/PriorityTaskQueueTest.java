@@ -0,0 +1,134 @@
+package com.takipi.integrations.grafana.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class PriorityTaskQueueTest {
+
+	private static final Runnable NOOP = () -> {};
+
+	@Test
+	public void testClassesAreServedInStrictOrder() {
+
+		PriorityTaskQueue queue = new PriorityTaskQueue();
+
+		PriorityTask background = new PriorityTask(NOOP, TaskPriority.Background);
+		PriorityTask report = new PriorityTask(NOOP, TaskPriority.Report);
+		PriorityTask interactive = new PriorityTask(NOOP, TaskPriority.Interactive);
+		PriorityTask metadata = new PriorityTask(NOOP, TaskPriority.Metadata);
+
+		queue.add(background);
+		queue.add(report);
+		queue.add(interactive);
+		queue.add(metadata);
+
+		assertSame(metadata, queue.poll());
+		assertSame(interactive, queue.poll());
+		assertSame(report, queue.poll());
+		assertSame(background, queue.poll());
+		assertNull(queue.poll());
+	}
+
+	@Test
+	public void testClassIsFifo() {
+
+		PriorityTaskQueue queue = new PriorityTaskQueue();
+
+		PriorityTask first = new PriorityTask(NOOP, TaskPriority.Report);
+		PriorityTask second = new PriorityTask(NOOP, TaskPriority.Report);
+
+		queue.add(first);
+		queue.add(second);
+
+		assertSame(first, queue.poll());
+		assertSame(second, queue.poll());
+	}
+
+	@Test
+	public void testDirectTasksGoFirst() {
+
+		PriorityTaskQueue queue = new PriorityTaskQueue();
+
+		Runnable direct = () -> {};
+		PriorityTask metadata = new PriorityTask(NOOP, TaskPriority.Metadata);
+
+		queue.add(metadata);
+		queue.add(direct);
+
+		assertSame(direct, queue.poll());
+		assertSame(metadata, queue.poll());
+	}
+
+	@Test
+	public void testAgedBacklogTakesCappedShare() {
+
+		PriorityTaskQueue queue = new PriorityTaskQueue();
+
+		long longAgo = System.nanoTime() - TimeUnit.MINUTES.toNanos(10);
+
+		for (int i = 0; i < 100; i++) {
+			queue.add(new PriorityTask(NOOP, TaskPriority.Report, longAgo));
+		}
+
+		for (int i = 0; i < 12; i++) {
+			queue.add(new PriorityTask(NOOP, TaskPriority.Metadata));
+		}
+
+		int metadata = 0;
+
+		for (int i = 0; i < 16; i++) {
+
+			PriorityTask task = (PriorityTask)queue.poll();
+
+			if (task.getPriority() == TaskPriority.Metadata) {
+				metadata++;
+			}
+		}
+
+		//the aged reports get one turn in four, however old they are
+		assertEquals(12, metadata);
+		assertEquals(96, queue.size());
+	}
+
+	@Test
+	public void testFreshLowerClassIsNotPromoted() {
+
+		PriorityTaskQueue queue = new PriorityTaskQueue();
+
+		queue.add(new PriorityTask(NOOP, TaskPriority.Background));
+
+		for (int i = 0; i < 8; i++) {
+			queue.add(new PriorityTask(NOOP, TaskPriority.Interactive));
+		}
+
+		for (int i = 0; i < 8; i++) {
+			assertEquals(TaskPriority.Interactive, ((PriorityTask)queue.poll()).getPriority());
+		}
+
+		assertEquals(TaskPriority.Background, ((PriorityTask)queue.poll()).getPriority());
+	}
+
+	@Test
+	public void testRemove() {
+
+		PriorityTaskQueue queue = new PriorityTaskQueue();
+
+		PriorityTask report = new PriorityTask(NOOP, TaskPriority.Report);
+
+		queue.add(report);
+		queue.add(NOOP);
+
+		assertEquals(2, queue.size());
+
+		queue.remove(report);
+
+		assertEquals(1, queue.size());
+		assertSame(NOOP, queue.poll());
+		assertNull(queue.poll());
+	}
+}
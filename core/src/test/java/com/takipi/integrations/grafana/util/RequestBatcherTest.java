@@ -0,0 +1,98 @@
+package com.takipi.integrations.grafana.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class RequestBatcherTest {
+	
+	private static List<String> newApps(int count) {
+		
+		List<String> result = new ArrayList<String>();
+		
+		for (int i = 0; i < count; i++) {
+			result.add("app" + i);
+		}
+		
+		return result;
+	}
+	
+	@Test
+	public void testBatchesCutRequests() {
+		
+		AtomicInteger requests = new AtomicInteger();
+		
+		RequestBatcher<String, Integer> batcher = new RequestBatcher<String, Integer>(10, keys -> {
+			
+			requests.incrementAndGet();
+			
+			Map<String, Integer> result = new HashMap<String, Integer>();
+			
+			for (String key : keys) {
+				result.put(key, Integer.valueOf(key.length()));
+			}
+			
+			return result;
+		});
+		
+		List<String> apps = newApps(25);
+		Map<String, Integer> values = new HashMap<String, Integer>();
+		
+		for (List<String> batch : batcher.getBatches(apps)) {
+			values.putAll(batcher.load(batch));
+		}
+		
+		//25 apps are loaded by 3 requests rather than one each
+		assertEquals(3, requests.get());
+		assertEquals(25, values.size());
+		
+		for (String app : apps) {
+			assertEquals(Integer.valueOf(app.length()), values.get(app));
+		}
+	}
+	
+	@Test
+	public void testBatchesKeepOrder() {
+		
+		RequestBatcher<String, Integer> batcher = new RequestBatcher<String, Integer>(2, keys -> null);
+		
+		List<List<String>> batches = batcher.getBatches(Arrays.asList("a", "b", "c", "d", "e"));
+		
+		assertEquals(Arrays.asList(Arrays.asList("a", "b"), Arrays.asList("c", "d"), Arrays.asList("e")), batches);
+		assertTrue(batcher.getBatches(new ArrayList<String>()).isEmpty());
+	}
+	
+	@Test
+	public void testResultIsSplitToBatchKeys() {
+		
+		RequestBatcher<String, Integer> batcher = new RequestBatcher<String, Integer>(10, keys -> {
+			
+			Map<String, Integer> result = new HashMap<String, Integer>();
+			
+			result.put("b", Integer.valueOf(2));
+			result.put("other", Integer.valueOf(3));
+			
+			return result;
+		});
+		
+		Map<String, Integer> values = batcher.load(Arrays.asList("a", "b"));
+		
+		assertEquals(1, values.size());
+		assertEquals(Integer.valueOf(2), values.get("b"));
+		
+		assertTrue(new RequestBatcher<String, Integer>(10, keys -> null).load(Arrays.asList("a")).isEmpty());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidBatchSize() {
+		new RequestBatcher<String, Integer>(0, keys -> null);
+	}
+}
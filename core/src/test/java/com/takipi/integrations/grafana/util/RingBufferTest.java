@@ -0,0 +1,103 @@
+package com.takipi.integrations.grafana.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class RingBufferTest {
+	
+	@Test
+	public void testSnapshotIsOldestFirst() {
+		
+		RingBuffer<String> buffer = new RingBuffer<String>(4);
+		
+		buffer.add("a");
+		buffer.add("b");
+		buffer.add("c");
+		
+		assertEquals(3, buffer.size());
+		assertEquals(Arrays.asList("a", "b", "c"), buffer.snapshot());
+	}
+	
+	@Test
+	public void testOldestItemsAreOverwritten() {
+		
+		RingBuffer<String> buffer = new RingBuffer<String>(4);
+		
+		for (int i = 0; i < 10; i++) {
+			buffer.add("item" + i);
+		}
+		
+		assertEquals(4, buffer.size());
+		assertEquals(Arrays.asList("item6", "item7", "item8", "item9"), buffer.snapshot());
+	}
+	
+	@Test
+	public void testCapacityIsRoundedUp() {
+		
+		RingBuffer<Integer> buffer = new RingBuffer<Integer>(5);
+		
+		for (int i = 0; i < 20; i++) {
+			buffer.add(Integer.valueOf(i));
+		}
+		
+		assertEquals(8, buffer.size());
+		assertEquals(Integer.valueOf(12), buffer.snapshot().get(0));
+	}
+	
+	@Test
+	public void testEmpty() {
+		
+		RingBuffer<String> buffer = new RingBuffer<String>(1);
+		
+		assertEquals(0, buffer.size());
+		assertEquals(Collections.emptyList(), buffer.snapshot());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidCapacity() {
+		new RingBuffer<String>(0);
+	}
+	
+	@Test
+	public void testConcurrentWriters() throws InterruptedException {
+		
+		int writers = 4;
+		int items = 10000;
+		
+		RingBuffer<String> buffer = new RingBuffer<String>(64);
+		List<Thread> threads = new ArrayList<Thread>();
+		
+		for (int i = 0; i < writers; i++) {
+			
+			String prefix = "w" + i + ":";
+			
+			Thread thread = new Thread(() -> {
+				for (int j = 0; j < items; j++) {
+					buffer.add(prefix + j);
+				}
+			});
+			
+			threads.add(thread);
+			thread.start();
+		}
+		
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		
+		List<String> snapshot = buffer.snapshot();
+		Set<String> distinct = new HashSet<String>(snapshot);
+		
+		assertEquals(64, buffer.size());
+		assertEquals(64, snapshot.size());
+		assertEquals(64, distinct.size());
+	}
+}
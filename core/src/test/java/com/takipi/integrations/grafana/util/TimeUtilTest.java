@@ -0,0 +1,98 @@
+package com.takipi.integrations.grafana.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+import org.junit.Test;
+
+public class TimeUtilTest {
+	
+	private static final DateTimeFormatter parser = ISODateTimeFormat.dateTimeParser().withZoneUTC();
+	
+	private static final DateTimeZone[] zones = new DateTimeZone[] {
+		DateTimeZone.UTC,
+		DateTimeZone.forOffsetHours(2),
+		DateTimeZone.forOffsetHoursMinutes(-5, -30),
+		DateTimeZone.forOffsetHoursMinutes(5, 45),
+		DateTimeZone.forID("America/New_York"),
+		DateTimeZone.forID("Asia/Jerusalem")
+	};
+	
+	private static void assertParsed(String value) {
+		assertEquals(value, parser.parseMillis(value), TimeUtil.parseEpoch(value));
+	}
+	
+	@Test
+	public void testRandomTimes() {
+		
+		Random random = new Random(22);
+		
+		DateTimeFormatter formatter = ISODateTimeFormat.dateTime();
+		
+		for (int i = 0; i < 100000; i++) {
+			
+			//1970 - 2100
+			long epoch = (long)(random.nextDouble() * 4102444800000L);
+			DateTimeZone zone = zones[random.nextInt(zones.length)];
+			
+			String value = new DateTime(epoch, zone).toString(formatter);
+			
+			assertParsed(value);
+			assertEquals(value, epoch, TimeUtil.parseEpoch(value));
+		}
+	}
+	
+	@Test
+	public void testGraphPointTimes() {
+		
+		Random random = new Random(7);
+		
+		for (int i = 0; i < 10000; i++) {
+			
+			long epoch = 1546300800000L + random.nextInt(Integer.MAX_VALUE) * 1000L;
+			String value = TimeUtil.getDateTimeFromEpoch(epoch);
+			
+			assertEquals(value, epoch, TimeUtil.parseEpoch(value));
+		}
+	}
+	
+	@Test
+	public void testBoundaries() {
+		
+		assertParsed("1970-01-01T00:00:00.000Z");
+		assertParsed("2016-02-29T23:59:59.999Z");
+		assertParsed("2000-02-29T12:00:00.000+00:00");
+		assertParsed("2019-12-31T23:59:59.999-12:00");
+		assertParsed("2019-01-01T00:00:00.000+14:00");
+	}
+	
+	@Test
+	public void testLenientForms() {
+		
+		//forms the fast path leaves to the Joda parser
+		assertParsed("2019-01-01T10:00:00Z");
+		assertParsed("2019-01-01T10:00:00.5Z");
+		assertParsed("2019-01-01T10:00Z");
+		assertParsed("2019-01-01T10:00:00.000+0200");
+		assertParsed("2019-01-01T10:00:00.000");
+		assertParsed("2019-01-01");
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidTime() {
+		TimeUtil.parseEpoch("2019-02-30T10:00:00.000Z");
+	}
+	
+	@Test
+	public void testGetDateTime() {
+		
+		String value = "2019-01-01T12:00:00.000+02:00";
+		
+		assertEquals(new DateTime(parser.parseMillis(value), DateTimeZone.UTC), TimeUtil.getDateTime(value));
+	}
+}
@@ -0,0 +1,52 @@
+package com.takipi.integrations.grafana.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TokenBucketTest {
+	
+	@Test
+	public void testBurstIsFree() {
+		
+		TokenBucket bucket = new TokenBucket(1, 5);
+		
+		for (int i = 0; i < 5; i++) {
+			assertEquals(0, bucket.reserve(0));
+		}
+	}
+	
+	@Test
+	public void testDebtIsSpreadByRate() {
+		
+		TokenBucket bucket = new TokenBucket(10, 1);
+		
+		assertEquals(0, bucket.reserve(0));
+		
+		long first = bucket.reserve(1000);
+		long second = bucket.reserve(1000);
+		
+		//at 10 tokens / sec each reservation in debt waits about 100ms longer than the previous one
+		assertTrue(String.valueOf(first), (first > 0) && (first <= 100));
+		assertTrue(String.valueOf(second), (second > first) && (second <= 200));
+	}
+	
+	@Test
+	public void testRejectedReservationTakesNoToken() {
+		
+		TokenBucket bucket = new TokenBucket(1, 1);
+		
+		assertEquals(0, bucket.reserve(0));
+		
+		double available = bucket.getAvailable();
+		
+		assertEquals(-1, bucket.reserve(10));
+		assertEquals(available, bucket.getAvailable(), 0.01);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidRate() {
+		new TokenBucket(0, 1);
+	}
+}
@@ -0,0 +1,50 @@
+package com.takipi.integrations.grafana.servlet;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.takipi.integrations.grafana.util.GrafanaMetrics;
+
+@WebServlet(name="MetricsServlet", urlPatterns="/metrics")
+public class MetricsServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 4380571046553165247L;
+
+	private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	private boolean disabled = false;
+
+	@Override
+	public void init() throws ServletException {
+		super.init();
+
+		String disabledStr = ServletUtil.getConfigParam(this, "disabled");
+
+		if (disabledStr != null) {
+			disabled = Boolean.parseBoolean(disabledStr);
+		}
+	}
+
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+		if (disabled) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+
+		response.setContentType(CONTENT_TYPE);
+
+		Writer writer = response.getWriter();
+
+		GrafanaMetrics.write(writer);
+
+		writer.flush();
+	}
+}
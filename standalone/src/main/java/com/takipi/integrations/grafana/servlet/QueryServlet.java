@@ -1,8 +1,18 @@
 package com.takipi.integrations.grafana.servlet;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.text.DecimalFormat;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -13,19 +23,26 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.takipi.integrations.grafana.servlet.ServletUtil.Auth;
+import com.takipi.integrations.grafana.util.BoundedPrefixWriter;
+import com.takipi.integrations.grafana.util.QueryContext;
 import com.takipi.integrations.grafana.util.QueryUtil;
 
-@WebServlet(name="QueryServlet", urlPatterns="/query")
+@WebServlet(name="QueryServlet", urlPatterns="/query", asyncSupported=true)
 public class QueryServlet extends HttpServlet {
 	private static final Logger logger = LoggerFactory.getLogger(QueryServlet.class);
 
 	private static final long serialVersionUID = -8413366001016047591L;
 
 	private static final DecimalFormat df = new DecimalFormat("#.00");
+	
+	private static final int MAX_LOGGED_RESPONSE = 1000;
+	private static final int GZIP_BUFFER_SIZE = 8192;
 
 	private boolean logQuery = false;
 	private boolean logResponse = false;
 	private boolean disabled = false;
+	private boolean async = true;
+	private long queryTimeout = 0;
 
 	@Override
 	public void init() throws ServletException {
@@ -48,6 +65,22 @@ public class QueryServlet extends HttpServlet {
 		if (disabledStr != null) {
 			disabled = Boolean.parseBoolean(disabledStr);
 		}
+		
+		String asyncStr = ServletUtil.getConfigParam(this, "async");
+
+		if (asyncStr != null) {
+			async = Boolean.parseBoolean(asyncStr);
+		}
+		
+		String queryTimeoutStr = ServletUtil.getConfigParam(this, "queryTimeout");
+
+		if (queryTimeoutStr != null) {
+			try {
+				queryTimeout = TimeUnit.SECONDS.toMillis(Long.parseLong(queryTimeoutStr));
+			} catch (NumberFormatException e) {
+				logger.error("OO-AS-INFLUX | Invalid queryTimeout {}", queryTimeoutStr);
+			}
+		}
 	}
 
 	@Override
@@ -69,21 +102,162 @@ public class QueryServlet extends HttpServlet {
 		
 		long t1 = System.currentTimeMillis();
 		
-		String json = QueryUtil.query(auth, query);
+		// needed so emoji chars properly encoded when returned by query
+		response.setCharacterEncoding("UTF-8");
+		
+		GZIPOutputStream gzipOutputStream = null;
+		Writer writer;
+		
+		if (acceptsGzip(request)) {
+			response.setHeader("Content-Encoding", "gzip");
+			response.setHeader("Vary", "Accept-Encoding");
+			
+			//sync flush, so each statement of an async query reaches the client once it's written
+			gzipOutputStream = new GZIPOutputStream(response.getOutputStream(), GZIP_BUFFER_SIZE, true);
+			writer = new BufferedWriter(new OutputStreamWriter(gzipOutputStream, StandardCharsets.UTF_8));
+		} else {
+			writer = response.getWriter();
+		}
+		
+		BoundedPrefixWriter prefixWriter = null;
+		
+		if (logResponse) {
+			prefixWriter = new BoundedPrefixWriter(writer, MAX_LOGGED_RESPONSE);
+			writer = prefixWriter;
+		}
+		
+		if ((async) && (request.isAsyncSupported())) {
+			queryAsync(request, response, auth, query, writer, gzipOutputStream, prefixWriter, t1);
+			return;
+		}
+		
+		try {
+			QueryUtil.query(auth, query, writer);
+		} catch (RuntimeException e) {
+			resetResponse(response);
+			throw e;
+		}
+		
+		finish(writer, gzipOutputStream, prefixWriter, t1);
+	}
+	
+	/**
+	 * Releases the container thread while the query is processed by the function executor -
+	 * the response is written and completed by the thread that completes the query. Tasks of
+	 * the query still queued when its deadline passes are dropped.
+	 * 
+	 * The result of each statement is written and flushed as it completes, in statement order. A
+	 * client going away fails the next of these writes, which cancels the query so its statements
+	 * still queued are dropped - see QueryUtil.queryAsync. The container itself doesn't report a
+	 * disconnect of an idle async request, so statements already running complete.
+	 */
+	private void queryAsync(HttpServletRequest request, HttpServletResponse response,
+		Auth auth, String query, Writer writer, GZIPOutputStream gzipOutputStream, 
+		BoundedPrefixWriter prefixWriter, long t1) {
+		
+		QueryContext queryContext = QueryContext.create(ServletUtil.getQueryTimeout(request, queryTimeout));
+		AsyncContext asyncContext = request.startAsync();
+		
+		// the query's own deadline applies, rather than the container's default async timeout
+		asyncContext.setTimeout(0);
+		asyncContext.addListener(new ErrorListener(queryContext));
+		
+		CompletableFuture<Void> future;
+		
+		try {
+			future = QueryUtil.queryAsync(auth, query, writer, queryContext);
+		} catch (RuntimeException e) {
+			future = new CompletableFuture<Void>();
+			future.completeExceptionally(e);
+		}
+		
+		future.whenComplete((result, e) -> {
+			
+			try {
+				if (e != null) {
+					logger.error("OO-AS-INFLUX | Query failed: " + query, e);
+					
+					if (!response.isCommitted()) {
+						resetResponse(response);
+						response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+					}
+				} else {
+					finish(writer, gzipOutputStream, prefixWriter, t1);
+				}
+			} catch (Exception ex) {
+				logger.error("OO-AS-INFLUX | Could not write query response", ex);
+			} finally {
+				asyncContext.complete();
+			}
+		});
+	}
+	
+	/**
+	 * Cancels the query if the container fails its async request - e.g. on shutdown. A disconnect
+	 * isn't reported through it - a failed write of a statement's result cancels the query instead.
+	 */
+	private static class ErrorListener implements AsyncListener {
+		
+		private final QueryContext queryContext;
+		
+		protected ErrorListener(QueryContext queryContext) {
+			this.queryContext = queryContext;
+		}
+		
+		@Override
+		public void onError(AsyncEvent event) {
+			queryContext.cancel();
+		}
+		
+		@Override
+		public void onTimeout(AsyncEvent event) {
+		}
+		
+		@Override
+		public void onComplete(AsyncEvent event) {
+		}
+		
+		@Override
+		public void onStartAsync(AsyncEvent event) {
+		}
+	}
+	
+	private void finish(Writer writer, GZIPOutputStream gzipOutputStream, 
+		BoundedPrefixWriter prefixWriter, long t1) throws IOException {
+		
+		writer.flush();
+		
+		if (gzipOutputStream != null) {
+			gzipOutputStream.finish();
+		}
 
 		long t2 = System.currentTimeMillis();
 		
 		double secs = (double) (t2 - t1) / 1000;
 
-		if (logResponse) {
+		if (prefixWriter != null) {
 			logger.info("OO-AS-INFLUX | Query ended {} ", 
-					df.format(secs) + " secs: " + json.substring(0, Math.min(1000, json.length())));
+					df.format(secs) + " secs, " + prefixWriter.getLength() + " chars: " + prefixWriter.getPrefix());
 		}
-
-		// needed so emoji chars properly encoded when returned by query
-		response.setCharacterEncoding("UTF-8");
+	}
+	
+	/**
+	 * Drops the headers and the buffered part of a failed query's body, so that the error sent in
+	 * its place isn't declared as gzip encoded - sendError alone keeps the headers, and the
+	 * container ignores a header set to null. Has no effect once the response is committed.
+	 */
+	private static void resetResponse(HttpServletResponse response) {
+		
+		if (!response.isCommitted()) {
+			response.reset();
+		}
+	}
+	
+	private static boolean acceptsGzip(HttpServletRequest request) {
+		
+		String acceptEncoding = request.getHeader("Accept-Encoding");
 		
-		response.getWriter().append(json);
+		return (acceptEncoding != null) && (acceptEncoding.toLowerCase().contains("gzip"));
 	}
 
 	@Override